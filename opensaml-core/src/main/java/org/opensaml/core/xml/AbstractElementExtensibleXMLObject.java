@@ -24,18 +24,23 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.xml.namespace.QName;
 
+import org.opensaml.core.xml.util.DeferredXMLObjectChildren;
 import org.opensaml.core.xml.util.IndexedXMLObjectChildrenList;
+import org.w3c.dom.Element;
 
 /**
  * AbstractElementExtensible is an element of type <code>xs:any</code>, but without <code>xs:anyAttribute</code>
  * attribute or text content.
  */
 public abstract class AbstractElementExtensibleXMLObject extends AbstractXMLObject implements
-        ElementExtensibleXMLObject {
+        ElementExtensibleXMLObject, DeferredChildrenBearing {
 
     /** xs:any {@link XMLObject} child elements. */
     @Nonnull private final IndexedXMLObjectChildrenList<XMLObject> anyXMLObjects;
 
+    /** Child elements whose unmarshalling has been deferred. */
+    @Nonnull private final DeferredXMLObjectChildren deferredChildren;
+
     /**
      * Constructor.
      * 
@@ -47,20 +52,35 @@ public abstract class AbstractElementExtensibleXMLObject extends AbstractXMLObje
             @Nonnull final String elementLocalName, @Nullable final String namespacePrefix) {
         super(namespaceURI, elementLocalName, namespacePrefix);
         anyXMLObjects = new IndexedXMLObjectChildrenList<>(this);
+        deferredChildren = new DeferredXMLObjectChildren(this);
     }
 
     /** {@inheritDoc} */
     @Nullable public List<XMLObject> getOrderedChildren() {
+        deferredChildren.resolve(anyXMLObjects);
         return Collections.unmodifiableList(anyXMLObjects);
     }
 
     /** {@inheritDoc} */
     @Nonnull public List<XMLObject> getUnknownXMLObjects() {
+        deferredChildren.resolve(anyXMLObjects);
         return anyXMLObjects;
     }
 
     /** {@inheritDoc} */
     @Nonnull public List<XMLObject> getUnknownXMLObjects(@Nonnull final QName typeOrName) {
+        deferredChildren.resolve(anyXMLObjects);
         return (List<XMLObject>) anyXMLObjects.subList(typeOrName);
     }
+
+    /** {@inheritDoc} */
+    public void deferChildElements(@Nonnull final Element domElement) {
+        deferredChildren.defer(domElement);
+    }
+
+    /** {@inheritDoc} */
+    public void releaseDOM() {
+        deferredChildren.resolve(anyXMLObjects);
+        super.releaseDOM();
+    }
 }
\ No newline at end of file
@@ -20,9 +20,8 @@ package org.opensaml.core.xml;
 import javax.annotation.Nonnull;
 import javax.xml.namespace.QName;
 
-import net.shibboleth.utilities.java.support.xml.QNameSupport;
-
 import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.core.xml.util.QNameCache;
 import org.w3c.dom.Attr;
 
 /**
@@ -45,8 +44,7 @@ public abstract class AbstractExtensibleXMLObjectUnmarshaller extends AbstractEl
     protected void processAttribute(@Nonnull final XMLObject xmlObject, @Nonnull final Attr attribute)
             throws UnmarshallingException {
         AttributeExtensibleXMLObject anyAttribute = (AttributeExtensibleXMLObject) xmlObject;
-        QName attribQName = QNameSupport.constructQName(attribute.getNamespaceURI(), attribute.getLocalName(), attribute
-                .getPrefix());
+        QName attribQName = QNameCache.getNodeQName(attribute);
         if (attribute.isId()) {
             anyAttribute.getUnknownAttributes().registerID(attribQName);
         }
@@ -34,6 +34,7 @@ import net.shibboleth.utilities.java.support.xml.XMLConstants;
 
 import org.opensaml.core.xml.schema.XSBooleanValue;
 import org.opensaml.core.xml.util.IDIndex;
+import org.opensaml.core.xml.util.QNameCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Element;
@@ -67,17 +68,24 @@ public abstract class AbstractXMLObject implements XMLObject {
     /** The value of the <code>xsi:nil</code> attribute. */
     private  XSBooleanValue nil;
     
-    /** The namespace manager for this XML object. */
-    private NamespaceManager nsManager;
+    /**
+     * The namespace manager for this XML object. Created on first use, as the namespaces of the element name and
+     * type can be derived from the object itself until then.
+     */
+    @Nullable private volatile NamespaceManager nsManager;
     
-    /** The multimap holding class-indexed instances of additional info associated with this XML object. */
-    @Nonnull private final LockableClassToInstanceMultiMap<Object> objectMetadata;
+    /**
+     * The multimap holding class-indexed instances of additional info associated with this XML object. Created on
+     * first use, since most objects never carry any.
+     */
+    @Nullable private volatile LockableClassToInstanceMultiMap<Object> objectMetadata;
 
     /**
      * Mapping of ID attributes to XMLObjects in the subtree rooted at this object. This allows constant-time
-     * dereferencing of ID-typed attributes within the subtree.
+     * dereferencing of ID-typed attributes within the subtree. Created on first use, since most subtrees carry no
+     * IDs.
      */
-    private final IDIndex idIndex;
+    @Nullable private volatile IDIndex idIndex;
 
     /**
      * Constructor.
@@ -88,13 +96,10 @@ public abstract class AbstractXMLObject implements XMLObject {
      */
     protected AbstractXMLObject(@Nullable final String namespaceURI, @Nonnull @NotEmpty final String elementLocalName,
             @Nullable final String namespacePrefix) {
-        nsManager = new NamespaceManager(this);
-        idIndex = new IDIndex(this);
-        elementQname = QNameSupport.constructQName(namespaceURI, elementLocalName, namespacePrefix);
+        elementQname = QNameCache.getQName(namespaceURI, elementLocalName, namespacePrefix);
         if(namespaceURI != null){
             setElementNamespacePrefix(namespacePrefix);
         }
-        objectMetadata = new LockableClassToInstanceMultiMap<>(true);
     }
 
     /** {@inheritDoc} */
@@ -115,12 +120,43 @@ public abstract class AbstractXMLObject implements XMLObject {
 
     /** {@inheritDoc} */
     @Nonnull public IDIndex getIDIndex() {
-        return idIndex;
+        IDIndex index = idIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = idIndex;
+                if (index == null) {
+                    index = new IDIndex(this);
+                    idIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Get whether the subtree rooted at this object has any ID-to-XMLObject mappings, without creating its
+     * {@link IDIndex} if it has not been used.
+     * 
+     * @return true iff the ID index of this object holds any mappings
+     */
+    public boolean hasIDMappings() {
+        final IDIndex index = idIndex;
+        return index != null && !index.isEmpty();
     }
     
     /** {@inheritDoc} */
     @Nonnull public NamespaceManager getNamespaceManager() {
-        return nsManager;
+        NamespaceManager manager = nsManager;
+        if (manager == null) {
+            synchronized (this) {
+                manager = nsManager;
+                if (manager == null) {
+                    manager = new NamespaceManager(this);
+                    nsManager = manager;
+                }
+            }
+        }
+        return manager;
     }
 
     /** {@inheritDoc} */
@@ -345,7 +381,9 @@ public abstract class AbstractXMLObject implements XMLObject {
             if (newValue != null) {
                 releaseThisandParentDOM();
                 newValue.setParent(this);
-                idIndex.registerIDMappings(newValue.getIDIndex());
+                if (IDIndex.hasIDMappings(newValue)) {
+                    getIDIndex().registerIDMappings(newValue.getIDIndex());
+                }
                 return newValue;
 
             } else {
@@ -356,10 +394,14 @@ public abstract class AbstractXMLObject implements XMLObject {
         if (!oldValue.equals(newValue)) {
             oldValue.setParent(null);
             releaseThisandParentDOM();
-            idIndex.deregisterIDMappings(oldValue.getIDIndex());
+            if (IDIndex.hasIDMappings(oldValue)) {
+                getIDIndex().deregisterIDMappings(oldValue.getIDIndex());
+            }
             if (newValue != null) {
                 newValue.setParent(this);
-                idIndex.registerIDMappings(newValue.getIDIndex());
+                if (IDIndex.hasIDMappings(newValue)) {
+                    getIDIndex().registerIDMappings(newValue.getIDIndex());
+                }
             }
         }
 
@@ -379,11 +421,11 @@ public abstract class AbstractXMLObject implements XMLObject {
 
         if (!Objects.equals(oldID, newString)) {
             if (oldID != null) {
-                idIndex.deregisterIDMapping(oldID);
+                getIDIndex().deregisterIDMapping(oldID);
             }
 
             if (newString != null) {
-                idIndex.registerIDMapping(newString, this);
+                getIDIndex().registerIDMapping(newString, this);
             }
         }
     }
@@ -447,7 +489,8 @@ public abstract class AbstractXMLObject implements XMLObject {
 
     /** {@inheritDoc} */
     @Nullable public XMLObject resolveID(@Nonnull @NotEmpty final String id) {
-        return idIndex.lookup(id);
+        final IDIndex index = idIndex;
+        return index != null ? index.lookup(id) : null;
     }
 
     /** {@inheritDoc} */
@@ -470,12 +513,11 @@ public abstract class AbstractXMLObject implements XMLObject {
      * @param prefix the prefix for this element's namespace
      */
     public void setElementNamespacePrefix(@Nullable final String prefix) {
-        if (prefix == null) {
-            elementQname = new QName(elementQname.getNamespaceURI(), elementQname.getLocalPart());
-        } else {
-            elementQname = new QName(elementQname.getNamespaceURI(), elementQname.getLocalPart(), prefix);
+        elementQname = QNameCache.getQName(elementQname.getNamespaceURI(), elementQname.getLocalPart(), prefix);
+        final NamespaceManager manager = nsManager;
+        if (manager != null) {
+            manager.registerElementName(elementQname);
         }
-        getNamespaceManager().registerElementName(elementQname);
     }
 
     /**
@@ -486,7 +528,10 @@ public abstract class AbstractXMLObject implements XMLObject {
     protected void setElementQName(@Nonnull final QName name) {
         Constraint.isNotNull(name, "Element QName cannot be null");
         elementQname = QNameSupport.constructQName(name.getNamespaceURI(), name.getLocalPart(), name.getPrefix());
-        getNamespaceManager().registerElementName(elementQname);
+        final NamespaceManager manager = nsManager;
+        if (manager != null) {
+            manager.registerElementName(elementQname);
+        }
     }
 
     /** {@inheritDoc} */
@@ -516,7 +561,10 @@ public abstract class AbstractXMLObject implements XMLObject {
      */
     protected void setSchemaType(@Nullable final QName type) {
         typeQname = type;
-        getNamespaceManager().registerElementType(typeQname);
+        final NamespaceManager manager = nsManager;
+        if (manager != null) {
+            manager.registerElementType(typeQname);
+        }
         manageQualifiedAttributeNamespace(XMLConstants.XSI_TYPE_ATTRIB_NAME, typeQname != null);
     }
     
@@ -552,7 +600,17 @@ public abstract class AbstractXMLObject implements XMLObject {
 
     /** {@inheritDoc} */
     @Nonnull public LockableClassToInstanceMultiMap<Object> getObjectMetadata() {
-        return objectMetadata;
+        LockableClassToInstanceMultiMap<Object> metadata = objectMetadata;
+        if (metadata == null) {
+            synchronized (this) {
+                metadata = objectMetadata;
+                if (metadata == null) {
+                    metadata = new LockableClassToInstanceMultiMap<>(true);
+                    objectMetadata = metadata;
+                }
+            }
+        }
+        return metadata;
     }
 
 }
\ No newline at end of file
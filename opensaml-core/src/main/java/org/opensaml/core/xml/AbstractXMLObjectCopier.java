@@ -0,0 +1,160 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.core.xml;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.namespace.QName;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.core.xml.util.AttributeMap;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.core.xml.util.XMLObjectSupport.CloneOutputOption;
+
+/**
+ * Base implementation for XMLObject copiers.
+ * 
+ * <p>The copy is built by the builder supplied at construction, which must build objects of the implementation
+ * class under which the copier is registered, and is given the original's element name, schema type, namespace
+ * declarations, schema location and nil attributes. Subclasses copy the state specific to their type in
+ * {@link #copyContent(XMLObject, XMLObject)}, using {@link #copyChild(XMLObject)} and
+ * {@link #copyChildren(List, List)} to copy children, which copies each child with its own registered copier or,
+ * failing that, clones it through a DOM.</p>
+ * 
+ * @param <XMLObjectType> the XMLObject type that this copier copies
+ */
+public abstract class AbstractXMLObjectCopier<XMLObjectType extends XMLObject> implements
+        XMLObjectCopier<XMLObjectType> {
+
+    /** Builder of the copies. */
+    @Nonnull private final XMLObjectBuilder<? extends XMLObjectType> builder;
+
+    /**
+     * Constructor.
+     * 
+     * @param copyBuilder builder of objects of the implementation class copied by this copier
+     */
+    protected AbstractXMLObjectCopier(@Nonnull final XMLObjectBuilder<? extends XMLObjectType> copyBuilder) {
+        builder = Constraint.isNotNull(copyBuilder, "Builder cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull public XMLObjectType copy(@Nonnull final XMLObjectType original)
+            throws MarshallingException, UnmarshallingException {
+        final XMLObjectType copy = builder.buildObject(original.getElementQName(), original.getSchemaType());
+
+        for (final Namespace namespace : original.getNamespaceManager().getNamespaceDeclarations()) {
+            copy.getNamespaceManager().registerNamespaceDeclaration(namespace);
+        }
+        copy.setSchemaLocation(original.getSchemaLocation());
+        copy.setNoNamespaceSchemaLocation(original.getNoNamespaceSchemaLocation());
+        copy.setNil(original.isNilXSBoolean());
+
+        copyContent(original, copy);
+
+        return copy;
+    }
+
+    /**
+     * Copy the state specific to the type of the original, including its children, into the copy.
+     * 
+     * @param original the object being copied
+     * @param copy the copy
+     * 
+     * @throws MarshallingException if a child must be cloned and can not be marshalled
+     * @throws UnmarshallingException if a child must be cloned and can not be unmarshalled
+     */
+    protected abstract void copyContent(@Nonnull final XMLObjectType original, @Nonnull final XMLObjectType copy)
+            throws MarshallingException, UnmarshallingException;
+
+    /**
+     * Copy a child object.
+     * 
+     * @param <ChildType> the type of the child
+     * @param child the child to copy
+     * 
+     * @return the copy, or null if the child is null
+     * 
+     * @throws MarshallingException if the child must be cloned and can not be marshalled
+     * @throws UnmarshallingException if the child must be cloned and can not be unmarshalled
+     */
+    @Nullable protected <ChildType extends XMLObject> ChildType copyChild(@Nullable final ChildType child)
+            throws MarshallingException, UnmarshallingException {
+        if (child == null) {
+            return null;
+        }
+
+        if (child.getDOM() == null) {
+            final XMLObjectCopier<ChildType> copier =
+                    XMLObjectProviderRegistrySupport.getCopierFactory().getCopier(child);
+            if (copier != null) {
+                return copier.copy(child);
+            }
+            return XMLObjectSupport.cloneXMLObject(child, CloneOutputOption.DropDOM);
+        }
+
+        return XMLObjectSupport.cloneXMLObject(child, CloneOutputOption.RootDOMInNewDocument);
+    }
+
+    /**
+     * Copy a list of child objects, appending the copies to another list.
+     * 
+     * @param <ChildType> the type of the children
+     * @param children the children to copy
+     * @param copies the list to which to add the copies
+     * 
+     * @throws MarshallingException if a child must be cloned and can not be marshalled
+     * @throws UnmarshallingException if a child must be cloned and can not be unmarshalled
+     */
+    protected <ChildType extends XMLObject> void copyChildren(@Nonnull final List<ChildType> children,
+            @Nonnull final List<ChildType> copies) throws MarshallingException, UnmarshallingException {
+        for (final ChildType child : children) {
+            final ChildType copy = copyChild(child);
+            if (copy != null) {
+                copies.add(copy);
+            }
+        }
+    }
+
+    /**
+     * Copy the contents of an attribute map, including which of its attributes are of ID and QName type.
+     * 
+     * @param attributes the attributes to copy
+     * @param copies the attribute map into which to copy them
+     */
+    protected void copyAttributeMap(@Nonnull final AttributeMap attributes, @Nonnull final AttributeMap copies) {
+        copies.setInferQNameValues(attributes.isInferQNameValues());
+        for (final Map.Entry<QName, String> attribute : attributes.entrySet()) {
+            if (attributes.isIDAttribute(attribute.getKey())) {
+                copies.registerID(attribute.getKey());
+            }
+            if (attributes.isQNameAttribute(attribute.getKey())) {
+                copies.registerQNameAttribute(attribute.getKey());
+            }
+            copies.put(attribute.getKey(), attribute.getValue());
+        }
+    }
+
+}
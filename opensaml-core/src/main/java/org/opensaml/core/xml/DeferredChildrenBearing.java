@@ -0,0 +1,42 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.core.xml;
+
+import javax.annotation.Nonnull;
+
+import org.w3c.dom.Element;
+
+/**
+ * Interface for an {@link XMLObject} whose child elements may be left in the DOM at unmarshalling time and only
+ * unmarshalled the first time they are accessed.
+ * 
+ * <p>
+ * Deferral is enabled for an element by registering its name with
+ * {@link org.opensaml.core.xml.config.XMLObjectProviderRegistry#registerDeferredChildrenElement}.
+ * </p>
+ */
+public interface DeferredChildrenBearing {
+
+    /**
+     * Defers the unmarshalling of the child elements of the given DOM element until the children of this object
+     * are first accessed.
+     * 
+     * @param domElement the DOM element from which this object is being unmarshalled
+     */
+    public void deferChildElements(@Nonnull final Element domElement);
+
+}
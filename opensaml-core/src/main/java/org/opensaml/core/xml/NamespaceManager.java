@@ -17,6 +17,7 @@
 
 package org.opensaml.core.xml;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -35,6 +36,7 @@ import net.shibboleth.utilities.java.support.primitive.StringSupport;
 import net.shibboleth.utilities.java.support.xml.XMLConstants;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.Interner;
 
 /**
  * A class which is responsible for managing XML namespace-related data for an {@link XMLObject}.
@@ -143,6 +145,33 @@ public class NamespaceManager {
         removeNamespace(decls, namespace);
     }
     
+    /**
+     * Replace the Namespace instances currently held for the owning XMLObject with those supplied by an interner, so
+     * that equal instances may be shared between objects which are retained for read-only use.
+     * 
+     * <p>
+     * Namespaces registered subsequently are not interned.
+     * </p>
+     * 
+     * @param interner the interner supplying the shared instances
+     */
+    public void internNamespaces(@Nonnull final Interner<Namespace> interner) {
+        if (elementName != null) {
+            elementName = interner.intern(elementName);
+        }
+        if (elementType != null) {
+            elementType = interner.intern(elementType);
+        }
+        if (contentValue != null) {
+            contentValue = interner.intern(contentValue);
+        }
+        internNamespaces(decls, interner);
+        internNamespaces(attrNames, interner);
+        for (final String attributeID : new ArrayList<>(attrValues.keySet())) {
+            attrValues.put(attributeID, interner.intern(attrValues.get(attributeID)));
+        }
+    }
+    
     /**
      * Get the set of namespace declarations registered on the owning XMLObject.
      * 
@@ -398,6 +427,25 @@ public class NamespaceManager {
         namespaces.remove(oldNamespace);
     }
     
+    /**
+     * Replace the members of a set of Namespaces with those supplied by an interner.
+     * 
+     * @param namespaces the set of namespaces
+     * @param interner the interner supplying the shared instances
+     */
+    private void internNamespaces(@Nonnull final Set<Namespace> namespaces,
+            @Nonnull final Interner<Namespace> interner) {
+        if (namespaces.isEmpty()) {
+            return;
+        }
+        
+        final List<Namespace> current = new ArrayList<>(namespaces);
+        namespaces.clear();
+        for (final Namespace namespace : current) {
+            namespaces.add(interner.intern(namespace));
+        }
+    }
+    
     /**
      * Merge 2 or more Namespace collections into a single set.
      * 
@@ -29,8 +29,8 @@ import net.shibboleth.utilities.java.support.annotation.constraint.NotLive;
 import net.shibboleth.utilities.java.support.annotation.constraint.Unmodifiable;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.xml.DOMTypeSupport;
-import net.shibboleth.utilities.java.support.xml.QNameSupport;
 
+import org.opensaml.core.xml.util.QNameCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Element;
@@ -80,7 +80,7 @@ public class XMLObjectBuilderFactory {
         XMLObjectBuilder<?> builder = getBuilder(DOMTypeSupport.getXSIType(domElement));
     
         if (builder == null) {
-            builder = getBuilder(QNameSupport.getNodeQName(domElement));
+            builder = getBuilder(QNameCache.getNodeQName(domElement));
         }
     
         return builder;
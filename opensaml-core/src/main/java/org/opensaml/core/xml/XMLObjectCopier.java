@@ -0,0 +1,51 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.core.xml;
+
+import javax.annotation.Nonnull;
+
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.io.UnmarshallingException;
+
+/**
+ * A copier produces a deep, structural copy of an XMLObject, copying its state and children directly rather than
+ * by way of a DOM.
+ * 
+ * <p>Copiers are registered in a {@link XMLObjectCopierFactory} and used by
+ * {@link org.opensaml.core.xml.util.XMLObjectSupport#copyXMLObject(XMLObject)}. A copier need only handle the state
+ * of its own object: children are copied by way of that method, which falls back to cloning through a DOM for
+ * children whose type has no registered copier, which is why copying may fail with a marshalling or unmarshalling
+ * exception.</p>
+ * 
+ * @param <XMLObjectType> the XMLObject type that this copier copies
+ */
+public interface XMLObjectCopier<XMLObjectType extends XMLObject> {
+
+    /**
+     * Copy an XMLObject and its children. The copy has no parent and no cached DOM.
+     * 
+     * @param original the object to copy
+     * 
+     * @return the copy
+     * 
+     * @throws MarshallingException if a child must be cloned through a DOM and can not be marshalled
+     * @throws UnmarshallingException if a child must be cloned through a DOM and can not be unmarshalled
+     */
+    @Nonnull public XMLObjectType copy(@Nonnull final XMLObjectType original)
+            throws MarshallingException, UnmarshallingException;
+
+}
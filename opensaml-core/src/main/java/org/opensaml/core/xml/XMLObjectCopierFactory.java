@@ -0,0 +1,119 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.core.xml;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NotLive;
+import net.shibboleth.utilities.java.support.annotation.constraint.Unmodifiable;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A factory for {@link XMLObjectCopier}s. Copiers are stored and retrieved by the implementation class of the
+ * XMLObjects they copy, since the state to be copied is that of the implementation; subclasses of a registered
+ * class are not matched, as they may carry state the copier does not know about.
+ */
+public class XMLObjectCopierFactory {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(XMLObjectCopierFactory.class);
+
+    /** Registered copiers. */
+    @Nonnull private final Map<Class<? extends XMLObject>, XMLObjectCopier<?>> copiers;
+
+    /** Constructor. */
+    public XMLObjectCopierFactory() {
+        copiers = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Retrieves the copier registered for an implementation class.
+     * 
+     * @param key the implementation class
+     * 
+     * @return the copier, or null
+     */
+    @Nullable public XMLObjectCopier<?> getCopier(@Nullable final Class<? extends XMLObject> key) {
+        if (key == null) {
+            return null;
+        }
+        return copiers.get(key);
+    }
+
+    /**
+     * Retrieves the copier for an XMLObject.
+     * 
+     * @param <XMLObjectType> the type of object the copier is assumed to support
+     * @param xmlObject the XMLObject to retrieve the copier for
+     * 
+     * @return the copier, or null
+     */
+    @Nullable public <XMLObjectType extends XMLObject> XMLObjectCopier<XMLObjectType> getCopier(
+            @Nullable final XMLObjectType xmlObject) {
+        if (xmlObject == null) {
+            return null;
+        }
+        return (XMLObjectCopier<XMLObjectType>) copiers.get(xmlObject.getClass());
+    }
+
+    /**
+     * Gets an immutable list of all the copiers currently registered.
+     * 
+     * @return list of all the copiers currently registered
+     */
+    @Nonnull @NotLive @Unmodifiable public Map<Class<? extends XMLObject>, XMLObjectCopier<?>> getCopiers() {
+        return Collections.unmodifiableMap(copiers);
+    }
+
+    /**
+     * Registers a new copier for the given implementation class.
+     * 
+     * @param copierKey the implementation class of the objects the copier copies
+     * @param copier the copier
+     */
+    public void registerCopier(@Nonnull final Class<? extends XMLObject> copierKey,
+            @Nonnull final XMLObjectCopier<?> copier) {
+        Constraint.isNotNull(copierKey, "Copier key cannot be null");
+        Constraint.isNotNull(copier, "Copier cannot be null");
+        log.debug("Registering copier {} under key {}", copier.getClass().getName(), copierKey.getName());
+
+        copiers.put(copierKey, copier);
+    }
+
+    /**
+     * Deregisters a copier.
+     * 
+     * @param copierKey the key for the copier to be deregistered
+     * 
+     * @return the copier that was registered for the given key
+     */
+    @Nullable public XMLObjectCopier<?> deregisterCopier(@Nonnull final Class<? extends XMLObject> copierKey) {
+        Constraint.isNotNull(copierKey, "Copier key cannot be null");
+
+        log.debug("Deregistering copier for object type {}", copierKey.getName());
+        return copiers.remove(copierKey);
+    }
+
+}
@@ -21,6 +21,23 @@ import javax.xml.namespace.QName;
 
 import org.opensaml.core.config.ConfigurationService;
 import org.opensaml.core.config.InitializationException;
+import org.opensaml.core.xml.XMLObjectCopierFactory;
+import org.opensaml.core.xml.schema.impl.XSAnyCopier;
+import org.opensaml.core.xml.schema.impl.XSAnyImpl;
+import org.opensaml.core.xml.schema.impl.XSBase64BinaryCopier;
+import org.opensaml.core.xml.schema.impl.XSBase64BinaryImpl;
+import org.opensaml.core.xml.schema.impl.XSBooleanCopier;
+import org.opensaml.core.xml.schema.impl.XSBooleanImpl;
+import org.opensaml.core.xml.schema.impl.XSDateTimeCopier;
+import org.opensaml.core.xml.schema.impl.XSDateTimeImpl;
+import org.opensaml.core.xml.schema.impl.XSIntegerCopier;
+import org.opensaml.core.xml.schema.impl.XSIntegerImpl;
+import org.opensaml.core.xml.schema.impl.XSQNameCopier;
+import org.opensaml.core.xml.schema.impl.XSQNameImpl;
+import org.opensaml.core.xml.schema.impl.XSStringCopier;
+import org.opensaml.core.xml.schema.impl.XSStringImpl;
+import org.opensaml.core.xml.schema.impl.XSURICopier;
+import org.opensaml.core.xml.schema.impl.XSURIImpl;
 
 /**
  * XMLObject provider initializer for module "core".
@@ -47,6 +64,16 @@ public class XMLObjectProviderInitializer extends AbstractXMLObjectProviderIniti
         XMLObjectProviderRegistry registry = ConfigurationService.get(XMLObjectProviderRegistry.class);
         
         registry.registerIDAttribute(new QName(javax.xml.XMLConstants.XML_NS_URI, "id"));
+        
+        final XMLObjectCopierFactory copierFactory = registry.getCopierFactory();
+        copierFactory.registerCopier(XSAnyImpl.class, new XSAnyCopier());
+        copierFactory.registerCopier(XSBase64BinaryImpl.class, new XSBase64BinaryCopier());
+        copierFactory.registerCopier(XSBooleanImpl.class, new XSBooleanCopier());
+        copierFactory.registerCopier(XSDateTimeImpl.class, new XSDateTimeCopier());
+        copierFactory.registerCopier(XSIntegerImpl.class, new XSIntegerCopier());
+        copierFactory.registerCopier(XSQNameImpl.class, new XSQNameCopier());
+        copierFactory.registerCopier(XSStringImpl.class, new XSStringCopier());
+        copierFactory.registerCopier(XSURIImpl.class, new XSURICopier());
     }
 
 }
\ No newline at end of file
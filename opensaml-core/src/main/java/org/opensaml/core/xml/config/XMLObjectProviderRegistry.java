@@ -30,6 +30,7 @@ import net.shibboleth.utilities.java.support.xml.ParserPool;
 
 import org.opensaml.core.xml.XMLObjectBuilder;
 import org.opensaml.core.xml.XMLObjectBuilderFactory;
+import org.opensaml.core.xml.XMLObjectCopierFactory;
 import org.opensaml.core.xml.io.Marshaller;
 import org.opensaml.core.xml.io.MarshallerFactory;
 import org.opensaml.core.xml.io.Unmarshaller;
@@ -69,9 +70,15 @@ public class XMLObjectProviderRegistry {
     /** Configured XMLObject unmarshaller factory. */
     private UnmarshallerFactory unmarshallerFactory;
 
+    /** Configured XMLObject copier factory. */
+    private XMLObjectCopierFactory copierFactory;
+
     /** Configured set of attribute QNames which have been globally registered as having an ID type. */
     @Nonnull private final Set<QName> idAttributeNames;
 
+    /** Names of elements whose child elements are unmarshalled on demand. */
+    @Nonnull private final Set<QName> deferredChildrenElementNames;
+
     /** Configured parser pool. */
     private ParserPool parserPool;
 
@@ -81,7 +88,9 @@ public class XMLObjectProviderRegistry {
         builderFactory = new XMLObjectBuilderFactory();
         marshallerFactory = new MarshallerFactory();
         unmarshallerFactory = new UnmarshallerFactory();
+        copierFactory = new XMLObjectCopierFactory();
         idAttributeNames = new CopyOnWriteArraySet<>();
+        deferredChildrenElementNames = new CopyOnWriteArraySet<>();
         
         registerIDAttribute(new QName(javax.xml.XMLConstants.XML_NS_URI, "id"));
     }
@@ -172,6 +181,15 @@ public class XMLObjectProviderRegistry {
         return unmarshallerFactory;
     }
 
+    /**
+     * Gets the XMLObject copier factory.
+     * 
+     * @return the XMLObject copier factory
+     */
+    public XMLObjectCopierFactory getCopierFactory() {
+        return copierFactory;
+    }
+
     /**
      * Register an attribute as having a type of ID.
      * 
@@ -203,5 +221,35 @@ public class XMLObjectProviderRegistry {
     public boolean isIDAttribute(QName attributeName) {
         return idAttributeNames.contains(attributeName);
     }
-    
+
+    /**
+     * Register an element whose child elements are to be unmarshalled on demand, the first time the children are
+     * accessed, rather than when the element itself is unmarshalled. This only applies to elements whose
+     * {@link org.opensaml.core.xml.XMLObject} implements {@link org.opensaml.core.xml.DeferredChildrenBearing}.
+     * 
+     * @param elementName the QName of the element to be registered
+     */
+    public void registerDeferredChildrenElement(@Nonnull final QName elementName) {
+        deferredChildrenElementNames.add(elementName);
+    }
+
+    /**
+     * Deregister an element whose child elements are to be unmarshalled on demand.
+     * 
+     * @param elementName the QName of the element to be de-registered
+     */
+    public void deregisterDeferredChildrenElement(@Nonnull final QName elementName) {
+        deferredChildrenElementNames.remove(elementName);
+    }
+
+    /**
+     * Determine whether the child elements of a given element are to be unmarshalled on demand.
+     * 
+     * @param elementName the QName of the element to be checked
+     * @return true if the element is registered as having its child elements unmarshalled on demand
+     */
+    public boolean isDeferredChildrenElement(@Nonnull final QName elementName) {
+        return deferredChildrenElementNames.contains(elementName);
+    }
+
 }
\ No newline at end of file
@@ -26,6 +26,7 @@ import net.shibboleth.utilities.java.support.xml.ParserPool;
 import org.opensaml.core.config.ConfigurationService;
 import org.opensaml.core.xml.XMLObjectBuilder;
 import org.opensaml.core.xml.XMLObjectBuilderFactory;
+import org.opensaml.core.xml.XMLObjectCopierFactory;
 import org.opensaml.core.xml.io.Marshaller;
 import org.opensaml.core.xml.io.MarshallerFactory;
 import org.opensaml.core.xml.io.Unmarshaller;
@@ -126,6 +127,15 @@ public class XMLObjectProviderRegistrySupport {
         return ConfigurationService.get(XMLObjectProviderRegistry.class).getUnmarshallerFactory();
     }
 
+    /**
+     * Gets the XMLObject copier factory.
+     * 
+     * @return the XMLObject copier factory
+     */
+    public static XMLObjectCopierFactory getCopierFactory() {
+        return ConfigurationService.get(XMLObjectProviderRegistry.class).getCopierFactory();
+    }
+
     /**
      * Register an attribute as having a type of ID.
      * 
@@ -154,4 +164,32 @@ public class XMLObjectProviderRegistrySupport {
         return ConfigurationService.get(XMLObjectProviderRegistry.class).isIDAttribute(attributeName);
     }
 
+    /**
+     * Register an element whose child elements are to be unmarshalled on demand.
+     * 
+     * @param elementName the QName of the element to be registered
+     */
+    public static void registerDeferredChildrenElement(@Nonnull final QName elementName) {
+        ConfigurationService.get(XMLObjectProviderRegistry.class).registerDeferredChildrenElement(elementName);
+    }
+
+    /**
+     * Deregister an element whose child elements are to be unmarshalled on demand.
+     * 
+     * @param elementName the QName of the element to be de-registered
+     */
+    public static void deregisterDeferredChildrenElement(@Nonnull final QName elementName) {
+        ConfigurationService.get(XMLObjectProviderRegistry.class).deregisterDeferredChildrenElement(elementName);
+    }
+
+    /**
+     * Determine whether the child elements of a given element are to be unmarshalled on demand.
+     * 
+     * @param elementName the QName of the element to be checked
+     * @return true if the element is registered as having its child elements unmarshalled on demand
+     */
+    public static boolean isDeferredChildrenElement(@Nonnull final QName elementName) {
+        return ConfigurationService.get(XMLObjectProviderRegistry.class).isDeferredChildrenElement(elementName);
+    }
+
 }
\ No newline at end of file
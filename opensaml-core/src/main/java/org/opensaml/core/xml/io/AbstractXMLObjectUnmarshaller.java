@@ -27,12 +27,14 @@ import net.shibboleth.utilities.java.support.xml.QNameSupport;
 import net.shibboleth.utilities.java.support.xml.XMLConstants;
 
 import org.opensaml.core.xml.AttributeExtensibleXMLObject;
+import org.opensaml.core.xml.DeferredChildrenBearing;
 import org.opensaml.core.xml.Namespace;
 import org.opensaml.core.xml.XMLObject;
 import org.opensaml.core.xml.XMLObjectBuilder;
 import org.opensaml.core.xml.XMLObjectBuilderFactory;
 import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.opensaml.core.xml.schema.XSBooleanValue;
+import org.opensaml.core.xml.util.QNameCache;
 import org.opensaml.core.xml.util.XMLObjectSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,6 +50,8 @@ import org.w3c.dom.Text;
  * <li>Unmarshalling namespace declaration attributes</li>
  * <li>Unmarshalling schema instance type (xsi:type) declaration attributes</li>
  * <li>Delegating to child classes element, text, and attribute processing</li>
+ * <li>Deferring the unmarshalling of child elements for {@link DeferredChildrenBearing} objects whose element name
+ * is registered with {@link XMLObjectProviderRegistrySupport#registerDeferredChildrenElement(QName)}</li>
  * </ul>
  * 
  * <strong>NOTE:</strong> In the case of Text nodes this unmarshaller will use {@link org.w3c.dom.Text#getWholeText()}
@@ -77,7 +81,9 @@ public abstract class AbstractXMLObjectUnmarshaller implements Unmarshaller {
     /** {@inheritDoc} */
     @Override
     @Nonnull public XMLObject unmarshall(@Nonnull final Element domElement) throws UnmarshallingException {
-        log.trace("Starting to unmarshall DOM element {}", QNameSupport.getNodeQName(domElement));
+        if (log.isTraceEnabled()) {
+            log.trace("Starting to unmarshall DOM element {}", QNameSupport.getNodeQName(domElement));
+        }
 
         XMLObject xmlObject = buildXMLObject(domElement);
 
@@ -95,6 +101,9 @@ public abstract class AbstractXMLObjectUnmarshaller implements Unmarshaller {
             }
         }
 
+        final boolean deferChildElements = xmlObject instanceof DeferredChildrenBearing
+                && XMLObjectProviderRegistrySupport.isDeferredChildrenElement(xmlObject.getElementQName());
+
         if (log.isTraceEnabled()) {
             log.trace("Unmarshalling other child nodes of DOM Element {}", QNameSupport.getNodeQName(domElement));
         }
@@ -103,7 +112,9 @@ public abstract class AbstractXMLObjectUnmarshaller implements Unmarshaller {
             if (childNode.getNodeType() == Node.ATTRIBUTE_NODE) {
                 unmarshallAttribute(xmlObject, (Attr) childNode);
             } else if (childNode.getNodeType() == Node.ELEMENT_NODE) {
-                unmarshallChildElement(xmlObject, (Element) childNode);
+                if (!deferChildElements) {
+                    unmarshallChildElement(xmlObject, (Element) childNode);
+                }
             } else if (childNode.getNodeType() == Node.TEXT_NODE 
                     || childNode.getNodeType() == Node.CDATA_SECTION_NODE) {
                 unmarshallTextContent(xmlObject, (Text) childNode);
@@ -112,6 +123,10 @@ public abstract class AbstractXMLObjectUnmarshaller implements Unmarshaller {
             childNode = childNode.getNextSibling();
         }
 
+        if (deferChildElements) {
+            ((DeferredChildrenBearing) xmlObject).deferChildElements(domElement);
+        }
+
         xmlObject.setDOM(domElement);
         return xmlObject;
     }
@@ -169,7 +184,7 @@ public abstract class AbstractXMLObjectUnmarshaller implements Unmarshaller {
      */
     protected void unmarshallAttribute(@Nonnull final XMLObject xmlObject, @Nonnull final Attr attribute)
             throws UnmarshallingException {
-        QName attribName = QNameSupport.getNodeQName(attribute);
+        QName attribName = QNameCache.getNodeQName(attribute);
         log.trace("Pre-processing attribute {}", attribName);
         String attributeNamespace = StringSupport.trimOrNull(attribute.getNamespaceURI());
 
@@ -226,7 +241,7 @@ public abstract class AbstractXMLObjectUnmarshaller implements Unmarshaller {
      */
     protected void unmarshallSchemaInstanceAttributes(@Nonnull final XMLObject xmlObject,
             @Nonnull final Attr attribute) {
-        QName attribName = QNameSupport.getNodeQName(attribute);
+        QName attribName = QNameCache.getNodeQName(attribute);
         if (XMLConstants.XSI_TYPE_ATTRIB_NAME.equals(attribName)) {
             if (log.isTraceEnabled()) {
                 log.trace("Saw XMLObject {} with an xsi:type of: {}", xmlObject.getElementQName(),
@@ -262,7 +277,7 @@ public abstract class AbstractXMLObjectUnmarshaller implements Unmarshaller {
      * @param attribute the DOM attribute to be checked
      */
     protected void checkIDAttribute(@Nonnull final Attr attribute) {
-        QName attribName = QNameSupport.getNodeQName(attribute);
+        QName attribName = QNameCache.getNodeQName(attribute);
         if (XMLObjectProviderRegistrySupport.isIDAttribute(attribName) && !attribute.isId()) {
             attribute.getOwnerElement().setIdAttributeNode(attribute, true);
         }
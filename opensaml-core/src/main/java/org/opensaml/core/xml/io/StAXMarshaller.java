@@ -0,0 +1,410 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.core.xml.io;
+
+import java.io.OutputStream;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.xml.ElementSupport;
+import net.shibboleth.utilities.java.support.xml.NamespaceSupport;
+import net.shibboleth.utilities.java.support.xml.ParserPool;
+import net.shibboleth.utilities.java.support.xml.XMLConstants;
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Attr;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Marshalls XMLObjects directly to an {@link XMLStreamWriter} or {@link OutputStream}, without first building a DOM.
+ * 
+ * <p>The registered marshallers are reused unchanged. For each XMLObject marshalled by an
+ * {@link AbstractXMLObjectMarshaller}, a childless "shell" DOM element is created and attached to the shell of its
+ * parent, and the marshaller populates it with its namespace declarations, attributes and content exactly as it
+ * would populate the element of a full DOM, so namespace declarations are made, or omitted as already in scope, as
+ * they are by the DOM path. The shell is written to the stream, and discarded once its element is complete, so at
+ * most one shell per ancestor of the current XMLObject exists at any time.</p>
+ * 
+ * <p>An XMLObject which has a cached DOM is written from that DOM, after rooting the namespaces visible to it as
+ * the DOM path does, so that signed content is reproduced as signed. An XMLObject without a cached DOM whose
+ * marshaller does not extend {@link AbstractXMLObjectMarshaller}, such as that of <code>ds:Signature</code>, is
+ * marshalled into a DOM which is then written. XMLObjects which are to be signed must therefore be signed, and so
+ * have a cached DOM, before being marshalled by this class.</p>
+ * 
+ * <p>Unlike the DOM path, marshalling with this class leaves no cached DOM on XMLObjects which did not have one.</p>
+ */
+@ThreadSafe
+public class StAXMarshaller {
+
+    /** Factory for stream writers. */
+    @Nonnull private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(StAXMarshaller.class);
+
+    /** Factory for marshallers. */
+    @Nonnull private final MarshallerFactory marshallerFactory;
+
+    /** Pool used to create the documents owning the shell elements. */
+    @Nonnull private final ParserPool parserPool;
+
+    /** Constructor. */
+    public StAXMarshaller() {
+        this(XMLObjectProviderRegistrySupport.getParserPool());
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param pool pool used to create documents
+     */
+    public StAXMarshaller(@Nonnull final ParserPool pool) {
+        marshallerFactory = XMLObjectProviderRegistrySupport.getMarshallerFactory();
+        parserPool = Constraint.isNotNull(pool, "ParserPool cannot be null");
+    }
+
+    /**
+     * Marshall an XMLObject to an output stream as a UTF-8 encoded document.
+     * 
+     * @param xmlObject the XMLObject
+     * @param output the output stream, which is flushed but not closed
+     * @param xmlDeclaration whether to write an XML declaration
+     * @throws MarshallingException if the XMLObject can not be marshalled or written
+     */
+    public void marshall(@Nonnull final XMLObject xmlObject, @Nonnull final OutputStream output,
+            final boolean xmlDeclaration) throws MarshallingException {
+        XMLStreamWriter writer = null;
+        try {
+            writer = OUTPUT_FACTORY.createXMLStreamWriter(output, "UTF-8");
+            if (xmlDeclaration) {
+                writer.writeStartDocument("UTF-8", "1.0");
+            }
+            marshall(xmlObject, writer);
+            writer.writeEndDocument();
+            writer.flush();
+        } catch (final XMLStreamException e) {
+            throw new MarshallingException("Unable to write XML stream", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (final XMLStreamException e) {
+                    log.debug("Error closing XML stream writer", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Marshall an XMLObject to a stream writer, as an element in the writer's current context.
+     * 
+     * @param xmlObject the XMLObject
+     * @param writer the stream writer
+     * @throws MarshallingException if the XMLObject can not be marshalled or written
+     */
+    public void marshall(@Nonnull final XMLObject xmlObject, @Nonnull final XMLStreamWriter writer)
+            throws MarshallingException {
+        try {
+            final Document document = parserPool.newDocument();
+            marshallElement(xmlObject, writer, document, document);
+        } catch (final XMLStreamException e) {
+            throw new MarshallingException("Unable to write XML stream", e);
+        } catch (final XMLParserException e) {
+            throw new MarshallingException("Unable to create DOM document", e);
+        }
+    }
+
+    /**
+     * Marshall an XMLObject to a stream writer.
+     * 
+     * @param xmlObject the XMLObject
+     * @param writer the stream writer
+     * @param document the document owning the shell elements
+     * @param parent the shell of the parent element, or the document
+     * @throws XMLStreamException if the stream can not be written
+     * @throws MarshallingException if the XMLObject can not be marshalled
+     */
+    private void marshallElement(@Nonnull final XMLObject xmlObject, @Nonnull final XMLStreamWriter writer,
+            @Nonnull final Document document, @Nonnull final Node parent)
+                    throws XMLStreamException, MarshallingException {
+        final Element cachedDOM = xmlObject.getDOM();
+        if (cachedDOM != null) {
+            log.trace("Writing cached DOM of {}", xmlObject.getElementQName());
+            if (xmlObject.getParent() != null) {
+                try {
+                    NamespaceSupport.rootNamespaces(cachedDOM);
+                } catch (final DOMException e) {
+                    throw new MarshallingException("Unable to root namespaces of cached DOM element, "
+                            + xmlObject.getElementQName(), e);
+                }
+            }
+            writeNode(cachedDOM, writer);
+            return;
+        }
+
+        final Marshaller marshaller = getMarshaller(xmlObject);
+        if (!(marshaller instanceof AbstractXMLObjectMarshaller)) {
+            log.trace("Marshalling {} into DOM", xmlObject.getElementQName());
+            final Element element;
+            if (parent == document) {
+                element = marshaller.marshall(xmlObject, document);
+            } else {
+                element = marshaller.marshall(xmlObject, (Element) parent);
+            }
+            writeNode(element, writer);
+            if (parent != document) {
+                parent.removeChild(element);
+            }
+            return;
+        }
+
+        final AbstractXMLObjectMarshaller streamingMarshaller = (AbstractXMLObjectMarshaller) marshaller;
+        final Element shell = ElementSupport.constructElement(document, xmlObject.getElementQName());
+        if (parent == document) {
+            streamingMarshaller.setDocumentElement(document, shell);
+        } else {
+            parent.appendChild(shell);
+        }
+
+        streamingMarshaller.marshallNamespacePrefix(xmlObject, shell);
+        streamingMarshaller.marshallSchemaInstanceAttributes(xmlObject, shell);
+        streamingMarshaller.marshallNamespaces(xmlObject, shell);
+        streamingMarshaller.marshallAttributes(xmlObject, shell);
+
+        final List<XMLObject> children = xmlObject.getOrderedChildren();
+        boolean hasChildren = false;
+        if (children != null) {
+            for (final XMLObject child : children) {
+                if (child != null) {
+                    hasChildren = true;
+                    break;
+                }
+            }
+        }
+
+        if (!hasChildren) {
+            // Content is needed up front to decide whether the element is empty.
+            streamingMarshaller.marshallElementContent(xmlObject, shell);
+            writeStartElement(shell, writer, !shell.hasChildNodes());
+            if (shell.hasChildNodes()) {
+                writeChildNodes(shell, writer);
+                writer.writeEndElement();
+            }
+        } else {
+            writeStartElement(shell, writer, false);
+            for (final XMLObject child : children) {
+                if (child != null) {
+                    marshallElement(child, writer, document, shell);
+                }
+            }
+            // As in the DOM path, content follows the child elements.
+            streamingMarshaller.marshallElementContent(xmlObject, shell);
+            writeChildNodes(shell, writer);
+            writer.writeEndElement();
+        }
+
+        if (parent != document) {
+            parent.removeChild(shell);
+        }
+    }
+
+    /**
+     * Get the marshaller for an XMLObject, falling back to that of the default provider.
+     * 
+     * @param xmlObject the XMLObject
+     * @return the marshaller
+     * @throws MarshallingException if no marshaller is available
+     */
+    @Nonnull private Marshaller getMarshaller(@Nonnull final XMLObject xmlObject) throws MarshallingException {
+        Marshaller marshaller = marshallerFactory.getMarshaller(xmlObject);
+        if (marshaller == null) {
+            marshaller = marshallerFactory.getMarshaller(XMLObjectProviderRegistrySupport.getDefaultProviderQName());
+            if (marshaller == null) {
+                final String errorMsg = "No marshaller available for " + xmlObject.getElementQName();
+                log.error(errorMsg);
+                throw new MarshallingException(errorMsg);
+            }
+        }
+        return marshaller;
+    }
+
+    /**
+     * Write a DOM node and its descendants.
+     * 
+     * @param node the node
+     * @param writer the stream writer
+     * @throws XMLStreamException if the stream can not be written
+     */
+    private void writeNode(@Nonnull final Node node, @Nonnull final XMLStreamWriter writer)
+            throws XMLStreamException {
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                final Element element = (Element) node;
+                writeStartElement(element, writer, !element.hasChildNodes());
+                if (element.hasChildNodes()) {
+                    writeChildNodes(element, writer);
+                    writer.writeEndElement();
+                }
+                break;
+            case Node.TEXT_NODE:
+                writer.writeCharacters(node.getNodeValue());
+                break;
+            case Node.CDATA_SECTION_NODE:
+                writer.writeCData(node.getNodeValue());
+                break;
+            case Node.COMMENT_NODE:
+                writer.writeComment(node.getNodeValue());
+                break;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                writer.writeProcessingInstruction(node.getNodeName(), node.getNodeValue());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Write the child nodes of a DOM node.
+     * 
+     * @param node the node
+     * @param writer the stream writer
+     * @throws XMLStreamException if the stream can not be written
+     */
+    private void writeChildNodes(@Nonnull final Node node, @Nonnull final XMLStreamWriter writer)
+            throws XMLStreamException {
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            writeNode(child, writer);
+        }
+    }
+
+    /**
+     * Write the start tag of an element, with its namespace declarations and attributes in document order.
+     * 
+     * <p>As <code>LSSerializer</code> does when serializing the DOM path's output, any namespace used by the element
+     * or its attributes but neither declared on it nor in scope is then declared.</p>
+     * 
+     * @param element the element
+     * @param writer the stream writer
+     * @param empty whether to write an empty element
+     * @throws XMLStreamException if the stream can not be written
+     */
+    private void writeStartElement(@Nonnull final Element element, @Nonnull final XMLStreamWriter writer,
+            final boolean empty) throws XMLStreamException {
+        final String prefix = emptyIfNull(element.getPrefix());
+        final String localName = element.getLocalName() != null ? element.getLocalName() : element.getNodeName();
+        final String namespaceURI = emptyIfNull(element.getNamespaceURI());
+        if (empty) {
+            writer.writeEmptyElement(prefix, localName, namespaceURI);
+        } else {
+            writer.writeStartElement(prefix, localName, namespaceURI);
+        }
+
+        final NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            final Attr attribute = (Attr) attributes.item(i);
+            if (XMLConstants.XMLNS_NS.equals(attribute.getNamespaceURI())) {
+                if (XMLConstants.XMLNS_PREFIX.equals(attribute.getLocalName())) {
+                    writeNamespace("", attribute.getValue(), writer);
+                } else {
+                    writeNamespace(attribute.getLocalName(), attribute.getValue(), writer);
+                }
+            } else if (attribute.getNamespaceURI() == null) {
+                writer.writeAttribute(attribute.getLocalName() != null ? attribute.getLocalName()
+                        : attribute.getName(), attribute.getValue());
+            } else {
+                writer.writeAttribute(emptyIfNull(attribute.getPrefix()), attribute.getNamespaceURI(),
+                        attribute.getLocalName(), attribute.getValue());
+            }
+        }
+
+        fixupNamespace(prefix, namespaceURI, writer);
+        for (int i = 0; i < attributes.getLength(); i++) {
+            final Attr attribute = (Attr) attributes.item(i);
+            final String attributePrefix = attribute.getPrefix();
+            if (attributePrefix != null && !attributePrefix.isEmpty()
+                    && !XMLConstants.XMLNS_NS.equals(attribute.getNamespaceURI())
+                    && !XMLConstants.XML_NS.equals(attribute.getNamespaceURI())) {
+                fixupNamespace(attributePrefix, attribute.getNamespaceURI(), writer);
+            }
+        }
+    }
+
+    /**
+     * Declare a namespace on the element being written, and bind it in the writer's namespace context.
+     * 
+     * @param prefix the prefix, or the empty string for the default namespace
+     * @param namespaceURI the namespace URI
+     * @param writer the stream writer
+     * @throws XMLStreamException if the stream can not be written
+     */
+    private void writeNamespace(@Nonnull final String prefix, @Nonnull final String namespaceURI,
+            @Nonnull final XMLStreamWriter writer) throws XMLStreamException {
+        if (prefix.isEmpty()) {
+            writer.writeDefaultNamespace(namespaceURI);
+            writer.setDefaultNamespace(namespaceURI);
+        } else {
+            writer.writeNamespace(prefix, namespaceURI);
+            writer.setPrefix(prefix, namespaceURI);
+        }
+    }
+
+    /**
+     * Declare a namespace used by the element being written, unless its prefix is already bound to it. A prefix
+     * without a namespace can not be declared, and is left alone.
+     * 
+     * @param prefix the prefix, or the empty string for the default namespace
+     * @param namespaceURI the namespace URI, or the empty string for no namespace
+     * @param writer the stream writer
+     * @throws XMLStreamException if the stream can not be written
+     */
+    private void fixupNamespace(@Nonnull final String prefix, @Nonnull final String namespaceURI,
+            @Nonnull final XMLStreamWriter writer) throws XMLStreamException {
+        if (!prefix.isEmpty() && namespaceURI.isEmpty()) {
+            return;
+        }
+        if (!namespaceURI.equals(emptyIfNull(writer.getNamespaceContext().getNamespaceURI(prefix)))) {
+            log.trace("Declaring namespace '{}' with prefix '{}' missing from DOM", namespaceURI, prefix);
+            writeNamespace(prefix, namespaceURI, writer);
+        }
+    }
+
+    /**
+     * Convert a null string to the empty string.
+     * 
+     * @param value the value
+     * @return the value, or the empty string if null
+     */
+    @Nonnull private static String emptyIfNull(@Nullable final String value) {
+        return value != null ? value : "";
+    }
+
+}
@@ -0,0 +1,416 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.core.xml.io;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+import net.shibboleth.utilities.java.support.xml.ParserPool;
+import net.shibboleth.utilities.java.support.xml.QNameSupport;
+import net.shibboleth.utilities.java.support.xml.XMLConstants;
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+
+/**
+ * Unmarshalls XMLObjects directly from an {@link XMLStreamReader}, without first parsing the document into a DOM.
+ * 
+ * <p>The registered builders and unmarshallers are reused unchanged. For each element being unmarshalled by an
+ * {@link AbstractXMLObjectUnmarshaller}, a childless "shell" DOM element is created holding just its attributes and
+ * namespace declarations, and is attached to the shell of its parent element, so that the unmarshaller's attribute
+ * and content processing, including resolution of QName-valued content, behaves as it would on a fully parsed DOM.
+ * A shell is discarded as soon as its element has been unmarshalled, so at most one shell per ancestor of the
+ * current element exists at any time, and the resulting XMLObjects have no cached DOM.</p>
+ * 
+ * <p>The DOM of a subtree is fully materialized, and the subtree unmarshalled from it in the usual way, retaining
+ * the DOM as the cached DOM of the resulting XMLObject, when its element is registered to an unmarshaller which
+ * does not extend {@link AbstractXMLObjectUnmarshaller}, such as that of <code>ds:Signature</code>, or when its
+ * element name is one of the configured DOM element names. Content whose signature is to be verified, or which is
+ * to be decrypted, must be unmarshalled with its DOM, so the names of the signed or encrypted elements should be
+ * configured as DOM element names. A materialized subtree is detached from the shells of its ancestors, after
+ * declaring on its root the namespaces inherited from them.</p>
+ * 
+ * <p>DTDs are rejected, and external entities are not resolved.</p>
+ */
+@ThreadSafe
+public class StAXUnmarshaller {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(StAXUnmarshaller.class);
+
+    /** Factory for unmarshallers. */
+    @Nonnull private final UnmarshallerFactory unmarshallerFactory;
+
+    /** Pool used to create the documents owning the shell elements. */
+    @Nonnull private final ParserPool parserPool;
+
+    /** Names of elements whose subtrees are unmarshalled from a DOM. */
+    @Nonnull @NonnullElements private final Set<QName> domElementNames;
+
+    /** Factory for stream readers. */
+    @Nonnull private final XMLInputFactory inputFactory;
+
+    /** Constructor. */
+    public StAXUnmarshaller() {
+        this(Collections.<QName>emptySet());
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param domElements names of elements whose subtrees are unmarshalled from a DOM
+     */
+    public StAXUnmarshaller(@Nullable @NonnullElements final Collection<QName> domElements) {
+        this(domElements, XMLObjectProviderRegistrySupport.getParserPool());
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param domElements names of elements whose subtrees are unmarshalled from a DOM
+     * @param pool pool used to create documents
+     */
+    public StAXUnmarshaller(@Nullable @NonnullElements final Collection<QName> domElements,
+            @Nonnull final ParserPool pool) {
+        unmarshallerFactory = XMLObjectProviderRegistrySupport.getUnmarshallerFactory();
+        parserPool = Constraint.isNotNull(pool, "ParserPool cannot be null");
+        if (domElements != null) {
+            domElementNames = Collections.unmodifiableSet(new HashSet<>(domElements));
+        } else {
+            domElementNames = Collections.emptySet();
+        }
+
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Get the names of elements whose subtrees are unmarshalled from a DOM.
+     * 
+     * @return the element names
+     */
+    @Nonnull @NonnullElements public Set<QName> getDOMElementNames() {
+        return domElementNames;
+    }
+
+    /**
+     * Unmarshall the document read from an input stream.
+     * 
+     * @param input the input stream, which is not closed
+     * @return the XMLObject of the document element
+     * @throws UnmarshallingException if the document can not be read or unmarshalled
+     */
+    @Nonnull public XMLObject unmarshall(@Nonnull final InputStream input) throws UnmarshallingException {
+        XMLStreamReader reader = null;
+        try {
+            reader = inputFactory.createXMLStreamReader(input);
+            return unmarshall(reader);
+        } catch (final XMLStreamException e) {
+            throw new UnmarshallingException("Unable to read XML stream", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final XMLStreamException e) {
+                    log.debug("Error closing XML stream reader", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Unmarshall the next element read from a stream reader.
+     * 
+     * <p>The reader is advanced past any content preceding the element, and on return is positioned at the end of
+     * the element.</p>
+     * 
+     * @param reader the stream reader
+     * @return the XMLObject of the element
+     * @throws UnmarshallingException if the element can not be read or unmarshalled
+     */
+    @Nonnull public XMLObject unmarshall(@Nonnull final XMLStreamReader reader) throws UnmarshallingException {
+        try {
+            while (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+                if (reader.getEventType() == XMLStreamConstants.DTD) {
+                    throw new UnmarshallingException("DTDs are not supported");
+                } else if (!reader.hasNext()) {
+                    throw new UnmarshallingException("XML stream contained no element");
+                }
+                reader.next();
+            }
+
+            final Document document = parserPool.newDocument();
+            return unmarshallElement(reader, document, document);
+        } catch (final XMLStreamException e) {
+            throw new UnmarshallingException("Unable to read XML stream", e);
+        } catch (final XMLParserException e) {
+            throw new UnmarshallingException("Unable to create DOM document", e);
+        }
+    }
+
+    /**
+     * Unmarshall the element at which a reader is positioned.
+     * 
+     * @param reader the stream reader, positioned at the start of the element
+     * @param document the document owning the shell elements
+     * @param parent the shell of the parent element, or the document
+     * @return the XMLObject of the element
+     * @throws XMLStreamException if the stream can not be read
+     * @throws UnmarshallingException if the element can not be unmarshalled
+     */
+    @Nonnull private XMLObject unmarshallElement(@Nonnull final XMLStreamReader reader,
+            @Nonnull final Document document, @Nonnull final Node parent)
+                    throws XMLStreamException, UnmarshallingException {
+        final Element shell = createShell(reader, document, parent);
+        final Unmarshaller unmarshaller = getUnmarshaller(shell);
+
+        if (!(unmarshaller instanceof AbstractXMLObjectUnmarshaller)
+                || domElementNames.contains(QNameSupport.getNodeQName(shell))) {
+            log.trace("Materializing DOM of element {}", QNameSupport.getNodeQName(shell));
+            materialize(reader, document, shell);
+            if (parent != document) {
+                declareInheritedNamespaces(shell);
+                parent.removeChild(shell);
+            }
+            return unmarshaller.unmarshall(shell);
+        }
+
+        final AbstractXMLObjectUnmarshaller streamingUnmarshaller = (AbstractXMLObjectUnmarshaller) unmarshaller;
+        final XMLObject xmlObject = streamingUnmarshaller.buildXMLObject(shell);
+
+        final NamedNodeMap attributes = shell.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            streamingUnmarshaller.unmarshallAttribute(xmlObject, (Attr) attributes.item(i));
+        }
+
+        final StringBuilder text = new StringBuilder();
+        boolean done = false;
+        while (!done) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    unmarshallText(streamingUnmarshaller, xmlObject, shell, text);
+                    streamingUnmarshaller.processChildElement(xmlObject, unmarshallElement(reader, document, shell));
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    unmarshallText(streamingUnmarshaller, xmlObject, shell, text);
+                    done = true;
+                    break;
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    throw new UnmarshallingException("Unresolved entity reference " + reader.getLocalName());
+                default:
+                    break;
+            }
+        }
+
+        if (parent != document) {
+            parent.removeChild(shell);
+        }
+        return xmlObject;
+    }
+
+    /**
+     * Pass accumulated text content to an unmarshaller, as a text node temporarily attached to the shell element.
+     * 
+     * @param unmarshaller the unmarshaller
+     * @param xmlObject the XMLObject being unmarshalled
+     * @param shell the shell element
+     * @param text the accumulated text, which is cleared
+     * @throws UnmarshallingException if the text can not be unmarshalled
+     */
+    private void unmarshallText(@Nonnull final AbstractXMLObjectUnmarshaller unmarshaller,
+            @Nonnull final XMLObject xmlObject, @Nonnull final Element shell, @Nonnull final StringBuilder text)
+                    throws UnmarshallingException {
+        if (text.length() == 0) {
+            return;
+        }
+        final String content = text.toString();
+        text.setLength(0);
+        if (StringSupport.trimOrNull(content) == null) {
+            return;
+        }
+        final Text textNode = shell.getOwnerDocument().createTextNode(content);
+        shell.appendChild(textNode);
+        try {
+            unmarshaller.unmarshallTextContent(xmlObject, textNode);
+        } finally {
+            shell.removeChild(textNode);
+        }
+    }
+
+    /**
+     * Get the unmarshaller for an element, falling back to that of the default provider.
+     * 
+     * @param element the element
+     * @return the unmarshaller
+     * @throws UnmarshallingException if no unmarshaller is available
+     */
+    @Nonnull private Unmarshaller getUnmarshaller(@Nonnull final Element element) throws UnmarshallingException {
+        Unmarshaller unmarshaller = unmarshallerFactory.getUnmarshaller(element);
+        if (unmarshaller == null) {
+            unmarshaller =
+                    unmarshallerFactory.getUnmarshaller(XMLObjectProviderRegistrySupport.getDefaultProviderQName());
+            if (unmarshaller == null) {
+                final String errorMsg = "No unmarshaller available for " + QNameSupport.getNodeQName(element);
+                log.error(errorMsg);
+                throw new UnmarshallingException(errorMsg);
+            }
+        }
+        return unmarshaller;
+    }
+
+    /**
+     * Create a childless element holding the namespace declarations and attributes of the element at which a
+     * reader is positioned, and attach it to its parent.
+     * 
+     * @param reader the stream reader, positioned at the start of an element
+     * @param document the owning document
+     * @param parent the parent node
+     * @return the new element
+     */
+    @Nonnull private Element createShell(@Nonnull final XMLStreamReader reader, @Nonnull final Document document,
+            @Nonnull final Node parent) {
+        final Element element = document.createElementNS(StringSupport.trimOrNull(reader.getNamespaceURI()),
+                qualify(reader.getPrefix(), reader.getLocalName()));
+
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            final String prefix = StringSupport.trimOrNull(reader.getNamespacePrefix(i));
+            final String uri = reader.getNamespaceURI(i);
+            element.setAttributeNS(XMLConstants.XMLNS_NS,
+                    prefix != null ? XMLConstants.XMLNS_PREFIX + ":" + prefix : XMLConstants.XMLNS_PREFIX,
+                    uri != null ? uri : "");
+        }
+
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.setAttributeNS(StringSupport.trimOrNull(reader.getAttributeNamespace(i)),
+                    qualify(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                    reader.getAttributeValue(i));
+        }
+
+        parent.appendChild(element);
+        return element;
+    }
+
+    /**
+     * Read the remainder of an element from a reader into its DOM.
+     * 
+     * @param reader the stream reader, positioned at the start of the element
+     * @param document the owning document
+     * @param element the element, already holding its attributes
+     * @throws XMLStreamException if the stream can not be read
+     * @throws UnmarshallingException if the stream contains an unresolved entity reference
+     */
+    private void materialize(@Nonnull final XMLStreamReader reader, @Nonnull final Document document,
+            @Nonnull final Element element) throws XMLStreamException, UnmarshallingException {
+        Node current = element;
+        while (true) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    current = createShell(reader, document, current);
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (current == element) {
+                        return;
+                    }
+                    current = current.getParentNode();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    current.appendChild(document.createTextNode(reader.getText()));
+                    break;
+                case XMLStreamConstants.CDATA:
+                    current.appendChild(document.createCDATASection(reader.getText()));
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    current.appendChild(document.createComment(reader.getText()));
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    current.appendChild(document.createProcessingInstruction(reader.getPITarget(),
+                            reader.getPIData()));
+                    break;
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    throw new UnmarshallingException("Unresolved entity reference " + reader.getLocalName());
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Declare on an element the namespaces it inherits from its ancestors, so that the element remains
+     * self-contained, for instance for signature verification, once detached from them.
+     * 
+     * @param element the element
+     */
+    private void declareInheritedNamespaces(@Nonnull final Element element) {
+        Node ancestor = element.getParentNode();
+        while (ancestor instanceof Element) {
+            final NamedNodeMap attributes = ancestor.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                final Attr attribute = (Attr) attributes.item(i);
+                if (XMLConstants.XMLNS_NS.equals(attribute.getNamespaceURI())
+                        && !element.hasAttributeNS(XMLConstants.XMLNS_NS, attribute.getLocalName())) {
+                    element.setAttributeNS(XMLConstants.XMLNS_NS, attribute.getName(), attribute.getValue());
+                }
+            }
+            ancestor = ancestor.getParentNode();
+        }
+    }
+
+    /**
+     * Build a qualified name.
+     * 
+     * @param prefix the prefix, or null
+     * @param localName the local name
+     * @return the qualified name
+     */
+    @Nonnull private static String qualify(@Nullable final String prefix, @Nonnull final String localName) {
+        final String trimmedPrefix = StringSupport.trimOrNull(prefix);
+        return trimmedPrefix != null ? trimmedPrefix + ":" + localName : localName;
+    }
+
+}
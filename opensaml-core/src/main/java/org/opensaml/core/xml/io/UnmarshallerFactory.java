@@ -27,8 +27,8 @@ import javax.xml.namespace.QName;
 
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.xml.DOMTypeSupport;
-import net.shibboleth.utilities.java.support.xml.QNameSupport;
 
+import org.opensaml.core.xml.util.QNameCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Element;
@@ -83,7 +83,7 @@ public class UnmarshallerFactory {
         unmarshaller = getUnmarshaller(DOMTypeSupport.getXSIType(domElement));
 
         if (unmarshaller == null) {
-            unmarshaller = getUnmarshaller(QNameSupport.getNodeQName(domElement));
+            unmarshaller = getUnmarshaller(QNameCache.getNodeQName(domElement));
         }
 
         return unmarshaller;
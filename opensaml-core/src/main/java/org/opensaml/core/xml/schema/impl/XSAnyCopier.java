@@ -0,0 +1,44 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.core.xml.schema.impl;
+
+import javax.annotation.Nonnull;
+
+import org.opensaml.core.xml.AbstractXMLObjectCopier;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.core.xml.schema.XSAny;
+
+/**
+ * Copier of {@link org.opensaml.core.xml.schema.impl.XSAnyImpl} objects.
+ */
+public class XSAnyCopier extends AbstractXMLObjectCopier<XSAny> {
+
+    /** Constructor. */
+    public XSAnyCopier() {
+        super(new XSAnyBuilder());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void copyContent(@Nonnull final XSAny original, @Nonnull final XSAny copy)
+            throws MarshallingException, UnmarshallingException {
+        copy.setTextContent(original.getTextContent());
+        copyAttributeMap(original.getUnknownAttributes(), copy.getUnknownAttributes());
+        copyChildren(original.getUnknownXMLObjects(), copy.getUnknownXMLObjects());
+    }
+}
@@ -25,19 +25,25 @@ import javax.annotation.Nullable;
 import javax.xml.namespace.QName;
 
 import org.opensaml.core.xml.AbstractXMLObject;
+import org.opensaml.core.xml.DeferredChildrenBearing;
 import org.opensaml.core.xml.XMLObject;
 import org.opensaml.core.xml.schema.XSAny;
 import org.opensaml.core.xml.util.AttributeMap;
+import org.opensaml.core.xml.util.DeferredXMLObjectChildren;
 import org.opensaml.core.xml.util.IndexedXMLObjectChildrenList;
+import org.w3c.dom.Element;
 
 /**
  * Concrete implementation of {@link XSAny}.
  */
-public class XSAnyImpl extends AbstractXMLObject implements XSAny {
+public class XSAnyImpl extends AbstractXMLObject implements XSAny, DeferredChildrenBearing {
 
     /** Child XMLObjects. */
     @Nonnull private IndexedXMLObjectChildrenList<XMLObject> unknownXMLObjects;
 
+    /** Child elements whose unmarshalling has been deferred. */
+    @Nonnull private final DeferredXMLObjectChildren deferredChildren;
+
     /** Attributes for this element. */
     @Nonnull private AttributeMap unknownAttributes;
 
@@ -56,6 +62,7 @@ public class XSAnyImpl extends AbstractXMLObject implements XSAny {
         super(namespaceURI, elementLocalName, namespacePrefix);
 
         unknownXMLObjects = new IndexedXMLObjectChildrenList<>(this);
+        deferredChildren = new DeferredXMLObjectChildren(this);
         unknownAttributes = new AttributeMap(this);
     }
 
@@ -71,16 +78,19 @@ public class XSAnyImpl extends AbstractXMLObject implements XSAny {
 
     /** {@inheritDoc} */
     @Nonnull public List<XMLObject> getUnknownXMLObjects() {
+        deferredChildren.resolve(unknownXMLObjects);
         return unknownXMLObjects;
     }
     
     /** {@inheritDoc} */
     @Nonnull public List<XMLObject> getUnknownXMLObjects(@Nonnull final QName typeOrName) {
+        deferredChildren.resolve(unknownXMLObjects);
         return (List<XMLObject>) unknownXMLObjects.subList(typeOrName);
     }
 
     /** {@inheritDoc} */
     @Nullable public List<XMLObject> getOrderedChildren() {
+        deferredChildren.resolve(unknownXMLObjects);
         return Collections.unmodifiableList(unknownXMLObjects);
     }
 
@@ -88,4 +98,15 @@ public class XSAnyImpl extends AbstractXMLObject implements XSAny {
     @Nonnull public AttributeMap getUnknownAttributes() {
         return unknownAttributes;
     }
+
+    /** {@inheritDoc} */
+    public void deferChildElements(@Nonnull final Element domElement) {
+        deferredChildren.defer(domElement);
+    }
+
+    /** {@inheritDoc} */
+    public void releaseDOM() {
+        deferredChildren.resolve(unknownXMLObjects);
+        super.releaseDOM();
+    }
 }
\ No newline at end of file
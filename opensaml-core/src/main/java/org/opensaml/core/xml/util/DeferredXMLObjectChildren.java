@@ -0,0 +1,161 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.core.xml.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.xml.ElementSupport;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.XMLRuntimeException;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.Unmarshaller;
+import org.opensaml.core.xml.io.UnmarshallerFactory;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+
+/**
+ * Holds the DOM child elements of an {@link XMLObject} whose unmarshalling has been deferred, and unmarshalls them
+ * into the object's child list on demand.
+ * 
+ * <p>
+ * Owners call {@link #resolve(XMLObjectChildrenList)} at the start of each method exposing their children, and
+ * before their cached DOM is released, since the DOM is then the only representation of the deferred children.
+ * Resolution happens at most once; the unmarshalled children are safely published to all threads which
+ * subsequently call {@link #resolve(XMLObjectChildrenList)}.
+ * </p>
+ * 
+ * <p>
+ * Resolution retains the cached DOM of the owner and its ancestors, which already contains the children, and
+ * registers the IDs the children carry with the {@link IDIndex} of the owner and its ancestors, as unmarshalling
+ * them eagerly would have. Unmarshalling marks ID attributes in the DOM, and the ancestors' ID indexes may be
+ * shared by owners unmarshalled from different documents, so resolutions are serialized on a private lock.
+ * </p>
+ */
+public class DeferredXMLObjectChildren {
+
+    /** Lock serializing resolutions, which modify the DOM and the ID indexes of the owners' ancestors. */
+    @Nonnull private static final Object RESOLUTION_LOCK = new Object();
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(DeferredXMLObjectChildren.class);
+
+    /** The object owning the children. */
+    @Nonnull private final XMLObject owner;
+
+    /** The DOM element whose child elements are still to be unmarshalled. */
+    @Nullable private volatile Element deferredElement;
+
+    /**
+     * Constructor.
+     * 
+     * @param newOwner the object owning the children
+     */
+    public DeferredXMLObjectChildren(@Nonnull final XMLObject newOwner) {
+        owner = Constraint.isNotNull(newOwner, "Owning XMLObject cannot be null");
+    }
+
+    /**
+     * Defers the unmarshalling of the child elements of the given DOM element. Nothing is deferred if the element
+     * has no child elements.
+     * 
+     * @param domElement the DOM element from which the owner is being unmarshalled
+     */
+    public void defer(@Nonnull final Element domElement) {
+        if (ElementSupport.getFirstChildElement(domElement) != null) {
+            deferredElement = domElement;
+        }
+    }
+
+    /**
+     * Gets whether there are child elements which have not yet been unmarshalled.
+     * 
+     * @return whether there are child elements which have not yet been unmarshalled
+     */
+    public boolean isDeferred() {
+        return deferredElement != null;
+    }
+
+    /**
+     * Unmarshalls the deferred child elements, if any, and adds them to the given list, registering their IDs with
+     * the ID indexes of the owner and its ancestors.
+     * 
+     * @param children the owner's list of children
+     */
+    public void resolve(@Nonnull final XMLObjectChildrenList<XMLObject> children) {
+        final Element pending = deferredElement;
+        if (pending == null) {
+            return;
+        }
+
+        synchronized (RESOLUTION_LOCK) {
+            final Element element = deferredElement;
+            if (element == null) {
+                return;
+            }
+            final List<XMLObject> resolved = new ArrayList<>();
+            try {
+                log.trace("Unmarshalling deferred child elements of {}", owner.getElementQName());
+                final UnmarshallerFactory unmarshallerFactory =
+                        XMLObjectProviderRegistrySupport.getUnmarshallerFactory();
+                Element childElement = ElementSupport.getFirstChildElement(element);
+                while (childElement != null) {
+                    resolved.add(getUnmarshaller(unmarshallerFactory, childElement).unmarshall(childElement));
+                    childElement = ElementSupport.getNextSiblingElement(childElement);
+                }
+            } catch (final UnmarshallingException e) {
+                throw new XMLRuntimeException("Unable to unmarshall deferred child elements of "
+                        + owner.getElementQName(), e);
+            }
+
+            for (final XMLObject child : resolved) {
+                children.addUnmarshalledChild(child);
+            }
+            deferredElement = null;
+        }
+    }
+
+    /**
+     * Gets the unmarshaller for a child element, falling back to the default provider's unmarshaller.
+     * 
+     * @param unmarshallerFactory the unmarshaller factory
+     * @param childElement the child element
+     * @return the unmarshaller
+     * @throws UnmarshallingException if no unmarshaller is available
+     */
+    @Nonnull private Unmarshaller getUnmarshaller(@Nonnull final UnmarshallerFactory unmarshallerFactory,
+            @Nonnull final Element childElement) throws UnmarshallingException {
+        Unmarshaller unmarshaller = unmarshallerFactory.getUnmarshaller(childElement);
+        if (unmarshaller == null) {
+            unmarshaller =
+                    unmarshallerFactory.getUnmarshaller(XMLObjectProviderRegistrySupport.getDefaultProviderQName());
+            if (unmarshaller == null) {
+                throw new UnmarshallingException("No unmarshaller available for "
+                        + QNameCache.getNodeQName(childElement) + ", child of " + owner.getElementQName());
+            }
+        }
+        return unmarshaller;
+    }
+
+}
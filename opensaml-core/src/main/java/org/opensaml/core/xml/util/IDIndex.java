@@ -29,6 +29,7 @@ import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.collection.LazyMap;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 
+import org.opensaml.core.xml.AbstractXMLObject;
 import org.opensaml.core.xml.XMLObject;
 
 /**
@@ -56,6 +57,20 @@ public class IDIndex {
         owner = newOwner;
         idMappings = new LazyMap<>();
     }
+
+    /**
+     * Get whether the ID index of an XMLObject holds any mappings, without creating the index of an
+     * {@link AbstractXMLObject} which has not used it.
+     * 
+     * @param xmlObject the XMLObject
+     * @return true iff the XMLObject's ID index holds any mappings
+     */
+    public static boolean hasIDMappings(@Nonnull final XMLObject xmlObject) {
+        if (xmlObject instanceof AbstractXMLObject) {
+            return ((AbstractXMLObject) xmlObject).hasIDMappings();
+        }
+        return !xmlObject.getIDIndex().isEmpty();
+    }
     
 
     /**
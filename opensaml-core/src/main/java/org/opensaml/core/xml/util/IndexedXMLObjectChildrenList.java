@@ -82,6 +82,13 @@ public class IndexedXMLObjectChildrenList<ElementType extends XMLObject> extends
         indexElement(element);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    protected void addUnmarshalledChild(@Nonnull final ElementType element) {
+        super.addUnmarshalledChild(element);
+        indexElement(element);
+    }
+
     /** {@inheritDoc} */
     @Override
     public void clear() {
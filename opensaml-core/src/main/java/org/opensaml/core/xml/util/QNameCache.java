@@ -0,0 +1,116 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.core.xml.util;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+import net.shibboleth.utilities.java.support.xml.QNameSupport;
+
+import org.w3c.dom.Node;
+
+/**
+ * A global cache of {@link QName} instances, used to avoid constructing a new QName for every DOM node visited
+ * during unmarshalling.
+ * 
+ * <p>The cache is a fixed size, direct-mapped table indexed by the hash of the namespace URI, local name and prefix.
+ * A lookup is a single table probe which compares the candidate's strings first by identity, which succeeds for the
+ * names of nodes produced by a parser that pools its symbols, and then by value. On a miss the new QName replaces
+ * the entry in its slot, so the cache never grows and needs no locking: QName is immutable, so a reader racing with
+ * a writer sees either the old or the new entry, and either a match or a miss.</p>
+ * 
+ * <p>QNames returned by this class are the same as those returned by {@link QNameSupport#getNodeQName(Node)} and
+ * {@link QNameSupport#constructQName(String, String, String)}, including their prefix.</p>
+ */
+@ThreadSafe
+public final class QNameCache {
+
+    /** Number of slots in the cache, a power of two. */
+    private static final int CACHE_SIZE = 4096;
+
+    /** The cache. */
+    @Nonnull private static final QName[] CACHE = new QName[CACHE_SIZE];
+
+    /** Constructor. */
+    private QNameCache() {
+    }
+
+    /**
+     * Get the QName of a DOM node.
+     * 
+     * @param node the node
+     * 
+     * @return the node's QName, or null if the node is null
+     */
+    @Nullable public static QName getNodeQName(@Nullable final Node node) {
+        if (node == null) {
+            return null;
+        }
+        if (node.getLocalName() == null) {
+            return QNameSupport.getNodeQName(node);
+        }
+        return getQName(node.getNamespaceURI(), node.getLocalName(), node.getPrefix());
+    }
+
+    /**
+     * Get a QName.
+     * 
+     * @param namespaceURI the namespace URI
+     * @param localName the local name
+     * @param prefix the namespace prefix
+     * 
+     * @return the QName
+     */
+    @Nonnull public static QName getQName(@Nullable final String namespaceURI, @Nonnull final String localName,
+            @Nullable final String prefix) {
+        if (localName == null) {
+            return QNameSupport.constructQName(namespaceURI, localName, prefix);
+        }
+
+        final String ns = namespaceURI != null ? namespaceURI : XMLConstants.NULL_NS_URI;
+        final String pfx = prefix != null ? prefix : XMLConstants.DEFAULT_NS_PREFIX;
+        int hash = (ns.hashCode() * 31 + localName.hashCode()) * 31 + pfx.hashCode();
+        hash ^= hash >>> 16;
+        final int index = hash & (CACHE_SIZE - 1);
+
+        final QName cached = CACHE[index];
+        if (cached != null && matches(cached.getLocalPart(), localName) && matches(cached.getNamespaceURI(), ns)
+                && matches(cached.getPrefix(), pfx)) {
+            return cached;
+        }
+
+        final QName qname = QNameSupport.constructQName(namespaceURI, localName, prefix);
+        CACHE[index] = qname;
+        return qname;
+    }
+
+    /**
+     * Compare two strings, by identity and then by value.
+     * 
+     * @param cached the string from the cached QName
+     * @param candidate the string being looked up
+     * 
+     * @return whether the strings are equal
+     */
+    private static boolean matches(@Nonnull final String cached, @Nonnull final String candidate) {
+        return cached == candidate || cached.equals(candidate);
+    }
+
+}
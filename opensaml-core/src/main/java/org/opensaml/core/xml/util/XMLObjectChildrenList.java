@@ -126,13 +126,17 @@ public class XMLObjectChildrenList<ElementType extends XMLObject> extends Abstra
         ElementType removedElement = elements.set(index, element);
         if (removedElement != null) {
             removedElement.setParent(null);
-            parent.getIDIndex().deregisterIDMappings(removedElement.getIDIndex());
+            if (IDIndex.hasIDMappings(removedElement)) {
+                parent.getIDIndex().deregisterIDMappings(removedElement.getIDIndex());
+            }
         }
         
         // Note: to avoid ordering problems, this needs to be called after
         // the deregistration, in case the added element has a same ID string 
         // value as the removed one, else you will lose it.
-        parent.getIDIndex().registerIDMappings(element.getIDIndex());
+        if (IDIndex.hasIDMappings(element)) {
+            parent.getIDIndex().registerIDMappings(element.getIDIndex());
+        }
 
         modCount++;
         return removedElement;
@@ -154,7 +158,9 @@ public class XMLObjectChildrenList<ElementType extends XMLObject> extends Abstra
         }
 
         setParent(element);
-        parent.getIDIndex().registerIDMappings(element.getIDIndex());
+        if (IDIndex.hasIDMappings(element)) {
+            parent.getIDIndex().registerIDMappings(element.getIDIndex());
+        }
 
         modCount++;
         elements.add(index, element);
@@ -167,7 +173,9 @@ public class XMLObjectChildrenList<ElementType extends XMLObject> extends Abstra
         if (element != null) {
             element.releaseParentDOM(true);
             element.setParent(null);
-            parent.getIDIndex().deregisterIDMappings(element.getIDIndex());
+            if (IDIndex.hasIDMappings(element)) {
+                parent.getIDIndex().deregisterIDMappings(element.getIDIndex());
+            }
         }
 
         modCount++;
@@ -188,13 +196,32 @@ public class XMLObjectChildrenList<ElementType extends XMLObject> extends Abstra
             if (element != null) {
                 element.releaseParentDOM(true);
                 element.setParent(null);
-                parent.getIDIndex().deregisterIDMappings(element.getIDIndex());
+                if (IDIndex.hasIDMappings(element)) {
+                    parent.getIDIndex().deregisterIDMappings(element.getIDIndex());
+                }
             }
         }
 
         return elementRemoved;
     }
 
+    /**
+     * Adds an XMLObject unmarshalled from a child element already present in the cached DOM of the parent given at
+     * list construction. Unlike {@link #add(int, XMLObject)}, this does not release the cached DOM of the parent and
+     * its ancestors, which already contains the element. The element's IDs are registered with their
+     * {@link IDIndex}.
+     * 
+     * @param element the element to be added
+     */
+    protected void addUnmarshalledChild(@Nonnull final ElementType element) {
+        element.setParent(parent);
+        if (IDIndex.hasIDMappings(element)) {
+            parent.getIDIndex().registerIDMappings(element.getIDIndex());
+        }
+        modCount++;
+        elements.add(element);
+    }
+
     /**
      * Assigned the parent, given at list construction, to the given element if the element does not have a parent or
      * its parent matches the one given at list construction time.
@@ -39,6 +39,7 @@ import org.opensaml.core.config.ConfigurationService;
 import org.opensaml.core.xml.Namespace;
 import org.opensaml.core.xml.XMLObject;
 import org.opensaml.core.xml.XMLObjectBuilder;
+import org.opensaml.core.xml.XMLObjectCopier;
 import org.opensaml.core.xml.XMLRuntimeException;
 import org.opensaml.core.xml.config.XMLObjectProviderRegistry;
 import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
@@ -211,6 +212,57 @@ public final class XMLObjectSupport {
         }
         return clonedXMLObject;
     }
+
+    /**
+     * Copy an XMLObject tree.
+     * 
+     * <p>
+     * If an {@link XMLObjectCopier} is registered for the object's implementation class, the object is copied
+     * directly, without marshalling it, and its children are copied in the same way by the copier. Otherwise, or
+     * if the object has a cached DOM, it is cloned through a DOM by
+     * {@link #cloneXMLObject(XMLObject, CloneOutputOption)}: an object without a cached DOM is cloned with
+     * {@link CloneOutputOption#DropDOM}, and one with a cached DOM is cloned with
+     * {@link CloneOutputOption#RootDOMInNewDocument}, so that the copy reproduces the serialized form of the
+     * original, including any signature over it.
+     * </p>
+     * 
+     * <p>
+     * If the original has a parent, the namespaces used non-visibly within it, such as those of QName-valued
+     * attributes and content whose prefixes may be declared on its ancestors, are declared on the copy.
+     * </p>
+     * 
+     * @param originalXMLObject the object to be copied
+     * @return a copy of the original object
+     * 
+     * @throws MarshallingException if some part of the original object must be cloned and can not be marshalled
+     * @throws UnmarshallingException if some part of the original object must be cloned and can not be unmarshalled
+     * 
+     * @param <T> the type of object being copied
+     */
+    @Nullable public static <T extends XMLObject> T copyXMLObject(@Nullable final T originalXMLObject)
+            throws MarshallingException, UnmarshallingException {
+        if (originalXMLObject == null) {
+            return null;
+        }
+
+        if (originalXMLObject.getDOM() != null) {
+            return cloneXMLObject(originalXMLObject, CloneOutputOption.RootDOMInNewDocument);
+        }
+
+        final XMLObjectCopier<T> copier =
+                XMLObjectProviderRegistrySupport.getCopierFactory().getCopier(originalXMLObject);
+        if (copier == null) {
+            return cloneXMLObject(originalXMLObject, CloneOutputOption.DropDOM);
+        }
+
+        final T copy = copier.copy(originalXMLObject);
+        if (originalXMLObject.hasParent()) {
+            for (final Namespace namespace : originalXMLObject.getNamespaceManager().getNonVisibleNamespaces()) {
+                copy.getNamespaceManager().registerNamespaceDeclaration(namespace);
+            }
+        }
+        return copy;
+    }
     
     /**
      * Unmarshall a Document from an InputSteam.
@@ -456,8 +508,7 @@ public final class XMLObjectSupport {
      * @param attribute the target DOM Attr
      */
     public static void unmarshallToAttributeMap(AttributeMap attributeMap, Attr attribute) {
-        QName attribQName = QNameSupport.constructQName(attribute.getNamespaceURI(), attribute.getLocalName(), attribute
-                .getPrefix());
+        QName attribQName = QNameCache.getNodeQName(attribute);
         attributeMap.put(attribQName, attribute.getValue());
         if (attribute.isId() || XMLObjectProviderRegistrySupport.isIDAttribute(attribQName)) {
             attributeMap.registerID(attribQName);
@@ -17,8 +17,11 @@
 
 package org.opensaml.core.xml;
 
+import javax.xml.namespace.QName;
+
 import org.testng.annotations.Test;
 import org.testng.Assert;
+import net.shibboleth.utilities.java.support.xml.ElementSupport;
 import net.shibboleth.utilities.java.support.xml.XMLParserException;
 
 import org.opensaml.core.xml.XMLObject;
@@ -27,6 +30,7 @@ import org.opensaml.core.xml.io.Unmarshaller;
 import org.opensaml.core.xml.io.UnmarshallingException;
 import org.opensaml.core.xml.schema.XSAny;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
 /** Test unmarshalling content for which no specific object providers were registered. */
 public class ElementProxyTest extends XMLObjectBaseTestCase {
@@ -47,4 +51,70 @@ public class ElementProxyTest extends XMLObjectBaseTestCase {
         Assert.assertEquals(((XSAny) xmlobject.getOrderedChildren().get(1).getOrderedChildren().get(0)).getTextContent(),
                 "<strong>XSLT Perfect IDE</strong>", "Unexpected CDATA content");
     }
+
+    /**
+     * Tests unmarshalling unknown content with the unmarshalling of the root element's children deferred.
+     */
+    @Test
+    public void testUnmarshallDeferredUnknownContent() throws XMLParserException, UnmarshallingException{
+        String documentLocation = "/org/opensaml/core/xml/UnknownContent.xml";
+        Document document = parserPool.parse(UnmarshallingTest.class.getResourceAsStream(documentLocation));
+        QName productsName = new QName("products");
+
+        XMLObjectProviderRegistrySupport.registerDeferredChildrenElement(productsName);
+        try {
+            Unmarshaller unmarshaller = unmarshallerFactory.getUnmarshaller(XMLObjectProviderRegistrySupport.getDefaultProviderQName());
+            XMLObject xmlobject = unmarshaller.unmarshall(document.getDocumentElement());
+            Assert.assertSame(xmlobject.getDOM(), document.getDocumentElement());
+
+            // Children are only unmarshalled on access, so a child removed from the DOM beforehand never appears.
+            Element root = document.getDocumentElement();
+            root.removeChild(ElementSupport.getFirstChildElement(root));
+
+            Assert.assertEquals(xmlobject.getOrderedChildren().size(), 1, "Unexpected number of children");
+            Assert.assertEquals(((XSAny) xmlobject.getOrderedChildren().get(0).getOrderedChildren().get(0)).getTextContent(),
+                    "<strong>XSLT Perfect IDE</strong>", "Unexpected CDATA content");
+            Assert.assertSame(xmlobject.getOrderedChildren().get(0).getParent(), xmlobject);
+            Assert.assertSame(xmlobject.getDOM(), root, "Cached DOM was released by unmarshalling the children");
+        } finally {
+            XMLObjectProviderRegistrySupport.deregisterDeferredChildrenElement(productsName);
+        }
+    }
+
+    /**
+     * Tests that resolving the deferred children of a nested element retains the cached DOM of its ancestors, and
+     * registers the IDs of the children with the ID indexes of its ancestors.
+     */
+    @Test
+    public void testUnmarshallNestedDeferredUnknownContent() throws XMLParserException, UnmarshallingException{
+        String documentLocation = "/org/opensaml/core/xml/UnknownContent.xml";
+        Document document = parserPool.parse(UnmarshallingTest.class.getResourceAsStream(documentLocation));
+        QName productsName = new QName("products");
+        QName productName = new QName("http://example.com/product-info", "product");
+        Element product = ElementSupport.getFirstChildElement(document.getDocumentElement());
+        product.setAttributeNS(javax.xml.XMLConstants.XML_NS_URI, "xml:id", "python");
+        ElementSupport.getFirstChildElement(product).setAttributeNS(javax.xml.XMLConstants.XML_NS_URI, "xml:id",
+                "python-name");
+
+        XMLObjectProviderRegistrySupport.registerDeferredChildrenElement(productsName);
+        XMLObjectProviderRegistrySupport.registerDeferredChildrenElement(productName);
+        try {
+            Unmarshaller unmarshaller = unmarshallerFactory.getUnmarshaller(XMLObjectProviderRegistrySupport.getDefaultProviderQName());
+            XMLObject xmlobject = unmarshaller.unmarshall(document.getDocumentElement());
+
+            XMLObject productObject = xmlobject.getOrderedChildren().get(0);
+            Assert.assertSame(productObject.getDOM(), product);
+            Assert.assertEquals(productObject.getOrderedChildren().size(), 2, "Unexpected number of children");
+            Assert.assertSame(productObject.getOrderedChildren().get(0).getParent(), productObject);
+            Assert.assertSame(productObject.getDOM(), product, "Cached DOM was released by unmarshalling the children");
+            Assert.assertSame(xmlobject.getDOM(), document.getDocumentElement(),
+                    "Ancestor's cached DOM was released by unmarshalling the children");
+            Assert.assertSame(xmlobject.resolveID("python"), productObject, "Child's ID was not registered");
+            Assert.assertSame(xmlobject.resolveID("python-name"), productObject.getOrderedChildren().get(0),
+                    "Grandchild's ID was not registered");
+        } finally {
+            XMLObjectProviderRegistrySupport.deregisterDeferredChildrenElement(productName);
+            XMLObjectProviderRegistrySupport.deregisterDeferredChildrenElement(productsName);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.core.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.namespace.QName;
+
+import net.shibboleth.utilities.java.support.xml.ElementSupport;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
+import net.shibboleth.utilities.java.support.xml.XMLAssertTestNG;
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
+
+import org.custommonkey.xmlunit.Diff;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.io.StAXMarshaller;
+import org.opensaml.core.xml.mock.SimpleXMLObject;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Unit test for {@link StAXMarshaller}.
+ */
+public class StAXMarshallingTest extends XMLObjectBaseTestCase {
+
+    /**
+     * Tests marshalling an object that has attributes.
+     * 
+     * @throws XMLParserException
+     * @throws MarshallingException
+     */
+    @Test
+    public void testMarshallingWithAttributes() throws XMLParserException, MarshallingException {
+        SimpleXMLObject sxObject = buildXMLObject(simpleXMLObjectQName);
+        sxObject.setId("Firefly");
+
+        assertStreamEquals("/org/opensaml/core/xml/SimpleXMLObjectWithAttribute.xml", sxObject);
+        Assert.assertNull(sxObject.getDOM(), "DOM was cached after marshalling");
+    }
+
+    /**
+     * Tests marshalling an object tree that has element content.
+     * 
+     * @throws XMLParserException
+     * @throws MarshallingException
+     */
+    @Test
+    public void testMarshallingWithElementContent() throws XMLParserException, MarshallingException {
+        SimpleXMLObject sxObject = buildXMLObject(simpleXMLObjectQName);
+
+        SimpleXMLObject child1 = buildXMLObject(simpleXMLObjectQName);
+        child1.setValue("Content1");
+        sxObject.getSimpleXMLObjects().add(child1);
+
+        SimpleXMLObject child2 = buildXMLObject(simpleXMLObjectQName);
+        child2.setValue("Content2");
+        sxObject.getSimpleXMLObjects().add(child2);
+
+        SimpleXMLObject child3 = buildXMLObject(simpleXMLObjectQName);
+        sxObject.getSimpleXMLObjects().add(child3);
+
+        SimpleXMLObject grandchild1 = buildXMLObject(simpleXMLObjectQName);
+        grandchild1.setValue("Content3");
+        child3.getSimpleXMLObjects().add(grandchild1);
+
+        assertStreamEquals("/org/opensaml/core/xml/SimpleXMLObjectWithContent.xml", sxObject);
+        Assert.assertNull(child3.getDOM(), "DOM was cached after marshalling");
+    }
+
+    /**
+     * Tests that a child with a cached DOM is written from that DOM.
+     * 
+     * @throws XMLParserException
+     * @throws MarshallingException
+     */
+    @Test
+    public void testMarshallingCachedDOM() throws XMLParserException, MarshallingException {
+        SimpleXMLObject sxObject = buildXMLObject(simpleXMLObjectQName);
+        SimpleXMLObject child1 = buildXMLObject(simpleXMLObjectQName);
+        SimpleXMLObject child2 = buildXMLObject(simpleXMLObjectQName);
+        sxObject.getSimpleXMLObjects().add(child1);
+        sxObject.getSimpleXMLObjects().add(child2);
+
+        getMarshaller(child2).marshall(child2);
+        Assert.assertNotNull(child2.getDOM());
+
+        assertStreamEquals("/org/opensaml/core/xml/SimpleXMLObjectWithChildren.xml", sxObject);
+        Assert.assertNotNull(child2.getDOM(), "Cached DOM was released by marshalling");
+        Assert.assertNull(sxObject.getDOM(), "DOM was cached after marshalling");
+    }
+
+    /**
+     * Tests that a namespace used but not declared in a cached DOM is declared, as the DOM path's serializer does.
+     * 
+     * @throws XMLParserException
+     * @throws MarshallingException
+     */
+    @Test
+    public void testMarshallingNamespaceFixup() throws XMLParserException, MarshallingException {
+        SimpleXMLObject sxObject = buildXMLObject(simpleXMLObjectQName);
+        Element dom = getMarshaller(sxObject).marshall(sxObject);
+        dom.appendChild(ElementSupport.constructElement(dom.getOwnerDocument(),
+                new QName("urn:example:undeclared", "Undeclared", "ex")));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new StAXMarshaller().marshall(sxObject, output, false);
+        String streamed = new String(output.toByteArray(), StandardCharsets.UTF_8);
+
+        Assert.assertTrue(streamed.contains("xmlns:ex=\"urn:example:undeclared\""), streamed);
+        Document streamedDocument = parserPool.parse(new ByteArrayInputStream(output.toByteArray()));
+        Document expectedDocument =
+                parserPool.parse(new StringReader(SerializeSupport.nodeToString(sxObject.getDOM())));
+        XMLAssertTestNG.assertXMLIdentical(new Diff(expectedDocument, streamedDocument), true);
+    }
+
+    /**
+     * Tests that streamed output is identical to the output of the DOM marshalling path.
+     * 
+     * @param expectedDocumentLocation location of the expected document
+     * @param xmlObject the object to marshall
+     * @throws XMLParserException
+     * @throws MarshallingException
+     */
+    private void assertStreamEquals(String expectedDocumentLocation, XMLObject xmlObject)
+            throws XMLParserException, MarshallingException {
+        Document expectedDocument =
+                parserPool.parse(StAXMarshallingTest.class.getResourceAsStream(expectedDocumentLocation));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new StAXMarshaller().marshall(xmlObject, output, true);
+        Document streamedDocument = parserPool.parse(new ByteArrayInputStream(output.toByteArray()));
+
+        XMLAssertTestNG.assertXMLIdentical(new Diff(expectedDocument, streamedDocument), true);
+    }
+
+}
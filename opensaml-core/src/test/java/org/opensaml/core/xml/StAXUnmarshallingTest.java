@@ -0,0 +1,119 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.core.xml;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
+
+import org.opensaml.core.xml.io.StAXUnmarshaller;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.core.xml.mock.SimpleXMLObject;
+import org.opensaml.core.xml.schema.XSQName;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Unit test for {@link StAXUnmarshaller}.
+ */
+public class StAXUnmarshallingTest extends XMLObjectBaseTestCase {
+
+    /**
+     * Tests unmarshalling an element that has attributes.
+     * 
+     * @throws UnmarshallingException
+     */
+    @Test
+    public void testUnmarshallingWithAttributes() throws UnmarshallingException {
+        SimpleXMLObject sxObject = (SimpleXMLObject) new StAXUnmarshaller().unmarshall(
+                StAXUnmarshallingTest.class.getResourceAsStream("/org/opensaml/core/xml/SimpleXMLObjectWithAttribute.xml"));
+
+        Assert.assertNull(sxObject.getDOM(), "DOM was cached after unmarshalling");
+        Assert.assertEquals(sxObject.getId(), "Firefly", "ID was not expected value");
+    }
+
+    /**
+     * Tests unmarshalling an element with content, and that the result marshalls to the original document.
+     * 
+     * @throws UnmarshallingException
+     * @throws XMLParserException
+     */
+    @Test
+    public void testUnmarshallingWithElementContent() throws UnmarshallingException, XMLParserException {
+        String documentLocation = "/org/opensaml/core/xml/SimpleXMLObjectWithContent.xml";
+        SimpleXMLObject sxObject = (SimpleXMLObject) new StAXUnmarshaller().unmarshall(
+                StAXUnmarshallingTest.class.getResourceAsStream(documentLocation));
+
+        List<SimpleXMLObject> children = sxObject.getSimpleXMLObjects();
+        Assert.assertEquals(children.size(), 3, "Unexpected number of children");
+        Assert.assertEquals(children.get(0).getValue(), "Content1");
+        Assert.assertEquals(children.get(1).getValue(), "Content2");
+        Assert.assertNull(children.get(2).getValue());
+        Assert.assertEquals(children.get(2).getSimpleXMLObjects().get(0).getValue(), "Content3");
+        Assert.assertNull(children.get(0).getDOM(), "DOM was cached after unmarshalling");
+
+        Document document = parserPool.parse(StAXUnmarshallingTest.class.getResourceAsStream(documentLocation));
+        assertXMLEquals(document, sxObject);
+    }
+
+    /**
+     * Tests that QName-valued content is resolved against the in-scope namespace declarations.
+     * 
+     * @throws UnmarshallingException
+     */
+    @Test
+    public void testQNameContent() throws UnmarshallingException {
+        XSQName xsQName = (XSQName) new StAXUnmarshaller().unmarshall(
+                StAXUnmarshallingTest.class.getResourceAsStream("/org/opensaml/core/xml/schema/xsQName.xml"));
+
+        Assert.assertEquals(xsQName.getElementQName(), new QName("urn:example.org:foo", "bar", "foo"));
+        Assert.assertEquals(xsQName.getSchemaType(), XSQName.TYPE_NAME);
+        Assert.assertEquals(xsQName.getValue(), new QName("urn:example.org:baz", "SomeValue", "baz"));
+    }
+
+    /**
+     * Tests that the DOM of configured elements is materialized and cached.
+     * 
+     * @throws UnmarshallingException
+     */
+    @Test
+    public void testDOMElements() throws UnmarshallingException {
+        SimpleXMLObject sxObject = (SimpleXMLObject) new StAXUnmarshaller(Collections.singleton(simpleXMLObjectQName))
+                .unmarshall(StAXUnmarshallingTest.class.getResourceAsStream(
+                        "/org/opensaml/core/xml/SimpleXMLObjectWithChildren.xml"));
+
+        Assert.assertNotNull(sxObject.getDOM(), "DOM was not cached after unmarshalling");
+        Assert.assertEquals(sxObject.getSimpleXMLObjects().size(), 2);
+        Assert.assertNotNull(sxObject.getSimpleXMLObjects().get(0).getDOM());
+    }
+
+    /**
+     * Tests that documents with a DTD are rejected.
+     */
+    @Test(expectedExceptions=UnmarshallingException.class)
+    public void testDTD() throws UnmarshallingException {
+        String xml = "<?xml version=\"1.0\"?><!DOCTYPE foo [<!ENTITY bar \"baz\">]>"
+                + "<test:SimpleElement xmlns:test=\"http://www.example.org/testObjects\">&bar;</test:SimpleElement>";
+        new StAXUnmarshaller().unmarshall(new ByteArrayInputStream(xml.getBytes()));
+    }
+
+}
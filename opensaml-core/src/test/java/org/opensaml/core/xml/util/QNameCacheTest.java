@@ -0,0 +1,77 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.core.xml.util;
+
+import javax.xml.namespace.QName;
+
+import net.shibboleth.utilities.java.support.xml.QNameSupport;
+
+import org.opensaml.core.xml.XMLObjectBaseTestCase;
+import org.opensaml.core.xml.mock.SimpleXMLObject;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Tests of {@link QNameCache}.
+ */
+public class QNameCacheTest extends XMLObjectBaseTestCase {
+
+    /** Tests that repeated lookups return the same instance. */
+    @Test
+    public void testInterning() {
+        QName first = QNameCache.getQName(SimpleXMLObject.NAMESPACE, SimpleXMLObject.LOCAL_NAME,
+                SimpleXMLObject.NAMESPACE_PREFIX);
+        QName second = QNameCache.getQName(new String(SimpleXMLObject.NAMESPACE),
+                new String(SimpleXMLObject.LOCAL_NAME), new String(SimpleXMLObject.NAMESPACE_PREFIX));
+
+        Assert.assertSame(second, first);
+        Assert.assertEquals(first.getPrefix(), SimpleXMLObject.NAMESPACE_PREFIX);
+    }
+
+    /** Tests that prefixes and empty namespaces are preserved. */
+    @Test
+    public void testPrefixes() {
+        QName prefixed = QNameCache.getQName(SimpleXMLObject.NAMESPACE, SimpleXMLObject.LOCAL_NAME, "foo");
+        QName unprefixed = QNameCache.getQName(SimpleXMLObject.NAMESPACE, SimpleXMLObject.LOCAL_NAME, null);
+        QName unqualified = QNameCache.getQName(null, SimpleXMLObject.LOCAL_NAME, null);
+
+        Assert.assertEquals(prefixed.getPrefix(), "foo");
+        Assert.assertEquals(unprefixed.getPrefix(), "");
+        Assert.assertEquals(prefixed, unprefixed);
+        Assert.assertEquals(unqualified.getNamespaceURI(), "");
+        Assert.assertNotEquals(unqualified, unprefixed);
+    }
+
+    /** Tests that node QNames match those of {@link QNameSupport}. */
+    @Test
+    public void testNodeQName() throws Exception {
+        Document document = parserPool.newDocument();
+        Element element = document.createElementNS(SimpleXMLObject.NAMESPACE, "test:" + SimpleXMLObject.LOCAL_NAME);
+        element.setAttributeNS(null, "Id", "foo");
+
+        QName expected = QNameSupport.getNodeQName(element);
+        QName actual = QNameCache.getNodeQName(element);
+        Assert.assertEquals(actual, expected);
+        Assert.assertEquals(actual.getPrefix(), expected.getPrefix());
+        Assert.assertEquals(QNameCache.getNodeQName(element.getAttributeNode("Id")),
+                QNameSupport.getNodeQName(element.getAttributeNode("Id")));
+        Assert.assertNull(QNameCache.getNodeQName(null));
+    }
+
+}
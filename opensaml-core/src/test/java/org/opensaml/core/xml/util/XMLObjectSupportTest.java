@@ -26,6 +26,7 @@ import org.opensaml.core.xml.io.MarshallingException;
 import org.opensaml.core.xml.io.UnmarshallingException;
 import org.opensaml.core.xml.mock.SimpleXMLObject;
 import org.opensaml.core.xml.mock.SimpleXMLObjectBuilder;
+import org.opensaml.core.xml.schema.XSAny;
 import org.opensaml.core.xml.schema.XSString;
 import org.opensaml.core.xml.util.XMLObjectSupport.CloneOutputOption;
 import org.testng.Assert;
@@ -36,6 +37,50 @@ import org.testng.annotations.Test;
  */
 public class XMLObjectSupportTest extends XMLObjectBaseTestCase {
 
+    /** Tests copying an XMLObject tree with and without registered copiers. */
+    @Test
+    public void testXMLObjectCopy() throws MarshallingException, UnmarshallingException {
+        QName parentName = new QName("urn:test:ns", "Parent", "test");
+        QName attributeName = new QName("urn:test:ns", "attrib", "test");
+
+        XSAny origParentObj = (XSAny) XMLObjectProviderRegistrySupport.getBuilderFactory()
+            .getBuilder(XSAny.TYPE_NAME).buildObject(parentName);
+        origParentObj.getUnknownAttributes().put(attributeName, "attribValue");
+
+        XSString origStringObj = (XSString) XMLObjectProviderRegistrySupport.getBuilderFactory()
+            .getBuilder(XSString.TYPE_NAME).buildObject(SimpleXMLObject.ELEMENT_NAME, XSString.TYPE_NAME);
+        origStringObj.setValue("FooBarBaz");
+        origParentObj.getUnknownXMLObjects().add(origStringObj);
+
+        SimpleXMLObject origSimpleObj = (SimpleXMLObject) XMLObjectSupport.buildXMLObject(SimpleXMLObject.ELEMENT_NAME);
+        origSimpleObj.setValue("Simple");
+        origParentObj.getUnknownXMLObjects().add(origSimpleObj);
+
+        XSAny copiedParentObj = XMLObjectSupport.copyXMLObject(origParentObj);
+
+        Assert.assertNotSame(copiedParentObj, origParentObj);
+        Assert.assertNull(copiedParentObj.getDOM());
+        Assert.assertNull(origParentObj.getDOM(), "Original was marshalled by copying");
+        Assert.assertEquals(copiedParentObj.getElementQName(), parentName);
+        Assert.assertEquals(copiedParentObj.getElementQName().getPrefix(), "test");
+        Assert.assertEquals(copiedParentObj.getUnknownAttributes().get(attributeName), "attribValue");
+        Assert.assertEquals(copiedParentObj.getUnknownXMLObjects().size(), 2);
+
+        XSString copiedStringObj = (XSString) copiedParentObj.getUnknownXMLObjects().get(0);
+        Assert.assertNotSame(copiedStringObj, origStringObj);
+        Assert.assertEquals(copiedStringObj.getValue(), "FooBarBaz");
+        Assert.assertEquals(copiedStringObj.getSchemaType(), XSString.TYPE_NAME);
+        Assert.assertSame(copiedStringObj.getParent(), copiedParentObj);
+
+        // No copier is registered for the mock type, so it is cloned through a DOM.
+        SimpleXMLObject copiedSimpleObj = (SimpleXMLObject) copiedParentObj.getUnknownXMLObjects().get(1);
+        Assert.assertNotSame(copiedSimpleObj, origSimpleObj);
+        Assert.assertNull(copiedSimpleObj.getDOM());
+        Assert.assertEquals(copiedSimpleObj.getValue(), "Simple");
+
+        Assert.assertNull(XMLObjectSupport.copyXMLObject(null));
+    }
+
     /** Tests cloning an XMLObject. */
     @Test
     public void testXMLObjectCloneWithDropDOM() {
@@ -17,10 +17,16 @@
 
 package org.opensaml.messaging.encoder.servlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.xml.SerializeSupport;
 
 import org.opensaml.core.xml.XMLObject;
 import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.io.StAXMarshaller;
 import org.opensaml.core.xml.util.XMLObjectSupport;
 import org.opensaml.messaging.encoder.MessageEncodingException;
 import org.slf4j.Logger;
@@ -41,6 +47,33 @@ public abstract class BaseHttpServletResponseXMLMessageEncoder<MessageType exten
     /** Class logger. */
     private final Logger log = LoggerFactory.getLogger(BaseHttpServletResponseXMLMessageEncoder.class);
 
+    /** Whether messages are serialized by streaming rather than via a DOM. */
+    private boolean streamingMarshalling;
+
+    /**
+     * Get whether messages are serialized by streaming, with {@link StAXMarshaller}, rather than by marshalling
+     * them to a DOM which is then serialized.
+     * 
+     * @return whether messages are serialized by streaming
+     */
+    public boolean isStreamingMarshalling() {
+        return streamingMarshalling;
+    }
+
+    /**
+     * Set whether messages are serialized by streaming, with {@link StAXMarshaller}, rather than by marshalling
+     * them to a DOM which is then serialized.
+     * 
+     * <p>Streaming avoids building and caching a DOM for the message, but messages which are to be signed must be
+     * signed before encoding. Defaults to false.</p>
+     * 
+     * @param flag whether messages are serialized by streaming
+     */
+    public void setStreamingMarshalling(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        streamingMarshalling = flag;
+    }
+
     /** {@inheritDoc} */
     public void encode() throws MessageEncodingException {
         if (log.isDebugEnabled() && getMessageContext().getMessage() != null) {
@@ -103,4 +136,62 @@ public abstract class BaseHttpServletResponseXMLMessageEncoder<MessageType exten
         }
     }
 
+    /**
+     * Helper method that marshalls and serializes the given message to UTF-8 encoded bytes, without an XML
+     * declaration.
+     * 
+     * @param message message the marshall and serialize
+     * 
+     * @return serialized message
+     * 
+     * @throws MessageEncodingException thrown if the give message can not be marshalled or serialized
+     */
+    protected byte[] serializeMessage(XMLObject message) throws MessageEncodingException {
+        if (!streamingMarshalling) {
+            return SerializeSupport.nodeToString(marshallMessage(message)).getBytes(StandardCharsets.UTF_8);
+        }
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        streamMessage(message, output, false);
+        return output.toByteArray();
+    }
+
+    /**
+     * Helper method that marshalls and writes the given message to an output stream, as a UTF-8 encoded document.
+     * 
+     * @param message message the marshall and write
+     * @param output the output stream, which is not closed
+     * 
+     * @throws MessageEncodingException thrown if the give message can not be marshalled or written
+     */
+    protected void writeMessage(XMLObject message, OutputStream output) throws MessageEncodingException {
+        if (!streamingMarshalling) {
+            SerializeSupport.writeNode(marshallMessage(message), output);
+            return;
+        }
+
+        streamMessage(message, output, true);
+    }
+
+    /**
+     * Marshall a message directly to an output stream.
+     * 
+     * @param message message to marshall
+     * @param output the output stream
+     * @param xmlDeclaration whether to write an XML declaration
+     * 
+     * @throws MessageEncodingException thrown if the give message can not be marshalled or written
+     */
+    private void streamMessage(XMLObject message, OutputStream output, boolean xmlDeclaration)
+            throws MessageEncodingException {
+        log.debug("Marshalling message to stream");
+
+        try {
+            new StAXMarshaller().marshall(message, output, xmlDeclaration);
+        } catch (MarshallingException e) {
+            log.error("Error marshalling message", e);
+            throw new MessageEncodingException("Error marshalling message", e);
+        }
+    }
+
 }
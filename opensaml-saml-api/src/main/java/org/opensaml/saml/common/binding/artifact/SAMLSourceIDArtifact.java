@@ -0,0 +1,35 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.common.binding.artifact;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Interface for SAML artifacts which carry a source ID, that is, the SHA-1 digest of the entity ID of the
+ * issuer of the artifact.
+ */
+public interface SAMLSourceIDArtifact {
+
+    /**
+     * Gets the source ID of the artifact.
+     * 
+     * @return the source ID of the artifact
+     */
+    @Nonnull byte[] getSourceID();
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.criterion;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.resolver.Criterion;
+
+import org.opensaml.saml.common.binding.artifact.AbstractSAMLArtifact;
+
+/** {@link Criterion} representing a SAML artifact. */
+public final class ArtifactCriterion implements Criterion {
+
+    /** The SAML artifact. */
+    @Nonnull private final AbstractSAMLArtifact artifact;
+
+    /**
+     * Constructor.
+     * 
+     * @param samlArtifact the SAML artifact
+     */
+    public ArtifactCriterion(@Nonnull final AbstractSAMLArtifact samlArtifact) {
+        artifact = Constraint.isNotNull(samlArtifact, "SAML artifact cannot be null");
+    }
+
+    /**
+     * Gets the SAML artifact.
+     * 
+     * @return the SAML artifact
+     */
+    @Nonnull public AbstractSAMLArtifact getArtifact() {
+        return artifact;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("ArtifactCriterion [artifact=");
+        builder.append(artifact);
+        builder.append("]");
+        return builder.toString();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        return artifact.hashCode();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (obj == null) {
+            return false;
+        }
+
+        if (obj instanceof ArtifactCriterion) {
+            return artifact.equals(((ArtifactCriterion) obj).artifact);
+        }
+
+        return false;
+    }
+}
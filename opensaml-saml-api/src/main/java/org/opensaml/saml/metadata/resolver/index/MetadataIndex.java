@@ -0,0 +1,64 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.metadata.resolver.index;
+
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+
+/**
+ * A secondary index over entity descriptors, used by metadata resolvers to resolve entity descriptors from
+ * criteria other than the entity ID.
+ * 
+ * <p>
+ * An index generates a set of keys for each entity descriptor it indexes, and a set of keys for each
+ * criteria set it is able to evaluate. The entity descriptors which satisfy the criteria are those indexed
+ * under any of the criteria's keys.
+ * </p>
+ * 
+ * <p>
+ * Implementations must be thread-safe.
+ * </p>
+ */
+public interface MetadataIndex {
+
+    /**
+     * Generate the keys under which the specified entity descriptor is indexed.
+     * 
+     * @param descriptor the entity descriptor
+     * 
+     * @return the keys, or null if the descriptor is not indexed
+     */
+    @Nullable @NonnullElements Set<MetadataIndexKey> generateKeys(@Nonnull final EntityDescriptor descriptor);
+
+    /**
+     * Generate the keys which identify the entity descriptors satisfying the specified criteria.
+     * 
+     * @param criteriaSet the criteria
+     * 
+     * @return the keys, or null if this index is not able to evaluate the criteria
+     */
+    @Nullable @NonnullElements Set<MetadataIndexKey> generateKeys(@Nonnull final CriteriaSet criteriaSet);
+
+}
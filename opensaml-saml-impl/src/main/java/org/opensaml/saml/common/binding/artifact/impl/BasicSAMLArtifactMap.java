@@ -17,12 +17,14 @@
 
 package org.opensaml.saml.common.binding.artifact.impl;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -34,24 +36,55 @@ import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
 import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.xml.ParserPool;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
 
 import org.joda.time.DateTime;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
 import org.opensaml.saml.common.SAMLObject;
 import org.opensaml.saml.common.binding.artifact.ExpiringSAMLArtifactMapEntry;
 import org.opensaml.saml.common.binding.artifact.SAMLArtifactMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** Basic artifact map implementation. */
+/**
+ * Basic artifact map implementation.
+ * 
+ * <p>Entries are spread across a number of independently locked shards, each of which keeps its entries
+ * in insertion order. Since every entry is given the same lifetime, that is also expiration order, so
+ * expired entries are purged from the head of a shard whenever an entry is added to it, and if a maximum
+ * number of entries is set, the entries closest to expiration are evicted to make room for new ones.</p>
+ * 
+ * <p>Messages may optionally be held in serialized form rather than as {@link SAMLObject} trees, in which
+ * case they are only parsed again when an entry is actually resolved.</p>
+ */
 public class BasicSAMLArtifactMap extends AbstractInitializableComponent implements
         SAMLArtifactMap {
 
     /** Class Logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(BasicSAMLArtifactMap.class);
 
-    /** Artifact mapping storage. */
-    @NonnullAfterInit private Map<String,ExpiringSAMLArtifactMapEntry> artifactStore;
+    /** Artifact mapping storage, one map per shard. */
+    @NonnullAfterInit private Map<String,StoredEntry>[] shards;
+
+    /** Maximum number of entries in each shard, or 0 for no limit. */
+    private int shardCapacity;
+
+    /** Number of shards. */
+    @Positive private int shardCount;
+
+    /** Maximum number of entries, or 0 for no limit. */
+    @NonNegative private int maxEntries;
+
+    /** Whether messages are held in serialized form. */
+    private boolean serializeMessages;
+
+    /** Parser pool used to parse messages held in serialized form. */
+    @Nonnull private ParserPool parserPool;
 
     /** Lifetime of an artifact in milliseconds. */
     @Duration @Positive private long artifactLifetime;
@@ -68,17 +101,45 @@ public class BasicSAMLArtifactMap extends AbstractInitializableComponent impleme
     /** Task that cleans up expired records. */
     @Nullable private TimerTask cleanupTask;
 
+    /** Number of lookups which found a valid entry. */
+    @Nonnull private final AtomicLong hits;
+
+    /** Number of lookups which found no entry. */
+    @Nonnull private final AtomicLong misses;
+
+    /** Number of entries removed because they had expired. */
+    @Nonnull private final AtomicLong expirations;
+
+    /** Number of entries evicted to respect the maximum number of entries. */
+    @Nonnull private final AtomicLong evictions;
+
     /** Constructor. */
     public BasicSAMLArtifactMap() {
         artifactLifetime = 60000L;
         cleanupInterval = 300;
+        shardCount = 16;
         entryFactory = new ExpiringSAMLArtifactMapEntryFactory();
+        parserPool = XMLObjectProviderRegistrySupport.getParserPool();
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        expirations = new AtomicLong();
+        evictions = new AtomicLong();
     }
 
     /** {@inheritDoc} */
+    @SuppressWarnings("unchecked")
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
-        artifactStore = new ConcurrentHashMap<>();
+
+        if (serializeMessages && parserPool == null) {
+            throw new ComponentInitializationException("ParserPool cannot be null if messages are serialized");
+        }
+
+        shards = new Map[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new LinkedHashMap<>();
+        }
+        shardCapacity = maxEntries > 0 ? Math.max(1, (maxEntries + shardCount - 1) / shardCount) : 0;
 
         if (cleanupInterval > 0) {
             cleanupTask = new Cleanup();
@@ -94,7 +155,7 @@ public class BasicSAMLArtifactMap extends AbstractInitializableComponent impleme
             cleanupTask = null;
             cleanupTaskTimer = null;
         }
-        artifactStore = null;
+        shards = null;
         
         super.doDestroy();
     }
@@ -117,6 +178,42 @@ public class BasicSAMLArtifactMap extends AbstractInitializableComponent impleme
         return entryFactory;
     }
 
+    /**
+     * Get the number of shards the entries are spread across.
+     * 
+     * @return the number of shards
+     */
+    @Positive public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * Get the maximum number of entries, or 0 for no limit.
+     * 
+     * @return the maximum number of entries
+     */
+    @NonNegative public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Get whether messages are held in serialized form.
+     * 
+     * @return true iff messages are held in serialized form
+     */
+    public boolean isSerializeMessages() {
+        return serializeMessages;
+    }
+
+    /**
+     * Get the parser pool used to parse messages held in serialized form.
+     * 
+     * @return the parser pool
+     */
+    @Nonnull public ParserPool getParserPool() {
+        return parserPool;
+    }
+
     /**
      * Set the artifact entry lifetime in milliseconds.
      * 
@@ -144,56 +241,258 @@ public class BasicSAMLArtifactMap extends AbstractInitializableComponent impleme
         entryFactory = Constraint.isNotNull(factory, "SAMLArtifactMapEntryFactory cannot be null");
     }
 
+    /**
+     * Set the number of shards the entries are spread across.
+     * 
+     * @param count number of shards
+     */
+    public void setShardCount(@Positive final int count) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        shardCount = (int) Constraint.isGreaterThan(0, count, "Shard count must be greater than zero");
+    }
+
+    /**
+     * Set the maximum number of entries, or 0 for no limit.
+     * 
+     * <p>The limit is divided evenly between the shards, so it is approximate.</p>
+     * 
+     * @param max maximum number of entries
+     */
+    public void setMaxEntries(@NonNegative final int max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        maxEntries = (int) Constraint.isGreaterThanOrEqual(0, max, "Maximum entries must be non-negative");
+    }
+
+    /**
+     * Set whether messages are held in serialized form.
+     * 
+     * <p>This trades the cost of parsing a message again on resolution for not retaining its object
+     * tree and DOM while the artifact is outstanding.</p>
+     * 
+     * @param flag flag to set
+     */
+    public void setSerializeMessages(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        serializeMessages = flag;
+    }
+
+    /**
+     * Set the parser pool used to parse messages held in serialized form.
+     * 
+     * @param pool parser pool
+     */
+    public void setParserPool(@Nonnull final ParserPool pool) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        parserPool = Constraint.isNotNull(pool, "ParserPool cannot be null");
+    }
+
+    /**
+     * Get the number of lookups which found a valid entry.
+     * 
+     * @return number of hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of lookups which found no entry, including those which found an expired one.
+     * 
+     * @return number of misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of entries removed because they had expired.
+     * 
+     * @return number of expired entries
+     */
+    public long getExpiredCount() {
+        return expirations.get();
+    }
+
+    /**
+     * Get the number of entries evicted to respect the maximum number of entries.
+     * 
+     * @return number of evicted entries
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Get the current number of entries, including any which have expired but not yet been removed.
+     * 
+     * @return number of entries
+     */
+    public int size() {
+        int size = 0;
+        for (final Map<String,StoredEntry> shard : shards) {
+            synchronized (shard) {
+                size += shard.size();
+            }
+        }
+        return size;
+    }
+
     /** {@inheritDoc} */
     @Override public boolean contains(@Nonnull @NotEmpty final String artifact) throws IOException {
-        return artifactStore.containsKey(artifact);
+        final Map<String,StoredEntry> shard = getShard(artifact);
+        synchronized (shard) {
+            return shard.containsKey(artifact);
+        }
     }
 
     /** {@inheritDoc} */
     @Override @Nullable public SAMLArtifactMapEntry get(@Nonnull @NotEmpty final String artifact) throws IOException {
         log.debug("Attempting to retrieve entry for artifact: {}", artifact);
-        ExpiringSAMLArtifactMapEntry entry = artifactStore.get(artifact);
 
-        if (entry == null) {
-            log.debug("No entry found for artifact: {}", artifact);
-            return null;
+        final Map<String,StoredEntry> shard = getShard(artifact);
+        final StoredEntry stored;
+        synchronized (shard) {
+            stored = shard.get(artifact);
+            if (stored != null && stored.expiration <= System.currentTimeMillis()) {
+                shard.remove(artifact);
+                expirations.incrementAndGet();
+                misses.incrementAndGet();
+                log.debug("Entry for artifact was expired: {}", artifact);
+                return null;
+            }
         }
 
-        if (!entry.isValid()) {
-            log.debug("Entry for artifact was expired: {}", artifact);
-            remove(artifact);
+        if (stored == null) {
+            misses.incrementAndGet();
+            log.debug("No entry found for artifact: {}", artifact);
             return null;
         }
 
+        hits.incrementAndGet();
         log.debug("Found valid entry for artifact: {}", artifact);
-        return entry;
+        return stored.entry;
     }
 
     /** {@inheritDoc} */
     @Override public void put(@Nonnull @NotEmpty final String artifact, @Nonnull @NotEmpty final String relyingPartyId,
             @Nonnull @NotEmpty final String issuerId, @Nonnull final SAMLObject samlMessage) throws IOException {
 
-        ExpiringSAMLArtifactMapEntry artifactEntry =
-                (ExpiringSAMLArtifactMapEntry) entryFactory.newEntry(artifact, issuerId, relyingPartyId, samlMessage);
-        artifactEntry.setExpiration(System.currentTimeMillis() + getArtifactLifetime());
+        final long expiration = System.currentTimeMillis() + getArtifactLifetime();
+        SAMLArtifactMapEntry artifactEntry = entryFactory.newEntry(artifact, issuerId, relyingPartyId, samlMessage);
+        if (serializeMessages) {
+            artifactEntry = new SerializedSAMLArtifactMapEntry(artifact, issuerId, relyingPartyId,
+                    serialize(artifactEntry.getSamlMessage()), parserPool);
+        } else if (artifactEntry instanceof ExpiringSAMLArtifactMapEntry) {
+            ((ExpiringSAMLArtifactMapEntry) artifactEntry).setExpiration(expiration);
+        }
 
         if (log.isDebugEnabled()) {
             log.debug("Storing new artifact entry '{}' for relying party '{}', expiring at '{}'", new Object[] {
-                    artifact, relyingPartyId, new DateTime(artifactEntry.getExpiration()),});
+                    artifact, relyingPartyId, new DateTime(expiration),});
         }
 
-        artifactStore.put(artifact, artifactEntry);
+        final Map<String,StoredEntry> shard = getShard(artifact);
+        synchronized (shard) {
+            // Re-insert rather than replace, so that the entry moves to the end of the expiration order.
+            shard.remove(artifact);
+            shard.put(artifact, new StoredEntry(artifactEntry, expiration));
+            purge(shard, System.currentTimeMillis());
+        }
     }
 
     /** {@inheritDoc} */
     @Override public void remove(@Nonnull @NotEmpty final String artifact) throws IOException {
         log.debug("Removing artifact entry: {}", artifact);
 
-        artifactStore.remove(artifact);
+        final Map<String,StoredEntry> shard = getShard(artifact);
+        synchronized (shard) {
+            shard.remove(artifact);
+        }
+    }
+
+    /**
+     * Get the shard holding the entry for an artifact.
+     * 
+     * @param artifact the artifact
+     * @return the shard
+     */
+    @Nonnull private Map<String,StoredEntry> getShard(@Nonnull final String artifact) {
+        int hash = artifact.hashCode();
+        hash ^= hash >>> 16;
+        return shards[(hash & Integer.MAX_VALUE) % shards.length];
+    }
+
+    /**
+     * Remove expired entries from the head of a shard, and then evict entries from the head until the shard
+     * is within its capacity.
+     * 
+     * <p>The caller must hold the shard's lock.</p>
+     * 
+     * @param shard the shard
+     * @param now the current time
+     */
+    private void purge(@Nonnull final Map<String,StoredEntry> shard, final long now) {
+        final Iterator<StoredEntry> i = shard.values().iterator();
+        while (i.hasNext()) {
+            final StoredEntry stored = i.next();
+            if (stored.expiration <= now) {
+                i.remove();
+                expirations.incrementAndGet();
+            } else if (shardCapacity > 0 && shard.size() > shardCapacity) {
+                log.debug("Evicting artifact entry '{}' to respect maximum number of entries",
+                        stored.entry.getArtifact());
+                i.remove();
+                evictions.incrementAndGet();
+            } else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Serialize a message for storage.
+     * 
+     * @param message the message
+     * @return the serialized message
+     * @throws IOException if the message can not be marshalled
+     */
+    @Nonnull private byte[] serialize(@Nonnull final SAMLObject message) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            SerializeSupport.writeNode(XMLObjectSupport.marshall(message), out);
+        } catch (final MarshallingException e) {
+            throw new IOException("Error marshalling SAML message", e);
+        }
+        return out.toByteArray();
+    }
+
+    /** An entry in the map, together with its expiration time. */
+    private static final class StoredEntry {
+
+        /** The entry. */
+        @Nonnull private final SAMLArtifactMapEntry entry;
+
+        /** Expiration time of the entry. */
+        private final long expiration;
+
+        /**
+         * Constructor.
+         * 
+         * @param mapEntry the entry
+         * @param exp expiration time of the entry
+         */
+        private StoredEntry(@Nonnull final SAMLArtifactMapEntry mapEntry, final long exp) {
+            entry = mapEntry;
+            expiration = exp;
+        }
     }
 
     /**
-     * A cleanup task that relies on the weakly consistent iterator support in the map implementation.
+     * A cleanup task that visits each shard in turn, so that no more than one shard is locked at a time.
      */
     protected class Cleanup extends TimerTask {
 
@@ -201,16 +500,25 @@ public class BasicSAMLArtifactMap extends AbstractInitializableComponent impleme
         @Override public void run() {
             log.info("Running cleanup task");
 
-            final Long now = System.currentTimeMillis();
+            final Map<String,StoredEntry>[] current = shards;
+            if (current == null) {
+                return;
+            }
 
-            Iterator<Map.Entry<String, ExpiringSAMLArtifactMapEntry>> i = artifactStore.entrySet().iterator();
-            while (i.hasNext()) {
-                final Map.Entry<String, ExpiringSAMLArtifactMapEntry> entry = i.next();
-                if (!entry.getValue().isValid(now)) {
-                    i.remove();
+            final long now = System.currentTimeMillis();
+            for (final Map<String,StoredEntry> shard : current) {
+                synchronized (shard) {
+                    // A full scan, since entries are only in expiration order while the lifetime is unchanged.
+                    final Iterator<StoredEntry> i = shard.values().iterator();
+                    while (i.hasNext()) {
+                        if (i.next().expiration <= now) {
+                            i.remove();
+                            expirations.incrementAndGet();
+                        }
+                    }
                 }
             }
         }
     }
 
-}
\ No newline at end of file
+}
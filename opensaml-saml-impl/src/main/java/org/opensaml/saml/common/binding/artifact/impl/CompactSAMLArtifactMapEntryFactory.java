@@ -0,0 +1,241 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.saml.common.binding.artifact.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.codec.Base64Support;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
+
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.common.binding.artifact.SAMLArtifactMap.SAMLArtifactMapEntry;
+import org.opensaml.storage.StorageSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A factory and {@link StorageSerializer} which stores entries in a compact binary form.
+ * 
+ * <p>The serialized message is stored once, optionally deflated, behind a small header carrying the
+ * issuer and relying party, and the whole is base64-encoded. Deserialized entries are instances of
+ * {@link SerializedSAMLArtifactMapEntry}, which defer parsing and unmarshalling of the message until
+ * it is actually needed.</p>
+ * 
+ * <p>Entries stored by {@link StorageServiceSAMLArtifactMapEntryFactory} remain readable, so the two
+ * may be swapped on a live storage service.</p>
+ */
+public class CompactSAMLArtifactMapEntryFactory extends StorageServiceSAMLArtifactMapEntryFactory {
+
+    /** Version of the binary format. */
+    public static final byte FORMAT_VERSION = 1;
+
+    /** Flag indicating that the message is deflated. */
+    private static final int FLAG_DEFLATED = 0x01;
+
+    /** Size below which a message is never deflated. */
+    private static final int COMPRESSION_THRESHOLD = 256;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(CompactSAMLArtifactMapEntryFactory.class);
+
+    /** Whether to deflate serialized messages. */
+    private boolean compression;
+
+    /** Constructor. */
+    public CompactSAMLArtifactMapEntryFactory() {
+        compression = true;
+    }
+
+    /**
+     * Get whether serialized messages are deflated.
+     * 
+     * @return true iff serialized messages are deflated
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Set whether serialized messages are deflated.
+     * 
+     * <p>Messages are only stored deflated when doing so reduces their size.</p>
+     * 
+     * @param flag flag to set
+     */
+    public void setCompression(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        compression = flag;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull public String serialize(@Nonnull final SAMLArtifactMapEntry instance) throws IOException {
+        log.debug("Serializing SAMLArtifactMapEntry for storage");
+
+        final byte[] message;
+        if (instance instanceof SerializedSAMLArtifactMapEntry) {
+            message = ((SerializedSAMLArtifactMapEntry) instance).getSerializedMessage();
+        } else {
+            final ByteArrayOutputStream messageStream = new ByteArrayOutputStream();
+            try {
+                SerializeSupport.writeNode(XMLObjectSupport.marshall(instance.getSamlMessage()), messageStream);
+            } catch (final MarshallingException e) {
+                throw new IOException("Error marshalling SAML message", e);
+            }
+            message = messageStream.toByteArray();
+        }
+
+        byte[] body = message;
+        int flags = 0;
+        if (compression && message.length >= COMPRESSION_THRESHOLD) {
+            final byte[] deflated = deflate(message);
+            if (deflated.length < message.length) {
+                body = deflated;
+                flags |= FLAG_DEFLATED;
+            }
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length + 128);
+        try (final DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeByte(flags);
+            out.writeUTF(instance.getIssuerId());
+            out.writeUTF(instance.getRelyingPartyId());
+            out.writeInt(message.length);
+            out.write(body);
+        }
+
+        log.trace("Serialized SAMLArtifactMapEntry message of {} bytes into {} bytes", message.length, body.length);
+        return Base64Support.encode(bytes.toByteArray(), Base64Support.UNCHUNKED);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull public SAMLArtifactMapEntry deserialize(final long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nonnull @NotEmpty final String value, @Nullable final Long expiration)
+                    throws IOException {
+        if (value.startsWith("<")) {
+            return super.deserialize(version, context, key, value, expiration);
+        }
+
+        log.debug("Deserializing artifact mapping data from compact form");
+
+        final byte[] decoded;
+        try {
+            decoded = Base64Support.decode(value);
+        } catch (final RuntimeException e) {
+            throw new IOException("SAMLArtifactMapEntry data was not base64-encoded", e);
+        }
+        if (decoded == null) {
+            throw new IOException("SAMLArtifactMapEntry data was not base64-encoded");
+        }
+
+        try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(decoded))) {
+            final byte formatVersion = in.readByte();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("Unsupported SAMLArtifactMapEntry format version " + formatVersion);
+            }
+            final int flags = in.readUnsignedByte();
+            final String issuer = in.readUTF();
+            final String relyingParty = in.readUTF();
+            final int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("SAMLArtifactMapEntry data has invalid message length");
+            }
+            final byte[] body = new byte[in.available()];
+            in.readFully(body);
+
+            final byte[] message = (flags & FLAG_DEFLATED) != 0 ? inflate(body, length) : body;
+            if (message.length != length) {
+                throw new IOException("SAMLArtifactMapEntry message length did not match its header");
+            }
+            return new SerializedSAMLArtifactMapEntry(key, issuer, relyingParty, message, getParserPool());
+        }
+    }
+
+    /**
+     * Deflate a serialized message.
+     * 
+     * @param message the message
+     * @return the deflated message
+     */
+    @Nonnull private byte[] deflate(@Nonnull final byte[] message) {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(message);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(message.length / 2);
+            final byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Inflate a deflated message.
+     * 
+     * @param body the deflated message
+     * @param length the length of the inflated message
+     * @return the inflated message
+     * @throws IOException if the data can not be inflated
+     */
+    @Nonnull private byte[] inflate(@Nonnull final byte[] body, final int length) throws IOException {
+        final Inflater inflater = new Inflater(true);
+        try {
+            // A trailing dummy byte is required by the inflater when operating without a zlib wrapper.
+            final byte[] input = new byte[body.length + 1];
+            System.arraycopy(body, 0, input, 0, body.length);
+            inflater.setInput(input);
+            final byte[] message = new byte[length];
+            int offset = 0;
+            while (offset < length && !inflater.finished()) {
+                final int count = inflater.inflate(message, offset, length - offset);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += count;
+            }
+            if (offset != length) {
+                throw new IOException("SAMLArtifactMapEntry message was truncated or corrupt");
+            }
+            return message;
+        } catch (final DataFormatException e) {
+            throw new IOException("Error inflating SAMLArtifactMapEntry message", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+}
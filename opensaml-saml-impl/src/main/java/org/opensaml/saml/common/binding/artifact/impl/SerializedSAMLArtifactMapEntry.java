@@ -0,0 +1,142 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.saml.common.binding.artifact.impl;
+
+import java.io.ByteArrayInputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.xml.ParserPool;
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.XMLRuntimeException;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.common.SAMLObject;
+import org.opensaml.saml.common.binding.artifact.SAMLArtifactMap.SAMLArtifactMapEntry;
+
+/**
+ * Implementation of {@link SAMLArtifactMapEntry} which holds the serialized form of its message and only
+ * parses and unmarshalls it when {@link #getSamlMessage()} is first called.
+ * 
+ * <p>Callers which only need to copy the message into an outgoing response may obtain the serialized
+ * bytes directly via {@link #getSerializedMessage()}, and callers which reject the entry on the basis of
+ * its issuer or relying party never pay for unmarshalling at all.</p>
+ */
+public class SerializedSAMLArtifactMapEntry implements SAMLArtifactMapEntry {
+
+    /** SAML artifact being mapped. */
+    @Nonnull @NotEmpty private final String artifact;
+
+    /** EntityID of the issuer of the artifact. */
+    @Nonnull @NotEmpty private final String issuer;
+
+    /** EntityID of the intended recipient of the artifact. */
+    @Nonnull @NotEmpty private final String relyingParty;
+
+    /** Serialized SAML message mapped to the artifact. */
+    @Nonnull private final byte[] serializedMessage;
+
+    /** Parser pool used to parse the message on demand. */
+    @Nonnull private final ParserPool parserPool;
+
+    /** SAML message, once unmarshalled. */
+    @Nullable private SAMLObject message;
+
+    /**
+     * Constructor.
+     * 
+     * @param samlArtifact artifact associated with the message
+     * @param issuerId issuer of the artifact
+     * @param relyingPartyId intended recipient of the artifact
+     * @param messageBytes serialized SAML message mapped to the artifact
+     * @param pool parser pool used to parse the message on demand
+     */
+    public SerializedSAMLArtifactMapEntry(@Nonnull @NotEmpty final String samlArtifact,
+            @Nonnull @NotEmpty final String issuerId, @Nonnull @NotEmpty final String relyingPartyId,
+            @Nonnull final byte[] messageBytes, @Nonnull final ParserPool pool) {
+        artifact = samlArtifact;
+        issuer = issuerId;
+        relyingParty = relyingPartyId;
+        serializedMessage = Constraint.isNotNull(messageBytes, "Serialized message cannot be null");
+        parserPool = Constraint.isNotNull(pool, "ParserPool cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull @NotEmpty public String getArtifact() {
+        return artifact;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull @NotEmpty public String getIssuerId() {
+        return issuer;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull @NotEmpty public String getRelyingPartyId() {
+        return relyingParty;
+    }
+
+    /**
+     * Get the serialized SAML message mapped to the artifact.
+     * 
+     * <p>The returned array is not copied and must not be modified.</p>
+     * 
+     * @return the serialized message
+     */
+    @Nonnull public byte[] getSerializedMessage() {
+        return serializedMessage;
+    }
+
+    /**
+     * Get whether the message has been unmarshalled.
+     * 
+     * @return true iff {@link #getSamlMessage()} has been called successfully
+     */
+    public synchronized boolean isMessageUnmarshalled() {
+        return message != null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull public synchronized SAMLObject getSamlMessage() {
+        if (message == null) {
+            final XMLObject xmlObject;
+            try {
+                xmlObject = XMLObjectSupport.unmarshallFromInputStream(parserPool,
+                        new ByteArrayInputStream(serializedMessage));
+            } catch (final XMLParserException e) {
+                throw new XMLRuntimeException("Error parsing serialized SAML message", e);
+            } catch (final UnmarshallingException e) {
+                throw new XMLRuntimeException("Error unmarshalling serialized SAML message", e);
+            }
+            if (!(xmlObject instanceof SAMLObject)) {
+                throw new XMLRuntimeException("Serialized SAMLArtifactMapEntry message was not a SAML message");
+            }
+            message = (SAMLObject) xmlObject;
+        }
+        return message;
+    }
+
+}
@@ -17,7 +17,18 @@
 
 package org.opensaml.saml.config;
 
+import org.opensaml.core.config.ConfigurationService;
+import org.opensaml.core.config.InitializationException;
+import org.opensaml.core.xml.XMLObjectCopierFactory;
 import org.opensaml.core.xml.config.AbstractXMLObjectProviderInitializer;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistry;
+import org.opensaml.saml.saml2.core.impl.AttributeCopier;
+import org.opensaml.saml.saml2.core.impl.AttributeImpl;
+import org.opensaml.saml.saml2.core.impl.IssuerBuilder;
+import org.opensaml.saml.saml2.core.impl.IssuerImpl;
+import org.opensaml.saml.saml2.core.impl.NameIDBuilder;
+import org.opensaml.saml.saml2.core.impl.NameIDImpl;
+import org.opensaml.saml.saml2.core.impl.NameIDTypeCopier;
 
 /**
  * XMLObject provider initializer for module "saml-impl".
@@ -52,4 +63,16 @@ public class XMLObjectProviderInitializer extends AbstractXMLObjectProviderIniti
         return configs;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void init() throws InitializationException {
+        super.init();
+
+        final XMLObjectCopierFactory copierFactory =
+                ConfigurationService.get(XMLObjectProviderRegistry.class).getCopierFactory();
+        copierFactory.registerCopier(NameIDImpl.class, new NameIDTypeCopier(new NameIDBuilder()));
+        copierFactory.registerCopier(IssuerImpl.class, new NameIDTypeCopier(new IssuerBuilder()));
+        copierFactory.registerCopier(AttributeImpl.class, new AttributeCopier());
+    }
+
 }
@@ -139,10 +139,10 @@ public class EntityAttributesFilter implements MetadataFilter {
                     try {
                         log.info("Adding EntityAttribute ({}) to EntityDescriptor ({})", attribute.getName(),
                                 descriptor.getEntityID());
-                        final Attribute copy = XMLObjectSupport.cloneXMLObject(attribute);
+                        final Attribute copy = XMLObjectSupport.copyXMLObject(attribute);
                         entityAttributes.getAttributes().add(copy);
                     } catch (final MarshallingException | UnmarshallingException e) {
-                        log.error("Error cloning Attribute", e);
+                        log.error("Error copying Attribute", e);
                     }
                 }
             }
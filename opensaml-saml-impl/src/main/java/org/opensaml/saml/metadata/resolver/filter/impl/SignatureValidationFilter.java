@@ -17,18 +17,30 @@
 
 package org.opensaml.saml.metadata.resolver.filter.impl;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.xml.XMLConstants;
 
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
 
 import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.Unmarshaller;
+import org.opensaml.core.xml.io.UnmarshallingException;
 import org.opensaml.saml.metadata.resolver.filter.FilterException;
 import org.opensaml.saml.metadata.resolver.filter.MetadataFilter;
 import org.opensaml.saml.saml2.metadata.AffiliationDescriptor;
@@ -47,13 +59,28 @@ import org.opensaml.xmlsec.signature.support.SignaturePrevalidator;
 import org.opensaml.xmlsec.signature.support.SignatureTrustEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
 
 import com.google.common.base.Function;
 
 /**
  * A metadata filter that validates XML signatures.
+ * 
+ * <p>
+ * If a {@link ForkJoinPool} is configured, the signed {@link EntityDescriptor} members of each
+ * {@link EntitiesDescriptor} are verified in parallel on that pool, once their number reaches
+ * {@link #getParallelismThreshold()}. Only the signature verification, over private copies of the members' DOM, is
+ * done in parallel: members and children which fail verification are removed, and logged, in document order once
+ * all members have been verified, so the result is the same as that of sequential processing. In this mode
+ * the configured {@link SignatureTrustEngine}, {@link SignaturePrevalidator} and dynamic trusted names strategy
+ * are used concurrently, and so must be thread-safe.
+ * </p>
  */
-public class SignatureValidationFilter implements MetadataFilter {
+public class SignatureValidationFilter extends AbstractInitializableComponent implements MetadataFilter {
     
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(SignatureValidationFilter.class);
@@ -72,6 +99,12 @@ public class SignatureValidationFilter implements MetadataFilter {
     
     /** Strategy function for extracting dynamic trusted names from signed metadata elements. */
     @Nullable private Function<XMLObject, Set<String>> dynamicTrustedNamesStrategy;
+    
+    /** Pool used to verify the members of an entities descriptor in parallel. */
+    @Nullable private ForkJoinPool forkJoinPool;
+    
+    /** Minimum number of signed members of an entities descriptor for them to be verified in parallel. */
+    private int parallelismThreshold;
 
     /**
      * Constructor.
@@ -94,6 +127,7 @@ public class SignatureValidationFilter implements MetadataFilter {
         signatureTrustEngine = engine;
         signaturePrevalidator = new SAMLSignatureProfileValidator();
         dynamicTrustedNamesStrategy = new BasicDynamicTrustedNamesStrategy();
+        parallelismThreshold = 2;
     }
 
     /**
@@ -118,6 +152,50 @@ public class SignatureValidationFilter implements MetadataFilter {
         dynamicTrustedNamesStrategy = strategy;
     }
 
+    /**
+     * Get the pool used to verify the signed members of an entities descriptor in parallel.
+     * 
+     * @return the pool, or null if members are verified sequentially
+     */
+    @Nullable public ForkJoinPool getForkJoinPool() {
+        return forkJoinPool;
+    }
+
+    /**
+     * Set the pool used to verify the signed members of an entities descriptor in parallel.
+     * 
+     * <p>The pool is not shut down by this filter.</p>
+     * 
+     * @param pool the pool, may be null in which case members are verified sequentially
+     */
+    public void setForkJoinPool(@Nullable final ForkJoinPool pool) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        forkJoinPool = pool;
+    }
+
+    /**
+     * Get the minimum number of signed members of an entities descriptor for them to be verified in parallel.
+     * 
+     * <p>Defaults to: 2.</p>
+     * 
+     * @return the threshold
+     */
+    public int getParallelismThreshold() {
+        return parallelismThreshold;
+    }
+
+    /**
+     * Set the minimum number of signed members of an entities descriptor for them to be verified in parallel.
+     * 
+     * <p>Defaults to: 2.</p>
+     * 
+     * @param threshold the threshold, which must be greater than 0
+     */
+    public void setParallelismThreshold(final int threshold) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        parallelismThreshold = (int) Constraint.isGreaterThan(0, threshold, "Parallelism threshold must be > 0");
+    }
+
     /**
      * Gets the trust engine used to validate signatures on incoming metadata.
      * 
@@ -265,6 +343,19 @@ public class SignatureValidationFilter implements MetadataFilter {
      *                          on the root EntityDescriptor specified
      */
     protected void processEntityDescriptor(@Nonnull final EntityDescriptor entityDescriptor) throws FilterException {
+        removeFailedChildren(entityDescriptor, verifyEntityDescriptor(entityDescriptor));
+    }
+    
+    /**
+     * Verify the signatures on the specified EntityDescriptor and any signed children, without modifying it.
+     * 
+     * @param entityDescriptor the EntityDescriptor to be verified
+     * @return the signed children which failed signature verification
+     * @throws FilterException thrown if an error occurs during the signature verification process
+     *                          on the EntityDescriptor specified
+     */
+    @Nonnull private ChildVerificationFailures verifyEntityDescriptor(@Nonnull final EntityDescriptor entityDescriptor)
+            throws FilterException {
         final String entityID = entityDescriptor.getEntityID();
         log.trace("Processing EntityDescriptor: {}", entityID);
         
@@ -272,9 +363,11 @@ public class SignatureValidationFilter implements MetadataFilter {
             verifySignature(entityDescriptor, entityID, false);
         }
         
-        final Iterator<RoleDescriptor> roleIter = entityDescriptor.getRoleDescriptors().iterator();
-        while (roleIter.hasNext()) {
-           final RoleDescriptor roleChild = roleIter.next(); 
+        final ChildVerificationFailures failures = new ChildVerificationFailures();
+        
+        final List<RoleDescriptor> roles = entityDescriptor.getRoleDescriptors();
+        for (int i = 0; i < roles.size(); i++) {
+            final RoleDescriptor roleChild = roles.get(i);
             if (!roleChild.isSigned()) {
                 log.trace("RoleDescriptor member '{}' was not signed, skipping signature processing...",
                         roleChild.getElementQName());
@@ -287,12 +380,7 @@ public class SignatureValidationFilter implements MetadataFilter {
                 final String roleID = getRoleIDToken(entityID, roleChild);
                 verifySignature(roleChild, roleID, false);
             } catch (final FilterException e) {
-                log.error("RoleDescriptor '{}' subordinate to entity '{}' failed signature verification, " 
-                       + "removing from metadata provider", 
-                       roleChild.getElementQName(), entityID); 
-                // Note that this is ok since we're iterating over an IndexedXMLObjectChildrenList directly,
-                // rather than a sublist like in processEntityGroup, and iterator remove() is supported there.
-                roleIter.remove();
+                failures.failedRoles.add(i);
             }
         }
         
@@ -307,13 +395,40 @@ public class SignatureValidationFilter implements MetadataFilter {
                 try {
                     verifySignature(affiliationDescriptor, affiliationDescriptor.getOwnerID(), false);
                 } catch (final FilterException e) {
-                    log.error("AffiliationDescriptor with owner ID '{}' subordinate to entity '{}' " + 
-                            "failed signature verification, removing from metadata provider", 
-                            affiliationDescriptor.getOwnerID(), entityID); 
-                    entityDescriptor.setAffiliationDescriptor(null);
+                    failures.affiliationFailed = true;
                 }
             }
         }
+        
+        return failures;
+    }
+    
+    /**
+     * Remove from the specified EntityDescriptor those signed children which failed signature verification.
+     * 
+     * @param entityDescriptor the EntityDescriptor whose children were verified
+     * @param failures the children which failed signature verification
+     */
+    private void removeFailedChildren(@Nonnull final EntityDescriptor entityDescriptor,
+            @Nonnull final ChildVerificationFailures failures) {
+        final String entityID = entityDescriptor.getEntityID();
+        
+        final List<RoleDescriptor> roles = entityDescriptor.getRoleDescriptors();
+        for (final Integer index : failures.failedRoles) {
+            log.error("RoleDescriptor '{}' subordinate to entity '{}' failed signature verification, " 
+                    + "removing from metadata provider", roles.get(index).getElementQName(), entityID);
+        }
+        // remove from the end, so that the remaining indexes still apply
+        for (int i = failures.failedRoles.size() - 1; i >= 0; i--) {
+            roles.remove((int) failures.failedRoles.get(i));
+        }
+        
+        if (failures.affiliationFailed) {
+            log.error("AffiliationDescriptor with owner ID '{}' subordinate to entity '{}' " + 
+                    "failed signature verification, removing from metadata provider", 
+                    entityDescriptor.getAffiliationDescriptor().getOwnerID(), entityID); 
+            entityDescriptor.setAffiliationDescriptor(null);
+        }
     }
  
     
@@ -338,6 +453,7 @@ public class SignatureValidationFilter implements MetadataFilter {
         // so just note them in a set and then remove after iteration has completed.
         final HashSet<XMLObject> toRemove = new HashSet<>();
         
+        final List<EntityDescriptor> signedEntities = new ArrayList<>();
         final Iterator<EntityDescriptor> entityIter = entitiesDescriptor.getEntityDescriptors().iterator();
         while (entityIter.hasNext()) {
             final EntityDescriptor entityChild = entityIter.next();
@@ -345,16 +461,24 @@ public class SignatureValidationFilter implements MetadataFilter {
                 log.trace("EntityDescriptor member '{}' was not signed, skipping signature processing...",
                         entityChild.getEntityID());
                 continue;
-            } else {
-                log.trace("Processing signed EntityDescriptor member: {}", entityChild.getEntityID());
             }
-            
-            try {
-                processEntityDescriptor(entityChild);
-            } catch (final FilterException e) {
-               log.error("EntityDescriptor '{}' failed signature verification, removing from metadata provider", 
-                       entityChild.getEntityID()); 
-               toRemove.add(entityChild);
+            signedEntities.add(entityChild);
+        }
+        
+        if (getForkJoinPool() != null && signedEntities.size() >= getParallelismThreshold()) {
+            log.trace("Processing {} signed EntityDescriptor members of group '{}' in parallel", 
+                    signedEntities.size(), name);
+            toRemove.addAll(processEntityDescriptorsInParallel(signedEntities));
+        } else {
+            for (final EntityDescriptor entityChild : signedEntities) {
+                log.trace("Processing signed EntityDescriptor member: {}", entityChild.getEntityID());
+                try {
+                    processEntityDescriptor(entityChild);
+                } catch (final FilterException e) {
+                   log.error("EntityDescriptor '{}' failed signature verification, removing from metadata provider", 
+                           entityChild.getEntityID()); 
+                   toRemove.add(entityChild);
+                }
             }
         }
 
@@ -382,6 +506,135 @@ public class SignatureValidationFilter implements MetadataFilter {
         }
     }
     
+    /**
+     * Process the signatures on the specified EntityDescriptors, and any signed children, in parallel using the
+     * configured {@link ForkJoinPool}.
+     * 
+     * <p>
+     * DOM implementations are not thread-safe, even for reading, so the cached DOM of each EntityDescriptor is
+     * first imported into a document of its own, and the signatures are verified in parallel over an object tree
+     * unmarshalled from that copy. The EntityDescriptors are only modified once all have been verified, removing
+     * signed children which failed verification, and failures are reported, in the order in which the
+     * EntityDescriptors were supplied. An EntityDescriptor without a cached DOM is processed on the calling thread.
+     * </p>
+     * 
+     * @param entityDescriptors the EntityDescriptors to be processed
+     * @return the EntityDescriptors which failed signature verification, in the order supplied
+     * @throws FilterException thrown if processing is interrupted, or fails other than by signature verification 
+     *                          failure of an EntityDescriptor
+     */
+    @Nonnull protected List<EntityDescriptor> processEntityDescriptorsInParallel(
+            @Nonnull final List<EntityDescriptor> entityDescriptors) throws FilterException {
+        
+        final List<Future<ChildVerificationFailures>> results = new ArrayList<>(entityDescriptors.size());
+        for (final EntityDescriptor entityChild : entityDescriptors) {
+            final Element copy = importEntityDOM(entityChild);
+            if (copy == null) {
+                results.add(null);
+                continue;
+            }
+            results.add(getForkJoinPool().submit(new Callable<ChildVerificationFailures>() {
+                public ChildVerificationFailures call() throws Exception {
+                    log.trace("Processing signed EntityDescriptor member: {}", entityChild.getEntityID());
+                    try {
+                        return verifyEntityDescriptor(unmarshallEntityDOM(copy));
+                    } catch (final FilterException e) {
+                        return null;
+                    }
+                }
+            }));
+        }
+        
+        final List<EntityDescriptor> failed = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            final EntityDescriptor entityChild = entityDescriptors.get(i);
+            ChildVerificationFailures failures;
+            if (results.get(i) == null) {
+                log.trace("Processing signed EntityDescriptor member: {}", entityChild.getEntityID());
+                try {
+                    failures = verifyEntityDescriptor(entityChild);
+                } catch (final FilterException e) {
+                    failures = null;
+                }
+            } else {
+                try {
+                    failures = results.get(i).get();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new FilterException("Interrupted while verifying EntityDescriptor signatures", e);
+                } catch (final ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    } else if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw new FilterException("Error processing EntityDescriptor " + entityChild.getEntityID(), 
+                            e.getCause());
+                }
+            }
+            if (failures == null) {
+                log.error("EntityDescriptor '{}' failed signature verification, removing from metadata provider", 
+                        entityChild.getEntityID()); 
+                failed.add(entityChild);
+            } else {
+                removeFailedChildren(entityChild, failures);
+            }
+        }
+        return failed;
+    }
+    
+    /**
+     * Import the cached DOM of the specified EntityDescriptor into a new document, declaring on the copy the
+     * namespaces in scope on its ancestors, so that its signatures can be verified independently of the
+     * original document.
+     * 
+     * @param entityDescriptor the EntityDescriptor
+     * @return the root element of the copy, or null if the EntityDescriptor has no cached DOM
+     */
+    @Nullable private Element importEntityDOM(@Nonnull final EntityDescriptor entityDescriptor) {
+        final Element element = entityDescriptor.getDOM();
+        if (element == null) {
+            return null;
+        }
+        
+        final Document document = element.getOwnerDocument().getImplementation().createDocument(null, null, null);
+        final Element copy = (Element) document.importNode(element, true);
+        document.appendChild(copy);
+        
+        for (Node ancestor = element.getParentNode(); ancestor != null
+                && ancestor.getNodeType() == Node.ELEMENT_NODE; ancestor = ancestor.getParentNode()) {
+            final NamedNodeMap attributes = ancestor.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                final Attr attribute = (Attr) attributes.item(i);
+                // the nearest declaration of a prefix wins
+                if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())
+                        && !copy.hasAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attribute.getLocalName())) {
+                    copy.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attribute.getName(),
+                            attribute.getValue());
+                }
+            }
+        }
+        
+        return copy;
+    }
+    
+    /**
+     * Unmarshall an EntityDescriptor from a copy of its DOM made by {@link #importEntityDOM(EntityDescriptor)}.
+     * 
+     * @param element the root element of the copy
+     * @return the unmarshalled EntityDescriptor
+     * @throws UnmarshallingException thrown if the copy can not be unmarshalled
+     */
+    @Nonnull private EntityDescriptor unmarshallEntityDOM(@Nonnull final Element element)
+            throws UnmarshallingException {
+        final Unmarshaller unmarshaller =
+                XMLObjectProviderRegistrySupport.getUnmarshallerFactory().getUnmarshaller(element);
+        if (unmarshaller == null) {
+            throw new UnmarshallingException("No unmarshaller registered for EntityDescriptor element");
+        }
+        return (EntityDescriptor) unmarshaller.unmarshall(element);
+    }
+    
     /**
      * Evaluate the signature on the signed metadata instance.
      * 
@@ -522,4 +775,14 @@ public class SignatureValidationFilter implements MetadataFilter {
         return "(unnamed)";
     }
     
+    /** The signed children of an EntityDescriptor which failed signature verification. */
+    private static final class ChildVerificationFailures {
+        
+        /** The indexes of the failed RoleDescriptors, in ascending order. */
+        @Nonnull private final List<Integer> failedRoles = new ArrayList<>();
+        
+        /** Whether the AffiliationDescriptor failed. */
+        private boolean affiliationFailed;
+    }
+    
 }
\ No newline at end of file
@@ -17,8 +17,12 @@
 
 package org.opensaml.saml.metadata.resolver.impl;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -92,17 +96,30 @@ public abstract class AbstractBatchMetadataResolver extends AbstractMetadataReso
     @Nonnull public Iterable<EntityDescriptor> resolve(CriteriaSet criteria) throws ResolverException {
         ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
         
-        //TODO add filtering for entity role, protocol? maybe
         //TODO add filtering for binding? probably not, belongs better in RoleDescriptorResolver
-        //TODO this needs to change substantially if we support queries *without* an EntityIdCriterion
         
         EntityIdCriterion entityIdCriterion = criteria.get(EntityIdCriterion.class);
-        if (entityIdCriterion == null || Strings.isNullOrEmpty(entityIdCriterion.getEntityId())) {
+        if (entityIdCriterion != null && !Strings.isNullOrEmpty(entityIdCriterion.getEntityId())) {
+            return lookupEntityID(entityIdCriterion.getEntityId());
+        }
+        
+        Set<EntityDescriptor> indexedDescriptors = lookupIndexedItems(criteria);
+        if (indexedDescriptors == null) {
             //TODO throw or just log?
-            throw new ResolverException("Entity Id was not supplied in criteria set");
+            throw new ResolverException("Entity Id was not supplied in criteria set, "
+                    + "and no secondary index could evaluate the criteria");
         }
         
-        return lookupEntityID(entityIdCriterion.getEntityId());
+        List<EntityDescriptor> descriptors = new ArrayList<>(indexedDescriptors.size());
+        for (EntityDescriptor descriptor : indexedDescriptors) {
+            if (isValid(descriptor)) {
+                descriptors.add(descriptor);
+            } else {
+                log.debug("Secondary index contained an EntityDescriptor with the ID: {}, " 
+                        + "but it was no longer valid", descriptor.getEntityID());
+            }
+        }
+        return descriptors;
     }
     
     /** {@inheritDoc} */
@@ -205,6 +222,9 @@ public abstract class AbstractBatchMetadataResolver extends AbstractMetadataReso
         /** The cached original source metadata document. */
         private XMLObject cachedFilteredMetadata;
         
+        /** Index of entity descriptor digests to the processed descriptors produced from them. */
+        private Map<String, List<EntityDescriptor>> entityDigestIndex;
+        
         /** Constructor. */
         protected BatchEntityBackingStore() {
             super();
@@ -246,6 +266,26 @@ public abstract class AbstractBatchMetadataResolver extends AbstractMetadataReso
             cachedFilteredMetadata = metadata;
         }
         
+        /**
+         * Get the index of entity descriptor digests, as computed by {@link MetadataDOMDigester}, to the 
+         * processed descriptors produced from them, which may be empty if the descriptor was removed
+         * by filtering.
+         * 
+         * @return the digest index, or null if digests were not computed for this backing store
+         */
+        @Nullable public Map<String, List<EntityDescriptor>> getEntityDigestIndex() {
+            return entityDigestIndex;
+        }
+        
+        /**
+         * Set the index of entity descriptor digests to the processed descriptors produced from them.
+         * 
+         * @param index the digest index
+         */
+        public void setEntityDigestIndex(@Nullable final Map<String, List<EntityDescriptor>> index) {
+            entityDigestIndex = index;
+        }
+        
     }
 
 }
@@ -51,6 +51,7 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.util.EntityUtils;
 import org.opensaml.core.xml.XMLObject;
 import org.opensaml.core.xml.io.UnmarshallingException;
 import org.opensaml.security.httpclient.HttpClientSecurityConstants;
@@ -89,6 +90,9 @@ public abstract class AbstractDynamicHTTPMetadataResolver extends AbstractDynami
     /** HttpClient ResponseHandler instance to use. */
     private ResponseHandler<XMLObject> responseHandler;
     
+    /** HttpClient ResponseHandler instance to use for raw fetches. */
+    private ResponseHandler<byte[]> rawResponseHandler;
+    
     /** HttpClient credentials provider. */
     private CredentialsProvider credentialsProvider;
     
@@ -118,6 +122,7 @@ public abstract class AbstractDynamicHTTPMetadataResolver extends AbstractDynami
         
         // The default handler
         responseHandler = new BasicMetadataResponseHandler();
+        rawResponseHandler = new RawMetadataResponseHandler();
     }
     
     /**
@@ -237,7 +242,6 @@ public abstract class AbstractDynamicHTTPMetadataResolver extends AbstractDynami
     /** {@inheritDoc} */
     protected void initMetadataResolver() throws ComponentInitializationException {
         super.initMetadataResolver();
-        setBackingStore(createNewBackingStore());
         
         if (getSupportedContentTypes() == null) {
             setSupportedContentTypes(Arrays.asList(DEFAULT_CONTENT_TYPES));
@@ -278,6 +282,27 @@ public abstract class AbstractDynamicHTTPMetadataResolver extends AbstractDynami
         return result;
     }
     
+    /** {@inheritDoc} */
+    protected boolean isRawOriginFetchSupported() {
+        return true;
+    }
+    
+    /** {@inheritDoc} */
+    @Nullable protected byte[] fetchRawFromOriginSource(@Nonnull final CriteriaSet criteria) throws IOException {
+        
+        HttpUriRequest request = buildHttpRequest(criteria);
+        if (request == null) {
+            log.debug("Could not build request based on input criteria, unable to query");
+            return null;
+        }
+        
+        HttpClientContext context = buildHttpClientContext();
+        
+        byte[] result = httpClient.execute(request, rawResponseHandler, context);
+        HttpClientSecuritySupport.checkTLSCredentialEvaluated(context, request.getURI().getScheme());
+        return result;
+    }
+    
     /**
      * Check that trust engine evaluation of the server TLS credential was actually performed.
      * 
@@ -352,35 +377,50 @@ public abstract class AbstractDynamicHTTPMetadataResolver extends AbstractDynami
         @Override
         public XMLObject handleResponse(@Nonnull final HttpResponse response) throws IOException {
             
+            if (!isResponseAcceptable(response)) {
+                return null;
+            }
+            
+            try {
+                InputStream ins = response.getEntity().getContent();
+                return unmarshallMetadata(ins);
+            } catch (IOException | UnmarshallingException e) {
+                log.error("Error unmarshalling HTTP response stream", e);
+                return null;
+            }
+                
+        }
+        
+        /**
+         * Check the status code of the received HTTP response, and validate it.
+         * 
+         * @param response the received response
+         * @return true if the response holds a metadata document to be processed, false otherwise
+         */
+        protected boolean isResponseAcceptable(@Nonnull final HttpResponse response) {
+            
             int httpStatusCode = response.getStatusLine().getStatusCode();
             
             // TODO should we be seeing/doing this? Probably not if we don't do conditional GET.
             // But we will if we do pre-emptive refreshing of metadata in background thread.
             if (httpStatusCode == HttpStatus.SC_NOT_MODIFIED) {
                 log.debug("Metadata document from '{}' has not changed since last retrieval" );
-                return null;
+                return false;
             }
 
             if (httpStatusCode != HttpStatus.SC_OK) {
                 log.warn("Non-ok status code '{}' returned from remote metadata source: {}", httpStatusCode);
-                return null;
+                return false;
             }
             
             try {
                 validateHttpResponse(response);
             } catch (ResolverException e) {
                 log.error("Problem validating dynamic metadata HTTP response", e);
-                return null;
+                return false;
             }
             
-            try {
-                InputStream ins = response.getEntity().getContent();
-                return unmarshallMetadata(ins);
-            } catch (IOException | UnmarshallingException e) {
-                log.error("Error unmarshalling HTTP response stream", e);
-                return null;
-            }
-                
+            return true;
         }
         
         /**
@@ -425,5 +465,25 @@ public abstract class AbstractDynamicHTTPMetadataResolver extends AbstractDynami
         }
         
     }
+    
+    /**
+     * HttpClient response handler for raw metadata fetch requests, which returns the body of the response
+     * as received.
+     */
+    public class RawMetadataResponseHandler implements ResponseHandler<byte[]> {
+        
+        /** Handler used to check and validate the response. */
+        @Nonnull private final BasicMetadataResponseHandler validator = new BasicMetadataResponseHandler();
+
+        /** {@inheritDoc} */
+        @Override
+        public byte[] handleResponse(@Nonnull final HttpResponse response) throws IOException {
+            if (!validator.isResponseAcceptable(response)) {
+                return null;
+            }
+            return EntityUtils.toByteArray(response.getEntity());
+        }
+        
+    }
 
 }
\ No newline at end of file
@@ -17,13 +17,30 @@
 
 package org.opensaml.saml.metadata.resolver.impl;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -46,6 +63,7 @@ import org.joda.time.DateTime;
 import org.joda.time.chrono.ISOChronology;
 import org.opensaml.core.criterion.EntityIdCriterion;
 import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.io.UnmarshallingException;
 import org.opensaml.saml.metadata.resolver.DynamicMetadataResolver;
 import org.opensaml.saml.metadata.resolver.filter.FilterException;
 import org.opensaml.saml.saml2.common.SAML2Support;
@@ -54,6 +72,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Abstract subclass for metadata resolvers that resolve metadata dynamically, as needed and on demand.
@@ -61,6 +80,15 @@ import com.google.common.base.Strings;
 public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataResolver 
         implements DynamicMetadataResolver {
     
+    /** Default number of threads used by the internally-created origin fetch executor. */
+    public static final int DEFAULT_ORIGIN_FETCH_THREADS = 4;
+    
+    /** Capacity of the work queue of the internally-created origin fetch executor. */
+    public static final int DEFAULT_ORIGIN_FETCH_QUEUE_SIZE = 1000;
+    
+    /** Default maximum number of entries held in the negative lookup cache. */
+    public static final int DEFAULT_MAX_NEGATIVE_LOOKUP_ENTRIES = 10000;
+    
     /** Class logger. */
     private final Logger log = LoggerFactory.getLogger(AbstractDynamicMetadataResolver.class);
     
@@ -92,6 +120,36 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
     /** The backing store cleanup sweeper background task. */
     private BackingStoreCleanupSweeper cleanupTask;
     
+    /** Flag indicating whether origin source fetches are performed asynchronously. */
+    private boolean asyncOriginFetch;
+    
+    /** Executor used to perform asynchronous origin source fetches. */
+    private ExecutorService originFetchExecutor;
+    
+    /** Whether we created our own origin fetch executor during initialization. */
+    private boolean createdOwnOriginFetchExecutor;
+    
+    /** Number of threads used by the internally-created origin fetch executor. */
+    @Positive private int originFetchThreads;
+    
+    /** The maximum time in milliseconds a caller will wait for an in-flight origin source fetch. */
+    @Duration @Positive private Long maxOriginFetchWait;
+    
+    /** Flag indicating whether failed lookups are cached. */
+    private boolean negativeLookupCacheEnabled;
+    
+    /** The time in milliseconds for which the first failed lookup of an entityID is cached. */
+    @Duration @Positive private Long negativeLookupCacheDuration;
+    
+    /** The maximum time in milliseconds for which a repeatedly failed lookup of an entityID is cached. */
+    @Duration @Positive private Long maxNegativeLookupCacheDuration;
+    
+    /** The maximum number of entries held in the negative lookup cache. */
+    @Positive private int maxNegativeLookupEntries;
+    
+    /** Optional persistent cache of resolved metadata. */
+    private DynamicMetadataPersistentCache persistentCache;
+    
     /**
      * Constructor.
      *
@@ -123,6 +181,19 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         
         // Default to removing idle metadata
         removeIdleEntityData = true;
+        
+        originFetchThreads = DEFAULT_ORIGIN_FETCH_THREADS;
+        
+        // Default to 10 seconds.
+        maxOriginFetchWait = 10*1000L;
+        
+        // Default to 10 minutes.
+        negativeLookupCacheDuration = 10*60*1000L;
+        
+        // Default to 4 hours.
+        maxNegativeLookupCacheDuration = 4*60*60*1000L;
+        
+        maxNegativeLookupEntries = DEFAULT_MAX_NEGATIVE_LOOKUP_ENTRIES;
     }
     
     /**
@@ -271,7 +342,254 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
         cleanupTaskInterval = Constraint.isNotNull(interval, "Cleanup task interval may not be null");
     }
-
+    
+    /**
+     * Get the flag indicating whether origin source fetches are performed asynchronously.
+     * 
+     * <p>
+     * When true, concurrent callers for the same entityID share a single in-flight fetch, which is
+     * executed by the origin fetch executor rather than by the calling thread. Callers for which 
+     * metadata is already present but due for refresh are served the existing metadata while the 
+     * refresh proceeds in the background.
+     * </p>
+     * 
+     * <p>Defaults to: false.</p>
+     * 
+     * @return true if origin source fetches are asynchronous, false otherwise
+     */
+    public boolean isAsyncOriginFetch() {
+        return asyncOriginFetch;
+    }
+    
+    /**
+     * Set the flag indicating whether origin source fetches are performed asynchronously.
+     * 
+     * <p>Defaults to: false.</p>
+     * 
+     * @param flag true if origin source fetches should be asynchronous, false otherwise
+     */
+    public void setAsyncOriginFetch(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+        asyncOriginFetch = flag;
+    }
+    
+    /**
+     * Get the executor used to perform asynchronous origin source fetches.
+     * 
+     * @return the executor, or null if one is not yet established
+     */
+    @Nullable public ExecutorService getOriginFetchExecutor() {
+        return originFetchExecutor;
+    }
+    
+    /**
+     * Set the executor used to perform asynchronous origin source fetches.
+     * 
+     * <p>
+     * If not supplied and {@link #isAsyncOriginFetch()} is true, a bounded executor using 
+     * {@link #getOriginFetchThreads()} daemon threads will be created at initialization and shut down
+     * when this resolver is destroyed. A supplied executor is not shut down by this resolver.
+     * </p>
+     * 
+     * @param executor the executor
+     */
+    public void setOriginFetchExecutor(@Nullable final ExecutorService executor) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+        originFetchExecutor = executor;
+    }
+    
+    /**
+     * Get the number of threads used by the internally-created origin fetch executor.
+     * 
+     * <p>Defaults to: {@link #DEFAULT_ORIGIN_FETCH_THREADS}.</p>
+     * 
+     * @return the number of threads
+     */
+    @Positive public int getOriginFetchThreads() {
+        return originFetchThreads;
+    }
+    
+    /**
+     * Set the number of threads used by the internally-created origin fetch executor.
+     * 
+     * <p>Defaults to: {@link #DEFAULT_ORIGIN_FETCH_THREADS}.</p>
+     * 
+     * @param threads the number of threads
+     */
+    public void setOriginFetchThreads(@Positive final int threads) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+        originFetchThreads = (int) Constraint.isGreaterThan(0, threads, "Origin fetch threads must be > 0");
+    }
+    
+    /**
+     * Get the maximum time in milliseconds a caller will wait for an in-flight asynchronous origin source fetch 
+     * to complete, after which the caller receives whatever metadata is currently held for the entity,
+     * which may be none.
+     * 
+     * <p>Defaults to: 10 seconds.</p>
+     * 
+     * @return the maximum wait time, in milliseconds
+     */
+    @Nonnull public Long getMaxOriginFetchWait() {
+        return maxOriginFetchWait;
+    }
+    
+    /**
+     * Set the maximum time in milliseconds a caller will wait for an in-flight asynchronous origin source fetch 
+     * to complete, after which the caller receives whatever metadata is currently held for the entity,
+     * which may be none.
+     * 
+     * <p>Defaults to: 10 seconds.</p>
+     * 
+     * @param wait the maximum wait time, in milliseconds
+     */
+    public void setMaxOriginFetchWait(@Nonnull final Long wait) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+        maxOriginFetchWait = Constraint.isNotNull(wait, "Max origin fetch wait may not be null");
+    }
+    
+    /**
+     * Get the flag indicating whether failed lookups are cached.
+     * 
+     * <p>
+     * When true, an entityID for which no metadata could be resolved from the origin source, whether 
+     * because the fetch failed or because the fetched metadata was rejected, will not be resolved again 
+     * from the origin source until its negative cache entry expires. Successive failures back off 
+     * exponentially from {@link #getNegativeLookupCacheDuration()} up to 
+     * {@link #getMaxNegativeLookupCacheDuration()}.
+     * </p>
+     * 
+     * <p>Defaults to: false.</p>
+     * 
+     * @return true if failed lookups are cached, false otherwise
+     */
+    public boolean isNegativeLookupCacheEnabled() {
+        return negativeLookupCacheEnabled;
+    }
+    
+    /**
+     * Set the flag indicating whether failed lookups are cached.
+     * 
+     * <p>Defaults to: false.</p>
+     * 
+     * @param flag true if failed lookups should be cached, false otherwise
+     */
+    public void setNegativeLookupCacheEnabled(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+        negativeLookupCacheEnabled = flag;
+    }
+    
+    /**
+     * Get the time in milliseconds for which the first failed lookup of an entityID is cached.
+     * 
+     * <p>Defaults to: 10 minutes.</p>
+     * 
+     * @return the negative lookup cache duration, in milliseconds
+     */
+    @Nonnull public Long getNegativeLookupCacheDuration() {
+        return negativeLookupCacheDuration;
+    }
+    
+    /**
+     * Set the time in milliseconds for which the first failed lookup of an entityID is cached.
+     * 
+     * <p>Defaults to: 10 minutes.</p>
+     * 
+     * @param duration the negative lookup cache duration, in milliseconds
+     */
+    public void setNegativeLookupCacheDuration(@Nonnull final Long duration) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+        negativeLookupCacheDuration = Constraint.isNotNull(duration, 
+                "Negative lookup cache duration may not be null");
+    }
+    
+    /**
+     * Get the maximum time in milliseconds for which a repeatedly failed lookup of an entityID is cached.
+     * 
+     * <p>Defaults to: 4 hours.</p>
+     * 
+     * @return the maximum negative lookup cache duration, in milliseconds
+     */
+    @Nonnull public Long getMaxNegativeLookupCacheDuration() {
+        return maxNegativeLookupCacheDuration;
+    }
+    
+    /**
+     * Set the maximum time in milliseconds for which a repeatedly failed lookup of an entityID is cached.
+     * 
+     * <p>Defaults to: 4 hours.</p>
+     * 
+     * @param duration the maximum negative lookup cache duration, in milliseconds
+     */
+    public void setMaxNegativeLookupCacheDuration(@Nonnull final Long duration) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+        maxNegativeLookupCacheDuration = Constraint.isNotNull(duration, 
+                "Max negative lookup cache duration may not be null");
+    }
+    
+    /**
+     * Get the maximum number of entries held in the negative lookup cache.
+     * 
+     * <p>Defaults to: {@link #DEFAULT_MAX_NEGATIVE_LOOKUP_ENTRIES}.</p>
+     * 
+     * @return the maximum number of entries
+     */
+    @Positive public int getMaxNegativeLookupEntries() {
+        return maxNegativeLookupEntries;
+    }
+    
+    /**
+     * Set the maximum number of entries held in the negative lookup cache.
+     * 
+     * <p>Defaults to: {@link #DEFAULT_MAX_NEGATIVE_LOOKUP_ENTRIES}.</p>
+     * 
+     * @param max the maximum number of entries
+     */
+    public void setMaxNegativeLookupEntries(@Positive final int max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+        maxNegativeLookupEntries = (int) Constraint.isGreaterThan(0, max, 
+                "Max negative lookup entries must be > 0");
+    }
+    
+    /**
+     * Get the optional persistent cache of resolved metadata.
+     * 
+     * @return the persistent cache, or null
+     */
+    @Nullable public DynamicMetadataPersistentCache getPersistentCache() {
+        return persistentCache;
+    }
+    
+    /**
+     * Set the optional persistent cache of resolved metadata.
+     * 
+     * <p>
+     * If set, each entity's metadata is saved to the cache, as the raw bytes fetched from the origin source,
+     * each time it is successfully resolved from the origin source, and is removed from the cache when it is removed from
+     * the backing store by the cleanup task. At initialization, unexpired entries are loaded in parallel, 
+     * processed through the metadata filter, and made available with their saved expiration and refresh 
+     * trigger times, so that they are served while refreshes from the origin source catch up.
+     * </p>
+     * 
+     * <p>
+     * Metadata is only saved by resolvers which support raw fetches, see {@link #isRawOriginFetchSupported()}.
+     * </p>
+     * 
+     * @param cache the persistent cache
+     */
+    public void setPersistentCache(@Nullable final DynamicMetadataPersistentCache cache) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+        persistentCache = cache;
+    }
 
 
     /** {@inheritDoc} */
@@ -289,6 +607,7 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         log.debug("Attempting to resolve metadata for entityID: {}", entityID);
         
         EntityManagementData mgmtData = getBackingStore().getManagementData(entityID);
+        List<EntityDescriptor> staleDescriptors = null;
         Lock readLock = mgmtData.getReadWriteLock().readLock();
         try {
             readLock.lock();
@@ -304,12 +623,132 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         
             } else {
                 log.debug("Metadata was indicated to be refreshed based on refresh trigger time");
+                if (isAsyncOriginFetch()) {
+                    staleDescriptors = lookupEntityID(entityID);
+                }
             }
         } finally {
             readLock.unlock();
         }
         
-        return resolveFromOriginSource(criteria);
+        if (isNegativeLookupCached(entityID)) {
+            log.debug("Lookup of entityID '{}' recently failed, will not attempt to resolve dynamically", entityID);
+            return Collections.emptyList();
+        }
+        
+        if (isAsyncOriginFetch()) {
+            return resolveFromOriginSourceAsync(criteria, mgmtData, staleDescriptors);
+        } else {
+            return resolveFromOriginSource(criteria);
+        }
+    }
+    
+    /**
+     * Resolve metadata from the origin source via a fetch executed by the origin fetch executor, 
+     * sharing any fetch already in-flight for the same entityID.
+     * 
+     * <p>
+     * If existing (stale) metadata is supplied, it is returned immediately and the fetch proceeds in 
+     * the background. Otherwise the caller waits up to {@link #getMaxOriginFetchWait()} for the fetch to 
+     * complete, after which the current contents of the backing store for the entity are returned.
+     * </p>
+     * 
+     * @param criteria the input criteria set
+     * @param mgmtData the entity's management data
+     * @param staleDescriptors the existing metadata held for the entity which is due for refresh, may be null
+     * @return the resolved metadata
+     * @throws ResolverException if there is a fatal error attempting to resolve the metadata
+     */
+    @Nonnull @NonnullElements protected Iterable<EntityDescriptor> resolveFromOriginSourceAsync(
+            @Nonnull final CriteriaSet criteria, @Nonnull final EntityManagementData mgmtData, 
+            @Nullable final List<EntityDescriptor> staleDescriptors) throws ResolverException {
+        
+        final String entityID = mgmtData.getEntityID();
+        
+        OriginFetchTask fetchTask = null;
+        try {
+            fetchTask = getOrStartOriginFetch(criteria, mgmtData);
+        } catch (final RejectedExecutionException e) {
+            log.warn("Origin fetch executor rejected fetch for entityID '{}'", entityID);
+        }
+        
+        if (staleDescriptors != null && !staleDescriptors.isEmpty()) {
+            log.debug("Returning existing metadata for entityID '{}' while refresh proceeds in the background",
+                    entityID);
+            return staleDescriptors;
+        }
+        
+        if (fetchTask == null) {
+            return lookupEntityIDWithReadLock(mgmtData);
+        }
+        
+        try {
+            return fetchTask.get(getMaxOriginFetchWait(), TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            log.warn("Timed out after {} ms waiting on origin fetch for entityID '{}'", 
+                    getMaxOriginFetchWait(), entityID);
+        } catch (final InterruptedException e) {
+            log.warn("Interrupted while waiting on origin fetch for entityID '{}'", entityID);
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof ResolverException) {
+                throw (ResolverException) e.getCause();
+            }
+            throw new ResolverException("Error performing origin fetch for entityID: " + entityID, e.getCause());
+        }
+        
+        return lookupEntityIDWithReadLock(mgmtData);
+    }
+    
+    /**
+     * Look up the metadata held in the backing store for an entity while holding the entity's read lock.
+     * 
+     * @param mgmtData the entity's management data
+     * @return the entity's metadata
+     * @throws ResolverException if there is a fatal error looking up the metadata
+     */
+    @Nonnull @NonnullElements private List<EntityDescriptor> lookupEntityIDWithReadLock(
+            @Nonnull final EntityManagementData mgmtData) throws ResolverException {
+        final Lock readLock = mgmtData.getReadWriteLock().readLock();
+        try {
+            readLock.lock();
+            return lookupEntityID(mgmtData.getEntityID());
+        } finally {
+            readLock.unlock();
+        }
+    }
+    
+    /**
+     * Get the origin fetch in-flight for the entity, or start a new one if there is none.
+     * 
+     * @param criteria the input criteria set
+     * @param mgmtData the entity's management data
+     * @return the in-flight fetch task
+     * @throws RejectedExecutionException if a new fetch task can not be accepted by the executor
+     */
+    @Nonnull private OriginFetchTask getOrStartOriginFetch(@Nonnull final CriteriaSet criteria,
+            @Nonnull final EntityManagementData mgmtData) {
+        
+        final AtomicReference<OriginFetchTask> inFlight = mgmtData.getInFlightOriginFetch();
+        while (true) {
+            OriginFetchTask existing = inFlight.get();
+            if (existing != null) {
+                log.debug("Joining in-flight origin fetch for entityID: {}", mgmtData.getEntityID());
+                return existing;
+            }
+            
+            OriginFetchTask newTask = new OriginFetchTask(criteria, mgmtData);
+            if (inFlight.compareAndSet(null, newTask)) {
+                log.debug("Starting origin fetch for entityID: {}", mgmtData.getEntityID());
+                try {
+                    originFetchExecutor.execute(newTask);
+                } catch (final RejectedExecutionException e) {
+                    inFlight.compareAndSet(newTask, null);
+                    throw e;
+                }
+                return newTask;
+            }
+        }
     }
     
     /**
@@ -327,6 +766,8 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         EntityManagementData mgmtData = getBackingStore().getManagementData(entityID);
         Lock writeLock = mgmtData.getReadWriteLock().writeLock(); 
         
+        List<EntityDescriptor> descriptors = null;
+        DynamicMetadataPersistentCacheEntry cacheEntry = null;
         try {
             writeLock.lock();
             
@@ -334,7 +775,7 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
             // This check should ensure that only 1 actually successfully does it, b/c the refresh
             // trigger time will be updated as seen by the subsequent ones. 
             if (!shouldAttemptRefresh(mgmtData)) {
-                List<EntityDescriptor> descriptors = lookupEntityID(entityID);
+                descriptors = lookupEntityID(entityID);
                 if (!descriptors.isEmpty()) {
                     log.debug("Metadata was resolved and stored by another thread " 
                             + "while this thread was waiting on the write lock");
@@ -342,9 +783,30 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
                 }
             }
             
+            if (isNegativeLookupCached(entityID)) {
+                log.debug("Lookup of entityID '{}' failed in another thread " 
+                        + "while this thread was waiting on the write lock", entityID);
+                return Collections.emptyList();
+            }
+            
             log.debug("Resolving metadata dynamically for entity ID: {}", entityID);
             
-            XMLObject root = fetchFromOriginSource(criteria);
+            XMLObject root = null;
+            byte[] metadataBytes = null;
+            if (getPersistentCache() != null && isRawOriginFetchSupported()) {
+                metadataBytes = fetchRawFromOriginSource(criteria);
+                if (metadataBytes != null) {
+                    try {
+                        root = unmarshallMetadata(new ByteArrayInputStream(metadataBytes));
+                    } catch (final UnmarshallingException e) {
+                        log.error("Error unmarshalling metadata fetched from origin source", e);
+                        metadataBytes = null;
+                    }
+                }
+            } else {
+                root = fetchFromOriginSource(criteria);
+            }
+            
             if (root == null) {
                 log.debug("No metadata was fetched from the origin source");
             } else {
@@ -355,15 +817,61 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
                 }
             }
             
-            return lookupEntityID(entityID);
+            descriptors = recordLookupResult(entityID, lookupEntityID(entityID));
+            if (metadataBytes != null && !descriptors.isEmpty()) {
+                cacheEntry = new DynamicMetadataPersistentCacheEntry(entityID, metadataBytes,
+                        mgmtData.getExpirationTime(), mgmtData.getRefreshTriggerTime(), 
+                        mgmtData.getLastAccessedTime());
+            }
             
         } catch (IOException e) {
             log.error("Error fetching metadata from origin source", e);
-            return lookupEntityID(entityID);
+            return recordLookupResult(entityID, lookupEntityID(entityID));
         } finally {
             writeLock.unlock();
         }
         
+        if (cacheEntry != null) {
+            saveToPersistentCache(cacheEntry);
+        }
+        return descriptors;
+    }
+
+    /**
+     * Determine whether a failed lookup of the specified entityID is currently cached.
+     * 
+     * @param entityID the entityID
+     * @return true if negative lookup caching is enabled and an unexpired entry exists, false otherwise
+     */
+    protected boolean isNegativeLookupCached(@Nonnull final String entityID) {
+        if (!isNegativeLookupCacheEnabled()) {
+            return false;
+        }
+        NegativeLookupEntry entry = getBackingStore().getNegativeLookup(entityID);
+        return entry != null && entry.getExpirationTime() > System.currentTimeMillis();
+    }
+    
+    /**
+     * Record the result of an origin source lookup in the negative lookup cache: an empty result creates 
+     * or extends the entity's negative entry, a non-empty result clears it.
+     * 
+     * @param entityID the entityID
+     * @param descriptors the descriptors held for the entity after the lookup
+     * @return the supplied descriptors
+     */
+    @Nonnull @NonnullElements protected List<EntityDescriptor> recordLookupResult(@Nonnull final String entityID,
+            @Nonnull @NonnullElements final List<EntityDescriptor> descriptors) {
+        if (isNegativeLookupCacheEnabled()) {
+            if (descriptors.isEmpty()) {
+                NegativeLookupEntry entry = getBackingStore().recordNegativeLookup(entityID);
+                log.debug("Caching failed lookup of entityID '{}' until {} (failure count: {})", entityID, 
+                        new DateTime(entry.getExpirationTime(), ISOChronology.getInstanceUTC()), 
+                        entry.getFailureCount());
+            } else {
+                getBackingStore().removeNegativeLookup(entityID);
+            }
+        }
+        return descriptors;
     }
 
     /**
@@ -376,6 +884,37 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
     @Nullable protected abstract XMLObject fetchFromOriginSource(@Nonnull final CriteriaSet criteria) 
             throws IOException;
 
+    /**
+     * Get whether this resolver can fetch the raw bytes of the metadata document from the origin source,
+     * via {@link #fetchRawFromOriginSource(CriteriaSet)}. Metadata is only saved to the persistent cache
+     * if it was fetched in this form.
+     * 
+     * <p>
+     * The default implementation returns false.
+     * </p>
+     * 
+     * @return true if raw fetches are supported, false otherwise
+     */
+    protected boolean isRawOriginFetchSupported() {
+        return false;
+    }
+    
+    /**
+     * Fetch the raw bytes of the metadata document from the origin source, exactly as they were received.
+     * 
+     * <p>
+     * Used in place of {@link #fetchFromOriginSource(CriteriaSet)} when a persistent cache is configured and
+     * {@link #isRawOriginFetchSupported()} is true. The default implementation returns null.
+     * </p>
+     * 
+     * @param criteria the input criteria set
+     * @return the metadata document, or null if metadata could not be fetched
+     * @throws IOException if there is a fatal error fetching metadata from the origin source
+     */
+    @Nullable protected byte[] fetchRawFromOriginSource(@Nonnull final CriteriaSet criteria) throws IOException {
+        return null;
+    }
+
     /** {@inheritDoc} */
     @Nonnull @NonnullElements protected List<EntityDescriptor> lookupEntityID(@Nonnull String entityID) 
             throws ResolverException {
@@ -401,11 +940,32 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
     @Nonnull protected void processNewMetadata(@Nonnull final XMLObject root, @Nonnull final String expectedEntityID) 
             throws FilterException {
         
+        EntityDescriptor entityDescriptor = filterNewMetadata(root, expectedEntityID);
+        if (entityDescriptor != null) {
+            preProcessEntityDescriptor(entityDescriptor, getBackingStore());
+        }
+    
+    }
+    
+    /**
+     * Filter the specified new metadata document, and check that the result is an {@link EntityDescriptor} 
+     * whose <code>entityID</code> matches the value supplied as the required <code>expectedEntityID</code> 
+     * argument.
+     * 
+     * @param root the root of the new metadata document being processed
+     * @param expectedEntityID the expected entityID of the resolved metadata
+     * @return the filtered entity descriptor, or null if the metadata was rejected
+     * 
+     * @throws FilterException if there is a problem filtering the metadata
+     */
+    @Nullable protected EntityDescriptor filterNewMetadata(@Nonnull final XMLObject root, 
+            @Nonnull final String expectedEntityID) throws FilterException {
+        
         XMLObject filteredMetadata = filterMetadata(root);
         
         if (filteredMetadata == null) {
             log.info("Metadata filtering process produced a null document, resulting in an empty data set");
-            return;
+            return null;
         }
         
         if (filteredMetadata instanceof EntityDescriptor) {
@@ -413,13 +973,145 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
             if (!Objects.equals(entityDescriptor.getEntityID(), expectedEntityID)) {
                 log.warn("New metadata's entityID '{}' does not match expected entityID '{}', will not process", 
                         entityDescriptor.getEntityID(), expectedEntityID);
-               return; 
+               return null; 
             }
-            preProcessEntityDescriptor(entityDescriptor, getBackingStore());
+            return entityDescriptor;
         } else {
             log.warn("Document root was not an EntityDescriptor: {}", root.getClass().getName());
+            return null;
+        }
+    }
+    
+    /**
+     * Save an entry to the persistent cache.
+     * 
+     * <p>
+     * This is called without holding the entity's lock, so that the resolution of other requests for the
+     * entity is not held up by I/O to the cache.
+     * </p>
+     * 
+     * @param entry the entry holding the entity's raw metadata and management data
+     */
+    protected void saveToPersistentCache(@Nonnull final DynamicMetadataPersistentCacheEntry entry) {
+        try {
+            getPersistentCache().save(entry);
+        } catch (final IOException e) {
+            log.warn("Unable to save metadata for entityID '{}' to persistent cache", entry.getEntityID(), e);
+        }
+    }
+    
+    /**
+     * Remove the specified entity's metadata from the persistent cache, if there is one.
+     * 
+     * @param entityID the entityID
+     */
+    protected void removeFromPersistentCache(@Nonnull final String entityID) {
+        if (getPersistentCache() == null) {
+            return;
+        }
+        try {
+            getPersistentCache().remove(entityID);
+        } catch (final IOException e) {
+            log.warn("Unable to remove metadata for entityID '{}' from persistent cache", entityID, e);
+        }
+    }
+    
+    /**
+     * Populate the backing store from the unexpired entries of the persistent cache.
+     * 
+     * <p>
+     * Entries are unmarshalled and filtered in parallel, using one thread per available processor, and are 
+     * then added to the backing store with their saved management data. Entries which are expired, or which 
+     * can not be loaded or are rejected by the metadata filter, are removed from the persistent cache.
+     * </p>
+     */
+    protected void initializeFromPersistentCache() {
+        final Collection<String> entityIDs;
+        try {
+            entityIDs = getPersistentCache().getEntityIDs();
+        } catch (final IOException e) {
+            log.error("Unable to list persistent cache entries, continuing with empty backing store", e);
+            return;
+        }
+        log.debug("Loading {} entries from persistent cache", entityIDs.size());
+        
+        final ExecutorService loader = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("DynamicMetadataPersistentCacheLoad-" + getId() + "-%d")
+                    .build());
+        try {
+            final List<Future<LoadedPersistentCacheEntry>> results = new ArrayList<>(entityIDs.size());
+            for (final String entityID : entityIDs) {
+                results.add(loader.submit(new Callable<LoadedPersistentCacheEntry>() {
+                    public LoadedPersistentCacheEntry call() throws Exception {
+                        return loadFromPersistentCache(entityID);
+                    }
+                }));
+            }
+            
+            int loaded = 0;
+            for (final Future<LoadedPersistentCacheEntry> result : results) {
+                LoadedPersistentCacheEntry loadedEntry = null;
+                try {
+                    loadedEntry = result.get();
+                } catch (final ExecutionException e) {
+                    log.warn("Unexpected error loading persistent cache entry", e.getCause());
+                }
+                if (loadedEntry == null) {
+                    continue;
+                }
+                
+                DynamicMetadataPersistentCacheEntry entry = loadedEntry.getEntry();
+                preProcessEntityDescriptor(loadedEntry.getEntityDescriptor(), getBackingStore());
+                EntityManagementData mgmtData = getBackingStore().getManagementData(entry.getEntityID());
+                mgmtData.setExpirationTime(entry.getExpirationTime());
+                mgmtData.setRefreshTriggerTime(entry.getRefreshTriggerTime());
+                mgmtData.setLastAccessedTime(entry.getLastAccessedTime());
+                loaded++;
+            }
+            log.info("Loaded metadata for {} entities from persistent cache", loaded);
+            
+        } catch (final InterruptedException e) {
+            log.warn("Interrupted while loading persistent cache entries");
+            Thread.currentThread().interrupt();
+        } finally {
+            loader.shutdownNow();
         }
+    }
     
+    /**
+     * Load, unmarshall and filter the persistent cache entry for the specified entityID.
+     * 
+     * @param entityID the entityID
+     * @return the loaded entry and its filtered entity descriptor, or null if the entry was unusable
+     */
+    @Nullable private LoadedPersistentCacheEntry loadFromPersistentCache(@Nonnull final String entityID) {
+        try {
+            DynamicMetadataPersistentCacheEntry entry = getPersistentCache().load(entityID);
+            if (entry == null) {
+                return null;
+            }
+            if (!entry.getExpirationTime().isAfterNow()) {
+                log.debug("Persistent cache entry for entityID '{}' is expired, removing", entityID);
+                removeFromPersistentCache(entityID);
+                return null;
+            }
+            
+            XMLObject root = unmarshallMetadata(new ByteArrayInputStream(entry.getMetadataBytes()));
+            EntityDescriptor entityDescriptor = filterNewMetadata(root, entityID);
+            if (entityDescriptor == null) {
+                log.warn("Persistent cache entry for entityID '{}' was rejected, removing", entityID);
+                removeFromPersistentCache(entityID);
+                return null;
+            }
+            return new LoadedPersistentCacheEntry(entry, entityDescriptor);
+            
+        } catch (final IOException | UnmarshallingException | FilterException e) {
+            log.warn("Unable to load persistent cache entry for entityID '{}', removing", entityID, e);
+            removeFromPersistentCache(entityID);
+            return null;
+        }
     }
     
     /** {@inheritDoc} */
@@ -524,6 +1216,21 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         super.initMetadataResolver();
         setBackingStore(createNewBackingStore());
         
+        if (isAsyncOriginFetch() && originFetchExecutor == null) {
+            originFetchExecutor = new ThreadPoolExecutor(getOriginFetchThreads(), getOriginFetchThreads(), 
+                    0L, TimeUnit.MILLISECONDS, 
+                    new LinkedBlockingQueue<Runnable>(DEFAULT_ORIGIN_FETCH_QUEUE_SIZE),
+                    new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("DynamicMetadataOriginFetch-" + getId() + "-%d")
+                        .build());
+            createdOwnOriginFetchExecutor = true;
+        }
+        
+        if (getPersistentCache() != null) {
+            initializeFromPersistentCache();
+        }
+        
         cleanupTask = new BackingStoreCleanupSweeper();
         // Start with a delay of 1 minute, run at the user-specified interval
         taskTimer.schedule(cleanupTask, 1*60*1000, getCleanupTaskInterval());
@@ -535,8 +1242,12 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         if (createdOwnTaskTimer) {
             taskTimer.cancel();
         }
+        if (createdOwnOriginFetchExecutor) {
+            originFetchExecutor.shutdownNow();
+        }
         cleanupTask = null;
         taskTimer = null;
+        originFetchExecutor = null;
         
         super.doDestroy();
     }
@@ -549,10 +1260,14 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         /** Map holding management data for each entityID. */
         private Map<String, EntityManagementData> mgmtDataMap;
         
+        /** Map holding negative lookup cache entries for each entityID. */
+        private Map<String, NegativeLookupEntry> negativeLookupMap;
+        
         /** Constructor. */
         protected DynamicEntityBackingStore() {
             super();
             mgmtDataMap = new ConcurrentHashMap<>();
+            negativeLookupMap = new ConcurrentHashMap<>();
         }
         
         /**
@@ -595,6 +1310,137 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
             }
         }
         
+        /**
+         * Get the negative lookup cache entry for the specified entityID.
+         * 
+         * @param entityID the input entityID
+         * @return the entry, which may be expired, or null if none exists
+         */
+        @Nullable public NegativeLookupEntry getNegativeLookup(@Nonnull final String entityID) {
+            Constraint.isNotNull(entityID, "EntityID may not be null");
+            return negativeLookupMap.get(entityID);
+        }
+        
+        /**
+         * Record a failed lookup of the specified entityID, doubling the duration of any previous entry
+         * up to {@link #getMaxNegativeLookupCacheDuration()}.
+         * 
+         * <p>
+         * If the cache is at capacity, expired entries are purged and, if it is still at capacity, the entry 
+         * which expires soonest is evicted.
+         * </p>
+         * 
+         * @param entityID the input entityID
+         * @return the new entry
+         */
+        @Nonnull public NegativeLookupEntry recordNegativeLookup(@Nonnull final String entityID) {
+            Constraint.isNotNull(entityID, "EntityID may not be null");
+            long now = System.currentTimeMillis();
+            synchronized (negativeLookupMap) {
+                NegativeLookupEntry previous = negativeLookupMap.get(entityID);
+                int failureCount = previous != null ? previous.getFailureCount() + 1 : 1;
+                
+                long duration = getNegativeLookupCacheDuration();
+                for (int i = 1; i < failureCount && duration < getMaxNegativeLookupCacheDuration(); i++) {
+                    duration *= 2;
+                }
+                duration = Math.min(duration, getMaxNegativeLookupCacheDuration());
+                
+                if (previous == null && negativeLookupMap.size() >= getMaxNegativeLookupEntries()) {
+                    removeExpiredNegativeLookups(now);
+                    if (negativeLookupMap.size() >= getMaxNegativeLookupEntries()) {
+                        evictSoonestExpiringNegativeLookup();
+                    }
+                }
+                
+                NegativeLookupEntry entry = new NegativeLookupEntry(failureCount, now + duration);
+                negativeLookupMap.put(entityID, entry);
+                return entry;
+            }
+        }
+        
+        /**
+         * Remove the negative lookup cache entry for the specified entityID.
+         * 
+         * @param entityID the input entityID
+         */
+        public void removeNegativeLookup(@Nonnull final String entityID) {
+            Constraint.isNotNull(entityID, "EntityID may not be null");
+            negativeLookupMap.remove(entityID);
+        }
+        
+        /**
+         * Remove negative lookup cache entries which expired before the specified time. 
+         * 
+         * @param time the time in milliseconds since the epoch
+         */
+        public void removeExpiredNegativeLookups(final long time) {
+            Iterator<NegativeLookupEntry> entries = negativeLookupMap.values().iterator();
+            while (entries.hasNext()) {
+                if (entries.next().getExpirationTime() <= time) {
+                    entries.remove();
+                }
+            }
+        }
+        
+        /** Evict the negative lookup cache entry which expires soonest. */
+        private void evictSoonestExpiringNegativeLookup() {
+            String soonest = null;
+            long soonestExpiration = Long.MAX_VALUE;
+            for (Map.Entry<String, NegativeLookupEntry> entry : negativeLookupMap.entrySet()) {
+                if (entry.getValue().getExpirationTime() < soonestExpiration) {
+                    soonest = entry.getKey();
+                    soonestExpiration = entry.getValue().getExpirationTime();
+                }
+            }
+            if (soonest != null) {
+                log.debug("Negative lookup cache is full, evicting entry for entityID: {}", soonest);
+                negativeLookupMap.remove(soonest);
+            }
+        }
+        
+    }
+    
+    /**
+     * Immutable negative lookup cache entry for an entityID.
+     */
+    protected static class NegativeLookupEntry {
+        
+        /** The number of consecutive failed lookups. */
+        private final int failureCount;
+        
+        /** The time in milliseconds since the epoch at which the entry expires. */
+        private final long expirationTime;
+        
+        /**
+         * Constructor.
+         *
+         * @param count the number of consecutive failed lookups
+         * @param expiration the time in milliseconds since the epoch at which the entry expires
+         */
+        protected NegativeLookupEntry(final int count, final long expiration) {
+            failureCount = count;
+            expirationTime = expiration;
+        }
+        
+        /**
+         * Get the number of consecutive failed lookups.
+         * 
+         * @return the failure count
+         */
+        public int getFailureCount() {
+            return failureCount;
+        }
+        
+        /**
+         * Get the time at which the entry expires.
+         * 
+         * @return the time in milliseconds since the epoch
+         */
+        public long getExpirationTime() {
+            return expirationTime;
+        }
+        
     }
     
     /**
@@ -620,6 +1466,9 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
         /** Read-write lock instance which governs access to the entity's backing store data. */
         private ReadWriteLock readWriteLock;
         
+        /** The asynchronous origin fetch currently in-flight for the entity, if any. */
+        private AtomicReference<OriginFetchTask> inFlightOriginFetch;
+        
         /** Constructor. 
          * 
          * @param id the entity ID managed by this instance
@@ -630,6 +1479,7 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
             refreshTriggerTime = new DateTime(ISOChronology.getInstanceUTC()).plus(getMaxCacheDuration());
             lastAccessedTime = new DateTime(ISOChronology.getInstanceUTC());
             readWriteLock = new ReentrantReadWriteLock(true);
+            inFlightOriginFetch = new AtomicReference<>();
         }
         
         /**
@@ -704,6 +1554,15 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
             return lastAccessedTime;
         }
         
+        /**
+         * Set the last time at which the entity's backing store data was accessed.
+         * 
+         * @param dateTime the last accessed time
+         */
+        public void setLastAccessedTime(@Nonnull final DateTime dateTime) {
+            lastAccessedTime = Constraint.isNotNull(dateTime, "Last accessed time may not be null");
+        }
+        
         /**
          * Record access of the entity's backing store data.
          */
@@ -720,6 +1579,91 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
             return readWriteLock;
         }
         
+        /**
+         * Get the holder of the asynchronous origin fetch currently in-flight for the entity.
+         * 
+         * @return the in-flight fetch holder
+         */
+        @Nonnull protected AtomicReference<OriginFetchTask> getInFlightOriginFetch() {
+            return inFlightOriginFetch;
+        }
+        
+    }
+    
+    /**
+     * A persistent cache entry together with the entity descriptor produced by filtering it.
+     */
+    private static class LoadedPersistentCacheEntry {
+        
+        /** The persistent cache entry. */
+        private final DynamicMetadataPersistentCacheEntry entry;
+        
+        /** The filtered entity descriptor. */
+        private final EntityDescriptor entityDescriptor;
+        
+        /**
+         * Constructor.
+         *
+         * @param cacheEntry the persistent cache entry
+         * @param descriptor the filtered entity descriptor
+         */
+        private LoadedPersistentCacheEntry(@Nonnull final DynamicMetadataPersistentCacheEntry cacheEntry,
+                @Nonnull final EntityDescriptor descriptor) {
+            entry = cacheEntry;
+            entityDescriptor = descriptor;
+        }
+        
+        /**
+         * Get the persistent cache entry.
+         * 
+         * @return the entry
+         */
+        @Nonnull public DynamicMetadataPersistentCacheEntry getEntry() {
+            return entry;
+        }
+        
+        /**
+         * Get the filtered entity descriptor.
+         * 
+         * @return the entity descriptor
+         */
+        @Nonnull public EntityDescriptor getEntityDescriptor() {
+            return entityDescriptor;
+        }
+        
+    }
+    
+    /**
+     * Task which resolves an entity's metadata from the origin source on behalf of all callers waiting on it,
+     * and which removes itself as the entity's in-flight fetch once complete.
+     */
+    protected class OriginFetchTask extends FutureTask<List<EntityDescriptor>> {
+        
+        /** The management data of the entity being fetched. */
+        private final EntityManagementData mgmtData;
+        
+        /**
+         * Constructor.
+         *
+         * @param criteria the input criteria set
+         * @param entityMgmtData the management data of the entity being fetched
+         */
+        protected OriginFetchTask(@Nonnull final CriteriaSet criteria, 
+                @Nonnull final EntityManagementData entityMgmtData) {
+            super(new Callable<List<EntityDescriptor>>() {
+                public List<EntityDescriptor> call() throws Exception {
+                    resolveFromOriginSource(criteria);
+                    return lookupEntityIDWithReadLock(entityMgmtData);
+                }
+            });
+            mgmtData = entityMgmtData;
+        }
+        
+        /** {@inheritDoc} */
+        protected void done() {
+            mgmtData.getInFlightOriginFetch().compareAndSet(this, null);
+        }
+        
     }
     
     /**
@@ -746,7 +1690,8 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
 
         /**
          *  Purge metadata which is either 1) expired or 2) (if {@link #isRemoveIdleEntityData()} is true) 
-         *  which hasn't been accessed within the last {@link #getMaxIdleEntityData()} milliseconds.
+         *  which hasn't been accessed within the last {@link #getMaxIdleEntityData()} milliseconds, along with
+         *  long-expired negative lookup cache entries.
          */
         private void removeExpiredAndIdleMetadata() {
             DateTime now = new DateTime(ISOChronology.getInstanceUTC());
@@ -764,6 +1709,7 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
                     if (isRemoveData(mgmtData, now, earliestValidLastAccessed)) {
                         removeByEntityID(entityID, backingStore);
                         backingStore.removeManagementData(entityID);
+                        removeFromPersistentCache(entityID);
                     }
                     
                 } finally {
@@ -771,6 +1717,8 @@ public abstract class AbstractDynamicMetadataResolver extends AbstractMetadataRe
                 }
             }
             
+            // Retain expired negative entries for a while so that backoff continues if lookups keep failing.
+            backingStore.removeExpiredNegativeLookups(now.getMillis() - getMaxNegativeLookupCacheDuration());
         }
         
         /**
@@ -21,9 +21,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nonnull;
@@ -41,6 +44,7 @@ import net.shibboleth.utilities.java.support.resolver.ResolverException;
 import net.shibboleth.utilities.java.support.xml.ParserPool;
 import net.shibboleth.utilities.java.support.xml.QNameSupport;
 
+import org.opensaml.core.xml.Namespace;
 import org.opensaml.core.xml.XMLObject;
 import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.opensaml.core.xml.io.Unmarshaller;
@@ -49,19 +53,33 @@ import org.opensaml.core.xml.io.UnmarshallingException;
 import org.opensaml.saml.metadata.resolver.MetadataResolver;
 import org.opensaml.saml.metadata.resolver.filter.FilterException;
 import org.opensaml.saml.metadata.resolver.filter.MetadataFilter;
+import org.opensaml.saml.metadata.resolver.index.MetadataIndex;
+import org.opensaml.saml.metadata.resolver.index.MetadataIndexKey;
 import org.opensaml.saml.saml2.common.SAML2Support;
+import org.opensaml.saml.saml2.metadata.Endpoint;
 import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
 import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.RoleDescriptor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 
+import com.google.common.base.Predicates;
 import com.google.common.base.Strings;
+import com.google.common.collect.Collections2;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 
 /** An abstract, base, implementation of a metadata provider. */
 public abstract class AbstractMetadataResolver extends AbstractIdentifiableInitializableComponent implements
         MetadataResolver {
 
+    /** Interner used to share the strings drawn from small vocabularies across compacted metadata. */
+    private static final Interner<String> STRING_INTERNER = Interners.newWeakInterner();
+
+    /** Interner used to share equal namespace instances across compacted metadata. */
+    private static final Interner<Namespace> NAMESPACE_INTERNER = Interners.newWeakInterner();
+
     /** Class logger. */
     private final Logger log = LoggerFactory.getLogger(AbstractMetadataResolver.class);
 
@@ -85,12 +103,19 @@ public abstract class AbstractMetadataResolver extends AbstractIdentifiableIniti
 
     /** Pool of parsers used to process XML. */
     private ParserPool parser;
+    
+    /** Whether filtered metadata is compacted for read-only use. */
+    private boolean compactMetadata;
+
+    /** Secondary indexes maintained over the backing store. */
+    @Nonnull @NonnullElements private Set<MetadataIndex> indexes;
 
     /** Constructor. */
     public AbstractMetadataResolver() {
         failFastInitialization = true;
         requireValidMetadata = true;
         unmarshallerFactory = XMLObjectProviderRegistrySupport.getUnmarshallerFactory();
+        indexes = Collections.emptySet();
     }
 
     /** {@inheritDoc} */
@@ -159,6 +184,59 @@ public abstract class AbstractMetadataResolver extends AbstractIdentifiableIniti
         parser = Constraint.isNotNull(pool, "ParserPool may not be null");
     }
 
+    /**
+     * Gets whether filtered metadata is compacted for read-only use.
+     * 
+     * @return whether filtered metadata is compacted
+     */
+    public boolean isCompactMetadata() {
+        return compactMetadata;
+    }
+
+    /**
+     * Sets whether filtered metadata is compacted for read-only use.
+     * 
+     * <p>
+     * When enabled, the cached DOM is always released from the metadata once it has been filtered, regardless of
+     * whether the source metadata is cached, and the namespaces, binding and protocol support strings held by the
+     * metadata are shared across all the descriptors which use them. This reduces the heap footprint of large aggregates,
+     * but means that the resolved metadata must be treated as read-only: it can no longer be re-marshalled from
+     * its original DOM, and so for example its signature can not be re-verified.
+     * </p>
+     * 
+     * @param flag whether filtered metadata is compacted
+     */
+    public void setCompactMetadata(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+        compactMetadata = flag;
+    }
+
+    /**
+     * Get the secondary indexes maintained over the backing store.
+     * 
+     * @return the secondary indexes, may be empty
+     */
+    @Nonnull @NonnullElements public Set<MetadataIndex> getIndexes() {
+        return Collections.unmodifiableSet(indexes);
+    }
+
+    /**
+     * Set the secondary indexes maintained over the backing store, which allow entity descriptors to be
+     * resolved from criteria other than the entity ID.
+     * 
+     * @param newIndexes the secondary indexes, may be null or empty
+     */
+    public void setIndexes(@Nullable final Set<MetadataIndex> newIndexes) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+        if (newIndexes == null) {
+            indexes = Collections.emptySet();
+        } else {
+            indexes = new LinkedHashSet<>(Collections2.filter(newIndexes, Predicates.notNull()));
+        }
+    }
+
     /** {@inheritDoc} */
     @Override @Nullable public EntityDescriptor resolveSingle(CriteriaSet criteria) throws ResolverException {
         ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
@@ -272,11 +350,62 @@ public abstract class AbstractMetadataResolver extends AbstractIdentifiableIniti
      * @throws FilterException thrown if there is an error filtering the metadata
      */
     @Nullable protected XMLObject filterMetadata(@Nullable final XMLObject metadata) throws FilterException {
+        XMLObject filteredMetadata = metadata;
         if (getMetadataFilter() != null) {
             log.debug("Applying metadata filter");
-            return getMetadataFilter().filter(metadata);
-        } else {
-            return metadata;
+            filteredMetadata = getMetadataFilter().filter(metadata);
+        }
+        
+        if (isCompactMetadata() && filteredMetadata != null) {
+            compactMetadata(filteredMetadata);
+        }
+        
+        return filteredMetadata;
+    }
+
+    /**
+     * Compacts filtered metadata for read-only use, by releasing its DOM and sharing the namespaces and strings it
+     * holds which are drawn from small vocabularies.
+     * 
+     * @param metadata the filtered metadata
+     */
+    protected void compactMetadata(@Nonnull final XMLObject metadata) {
+        releaseMetadataDOM(metadata);
+        internMetadataValues(metadata);
+    }
+
+    /**
+     * Replaces the namespaces, and the binding and protocol support strings, of the given metadata and its
+     * descendants with shared instances.
+     * 
+     * @param metadata the metadata
+     */
+    private void internMetadataValues(@Nonnull final XMLObject metadata) {
+        metadata.getNamespaceManager().internNamespaces(NAMESPACE_INTERNER);
+        
+        if (metadata instanceof Endpoint) {
+            final Endpoint endpoint = (Endpoint) metadata;
+            if (endpoint.getBinding() != null) {
+                endpoint.setBinding(STRING_INTERNER.intern(endpoint.getBinding()));
+            }
+        } else if (metadata instanceof RoleDescriptor) {
+            final RoleDescriptor role = (RoleDescriptor) metadata;
+            final List<String> protocols = new ArrayList<>(role.getSupportedProtocols());
+            if (!protocols.isEmpty()) {
+                role.removeAllSupportedProtocols();
+                for (final String protocol : protocols) {
+                    role.addSupportedProtocol(STRING_INTERNER.intern(protocol));
+                }
+            }
+        }
+        
+        final List<XMLObject> children = metadata.getOrderedChildren();
+        if (children != null) {
+            for (final XMLObject child : children) {
+                if (child != null) {
+                    internMetadataValues(child);
+                }
+            }
         }
     }
 
@@ -366,6 +495,43 @@ public abstract class AbstractMetadataResolver extends AbstractIdentifiableIniti
         }
     }
 
+    /**
+     * Lookup the entity descriptors satisfying the specified criteria from the backing store's secondary indexes.
+     * 
+     * <p>
+     * The result is the intersection of the results of each index able to evaluate the criteria. Descriptors are
+     * not checked for validity.
+     * </p>
+     * 
+     * @param criteria the criteria
+     * 
+     * @return the descriptors, may be empty, or null if no secondary index was able to evaluate the criteria
+     */
+    @Nullable @NonnullElements protected Set<EntityDescriptor> lookupIndexedItems(
+            @Nonnull final CriteriaSet criteria) {
+        Set<EntityDescriptor> results = null;
+        for (final Map.Entry<MetadataIndex, MetadataIndexStore> entry 
+                : getBackingStore().getSecondaryIndexes().entrySet()) {
+            final Set<MetadataIndexKey> keys = entry.getKey().generateKeys(criteria);
+            if (keys == null) {
+                continue;
+            }
+            final Set<EntityDescriptor> indexResults = new LinkedHashSet<>();
+            for (final MetadataIndexKey key : keys) {
+                indexResults.addAll(entry.getValue().lookup(key));
+            }
+            if (results == null) {
+                results = indexResults;
+            } else {
+                results.retainAll(indexResults);
+            }
+            if (results.isEmpty()) {
+                break;
+            }
+        }
+        return results;
+    }
+
     /**
      * Create a new backing store instance for EntityDescriptor data. Subclasses may override to return a more
      * specialized subclass type. Note this method does not make the returned backing store the effective one in use.
@@ -420,6 +586,9 @@ public abstract class AbstractMetadataResolver extends AbstractIdentifiableIniti
         List<EntityDescriptor> descriptors = indexedDescriptors.get(entityID);
         if (descriptors != null) {
             backingStore.getOrderedDescriptors().removeAll(descriptors);
+            for (EntityDescriptor descriptor : descriptors) {
+                removeFromSecondaryIndexes(descriptor, backingStore);
+            }
         }
         indexedDescriptors.remove(entityID);
     }
@@ -444,6 +613,33 @@ public abstract class AbstractMetadataResolver extends AbstractIdentifiableIniti
             }
             entities.add(entityDescriptor);
         }
+        
+        for (Map.Entry<MetadataIndex, MetadataIndexStore> entry : backingStore.getSecondaryIndexes().entrySet()) {
+            Set<MetadataIndexKey> keys = entry.getKey().generateKeys(entityDescriptor);
+            if (keys != null) {
+                for (MetadataIndexKey key : keys) {
+                    entry.getValue().add(key, entityDescriptor);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Remove the specified entity descriptor from the secondary indexes of the specified entity backing store.
+     * 
+     * @param entityDescriptor the target entity descriptor
+     * @param backingStore the backing store instance to update
+     */
+    protected void removeFromSecondaryIndexes(@Nonnull final EntityDescriptor entityDescriptor,
+            @Nonnull final EntityBackingStore backingStore) {
+        for (Map.Entry<MetadataIndex, MetadataIndexStore> entry : backingStore.getSecondaryIndexes().entrySet()) {
+            Set<MetadataIndexKey> keys = entry.getKey().generateKeys(entityDescriptor);
+            if (keys != null) {
+                for (MetadataIndexKey key : keys) {
+                    entry.getValue().remove(key, entityDescriptor);
+                }
+            }
+        }
     }
 
     /**
@@ -474,11 +670,18 @@ public abstract class AbstractMetadataResolver extends AbstractIdentifiableIniti
 
         /** Ordered list of entity descriptors. */
         private List<EntityDescriptor> orderedDescriptors;
+        
+        /** Secondary indexes of entity descriptors. */
+        private Map<MetadataIndex, MetadataIndexStore> secondaryIndexes;
 
         /** Constructor. */
         protected EntityBackingStore() {
             indexedDescriptors = new ConcurrentHashMap<>();
             orderedDescriptors = new ArrayList<>();
+            secondaryIndexes = new HashMap<>();
+            for (MetadataIndex index : getIndexes()) {
+                secondaryIndexes.put(index, new MetadataIndexStore());
+            }
         }
 
         /**
@@ -498,6 +701,15 @@ public abstract class AbstractMetadataResolver extends AbstractIdentifiableIniti
         @Nonnull public List<EntityDescriptor> getOrderedDescriptors() {
             return orderedDescriptors;
         }
+        
+        /**
+         * Get the secondary indexes of entity descriptors, one store for each configured {@link MetadataIndex}.
+         * 
+         * @return the secondary indexes
+         */
+        @Nonnull public Map<MetadataIndex, MetadataIndexStore> getSecondaryIndexes() {
+            return secondaryIndexes;
+        }
 
     }
 
@@ -21,28 +21,54 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.xml.stream.XMLStreamException;
 
 import net.shibboleth.utilities.java.support.annotation.Duration;
 import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.collection.Pair;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.resolver.ResolverException;
+import net.shibboleth.utilities.java.support.xml.QNameSupport;
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.chrono.ISOChronology;
 import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.io.Unmarshaller;
 import org.opensaml.core.xml.io.UnmarshallingException;
 import org.opensaml.saml.metadata.resolver.RefreshableMetadataResolver;
 import org.opensaml.saml.metadata.resolver.filter.FilterException;
 import org.opensaml.saml.saml2.common.SAML2Support;
+import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.xmlsec.signature.Signature;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.google.common.collect.Sets;
 
 /**
  * Base class for metadata providers that cache and periodically refresh their metadata.
@@ -57,10 +83,28 @@ import org.w3c.dom.Document;
  * cache actually expires, allowing a some room for error and recovery. Assuming the factor is not exceedingly close to
  * 1.0 and a min refresh delay that is not overly large, this refresh will likely occur a few times before the cache
  * expires.
+ * 
+ * <p>
+ * If {@link #isIncrementalReload()} is enabled, each {@link EntityDescriptor} of a new metadata document is
+ * digested prior to unmarshalling, and those whose digest is unchanged since the previous load are not
+ * unmarshalled or filtered again; the descriptors produced from them by the previous load are reused instead.
+ * See {@link #setIncrementalReload(boolean)} for the conditions under which this is possible.
+ * </p>
+ * 
+ * <p>
+ * If {@link #isStreamingAggregates()} is enabled, a new unsigned aggregate is instead split into its individual
+ * {@link EntityDescriptor} elements as it is read, and each is unmarshalled on its own, so that the DOM of the
+ * complete document is never built. This only reduces the memory and time needed to unmarshall the aggregate: the
+ * reassembled aggregate is filtered as a whole, as a complete document would be, and a signed aggregate is always
+ * processed as a complete document. See {@link #setStreamingAggregates(boolean)} for the details.
+ * </p>
  */
 public abstract class AbstractReloadingMetadataResolver extends AbstractBatchMetadataResolver 
         implements RefreshableMetadataResolver {
 
+    /** Maximum number of entity descriptors split from an aggregate which may be awaiting processing. */
+    private static final int MAX_PENDING_STREAMED_ENTITIES = 64;
+
     /** Class logger. */
     private final Logger log = LoggerFactory.getLogger(AbstractReloadingMetadataResolver.class);
 
@@ -96,6 +140,21 @@ public abstract class AbstractReloadingMetadataResolver extends AbstractBatchMet
 
     /** Next time a refresh cycle will occur. */
     private DateTime nextRefresh;
+    
+    /** Whether unchanged entity descriptors are reused across reloads. Default value: false */
+    private boolean incrementalReload;
+    
+    /** State of the incremental load currently being processed, if any. */
+    private IncrementalLoad currentIncrementalLoad;
+    
+    /** Whether aggregates are split into their entity descriptors as they are read. Default value: false */
+    private boolean streamingAggregates;
+    
+    /** Executor used to process the entity descriptors split from an aggregate, if any. */
+    @Nullable private ExecutorService streamingExecutor;
+    
+    /** Skeleton document of the streamed aggregate currently being processed, if any. */
+    private Document currentStreamedSkeleton;
 
     /** Constructor. */
     protected AbstractReloadingMetadataResolver() {
@@ -235,6 +294,108 @@ public abstract class AbstractReloadingMetadataResolver extends AbstractBatchMet
         }
         minRefreshDelay = delay;
     }
+    
+    /**
+     * Gets whether unchanged entity descriptors are reused across reloads.
+     * 
+     * @return whether unchanged entity descriptors are reused across reloads
+     */
+    public boolean isIncrementalReload() {
+        return incrementalReload;
+    }
+    
+    /**
+     * Sets whether unchanged entity descriptors are reused across reloads.
+     * 
+     * <p>
+     * Reuse is only possible when the document root is an {@link EntitiesDescriptor}. It also requires that the
+     * configured metadata filters modify the metadata in place, and that their result for an entity depends only on
+     * that entity and its enclosing groups. Otherwise the complete document is processed as usual.
+     * </p>
+     * 
+     * <p>
+     * Unchanged entity descriptor elements are withheld from unmarshalling but remain in the DOM, so that signatures
+     * on {@link EntitiesDescriptor} elements are verified by the metadata filters over the complete document. Such
+     * signatures are not part of the digest of an entity's enclosing groups, so that re-signing an aggregate does not
+     * count as a change to each of its entities.
+     * </p>
+     * 
+     * @param flag whether unchanged entity descriptors are reused across reloads
+     */
+    public void setIncrementalReload(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+        
+        incrementalReload = flag;
+    }
+    
+    /**
+     * Gets whether aggregates are split into their entity descriptors as they are read.
+     * 
+     * @return whether aggregates are split into their entity descriptors as they are read
+     */
+    public boolean isStreamingAggregates() {
+        return streamingAggregates;
+    }
+    
+    /**
+     * Sets whether aggregates are split into their entity descriptors as they are read.
+     * 
+     * <p>
+     * Each {@link EntityDescriptor} of the aggregate is unmarshalled as soon as it has been read, and its DOM is
+     * released unless it contains a signature, so that the memory needed to load the aggregate is that of the
+     * resulting metadata plus the DOM of its signed entities, rather than that of the DOM of the complete document.
+     * The entities are reassembled under the aggregate's {@link EntitiesDescriptor} elements, and the configured
+     * metadata filters are applied to the reassembled aggregate as usual, so an error raised by a filter fails
+     * the refresh.
+     * </p>
+     * 
+     * <p>
+     * Filters are neither applied to each entity on its own nor in parallel, so a filter which needs the complete
+     * aggregate, such as one verifying its signature, sees the same metadata as it would without this option.
+     * Only unmarshalling is split, and may be parallelized with {@link #setStreamingExecutor(ExecutorService)}.
+     * </p>
+     * 
+     * <p>
+     * Splitting is only possible when the document root is an {@link EntitiesDescriptor} and none of the
+     * {@link EntitiesDescriptor} elements in the document is signed, since such a signature can only be verified
+     * over the DOM of the complete document. A signed aggregate, which is how most federations publish their
+     * metadata, is therefore always processed as a complete document, and this option only benefits aggregates
+     * which are unsigned, for instance because they are fetched over an authenticated channel or produced locally.
+     * This option is ignored if {@link #isIncrementalReload()} is enabled.
+     * </p>
+     * 
+     * @param flag whether aggregates are split into their entity descriptors as they are read
+     */
+    public void setStreamingAggregates(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+        
+        streamingAggregates = flag;
+    }
+    
+    /**
+     * Gets the executor used to unmarshall the entity descriptors split from an aggregate.
+     * 
+     * @return the executor, or null if entity descriptors are processed by the refreshing thread
+     */
+    @Nullable public ExecutorService getStreamingExecutor() {
+        return streamingExecutor;
+    }
+    
+    /**
+     * Sets the executor used to unmarshall the entity descriptors split from an aggregate, in parallel with each
+     * other and with the reading of the rest of the aggregate. Filters are not run by this executor. The executor
+     * is not shut down when this resolver is destroyed.
+     * 
+     * @param executor the executor, or null if entity descriptors are to be processed by the refreshing thread
+     */
+    public void setStreamingExecutor(@Nullable final ExecutorService executor) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+        
+        streamingExecutor = executor;
+    }
 
     /** {@inheritDoc} */
     @Override
@@ -377,12 +538,201 @@ public abstract class AbstractReloadingMetadataResolver extends AbstractBatchMet
     protected void processNewMetadata(String metadataIdentifier, DateTime refreshStart, byte[] metadataBytes)
             throws ResolverException {
         log.debug("Unmarshalling metadata from '{}'", metadataIdentifier);
-        XMLObject metadata = unmarshallMetadata(metadataBytes);
+        XMLObject metadata = null;
+        try {
+            if (isIncrementalReload()) {
+                currentIncrementalLoad = new IncrementalLoad();
+                metadata = unmarshallMetadataIncrementally(metadataBytes, currentIncrementalLoad);
+            } else if (isStreamingAggregates()) {
+                metadata = unmarshallMetadataStreaming(metadataBytes);
+                if (metadata == null) {
+                    log.debug("Metadata from '{}' is not eligible for streaming, processing complete document",
+                            metadataIdentifier);
+                }
+            }
+            if (metadata == null) {
+                metadata = unmarshallMetadata(metadataBytes);
+            }
 
-        if (!isValid(metadata)) {
-            processPreExpiredMetadata(metadataIdentifier, refreshStart, metadataBytes, metadata);
-        } else {
-            processNonExpiredMetadata(metadataIdentifier, refreshStart, metadataBytes, metadata);
+            if (!isValid(metadata)) {
+                processPreExpiredMetadata(metadataIdentifier, refreshStart, metadataBytes, metadata);
+            } else {
+                processNonExpiredMetadata(metadataIdentifier, refreshStart, metadataBytes, metadata);
+            }
+        } finally {
+            currentIncrementalLoad = null;
+            currentStreamedSkeleton = null;
+        }
+    }
+    
+    /**
+     * Splits the given aggregate into its entity descriptors as it is read, unmarshalling each independently, and
+     * reassembles the results under the aggregate's unmarshalled entities descriptors.
+     * 
+     * @param metadataBytes raw metadata bytes
+     * 
+     * @return the unfiltered metadata, or null if the document can not be split
+     * 
+     * @throws ResolverException thrown if the metadata can not be parsed or unmarshalled
+     */
+    @Nullable protected XMLObject unmarshallMetadataStreaming(@Nonnull final byte[] metadataBytes)
+            throws ResolverException {
+        final List<Element> groupElements = new ArrayList<>();
+        final List<Future<EntityDescriptor>> results = new ArrayList<>();
+        try {
+            final MetadataStreamSplitter splitter =
+                    new MetadataStreamSplitter(getParserPool(), new ByteArrayInputStream(metadataBytes));
+            int completed = 0;
+            MetadataStreamSplitter.EntityFragment fragment;
+            while ((fragment = splitter.next()) != null) {
+                groupElements.add(fragment.getGroupElement());
+                results.add(submitStreamedEntity(fragment.getElement()));
+                // bound the number of entity DOMs held at once
+                while (results.size() - completed > MAX_PENDING_STREAMED_ENTITIES) {
+                    results.get(completed++).get();
+                }
+            }
+            
+            if (!splitter.isSplittable()) {
+                return null;
+            }
+            
+            final Element skeletonRoot = splitter.getSkeleton().getDocumentElement();
+            final Unmarshaller unmarshaller = getUnmarshallerFactory().getUnmarshaller(skeletonRoot);
+            if (unmarshaller == null) {
+                throw new UnmarshallingException("No unmarshaller registered for document element "
+                        + QNameSupport.getNodeQName(skeletonRoot));
+            }
+            final EntitiesDescriptor root = (EntitiesDescriptor) unmarshaller.unmarshall(skeletonRoot);
+            final Map<Element, EntitiesDescriptor> groups = new IdentityHashMap<>();
+            collectGroups(root, groups);
+            
+            for (int i = 0; i < results.size(); i++) {
+                groups.get(groupElements.get(i)).getEntityDescriptors().add(results.get(i).get());
+            }
+            
+            currentStreamedSkeleton = skeletonRoot.getOwnerDocument();
+            return root;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResolverException("Interrupted while processing streamed metadata", e);
+        } catch (final ExecutionException e) {
+            final String errorMsg = "Unable to unmarshall metadata";
+            log.error(errorMsg, e.getCause());
+            throw new ResolverException(errorMsg, e.getCause());
+        } catch (final XMLStreamException | XMLParserException | UnmarshallingException e) {
+            final String errorMsg = "Unable to unmarshall metadata";
+            log.error(errorMsg, e);
+            throw new ResolverException(errorMsg, e);
+        } finally {
+            for (final Future<EntityDescriptor> result : results) {
+                result.cancel(false);
+            }
+        }
+    }
+    
+    /**
+     * Submit an entity descriptor split from an aggregate for processing by
+     * {@link #processStreamedEntity(Element)}, using the streaming executor if one is configured.
+     * 
+     * @param entityElement the entity descriptor element
+     * 
+     * @return the result of the processing
+     */
+    @Nonnull private Future<EntityDescriptor> submitStreamedEntity(@Nonnull final Element entityElement) {
+        final Callable<EntityDescriptor> task = new Callable<EntityDescriptor>() {
+            public EntityDescriptor call() throws Exception {
+                return processStreamedEntity(entityElement);
+            }
+        };
+        
+        if (getStreamingExecutor() != null) {
+            return getStreamingExecutor().submit(task);
+        }
+        
+        final FutureTask<EntityDescriptor> future = new FutureTask<>(task);
+        future.run();
+        return future;
+    }
+    
+    /**
+     * Unmarshall an entity descriptor split from an aggregate, and release its DOM unless it contains a signature,
+     * which can only be verified over the DOM.
+     * 
+     * @param entityElement the entity descriptor element
+     * 
+     * @return the unmarshalled entity descriptor
+     * 
+     * @throws UnmarshallingException thrown if the entity descriptor can not be unmarshalled
+     */
+    @Nonnull protected EntityDescriptor processStreamedEntity(@Nonnull final Element entityElement)
+            throws UnmarshallingException {
+        final Unmarshaller unmarshaller = getUnmarshallerFactory().getUnmarshaller(entityElement);
+        if (unmarshaller == null) {
+            throw new UnmarshallingException("No unmarshaller registered for element "
+                    + QNameSupport.getNodeQName(entityElement));
+        }
+        final XMLObject entity = unmarshaller.unmarshall(entityElement);
+        if (!(entity instanceof EntityDescriptor)) {
+            throw new UnmarshallingException("Element " + QNameSupport.getNodeQName(entityElement)
+                    + " was not unmarshalled to an EntityDescriptor");
+        }
+        
+        if (entityElement.getElementsByTagNameNS(SignatureConstants.XMLSIG_NS, 
+                Signature.DEFAULT_ELEMENT_LOCAL_NAME).getLength() == 0) {
+            releaseMetadataDOM(entity);
+        }
+        return (EntityDescriptor) entity;
+    }
+    
+    /**
+     * Unmarshalls the given metadata bytes, omitting those entity descriptors which are unchanged since the
+     * previous load, while leaving them in the DOM, and recording the information needed to reuse the previously
+     * processed descriptors in their place.
+     * 
+     * @param metadataBytes raw metadata bytes
+     * @param load the incremental load state to populate
+     * 
+     * @return the metadata
+     * 
+     * @throws ResolverException thrown if the metadata can not be parsed or unmarshalled
+     */
+    @Nonnull protected XMLObject unmarshallMetadataIncrementally(@Nonnull final byte[] metadataBytes,
+            @Nonnull final IncrementalLoad load) throws ResolverException {
+        try {
+            final Document document = getParserPool().parse(new ByteArrayInputStream(metadataBytes));
+            final Element root = document.getDocumentElement();
+            
+            if (MetadataDOMDigester.isEntitiesDescriptor(root)) {
+                final MetadataDOMDigester digester = new MetadataDOMDigester();
+                final List<EntityElement> entities = new ArrayList<>();
+                collectEntityElements(root, null, digester, entities);
+                pruneUnchangedEntities(entities, load);
+            } else {
+                log.debug("Metadata from '{}' is not eligible for incremental reload, processing all entities", 
+                        getMetadataIdentifier());
+            }
+            
+            final Unmarshaller unmarshaller = getUnmarshallerFactory().getUnmarshaller(root);
+            if (unmarshaller == null) {
+                throw new UnmarshallingException("No unmarshaller registered for document element "
+                        + QNameSupport.getNodeQName(root));
+            }
+            final XMLObject metadata = unmarshaller.unmarshall(root);
+            if (load.isDigestsComputed()) {
+                load.mapUnmarshalledMetadata(metadata);
+                
+                // restore the complete document, over which any signatures are verified
+                final List<EntityElement> reused = load.getReusedEntities();
+                for (int i = reused.size() - 1; i >= 0; i--) {
+                    reused.get(i).reattach();
+                }
+            }
+            return metadata;
+        } catch (final XMLParserException | UnmarshallingException e) {
+            final String errorMsg = "Unable to unmarshall metadata";
+            log.error(errorMsg, e);
+            throw new ResolverException(errorMsg, e);
         }
     }
 
@@ -417,12 +767,24 @@ public abstract class AbstractReloadingMetadataResolver extends AbstractBatchMet
      */
     protected void processNonExpiredMetadata(String metadataIdentifier, DateTime refreshStart, byte[] metadataBytes,
             XMLObject metadata) throws ResolverException {
-        Document metadataDom = metadata.getDOM().getOwnerDocument();
+        Document metadataDom = currentStreamedSkeleton != null ? currentStreamedSkeleton 
+                : metadata.getDOM().getOwnerDocument();
 
         log.debug("Preprocessing metadata from '{}'", metadataIdentifier);
         BatchEntityBackingStore newBackingStore = null;
         try {
-            newBackingStore = preProcessNewMetadata(metadata);
+            if (currentIncrementalLoad != null && currentIncrementalLoad.isDigestsComputed()) {
+                newBackingStore = preProcessNewMetadataIncrementally(metadata, currentIncrementalLoad);
+                if (newBackingStore == null) {
+                    log.warn("Metadata filtering of '{}' replaced the document, unable to reuse unchanged "
+                            + "entities, processing all entities", metadataIdentifier);
+                    final XMLObject fullMetadata = unmarshallMetadata(metadataBytes);
+                    metadataDom = fullMetadata.getDOM().getOwnerDocument();
+                    newBackingStore = preProcessNewMetadata(fullMetadata);
+                }
+            } else {
+                newBackingStore = preProcessNewMetadata(metadata);
+            }
         } catch (FilterException e) {
             String errMsg = "Error filtering metadata from " + metadataIdentifier;
             log.error(errMsg, e);
@@ -442,12 +804,22 @@ public abstract class AbstractReloadingMetadataResolver extends AbstractBatchMet
         // since the candidate time (2nd arg) is not null.
         DateTime metadataExpirationTime = SAML2Support.getEarliestExpiration(
                 newBackingStore.getCachedOriginalMetadata(), refreshStart.plus(getMaxRefreshDelay()), refreshStart);
+        if (newBackingStore.getEntityDigestIndex() != null) {
+            // reused descriptors are only attached to the new document once it is in effect, see below
+            for (EntityDescriptor descriptor : newBackingStore.getOrderedDescriptors()) {
+                metadataExpirationTime = SAML2Support.getEarliestExpiration(descriptor, metadataExpirationTime,
+                        refreshStart);
+            }
+        }
         log.debug("Expiration of metadata from '{}' will occur at {}", metadataIdentifier, metadataExpirationTime
                 .toString());
 
         // This is where the new processed data becomes effective. Exceptions thrown prior to this point
         // therefore result in the old data being kept effective.
         setBackingStore(newBackingStore);
+        if (currentIncrementalLoad != null) {
+            currentIncrementalLoad.attachReusedDescriptors();
+        }
         
         lastUpdate = refreshStart;
         
@@ -464,6 +836,79 @@ public abstract class AbstractReloadingMetadataResolver extends AbstractBatchMet
         log.info("New metadata successfully loaded for '{}'", getMetadataIdentifier());
     }
 
+    /**
+     * Filter the specified new metadata document, from which unchanged entity descriptors have been omitted, and 
+     * return its data, along with that of the reused previously processed descriptors, in a new entity backing
+     * store instance. The reused descriptors are attached to the new document by
+     * {@link IncrementalLoad#attachReusedDescriptors()}, once the new backing store is in effect.
+     * 
+     * @param root the root of the new metadata document being processed
+     * @param load the incremental load state
+     * 
+     * @return the new backing store instance, or null if the metadata filters replaced the document such that
+     *          the previously processed descriptors could not be reused
+     * 
+     * @throws FilterException if there is a problem filtering the metadata
+     */
+    @Nullable protected BatchEntityBackingStore preProcessNewMetadataIncrementally(@Nonnull final XMLObject root, 
+            @Nonnull final IncrementalLoad load) throws FilterException {
+        
+        final XMLObject filteredMetadata = filterMetadata(root);
+        if (filteredMetadata != root) {
+            return null;
+        }
+        
+        final BatchEntityBackingStore newBackingStore = createNewBackingStore();
+        newBackingStore.setCachedOriginalMetadata(root);
+        newBackingStore.setCachedFilteredMetadata(filteredMetadata);
+        
+        final Set<EntitiesDescriptor> retainedGroups = Sets.newIdentityHashSet();
+        final Set<EntityDescriptor> retainedEntities = Sets.newIdentityHashSet();
+        collectRetained((EntitiesDescriptor) root, retainedGroups, retainedEntities);
+        
+        final Map<String, List<EntityDescriptor>> digestIndex = new HashMap<>();
+        final List<PositionedDescriptor> descriptors = new ArrayList<>();
+        
+        for (final Map.Entry<EntityDescriptor, EntityElement> entry : load.getChangedEntities().entrySet()) {
+            final EntityElement element = entry.getValue();
+            if (retainedEntities.contains(entry.getKey())) {
+                descriptors.add(new PositionedDescriptor(element.getPosition(), entry.getKey()));
+                digestIndex.put(element.getDigest(), Collections.singletonList(entry.getKey()));
+            } else {
+                digestIndex.put(element.getDigest(), Collections.<EntityDescriptor>emptyList());
+            }
+        }
+        
+        // reused descriptors are appended to their group, the backing store order follows the document order
+        final List<EntityElement> reused = load.getReusedEntities();
+        for (final EntityElement element : reused) {
+            final EntitiesDescriptor group = load.getGroups().get(element.getGroupElement());
+            if (group == null || !retainedGroups.contains(group)) {
+                // the enclosing group was removed by filtering, and its entities with it
+                digestIndex.put(element.getDigest(), Collections.<EntityDescriptor>emptyList());
+                continue;
+            }
+            final List<EntityDescriptor> previous = load.getPreviousDescriptors().get(element.getDigest());
+            for (final EntityDescriptor descriptor : previous) {
+                // still part of the document in effect, so moved to the new one only once that replaces it
+                load.addPendingAttachment(group, descriptor);
+                descriptors.add(new PositionedDescriptor(element.getPosition(), descriptor));
+            }
+            digestIndex.put(element.getDigest(), previous);
+        }
+        
+        Collections.sort(descriptors);
+        for (final PositionedDescriptor descriptor : descriptors) {
+            preProcessEntityDescriptor(descriptor.getDescriptor(), newBackingStore);
+        }
+        newBackingStore.setEntityDigestIndex(digestIndex);
+        
+        log.debug("Incremental load of metadata from '{}' processed {} changed entities and reused {} unchanged",
+                getMetadataIdentifier(), load.getChangedEntities().size(), reused.size());
+        
+        return newBackingStore;
+    }
+
     /**
      * Post-processing hook called after new metadata has been unmarshalled, filtered, and the DOM released (from the
      * {@link XMLObject}) but before the metadata is saved off. Any exception thrown by this hook will cause the
@@ -472,7 +917,8 @@ public abstract class AbstractReloadingMetadataResolver extends AbstractBatchMet
      * The default implementation of this method is a no-op
      * 
      * @param metadataBytes original raw metadata bytes retrieved via {@link #fetchMetadata}
-     * @param metadataDom original metadata after it has been parsed in to a DOM document
+     * @param metadataDom original metadata after it has been parsed in to a DOM document, or if the metadata was
+     *          streamed, the skeleton document holding only its entities descriptors
      * @param originalMetadata original metadata prior to being filtered, with its DOM released
      * @param filteredMetadata metadata after it has been run through all registered filters and its DOM released
      * 
@@ -536,6 +982,360 @@ public abstract class AbstractReloadingMetadataResolver extends AbstractBatchMet
         }
     }
 
+    /**
+     * Map the entities descriptor elements of a streamed aggregate's skeleton document to their unmarshalled
+     * entities descriptors.
+     * 
+     * @param entitiesDescriptor the root of the subtree
+     * @param groups the map to populate
+     */
+    private void collectGroups(@Nonnull final EntitiesDescriptor entitiesDescriptor, 
+            @Nonnull final Map<Element, EntitiesDescriptor> groups) {
+        groups.put(entitiesDescriptor.getDOM(), entitiesDescriptor);
+        for (final EntitiesDescriptor child : entitiesDescriptor.getEntitiesDescriptors()) {
+            collectGroups(child, groups);
+        }
+    }
+    
+    /**
+     * Digest the entity descriptor elements in the specified subtree, in document order.
+     * 
+     * @param entitiesDescriptor the root of the subtree
+     * @param parentContext the context digest of the enclosing entities descriptor, or null
+     * @param digester the digester to use
+     * @param entities the list to which the entity descriptor elements are added
+     */
+    private void collectEntityElements(@Nonnull final Element entitiesDescriptor, 
+            @Nullable final String parentContext, @Nonnull final MetadataDOMDigester digester,
+            @Nonnull final List<EntityElement> entities) {
+        final String context = digester.digestGroupContext(entitiesDescriptor, parentContext);
+        for (Node child = entitiesDescriptor.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (MetadataDOMDigester.isEntityDescriptor(child)) {
+                entities.add(new EntityElement((Element) child, digester.digestEntity(child, context), 
+                        entities.size(), entitiesDescriptor));
+            } else if (MetadataDOMDigester.isEntitiesDescriptor(child)) {
+                collectEntityElements((Element) child, context, digester, entities);
+            }
+        }
+    }
+    
+    /**
+     * Detach from the document those entity descriptor elements whose digest is unique within the document and
+     * matches that of an entity descriptor processed by the previous load, and record the changed and reused
+     * entities in the load state. The detached elements are restored once the document has been unmarshalled.
+     * 
+     * @param entities the digested entity descriptor elements of the document
+     * @param load the incremental load state to populate
+     */
+    private void pruneUnchangedEntities(@Nonnull final List<EntityElement> entities, 
+            @Nonnull final IncrementalLoad load) {
+        final Map<String, List<EntityDescriptor>> previousIndex = getBackingStore().getEntityDigestIndex();
+        
+        final Map<String, Integer> digestCounts = new HashMap<>();
+        for (final EntityElement entity : entities) {
+            final Integer count = digestCounts.get(entity.getDigest());
+            digestCounts.put(entity.getDigest(), count == null ? 1 : count + 1);
+        }
+        
+        for (final EntityElement entity : entities) {
+            if (digestCounts.get(entity.getDigest()) > 1) {
+                // duplicated entities are always fully processed, and not indexed
+                load.addChangedEntity(entity, false);
+            } else if (previousIndex != null && previousIndex.containsKey(entity.getDigest())) {
+                entity.detach();
+                load.addReusedEntity(entity, previousIndex.get(entity.getDigest()));
+            } else {
+                load.addChangedEntity(entity, true);
+            }
+        }
+        load.setDigestsComputed(true);
+    }
+    
+    /**
+     * Collect the entities and entities descriptors which remain in the specified filtered subtree.
+     * 
+     * @param entitiesDescriptor the root of the subtree
+     * @param groups the set to which the entities descriptors are added
+     * @param entities the set to which the entity descriptors are added
+     */
+    private void collectRetained(@Nonnull final EntitiesDescriptor entitiesDescriptor, 
+            @Nonnull final Set<EntitiesDescriptor> groups, @Nonnull final Set<EntityDescriptor> entities) {
+        groups.add(entitiesDescriptor);
+        entities.addAll(entitiesDescriptor.getEntityDescriptors());
+        for (final EntitiesDescriptor child : entitiesDescriptor.getEntitiesDescriptors()) {
+            collectRetained(child, groups, entities);
+        }
+    }
+
+    /** State of an incremental load of a metadata document. */
+    protected static class IncrementalLoad {
+        
+        /** Whether entity digests were computed for the document. */
+        private boolean digestsComputed;
+        
+        /** The changed entity descriptor elements which may be indexed by their digest. */
+        private final Map<Element, EntityElement> changedElements = new IdentityHashMap<>();
+        
+        /** The unmarshalled changed entity descriptors, which may be indexed by their digest. */
+        private final Map<EntityDescriptor, EntityElement> changedEntities = new IdentityHashMap<>();
+        
+        /** The unchanged entity descriptor elements which were removed from the document. */
+        private final List<EntityElement> reusedEntities = new ArrayList<>();
+        
+        /** The previously processed descriptors for each reused digest. */
+        private final Map<String, List<EntityDescriptor>> previousDescriptors = new HashMap<>();
+        
+        /** The unmarshalled entities descriptors, by their source element. */
+        private final Map<Element, EntitiesDescriptor> groups = new IdentityHashMap<>();
+        
+        /** The reused descriptors to be attached to the new document, with the group to attach each to. */
+        private final List<Pair<EntitiesDescriptor, EntityDescriptor>> pendingAttachments = new ArrayList<>();
+        
+        /**
+         * Get whether entity digests were computed for the document.
+         * 
+         * @return whether entity digests were computed
+         */
+        public boolean isDigestsComputed() {
+            return digestsComputed;
+        }
+        
+        /**
+         * Set whether entity digests were computed for the document.
+         * 
+         * @param flag whether entity digests were computed
+         */
+        protected void setDigestsComputed(final boolean flag) {
+            digestsComputed = flag;
+        }
+        
+        /**
+         * Get the unmarshalled changed entity descriptors which may be indexed by their digest.
+         * 
+         * @return the changed entity descriptors
+         */
+        @Nonnull public Map<EntityDescriptor, EntityElement> getChangedEntities() {
+            return changedEntities;
+        }
+        
+        /**
+         * Get the unchanged entity descriptor elements which were removed from the document.
+         * 
+         * @return the reused entity descriptor elements
+         */
+        @Nonnull public List<EntityElement> getReusedEntities() {
+            return reusedEntities;
+        }
+        
+        /**
+         * Get the previously processed descriptors for each reused digest.
+         * 
+         * @return the previously processed descriptors
+         */
+        @Nonnull public Map<String, List<EntityDescriptor>> getPreviousDescriptors() {
+            return previousDescriptors;
+        }
+        
+        /**
+         * Get the unmarshalled entities descriptors, by their source element.
+         * 
+         * @return the entities descriptors
+         */
+        @Nonnull public Map<Element, EntitiesDescriptor> getGroups() {
+            return groups;
+        }
+        
+        /**
+         * Record a changed entity descriptor element.
+         * 
+         * @param entity the entity descriptor element
+         * @param indexable whether the entity may be indexed by its digest
+         */
+        protected void addChangedEntity(@Nonnull final EntityElement entity, final boolean indexable) {
+            if (indexable) {
+                changedElements.put(entity.getElement(), entity);
+            }
+        }
+        
+        /**
+         * Record an unchanged entity descriptor element.
+         * 
+         * @param entity the entity descriptor element
+         * @param previous the previously processed descriptors for the entity's digest
+         */
+        protected void addReusedEntity(@Nonnull final EntityElement entity, 
+                @Nonnull final List<EntityDescriptor> previous) {
+            reusedEntities.add(entity);
+            previousDescriptors.put(entity.getDigest(), previous);
+        }
+        
+        /**
+         * Record a reused descriptor to be attached to the new document.
+         * 
+         * @param group the entities descriptor of the new document to attach the descriptor to
+         * @param descriptor the reused descriptor
+         */
+        protected void addPendingAttachment(@Nonnull final EntitiesDescriptor group, 
+                @Nonnull final EntityDescriptor descriptor) {
+            pendingAttachments.add(new Pair<>(group, descriptor));
+        }
+        
+        /**
+         * Move the reused descriptors from the previous document to the new one. This must only be done once the
+         * new document is in effect, since until then they remain part of the previous one.
+         */
+        protected void attachReusedDescriptors() {
+            for (final Pair<EntitiesDescriptor, EntityDescriptor> attachment : pendingAttachments) {
+                // detach from the previous document, so that validity checks walk the new one
+                attachment.getSecond().setParent(null);
+                attachment.getFirst().getEntityDescriptors().add(attachment.getSecond());
+            }
+            pendingAttachments.clear();
+        }
+        
+        /**
+         * Map the unmarshalled entity and entities descriptors to their source elements.
+         * 
+         * @param metadata the unmarshalled metadata
+         */
+        protected void mapUnmarshalledMetadata(@Nonnull final XMLObject metadata) {
+            if (metadata instanceof EntitiesDescriptor) {
+                final EntitiesDescriptor group = (EntitiesDescriptor) metadata;
+                groups.put(group.getDOM(), group);
+                for (final EntityDescriptor entity : group.getEntityDescriptors()) {
+                    final EntityElement element = changedElements.get(entity.getDOM());
+                    if (element != null) {
+                        changedEntities.put(entity, element);
+                    }
+                }
+                for (final EntitiesDescriptor child : group.getEntitiesDescriptors()) {
+                    mapUnmarshalledMetadata(child);
+                }
+            }
+        }
+    }
+    
+    /** A digested entity descriptor element. */
+    protected static class EntityElement {
+        
+        /** The entity descriptor element. */
+        @Nonnull private final Element element;
+        
+        /** The digest of the element. */
+        @Nonnull private final String digest;
+        
+        /** The position of the element among all entity descriptors of the document. */
+        private final int position;
+        
+        /** The enclosing entities descriptor element. */
+        @Nonnull private final Element groupElement;
+        
+        /** The node following the element when it was detached from the document. */
+        @Nullable private Node nextSibling;
+        
+        /**
+         * Constructor.
+         * 
+         * @param entityElement the entity descriptor element
+         * @param entityDigest the digest of the element
+         * @param documentPosition the position of the element among all entity descriptors of the document
+         * @param group the enclosing entities descriptor element
+         */
+        protected EntityElement(@Nonnull final Element entityElement, @Nonnull final String entityDigest,
+                final int documentPosition, @Nonnull final Element group) {
+            element = entityElement;
+            digest = entityDigest;
+            position = documentPosition;
+            groupElement = group;
+        }
+        
+        /**
+         * Get the entity descriptor element.
+         * 
+         * @return the element
+         */
+        @Nonnull public Element getElement() {
+            return element;
+        }
+        
+        /**
+         * Get the digest of the element.
+         * 
+         * @return the digest
+         */
+        @Nonnull public String getDigest() {
+            return digest;
+        }
+        
+        /**
+         * Get the position of the element among all entity descriptors of the document.
+         * 
+         * @return the position
+         */
+        public int getPosition() {
+            return position;
+        }
+        
+        /**
+         * Get the enclosing entities descriptor element.
+         * 
+         * @return the enclosing element
+         */
+        @Nonnull public Element getGroupElement() {
+            return groupElement;
+        }
+        
+        /** Detach the element from its enclosing entities descriptor element. */
+        protected void detach() {
+            nextSibling = element.getNextSibling();
+            groupElement.removeChild(element);
+        }
+        
+        /**
+         * Restore the element to the position from which it was detached. Elements detached in document order
+         * must be restored in the reverse order.
+         */
+        protected void reattach() {
+            groupElement.insertBefore(element, nextSibling);
+            nextSibling = null;
+        }
+    }
+    
+    /** An entity descriptor along with the document position of the element from which it was produced. */
+    private static class PositionedDescriptor implements Comparable<PositionedDescriptor> {
+        
+        /** The document position. */
+        private final int position;
+        
+        /** The entity descriptor. */
+        @Nonnull private final EntityDescriptor descriptor;
+        
+        /**
+         * Constructor.
+         * 
+         * @param documentPosition the document position
+         * @param entityDescriptor the entity descriptor
+         */
+        PositionedDescriptor(final int documentPosition, @Nonnull final EntityDescriptor entityDescriptor) {
+            position = documentPosition;
+            descriptor = entityDescriptor;
+        }
+        
+        /**
+         * Get the entity descriptor.
+         * 
+         * @return the entity descriptor
+         */
+        @Nonnull EntityDescriptor getDescriptor() {
+            return descriptor;
+        }
+        
+        /** {@inheritDoc} */
+        public int compareTo(final PositionedDescriptor other) {
+            return Integer.compare(position, other.position);
+        }
+    }
+
     /** Background task that refreshes metadata. */
     private class RefreshMetadataTask extends TimerTask {
 
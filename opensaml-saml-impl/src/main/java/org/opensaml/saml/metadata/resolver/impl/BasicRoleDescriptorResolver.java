@@ -115,16 +115,17 @@ public class BasicRoleDescriptorResolver extends AbstractIdentifiedInitializable
         ProtocolCriterion protocolCriterion = criteria.get(ProtocolCriterion.class);
         // TODO support BindingCriterion
         
-        if (entityIdCriterion == null || Strings.isNullOrEmpty(entityIdCriterion.getEntityId())) {
-            //TODO throw or just log?
-            throw new ResolverException("Entity Id was not supplied in criteria set");
-        }
-        
         if (entityRoleCriterion == null || entityRoleCriterion.getRole() == null) {
             //TODO throw or just log?
             throw new ResolverException("Entity role was not supplied in criteria set");
         }
         
+        if (entityIdCriterion == null || Strings.isNullOrEmpty(entityIdCriterion.getEntityId())) {
+            // Defer to the wrapped resolver, which may be able to evaluate the criteria via a secondary index
+            return getRoles(criteria, entityRoleCriterion.getRole(), 
+                    protocolCriterion != null ? protocolCriterion.getProtocol() : null);
+        }
+        
         if (protocolCriterion != null) {
             RoleDescriptor role = getRole(entityIdCriterion.getEntityId(), entityRoleCriterion.getRole(), 
                     protocolCriterion.getProtocol());
@@ -139,6 +140,30 @@ public class BasicRoleDescriptorResolver extends AbstractIdentifiedInitializable
         
     }
 
+    /**
+     * Get the valid role descriptors of the given role, and optionally supporting the given protocol, of all the
+     * entities resolved by the wrapped metadata resolver from the given criteria.
+     * 
+     * @param criteria the criteria used to resolve entities
+     * @param roleName role to lookup
+     * @param supportedProtocol protocol to lookup, may be null
+     * @return list of roles
+     * @throws ResolverException if an error occurs, including if the wrapped resolver is unable to
+     *          evaluate the criteria
+     */
+    @Nonnull @NonnullElements protected List<RoleDescriptor> getRoles(@Nonnull final CriteriaSet criteria,
+            @Nonnull final QName roleName, @Nullable final String supportedProtocol) throws ResolverException {
+        List<RoleDescriptor> roleDescriptors = new ArrayList<>();
+        for (EntityDescriptor entity : entityDescriptorResolver.resolve(criteria)) {
+            for (RoleDescriptor role : entity.getRoleDescriptors(roleName)) {
+                if ((supportedProtocol == null || role.isSupportedProtocol(supportedProtocol)) && isValid(role)) {
+                    roleDescriptors.add(role);
+                }
+            }
+        }
+        return roleDescriptors;
+    }
+
     /**
      * Get role descriptors for a given entityID and role.
      * 
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.metadata.resolver.impl;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+
+/**
+ * Persistent cache of metadata resolved by an {@link AbstractDynamicMetadataResolver}, used to
+ * repopulate the resolver's backing store across restarts.
+ *
+ * <p>
+ * Entries hold the unfiltered metadata document exactly as fetched from the origin source, so that it
+ * may be re-verified by the resolver's metadata filter chain when it is loaded.
+ * </p>
+ *
+ * <p>
+ * Implementations must be thread-safe.
+ * </p>
+ */
+public interface DynamicMetadataPersistentCache {
+
+    /**
+     * Get the entity IDs for which entries are currently held.
+     *
+     * @return the entity IDs
+     * @throws IOException if there is a fatal error reading the cache
+     */
+    @Nonnull @NonnullElements Collection<String> getEntityIDs() throws IOException;
+
+    /**
+     * Load the entry for the specified entity ID.
+     *
+     * @param entityID the entity ID
+     * @return the entry, or null if none is held
+     * @throws IOException if there is a fatal error reading the entry
+     */
+    @Nullable DynamicMetadataPersistentCacheEntry load(@Nonnull @NotEmpty final String entityID) throws IOException;
+
+    /**
+     * Save the specified entry, replacing any existing entry for the same entity ID.
+     *
+     * @param entry the entry to save
+     * @throws IOException if there is a fatal error writing the entry
+     */
+    void save(@Nonnull final DynamicMetadataPersistentCacheEntry entry) throws IOException;
+
+    /**
+     * Remove the entry for the specified entity ID, if one is held.
+     *
+     * @param entityID the entity ID
+     * @throws IOException if there is a fatal error removing the entry
+     */
+    void remove(@Nonnull @NotEmpty final String entityID) throws IOException;
+
+}
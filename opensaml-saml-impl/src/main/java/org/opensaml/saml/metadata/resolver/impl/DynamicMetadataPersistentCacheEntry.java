@@ -0,0 +1,112 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.metadata.resolver.impl;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.joda.time.DateTime;
+
+/**
+ * An entry in a {@link DynamicMetadataPersistentCache}, holding the raw metadata document for an entity
+ * along with the entity's management data at the time the entry was saved.
+ */
+public class DynamicMetadataPersistentCacheEntry {
+
+    /** The entity ID. */
+    @Nonnull @NotEmpty private final String entityID;
+
+    /** The raw metadata document. */
+    @Nonnull private final byte[] metadataBytes;
+
+    /** Expiration time of the metadata. */
+    @Nonnull private final DateTime expirationTime;
+
+    /** Time at which should start attempting to refresh the metadata. */
+    @Nonnull private final DateTime refreshTriggerTime;
+
+    /** The last time at which the entity's metadata was accessed. */
+    @Nonnull private final DateTime lastAccessedTime;
+
+    /**
+     * Constructor.
+     *
+     * @param id the entity ID
+     * @param bytes the raw metadata document
+     * @param expiration expiration time of the metadata
+     * @param refreshTrigger time at which should start attempting to refresh the metadata
+     * @param lastAccessed the last time at which the entity's metadata was accessed
+     */
+    public DynamicMetadataPersistentCacheEntry(@Nonnull @NotEmpty final String id, @Nonnull final byte[] bytes,
+            @Nonnull final DateTime expiration, @Nonnull final DateTime refreshTrigger,
+            @Nonnull final DateTime lastAccessed) {
+        entityID = Constraint.isNotNull(id, "Entity ID may not be null");
+        metadataBytes = Constraint.isNotNull(bytes, "Metadata bytes may not be null");
+        expirationTime = Constraint.isNotNull(expiration, "Expiration time may not be null");
+        refreshTriggerTime = Constraint.isNotNull(refreshTrigger, "Refresh trigger time may not be null");
+        lastAccessedTime = Constraint.isNotNull(lastAccessed, "Last accessed time may not be null");
+    }
+
+    /**
+     * Get the entity ID.
+     *
+     * @return the entity ID
+     */
+    @Nonnull @NotEmpty public String getEntityID() {
+        return entityID;
+    }
+
+    /**
+     * Get the raw metadata document.
+     *
+     * @return the metadata bytes
+     */
+    @Nonnull public byte[] getMetadataBytes() {
+        return metadataBytes;
+    }
+
+    /**
+     * Get the expiration time of the metadata.
+     *
+     * @return the expiration time
+     */
+    @Nonnull public DateTime getExpirationTime() {
+        return expirationTime;
+    }
+
+    /**
+     * Get the time at which should start attempting to refresh the metadata.
+     *
+     * @return the refresh trigger time
+     */
+    @Nonnull public DateTime getRefreshTriggerTime() {
+        return refreshTriggerTime;
+    }
+
+    /**
+     * Get the last time at which the entity's metadata was accessed.
+     *
+     * @return the last accessed time
+     */
+    @Nonnull public DateTime getLastAccessedTime() {
+        return lastAccessedTime;
+    }
+
+}
@@ -0,0 +1,245 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.metadata.resolver.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.codec.StringDigester;
+import net.shibboleth.utilities.java.support.codec.StringDigester.OutputFormat;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.joda.time.DateTime;
+import org.joda.time.chrono.ISOChronology;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of {@link DynamicMetadataPersistentCache} which stores each entity's entry in its own file
+ * beneath a base directory.
+ *
+ * <p>
+ * Entry files are named by the hex-encoded SHA-1 digest of the entity ID, and are sharded into
+ * subdirectories named by the first two characters of that digest, so that no single directory
+ * holds more than a small fraction of the entries. Entries are written to a temporary file and then
+ * renamed, so that a partially written entry is never read.
+ * </p>
+ */
+public class FilesystemDynamicMetadataPersistentCache implements DynamicMetadataPersistentCache {
+
+    /** Version of the entry file format. */
+    public static final int FORMAT_VERSION = 1;
+
+    /** File name suffix of entry files. */
+    public static final String ENTRY_FILE_SUFFIX = ".entry";
+
+    /** File name suffix of temporary entry files. */
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(FilesystemDynamicMetadataPersistentCache.class);
+
+    /** The base directory. */
+    @Nonnull private final File baseDirectory;
+
+    /** Digester used to derive entry file names. */
+    @Nonnull private final StringDigester digester;
+
+    /**
+     * Constructor.
+     *
+     * @param directory the base directory, which will be created if it does not exist
+     * @throws IOException if the base directory does not exist and can not be created, or is not
+     *          a readable and writable directory
+     */
+    public FilesystemDynamicMetadataPersistentCache(@Nonnull final File directory) throws IOException {
+        baseDirectory = Constraint.isNotNull(directory, "Base directory may not be null");
+
+        if (!baseDirectory.exists() && !baseDirectory.mkdirs()) {
+            throw new IOException("Unable to create base directory " + baseDirectory.getAbsolutePath());
+        }
+        if (!baseDirectory.isDirectory()) {
+            throw new IOException("Path " + baseDirectory.getAbsolutePath() + " is not a directory");
+        }
+        if (!baseDirectory.canRead() || !baseDirectory.canWrite()) {
+            throw new IOException("Directory " + baseDirectory.getAbsolutePath()
+                    + " can not be read or written by this user");
+        }
+
+        try {
+            digester = new StringDigester("SHA-1", OutputFormat.HEX_LOWER);
+        } catch (final NoSuchAlgorithmException e) {
+            // this can't really happen b/c SHA-1 is required to be supported on all JREs.
+            throw new IOException("SHA-1 digest algorithm is not supported", e);
+        }
+    }
+
+    /**
+     * Get the base directory.
+     *
+     * @return the base directory
+     */
+    @Nonnull public File getBaseDirectory() {
+        return baseDirectory;
+    }
+
+    /** {@inheritDoc} */
+    @Nonnull @NonnullElements public Collection<String> getEntityIDs() throws IOException {
+        final List<String> entityIDs = new ArrayList<>();
+        final File[] shards = baseDirectory.listFiles();
+        if (shards == null) {
+            throw new IOException("Unable to list base directory " + baseDirectory.getAbsolutePath());
+        }
+        for (final File shard : shards) {
+            if (!shard.isDirectory()) {
+                continue;
+            }
+            final File[] entryFiles = shard.listFiles();
+            if (entryFiles == null) {
+                continue;
+            }
+            for (final File entryFile : entryFiles) {
+                if (!entryFile.getName().endsWith(ENTRY_FILE_SUFFIX)) {
+                    continue;
+                }
+                try (final DataInputStream in = openEntry(entryFile)) {
+                    entityIDs.add(in.readUTF());
+                } catch (final IOException e) {
+                    log.warn("Unable to read entity ID from cache entry file {}, skipping",
+                            entryFile.getAbsolutePath(), e);
+                }
+            }
+        }
+        return entityIDs;
+    }
+
+    /** {@inheritDoc} */
+    @Nullable public DynamicMetadataPersistentCacheEntry load(@Nonnull @NotEmpty final String entityID)
+            throws IOException {
+        final File entryFile = getEntryFile(entityID);
+        try (final DataInputStream in = openEntry(entryFile)) {
+            final String storedEntityID = in.readUTF();
+            if (!entityID.equals(storedEntityID)) {
+                log.warn("Cache entry file {} holds entity ID '{}', expected '{}'", entryFile.getAbsolutePath(),
+                        storedEntityID, entityID);
+                return null;
+            }
+            final DateTime expiration = new DateTime(in.readLong(), ISOChronology.getInstanceUTC());
+            final DateTime refreshTrigger = new DateTime(in.readLong(), ISOChronology.getInstanceUTC());
+            final DateTime lastAccessed = new DateTime(in.readLong(), ISOChronology.getInstanceUTC());
+            final byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new DynamicMetadataPersistentCacheEntry(storedEntityID, bytes, expiration, refreshTrigger,
+                    lastAccessed);
+        } catch (final FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void save(@Nonnull final DynamicMetadataPersistentCacheEntry entry) throws IOException {
+        final File entryFile = getEntryFile(entry.getEntityID());
+        final File shard = entryFile.getParentFile();
+        if (!shard.exists() && !shard.mkdirs() && !shard.isDirectory()) {
+            throw new IOException("Unable to create cache shard directory " + shard.getAbsolutePath());
+        }
+
+        final File tempFile = File.createTempFile(entryFile.getName(), TEMP_FILE_SUFFIX, shard);
+        try {
+            try (final DataOutputStream out =
+                    new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(entry.getEntityID());
+                out.writeLong(entry.getExpirationTime().getMillis());
+                out.writeLong(entry.getRefreshTriggerTime().getMillis());
+                out.writeLong(entry.getLastAccessedTime().getMillis());
+                out.writeInt(entry.getMetadataBytes().length);
+                out.write(entry.getMetadataBytes());
+            }
+            try {
+                Files.move(tempFile.toPath(), entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void remove(@Nonnull @NotEmpty final String entityID) throws IOException {
+        Files.deleteIfExists(getEntryFile(entityID).toPath());
+    }
+
+    /**
+     * Get the file which holds the entry for the specified entity ID.
+     *
+     * @param entityID the entity ID
+     * @return the entry file
+     */
+    @Nonnull protected File getEntryFile(@Nonnull @NotEmpty final String entityID) {
+        final String digest = digester.apply(Constraint.isNotNull(entityID, "Entity ID may not be null"));
+        return new File(new File(baseDirectory, digest.substring(0, 2)), digest + ENTRY_FILE_SUFFIX);
+    }
+
+    /**
+     * Open an entry file and verify its format version.
+     *
+     * @param entryFile the entry file
+     * @return a stream positioned after the format version
+     * @throws IOException if the file can not be read or is of an unsupported format version
+     */
+    @Nonnull private DataInputStream openEntry(@Nonnull final File entryFile) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entryFile)));
+        boolean verified = false;
+        try {
+            final int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported cache entry format version " + version + " in file "
+                        + entryFile.getAbsolutePath());
+            }
+            verified = true;
+            return in;
+        } finally {
+            if (!verified) {
+                in.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,289 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.metadata.resolver.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.codec.Base64Support;
+
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.saml2.common.CacheableSAMLObject;
+import org.opensaml.saml.saml2.common.TimeBoundSAMLObject;
+import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.xmlsec.signature.Signature;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.w3c.dom.Attr;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Computes digests of metadata DOM subtrees, used to detect which parts of a metadata document have changed
+ * between successive loads.
+ *
+ * <p>
+ * The digest of a subtree covers element and attribute names and namespaces, attribute values (including
+ * namespace declarations), and text content. Comments and processing instructions are ignored, and
+ * attributes are digested in a fixed order, so that the digest is independent of the serialization
+ * details which a parser does not preserve.
+ * </p>
+ *
+ * <p>
+ * The digest of an {@link EntityDescriptor} also covers the context of each enclosing
+ * {@link EntitiesDescriptor}, that is, its attributes and its children other than entity and entities
+ * descriptors, so that a change to an enclosing group is treated as a change to each entity within it.
+ * A signature on an enclosing group is not part of its context, since it changes whenever any part of the
+ * group does; it is verified over the complete document instead. Nor are the <code>ID</code>,
+ * <code>validUntil</code> and <code>cacheDuration</code> attributes of a group, which are routinely changed
+ * on each publication and only affect the group itself, whose validity is recomputed from the new document.
+ * </p>
+ *
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ */
+public class MetadataDOMDigester {
+
+    /** Digest algorithm. */
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /** Marker separating the parts of the digest input. */
+    private static final byte SEPARATOR = 0;
+
+    /** Comparator ordering attributes by namespace and name. */
+    private static final Comparator<Attr> ATTRIBUTE_ORDER = new Comparator<Attr>() {
+        public int compare(final Attr a1, final Attr a2) {
+            final int result = nullToEmpty(a1.getNamespaceURI()).compareTo(nullToEmpty(a2.getNamespaceURI()));
+            if (result != 0) {
+                return result;
+            }
+            return nullToEmpty(nameOf(a1)).compareTo(nullToEmpty(nameOf(a2)));
+        }
+    };
+
+    /** Names of the unqualified {@link EntitiesDescriptor} attributes left out of a group context. */
+    private static final Set<String> GROUP_PUBLICATION_ATTRIBUTES = ImmutableSet.of(
+            EntitiesDescriptor.ID_ATTRIB_NAME, TimeBoundSAMLObject.VALID_UNTIL_ATTRIB_NAME,
+            CacheableSAMLObject.CACHE_DURATION_ATTRIB_NAME);
+
+    /** The message digest. */
+    @Nonnull private final MessageDigest messageDigest;
+
+    /** Constructor. */
+    public MetadataDOMDigester() {
+        try {
+            messageDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            // this can't really happen b/c SHA-256 is required to be supported on all JREs.
+            throw new IllegalStateException(DIGEST_ALGORITHM + " is not supported", e);
+        }
+    }
+
+    /**
+     * Determine whether the specified node is an {@link EntityDescriptor} element.
+     *
+     * @param node the node
+     * @return true if the node is an entity descriptor element
+     */
+    public static boolean isEntityDescriptor(@Nullable final Node node) {
+        return isMetadataElement(node, EntityDescriptor.DEFAULT_ELEMENT_LOCAL_NAME);
+    }
+
+    /**
+     * Determine whether the specified node is an {@link EntitiesDescriptor} element.
+     *
+     * @param node the node
+     * @return true if the node is an entities descriptor element
+     */
+    public static boolean isEntitiesDescriptor(@Nullable final Node node) {
+        return isMetadataElement(node, EntitiesDescriptor.DEFAULT_ELEMENT_LOCAL_NAME);
+    }
+
+    /**
+     * Determine whether the specified node is a ds:Signature element.
+     *
+     * @param node the node
+     * @return true if the node is a signature element
+     */
+    private static boolean isSignature(@Nonnull final Node node) {
+        return node.getNodeType() == Node.ELEMENT_NODE && SignatureConstants.XMLSIG_NS.equals(node.getNamespaceURI())
+                && Signature.DEFAULT_ELEMENT_LOCAL_NAME.equals(nameOf(node));
+    }
+
+    /**
+     * Compute the context digest of an {@link EntitiesDescriptor} element.
+     *
+     * @param entitiesDescriptor the entities descriptor element
+     * @param parentContext the context digest of the enclosing entities descriptor, or null
+     * @return the context digest
+     */
+    @Nonnull public String digestGroupContext(@Nonnull final Node entitiesDescriptor,
+            @Nullable final String parentContext) {
+        messageDigest.reset();
+        update(parentContext);
+        updateName(entitiesDescriptor);
+        updateAttributes(entitiesDescriptor, GROUP_PUBLICATION_ATTRIBUTES);
+        for (Node child = entitiesDescriptor.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (!isEntityDescriptor(child) && !isEntitiesDescriptor(child) && !isSignature(child)) {
+                updateNode(child);
+            }
+        }
+        return Base64Support.encode(messageDigest.digest(), Base64Support.UNCHUNKED);
+    }
+
+    /**
+     * Compute the digest of an {@link EntityDescriptor} element.
+     *
+     * @param entityDescriptor the entity descriptor element
+     * @param groupContext the context digest of the enclosing entities descriptor, or null
+     * @return the digest
+     */
+    @Nonnull public String digestEntity(@Nonnull final Node entityDescriptor, @Nullable final String groupContext) {
+        messageDigest.reset();
+        update(groupContext);
+        updateNode(entityDescriptor);
+        return Base64Support.encode(messageDigest.digest(), Base64Support.UNCHUNKED);
+    }
+
+    /**
+     * Update the digest with a node and its descendants.
+     *
+     * @param node the node
+     */
+    private void updateNode(@Nonnull final Node node) {
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                updateName(node);
+                updateAttributes(node, Collections.<String>emptySet());
+                for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                    updateNode(child);
+                }
+                messageDigest.update(SEPARATOR);
+                break;
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                messageDigest.update((byte) 'T');
+                update(node.getNodeValue());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Update the digest with the name of an element.
+     *
+     * @param element the element
+     */
+    private void updateName(@Nonnull final Node element) {
+        messageDigest.update((byte) 'E');
+        update(element.getNamespaceURI());
+        update(nameOf(element));
+    }
+
+    /**
+     * Update the digest with the attributes of an element, in a fixed order.
+     *
+     * @param element the element
+     * @param excluded names of unqualified attributes to leave out
+     */
+    private void updateAttributes(@Nonnull final Node element, @Nonnull final Set<String> excluded) {
+        final NamedNodeMap attributes = element.getAttributes();
+        if (attributes == null || attributes.getLength() == 0) {
+            return;
+        }
+        final List<Attr> sorted = new ArrayList<>(attributes.getLength());
+        for (int i = 0; i < attributes.getLength(); i++) {
+            final Attr attribute = (Attr) attributes.item(i);
+            if (attribute.getNamespaceURI() != null || !excluded.contains(nameOf(attribute))) {
+                sorted.add(attribute);
+            }
+        }
+        Collections.sort(sorted, ATTRIBUTE_ORDER);
+        for (final Attr attribute : sorted) {
+            messageDigest.update((byte) 'A');
+            update(attribute.getNamespaceURI());
+            update(nameOf(attribute));
+            update(attribute.getValue());
+        }
+    }
+
+    /**
+     * Update the digest with a length-prefixed string value.
+     *
+     * @param value the value, may be null
+     */
+    private void update(@Nullable final String value) {
+        if (value == null) {
+            messageDigest.update(SEPARATOR);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        final int length = bytes.length + 1;
+        messageDigest.update((byte) (length >>> 24));
+        messageDigest.update((byte) (length >>> 16));
+        messageDigest.update((byte) (length >>> 8));
+        messageDigest.update((byte) length);
+        messageDigest.update(bytes);
+    }
+
+    /**
+     * Determine whether the specified node is a SAML 2 metadata element with the specified local name.
+     *
+     * @param node the node
+     * @param localName the local name
+     * @return true if the node matches
+     */
+    private static boolean isMetadataElement(@Nullable final Node node, @Nonnull final String localName) {
+        return node != null && node.getNodeType() == Node.ELEMENT_NODE
+                && SAMLConstants.SAML20MD_NS.equals(node.getNamespaceURI()) && localName.equals(nameOf(node));
+    }
+
+    /**
+     * Get the local name of a node, falling back to the node name for nodes created without namespace support.
+     *
+     * @param node the node
+     * @return the name
+     */
+    @Nullable private static String nameOf(@Nonnull final Node node) {
+        return node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+    }
+
+    /**
+     * Convert a null string to the empty string.
+     *
+     * @param value the value
+     * @return the value, or the empty string if null
+     */
+    @Nonnull private static String nullToEmpty(@Nullable final String value) {
+        return value != null ? value : "";
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.metadata.resolver.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.opensaml.saml.metadata.resolver.index.MetadataIndex;
+import org.opensaml.saml.metadata.resolver.index.MetadataIndexKey;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+
+/**
+ * Store of the entity descriptors indexed by a {@link MetadataIndex}, keyed by the {@link MetadataIndexKey}
+ * instances generated by the index.
+ * 
+ * <p>
+ * The descriptors indexed under a key are returned in the order in which they were added.
+ * </p>
+ */
+public class MetadataIndexStore {
+    
+    /** The indexed descriptors. */
+    @Nonnull private final Map<MetadataIndexKey, Set<EntityDescriptor>> index;
+    
+    /** Constructor. */
+    public MetadataIndexStore() {
+        index = new HashMap<>();
+    }
+    
+    /**
+     * Get the keys under which descriptors are currently indexed.
+     * 
+     * @return a copy of the keys
+     */
+    @Nonnull @NonnullElements public synchronized Set<MetadataIndexKey> getKeys() {
+        return new LinkedHashSet<>(index.keySet());
+    }
+    
+    /**
+     * Get the descriptors indexed under the specified key.
+     * 
+     * @param key the key
+     * 
+     * @return a copy of the indexed descriptors, may be empty
+     */
+    @Nonnull @NonnullElements public synchronized Set<EntityDescriptor> lookup(@Nonnull final MetadataIndexKey key) {
+        Constraint.isNotNull(key, "MetadataIndexKey was null");
+        final Set<EntityDescriptor> descriptors = index.get(key);
+        if (descriptors == null) {
+            return Collections.emptySet();
+        }
+        return new LinkedHashSet<>(descriptors);
+    }
+    
+    /**
+     * Index the specified descriptor under the specified key.
+     * 
+     * @param key the key
+     * @param descriptor the descriptor
+     */
+    public synchronized void add(@Nonnull final MetadataIndexKey key, @Nonnull final EntityDescriptor descriptor) {
+        Constraint.isNotNull(key, "MetadataIndexKey was null");
+        Constraint.isNotNull(descriptor, "EntityDescriptor was null");
+        Set<EntityDescriptor> descriptors = index.get(key);
+        if (descriptors == null) {
+            descriptors = new LinkedHashSet<>();
+            index.put(key, descriptors);
+        }
+        descriptors.add(descriptor);
+    }
+    
+    /**
+     * Remove the specified descriptor from the specified key.
+     * 
+     * @param key the key
+     * @param descriptor the descriptor
+     */
+    public synchronized void remove(@Nonnull final MetadataIndexKey key, @Nonnull final EntityDescriptor descriptor) {
+        Constraint.isNotNull(key, "MetadataIndexKey was null");
+        Constraint.isNotNull(descriptor, "EntityDescriptor was null");
+        final Set<EntityDescriptor> descriptors = index.get(key);
+        if (descriptors != null) {
+            descriptors.remove(descriptor);
+            if (descriptors.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+    
+    /**
+     * Remove all indexed descriptors.
+     */
+    public synchronized void clear() {
+        index.clear();
+    }
+
+}
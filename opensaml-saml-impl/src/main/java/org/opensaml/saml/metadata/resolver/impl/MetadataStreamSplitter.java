@@ -0,0 +1,369 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.metadata.resolver.impl;
+
+import java.io.InputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.xml.ParserPool;
+import net.shibboleth.utilities.java.support.xml.XMLConstants;
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
+
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.xmlsec.signature.Signature;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import com.google.common.base.Strings;
+
+/**
+ * Splits a metadata aggregate into its individual {@link org.opensaml.saml.saml2.metadata.EntityDescriptor}
+ * elements as the document is read, so that each may be processed, and its DOM discarded, without the DOM of the
+ * complete document ever being built.
+ *
+ * <p>
+ * Each call to {@link #next()} reads the document up to the end of the next entity descriptor and returns it as
+ * the document element of its own DOM document, carrying the namespace declarations in scope at that point of the
+ * aggregate. The rest of the aggregate, that is its entities descriptor elements and their other children, is
+ * collected in a separate skeleton document, available from {@link #getSkeleton()} once the aggregate has been
+ * read.
+ * </p>
+ *
+ * <p>
+ * A document can not be split if its document element is not an entities descriptor, or if any of its entities
+ * descriptors is signed, since such a signature can only be validated over the complete document. Splitting stops
+ * as soon as either is detected, and {@link #isSplittable()} returns false thereafter.
+ * </p>
+ *
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ */
+public class MetadataStreamSplitter {
+
+    /** Factory used to create stream readers. */
+    @Nonnull private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    /** Pool used to create DOM documents. */
+    @Nonnull private final ParserPool parserPool;
+
+    /** The stream reader. */
+    @Nonnull private final XMLStreamReader reader;
+
+    /** The skeleton document. */
+    @Nonnull private final Document skeleton;
+
+    /** The node to which the next node read is appended. */
+    @Nonnull private Node current;
+
+    /** Enclosing entities descriptor element of the entity descriptor currently being read. */
+    @Nullable private Element fragmentGroup;
+
+    /** Depth within the entity descriptor currently being read. */
+    private int fragmentDepth;
+
+    /** Whether the document can be split. */
+    private boolean splittable;
+
+    /** Whether the end of the document has been reached. */
+    private boolean finished;
+
+    /**
+     * Constructor.
+     *
+     * @param pool pool used to create DOM documents
+     * @param input the metadata document
+     *
+     * @throws XMLStreamException if the document can not be read
+     * @throws XMLParserException if a DOM document can not be created
+     */
+    public MetadataStreamSplitter(@Nonnull final ParserPool pool, @Nonnull final InputStream input)
+            throws XMLStreamException, XMLParserException {
+        parserPool = Constraint.isNotNull(pool, "ParserPool may not be null");
+        reader = INPUT_FACTORY.createXMLStreamReader(Constraint.isNotNull(input, "Input may not be null"));
+        skeleton = parserPool.newDocument();
+        current = skeleton;
+        splittable = true;
+    }
+
+    /**
+     * Get whether the document can be split. This is only definitive once {@link #next()} has returned null.
+     *
+     * @return whether the document can be split
+     */
+    public boolean isSplittable() {
+        return splittable;
+    }
+
+    /**
+     * Get the skeleton document, holding the document's entities descriptors without their entity descriptors.
+     *
+     * @return the skeleton document, or null if the document has not been completely read or can not be split
+     */
+    @Nullable public Document getSkeleton() {
+        if (finished && splittable) {
+            return skeleton;
+        }
+        return null;
+    }
+
+    /**
+     * Read the document up to the end of the next entity descriptor.
+     *
+     * @return the next entity descriptor, or null if there are no more or the document can not be split
+     *
+     * @throws XMLStreamException if the document can not be read
+     * @throws XMLParserException if a DOM document can not be created
+     */
+    @Nullable public EntityFragment next() throws XMLStreamException, XMLParserException {
+        if (finished || !splittable) {
+            return null;
+        }
+
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (!startElement()) {
+                        splittable = false;
+                        close();
+                        return null;
+                    }
+                    break;
+
+                case XMLStreamConstants.END_ELEMENT:
+                    if (fragmentGroup != null && --fragmentDepth == 0) {
+                        final EntityFragment fragment = new EntityFragment((Element) current, fragmentGroup);
+                        current = fragmentGroup;
+                        fragmentGroup = null;
+                        return fragment;
+                    }
+                    current = current.getParentNode();
+                    break;
+
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (current.getNodeType() == Node.ELEMENT_NODE) {
+                        current.appendChild(current.getOwnerDocument().createTextNode(reader.getText()));
+                    }
+                    break;
+
+                case XMLStreamConstants.DTD:
+                    throw new XMLStreamException("Metadata document may not contain a DOCTYPE declaration");
+
+                default:
+                    break;
+            }
+        }
+
+        finished = true;
+        close();
+        return null;
+    }
+
+    /**
+     * Handle the start of an element.
+     *
+     * @return false if the element shows that the document can not be split
+     *
+     * @throws XMLParserException if a DOM document can not be created
+     */
+    private boolean startElement() throws XMLParserException {
+        if (fragmentGroup == null) {
+            if (current == skeleton) {
+                if (!isMetadataElement("EntitiesDescriptor")) {
+                    return false;
+                }
+            } else if (MetadataDOMDigester.isEntitiesDescriptor(current)) {
+                if (Signature.DEFAULT_ELEMENT_LOCAL_NAME.equals(reader.getLocalName())
+                        && SignatureConstants.XMLSIG_NS.equals(reader.getNamespaceURI())) {
+                    return false;
+                }
+                if (isMetadataElement("EntityDescriptor")) {
+                    final Document fragmentDocument = parserPool.newDocument();
+                    final Element element = createElement(fragmentDocument);
+                    fragmentDocument.appendChild(element);
+                    declareInScopeNamespaces(element, (Element) current);
+                    fragmentGroup = (Element) current;
+                    fragmentDepth = 1;
+                    current = element;
+                    return true;
+                }
+            }
+        } else {
+            fragmentDepth++;
+        }
+
+        final Element element = createElement(current.getNodeType() == Node.DOCUMENT_NODE ? (Document) current
+                : current.getOwnerDocument());
+        current.appendChild(element);
+        current = element;
+        return true;
+    }
+
+    /**
+     * Create an element, with its namespace declarations and attributes, from the current start element event.
+     *
+     * @param document the document which is to own the element
+     *
+     * @return the element
+     */
+    @Nonnull private Element createElement(@Nonnull final Document document) {
+        final Element element = document.createElementNS(Strings.emptyToNull(reader.getNamespaceURI()),
+                qualifiedName(reader.getPrefix(), reader.getLocalName()));
+
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            final String prefix = reader.getNamespacePrefix(i);
+            final String name = Strings.isNullOrEmpty(prefix) ? XMLConstants.XMLNS_PREFIX
+                    : qualifiedName(XMLConstants.XMLNS_PREFIX, prefix);
+            element.setAttributeNS(XMLConstants.XMLNS_NS, name, Strings.nullToEmpty(reader.getNamespaceURI(i)));
+        }
+
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.setAttributeNS(Strings.emptyToNull(reader.getAttributeNamespace(i)),
+                    qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                    reader.getAttributeValue(i));
+        }
+
+        return element;
+    }
+
+    /**
+     * Declare on an entity descriptor element the namespaces in scope at its position in the aggregate which it does
+     * not itself declare.
+     *
+     * @param element the entity descriptor element
+     * @param group the enclosing entities descriptor element in the skeleton document
+     */
+    private void declareInScopeNamespaces(@Nonnull final Element element, @Nonnull final Element group) {
+        for (Node ancestor = group; ancestor != null && ancestor.getNodeType() == Node.ELEMENT_NODE;
+                ancestor = ancestor.getParentNode()) {
+            final NamedNodeMap attributes = ancestor.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                final Attr attribute = (Attr) attributes.item(i);
+                if (XMLConstants.XMLNS_NS.equals(attribute.getNamespaceURI())
+                        && !element.hasAttributeNS(XMLConstants.XMLNS_NS, attribute.getLocalName())) {
+                    element.setAttributeNS(XMLConstants.XMLNS_NS, attribute.getName(), attribute.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Determine whether the current start element event is a SAML 2 metadata element with the specified local name.
+     *
+     * @param localName the local name
+     *
+     * @return whether the element matches
+     */
+    private boolean isMetadataElement(@Nonnull final String localName) {
+        return localName.equals(reader.getLocalName()) && SAMLConstants.SAML20MD_NS.equals(reader.getNamespaceURI());
+    }
+
+    /**
+     * Close the stream reader, ignoring any error.
+     */
+    private void close() {
+        try {
+            reader.close();
+        } catch (final XMLStreamException e) {
+            // nothing more to read
+        }
+    }
+
+    /**
+     * Build a qualified name from a prefix and local name.
+     *
+     * @param prefix the prefix, may be null or empty
+     * @param localName the local name
+     *
+     * @return the qualified name
+     */
+    @Nonnull private static String qualifiedName(@Nullable final String prefix, @Nonnull final String localName) {
+        if (Strings.isNullOrEmpty(prefix)) {
+            return localName;
+        }
+        return prefix + ":" + localName;
+    }
+
+    /**
+     * Create the factory used to create stream readers, configured to be namespace aware and not to process
+     * DTDs or external entities.
+     *
+     * @return the factory
+     */
+    @Nonnull private static XMLInputFactory createInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    /** An entity descriptor element split from an aggregate. */
+    public static class EntityFragment {
+
+        /** The entity descriptor element. */
+        @Nonnull private final Element element;
+
+        /** The enclosing entities descriptor element in the skeleton document. */
+        @Nonnull private final Element groupElement;
+
+        /**
+         * Constructor.
+         *
+         * @param entityElement the entity descriptor element
+         * @param enclosingGroup the enclosing entities descriptor element in the skeleton document
+         */
+        protected EntityFragment(@Nonnull final Element entityElement, @Nonnull final Element enclosingGroup) {
+            element = entityElement;
+            groupElement = enclosingGroup;
+        }
+
+        /**
+         * Get the entity descriptor element, the document element of its own document.
+         *
+         * @return the entity descriptor element
+         */
+        @Nonnull public Element getElement() {
+            return element;
+        }
+
+        /**
+         * Get the enclosing entities descriptor element in the skeleton document.
+         *
+         * @return the enclosing entities descriptor element
+         */
+        @Nonnull public Element getGroupElement() {
+            return groupElement;
+        }
+    }
+
+}
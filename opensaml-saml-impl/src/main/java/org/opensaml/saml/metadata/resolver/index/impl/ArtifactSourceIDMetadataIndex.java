@@ -0,0 +1,176 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.metadata.resolver.index.impl;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.saml.common.binding.artifact.SAMLSourceIDArtifact;
+import org.opensaml.saml.criterion.ArtifactCriterion;
+import org.opensaml.saml.ext.saml1md.SourceID;
+import org.opensaml.saml.metadata.resolver.index.MetadataIndex;
+import org.opensaml.saml.metadata.resolver.index.MetadataIndexKey;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.RoleDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An implementation of {@link MetadataIndex} which indexes entities by their artifact source ID.
+ * 
+ * <p>
+ * Each entity is indexed by the SHA-1 digest of its entity ID, as produced by the SAML 1 type 0x0001 and
+ * SAML 2 type 0x0004 artifact builders, and by the value of any <code>saml1md:SourceID</code> extension
+ * of its roles. Criteria are evaluated from an {@link ArtifactCriterion} whose artifact carries a source ID.
+ * </p>
+ */
+public class ArtifactSourceIDMetadataIndex implements MetadataIndex {
+    
+    /** Digest algorithm used to derive a source ID from an entity ID. */
+    private static final String SOURCE_ID_DIGEST_ALGORITHM = "SHA-1";
+    
+    /** Logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(ArtifactSourceIDMetadataIndex.class);
+
+    /** {@inheritDoc} */
+    @Nullable @NonnullElements public Set<MetadataIndexKey> generateKeys(@Nonnull final EntityDescriptor descriptor) {
+        Constraint.isNotNull(descriptor, "EntityDescriptor was null");
+        final HashSet<MetadataIndexKey> results = new HashSet<>();
+        
+        final String entityID = StringSupport.trimOrNull(descriptor.getEntityID());
+        if (entityID != null) {
+            results.add(new ArtifactSourceIDMetadataIndexKey(digestEntityID(entityID)));
+        }
+        
+        for (final RoleDescriptor role : descriptor.getRoleDescriptors()) {
+            if (role.getExtensions() == null) {
+                continue;
+            }
+            for (final XMLObject child : role.getExtensions().getUnknownXMLObjects(SourceID.DEFAULT_ELEMENT_NAME)) {
+                final String value = StringSupport.trimOrNull(((SourceID) child).getValue());
+                if (value == null) {
+                    continue;
+                }
+                try {
+                    results.add(new ArtifactSourceIDMetadataIndexKey(Hex.decodeHex(value.toCharArray())));
+                } catch (final DecoderException e) {
+                    log.warn("Entity '{}' declares SourceID '{}' which is not hex-encoded, ignoring", entityID, value);
+                }
+            }
+        }
+        
+        return results;
+    }
+
+    /** {@inheritDoc} */
+    @Nullable @NonnullElements public Set<MetadataIndexKey> generateKeys(@Nonnull final CriteriaSet criteriaSet) {
+        Constraint.isNotNull(criteriaSet, "CriteriaSet was null");
+        final ArtifactCriterion artifactCriterion = criteriaSet.get(ArtifactCriterion.class);
+        if (artifactCriterion != null && artifactCriterion.getArtifact() instanceof SAMLSourceIDArtifact) {
+            final byte[] sourceID = ((SAMLSourceIDArtifact) artifactCriterion.getArtifact()).getSourceID();
+            return Collections.<MetadataIndexKey>singleton(new ArtifactSourceIDMetadataIndexKey(sourceID));
+        }
+        return null;
+    }
+    
+    /**
+     * Derive the artifact source ID of the specified entity ID.
+     * 
+     * @param entityID the entity ID
+     * 
+     * @return the source ID
+     */
+    @Nonnull protected byte[] digestEntityID(@Nonnull final String entityID) {
+        try {
+            final MessageDigest digester = MessageDigest.getInstance(SOURCE_ID_DIGEST_ALGORITHM);
+            return digester.digest(entityID.getBytes("UTF-8"));
+        } catch (final NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // this can't really happen b/c SHA-1 and UTF-8 are required to be supported on all JREs.
+            throw new IllegalStateException("Unable to derive artifact source ID", e);
+        }
+    }
+    
+    /**
+     * An implementation of {@link MetadataIndexKey} representing an artifact source ID.
+     */
+    protected static class ArtifactSourceIDMetadataIndexKey implements MetadataIndexKey {
+        
+        /** The source ID. */
+        @Nonnull private final byte[] sourceID;
+        
+        /**
+         * Constructor.
+         * 
+         * @param newSourceID the source ID
+         */
+        public ArtifactSourceIDMetadataIndexKey(@Nonnull final byte[] newSourceID) {
+            sourceID = Arrays.copyOf(Constraint.isNotNull(newSourceID, "SourceID cannot be null"), 
+                    newSourceID.length);
+        }
+        
+        /**
+         * Get the source ID.
+         * 
+         * @return the source ID
+         */
+        @Nonnull public byte[] getSourceID() {
+            return Arrays.copyOf(sourceID, sourceID.length);
+        }
+
+        /** {@inheritDoc} */
+        public String toString() {
+            return "ArtifactSourceIDMetadataIndexKey [sourceID=" + Hex.encodeHexString(sourceID) + "]";
+        }
+
+        /** {@inheritDoc} */
+        public int hashCode() {
+            return Arrays.hashCode(sourceID);
+        }
+
+        /** {@inheritDoc} */
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            
+            if (obj instanceof ArtifactSourceIDMetadataIndexKey) {
+                return Arrays.equals(sourceID, ((ArtifactSourceIDMetadataIndexKey) obj).sourceID);
+            }
+            
+            return false;
+        }
+        
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.metadata.resolver.index.impl;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.namespace.QName;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+
+import org.opensaml.saml.criterion.BindingLocationCriterion;
+import org.opensaml.saml.criterion.BindingResponseLocationCriterion;
+import org.opensaml.saml.criterion.EndpointCriterion;
+import org.opensaml.saml.criterion.EntityRoleCriterion;
+import org.opensaml.saml.metadata.resolver.index.MetadataIndex;
+import org.opensaml.saml.metadata.resolver.index.MetadataIndexKey;
+import org.opensaml.saml.saml2.metadata.Endpoint;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.RoleDescriptor;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+
+/**
+ * An implementation of {@link MetadataIndex} which indexes entities by the locations of their roles' endpoints.
+ * 
+ * <p>
+ * Each endpoint's <code>Location</code> and <code>ResponseLocation</code> are indexed both alone and qualified
+ * by the element name and schema type of the enclosing role. Criteria are evaluated from an
+ * {@link EndpointCriterion}, a {@link BindingLocationCriterion} or a {@link BindingResponseLocationCriterion},
+ * in that order of precedence, optionally qualified by an {@link EntityRoleCriterion}. Locations are compared
+ * exactly, after trimming.
+ * </p>
+ */
+public class EndpointMetadataIndex implements MetadataIndex {
+
+    /** {@inheritDoc} */
+    @Nullable @NonnullElements public Set<MetadataIndexKey> generateKeys(@Nonnull final EntityDescriptor descriptor) {
+        Constraint.isNotNull(descriptor, "EntityDescriptor was null");
+        final HashSet<MetadataIndexKey> results = new HashSet<>();
+        for (final RoleDescriptor role : descriptor.getRoleDescriptors()) {
+            for (final Endpoint endpoint : role.getEndpoints()) {
+                addKeys(results, role, StringSupport.trimOrNull(endpoint.getLocation()), false);
+                addKeys(results, role, StringSupport.trimOrNull(endpoint.getResponseLocation()), true);
+            }
+        }
+        return results;
+    }
+
+    /** {@inheritDoc} */
+    @Nullable @NonnullElements public Set<MetadataIndexKey> generateKeys(@Nonnull final CriteriaSet criteriaSet) {
+        Constraint.isNotNull(criteriaSet, "CriteriaSet was null");
+        
+        String location = null;
+        boolean response = false;
+        
+        final EndpointCriterion<?> endpointCriterion = criteriaSet.get(EndpointCriterion.class);
+        final BindingLocationCriterion locationCriterion = criteriaSet.get(BindingLocationCriterion.class);
+        final BindingResponseLocationCriterion responseLocationCriterion = 
+                criteriaSet.get(BindingResponseLocationCriterion.class);
+        if (endpointCriterion != null) {
+            location = StringSupport.trimOrNull(endpointCriterion.getEndpoint().getLocation());
+            if (location == null) {
+                location = StringSupport.trimOrNull(endpointCriterion.getEndpoint().getResponseLocation());
+                response = true;
+            }
+        }
+        if (location == null && locationCriterion != null) {
+            location = locationCriterion.getLocation();
+            response = false;
+        }
+        if (location == null && responseLocationCriterion != null) {
+            location = responseLocationCriterion.getLocation();
+            response = true;
+        }
+        if (location == null) {
+            return null;
+        }
+        
+        final EntityRoleCriterion roleCriterion = criteriaSet.get(EntityRoleCriterion.class);
+        final HashSet<MetadataIndexKey> results = new HashSet<>();
+        results.add(new EndpointMetadataIndexKey(roleCriterion != null ? roleCriterion.getRole() : null, 
+                location, response));
+        return results;
+    }
+    
+    /**
+     * Add the keys for the specified endpoint location of the specified role.
+     * 
+     * @param keys the keys to which to add
+     * @param role the role descriptor
+     * @param location the endpoint location, may be null
+     * @param response whether the location is a response location
+     */
+    private void addKeys(@Nonnull final Set<MetadataIndexKey> keys, @Nonnull final RoleDescriptor role, 
+            @Nullable final String location, final boolean response) {
+        if (location == null) {
+            return;
+        }
+        keys.add(new EndpointMetadataIndexKey(null, location, response));
+        keys.add(new EndpointMetadataIndexKey(role.getElementQName(), location, response));
+        if (role.getSchemaType() != null) {
+            keys.add(new EndpointMetadataIndexKey(role.getSchemaType(), location, response));
+        }
+    }
+    
+    /**
+     * An implementation of {@link MetadataIndexKey} representing an endpoint location, optionally qualified
+     * by a role.
+     */
+    protected static class EndpointMetadataIndexKey implements MetadataIndexKey {
+        
+        /** The role name. */
+        @Nullable private final QName role;
+        
+        /** The endpoint location. */
+        @Nonnull @NotEmpty private final String location;
+        
+        /** Whether the location is a response location. */
+        private final boolean response;
+        
+        /**
+         * Constructor.
+         * 
+         * @param newRole the role name, or null if the key represents all roles
+         * @param newLocation the endpoint location
+         * @param isResponse whether the location is a response location
+         */
+        public EndpointMetadataIndexKey(@Nullable final QName newRole, @Nonnull @NotEmpty final String newLocation,
+                final boolean isResponse) {
+            role = newRole;
+            location = Constraint.isNotNull(StringSupport.trimOrNull(newLocation), 
+                    "Location cannot be null or empty");
+            response = isResponse;
+        }
+        
+        /**
+         * Get the role name.
+         * 
+         * @return the role name, or null if the key represents all roles
+         */
+        @Nullable public QName getRole() {
+            return role;
+        }
+        
+        /**
+         * Get the endpoint location.
+         * 
+         * @return the location
+         */
+        @Nonnull @NotEmpty public String getLocation() {
+            return location;
+        }
+        
+        /**
+         * Get whether the location is a response location.
+         * 
+         * @return whether the location is a response location
+         */
+        public boolean isResponse() {
+            return response;
+        }
+
+        /** {@inheritDoc} */
+        public String toString() {
+            return MoreObjects.toStringHelper(this).add("role", role).add("location", location)
+                    .add("response", response).toString();
+        }
+
+        /** {@inheritDoc} */
+        public int hashCode() {
+            return Objects.hashCode(role, location, response);
+        }
+
+        /** {@inheritDoc} */
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            
+            if (obj instanceof EndpointMetadataIndexKey) {
+                final EndpointMetadataIndexKey other = (EndpointMetadataIndexKey) obj;
+                return Objects.equal(role, other.role) && location.equals(other.location) 
+                        && response == other.response;
+            }
+            
+            return false;
+        }
+        
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.metadata.resolver.index.impl;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.namespace.QName;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+
+import org.opensaml.saml.criterion.EntityRoleCriterion;
+import org.opensaml.saml.criterion.ProtocolCriterion;
+import org.opensaml.saml.metadata.resolver.index.MetadataIndex;
+import org.opensaml.saml.metadata.resolver.index.MetadataIndexKey;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.RoleDescriptor;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+
+/**
+ * An implementation of {@link MetadataIndex} which indexes entities by their roles, and by the protocols
+ * supported by each role.
+ * 
+ * <p>
+ * Each role is indexed under both its element name and its schema type, if any, matching the behavior of
+ * {@link EntityDescriptor#getRoleDescriptors(QName)}. Criteria are evaluated from an {@link EntityRoleCriterion}
+ * and an optional {@link ProtocolCriterion}.
+ * </p>
+ */
+public class RoleMetadataIndex implements MetadataIndex {
+
+    /** {@inheritDoc} */
+    @Nullable @NonnullElements public Set<MetadataIndexKey> generateKeys(@Nonnull final EntityDescriptor descriptor) {
+        Constraint.isNotNull(descriptor, "EntityDescriptor was null");
+        final HashSet<MetadataIndexKey> results = new HashSet<>();
+        for (final RoleDescriptor role : descriptor.getRoleDescriptors()) {
+            addKeys(results, role.getElementQName(), role);
+            if (role.getSchemaType() != null) {
+                addKeys(results, role.getSchemaType(), role);
+            }
+        }
+        return results;
+    }
+
+    /** {@inheritDoc} */
+    @Nullable @NonnullElements public Set<MetadataIndexKey> generateKeys(@Nonnull final CriteriaSet criteriaSet) {
+        Constraint.isNotNull(criteriaSet, "CriteriaSet was null");
+        final EntityRoleCriterion roleCriterion = criteriaSet.get(EntityRoleCriterion.class);
+        if (roleCriterion == null) {
+            return null;
+        }
+        final ProtocolCriterion protocolCriterion = criteriaSet.get(ProtocolCriterion.class);
+        final HashSet<MetadataIndexKey> results = new HashSet<>();
+        results.add(new RoleMetadataIndexKey(roleCriterion.getRole(), 
+                protocolCriterion != null ? protocolCriterion.getProtocol() : null));
+        return results;
+    }
+    
+    /**
+     * Add the keys for the specified role, under the specified role name.
+     * 
+     * @param keys the keys to which to add
+     * @param roleName the role element name or schema type
+     * @param role the role descriptor
+     */
+    private void addKeys(@Nonnull final Set<MetadataIndexKey> keys, @Nonnull final QName roleName, 
+            @Nonnull final RoleDescriptor role) {
+        keys.add(new RoleMetadataIndexKey(roleName, null));
+        for (final String protocol : role.getSupportedProtocols()) {
+            final String trimmed = StringSupport.trimOrNull(protocol);
+            if (trimmed != null) {
+                keys.add(new RoleMetadataIndexKey(roleName, trimmed));
+            }
+        }
+    }
+    
+    /**
+     * An implementation of {@link MetadataIndexKey} representing a role, optionally qualified by
+     * a supported protocol.
+     */
+    protected static class RoleMetadataIndexKey implements MetadataIndexKey {
+        
+        /** The role name. */
+        @Nonnull private final QName role;
+        
+        /** The supported protocol. */
+        @Nullable private final String protocol;
+        
+        /**
+         * Constructor.
+         * 
+         * @param newRole the role name
+         * @param newProtocol the supported protocol, or null if the key represents all protocols
+         */
+        public RoleMetadataIndexKey(@Nonnull final QName newRole, @Nullable final String newProtocol) {
+            role = Constraint.isNotNull(newRole, "Role cannot be null");
+            protocol = StringSupport.trimOrNull(newProtocol);
+        }
+        
+        /**
+         * Get the role name.
+         * 
+         * @return the role name
+         */
+        @Nonnull public QName getRole() {
+            return role;
+        }
+        
+        /**
+         * Get the supported protocol.
+         * 
+         * @return the supported protocol, or null if the key represents all protocols
+         */
+        @Nullable public String getProtocol() {
+            return protocol;
+        }
+
+        /** {@inheritDoc} */
+        public String toString() {
+            return MoreObjects.toStringHelper(this).add("role", role).add("protocol", protocol).toString();
+        }
+
+        /** {@inheritDoc} */
+        public int hashCode() {
+            return Objects.hashCode(role, protocol);
+        }
+
+        /** {@inheritDoc} */
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            
+            if (obj instanceof RoleMetadataIndexKey) {
+                final RoleMetadataIndexKey other = (RoleMetadataIndexKey) obj;
+                return role.equals(other.role) && Objects.equal(protocol, other.protocol);
+            }
+            
+            return false;
+        }
+        
+    }
+
+}
@@ -18,7 +18,6 @@
 package org.opensaml.saml.saml2.binding.encoding.impl;
 
 import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 
 import javax.servlet.http.HttpServletResponse;
@@ -28,7 +27,6 @@ import net.shibboleth.utilities.java.support.codec.HTMLEncoder;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.net.HttpServletSupport;
-import net.shibboleth.utilities.java.support.xml.SerializeSupport;
 
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.VelocityEngine;
@@ -41,7 +39,6 @@ import org.opensaml.saml.saml2.core.RequestAbstractType;
 import org.opensaml.saml.saml2.core.StatusResponseType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Element;
 
 /**
  * SAML 2.0 HTTP Post binding message encoder.
@@ -196,22 +193,14 @@ public class HTTPPostEncoder extends BaseSAML2MessageEncoder {
         SAMLObject outboundMessage = messageContext.getMessage();
         
         log.debug("Marshalling and Base64 encoding SAML message");
-        Element domMessage = marshallMessage(outboundMessage);
-        
-        try {
-            String messageXML = SerializeSupport.nodeToString(domMessage);
-            String encodedMessage = Base64Support.encode(messageXML.getBytes("UTF-8"), Base64Support.UNCHUNKED);
-            if (outboundMessage instanceof RequestAbstractType) {
-                velocityContext.put("SAMLRequest", encodedMessage);
-            } else if (outboundMessage instanceof StatusResponseType) {
-                velocityContext.put("SAMLResponse", encodedMessage);
-            } else {
-                throw new MessageEncodingException(
-                        "SAML message is neither a SAML RequestAbstractType or StatusResponseType");
-            }
-        } catch (UnsupportedEncodingException e) {
-            log.error("UTF-8 encoding is not supported, this VM is not Java compliant.");
-            throw new MessageEncodingException("Unable to encode message, UTF-8 encoding is not supported");
+        String encodedMessage = Base64Support.encode(serializeMessage(outboundMessage), Base64Support.UNCHUNKED);
+        if (outboundMessage instanceof RequestAbstractType) {
+            velocityContext.put("SAMLRequest", encodedMessage);
+        } else if (outboundMessage instanceof StatusResponseType) {
+            velocityContext.put("SAMLResponse", encodedMessage);
+        } else {
+            throw new MessageEncodingException(
+                    "SAML message is neither a SAML RequestAbstractType or StatusResponseType");
         }
 
         String relayState = SAMLBindingSupport.getRelayState(messageContext);
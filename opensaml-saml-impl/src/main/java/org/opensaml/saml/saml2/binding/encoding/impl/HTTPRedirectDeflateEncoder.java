@@ -31,7 +31,6 @@ import net.shibboleth.utilities.java.support.codec.Base64Support;
 import net.shibboleth.utilities.java.support.collection.Pair;
 import net.shibboleth.utilities.java.support.net.HttpServletSupport;
 import net.shibboleth.utilities.java.support.net.URLBuilder;
-import net.shibboleth.utilities.java.support.xml.SerializeSupport;
 
 import org.opensaml.messaging.context.MessageContext;
 import org.opensaml.messaging.encoder.MessageEncodingException;
@@ -121,12 +120,12 @@ public class HTTPRedirectDeflateEncoder extends BaseSAML2MessageEncoder {
     protected String deflateAndBase64Encode(SAMLObject message) throws MessageEncodingException {
         log.debug("Deflating and Base64 encoding SAML message");
         try {
-            String messageStr = SerializeSupport.nodeToString(marshallMessage(message));
+            byte[] messageBytes = serializeMessage(message);
 
             ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
             Deflater deflater = new Deflater(Deflater.DEFLATED, true);
             DeflaterOutputStream deflaterStream = new DeflaterOutputStream(bytesOut, deflater);
-            deflaterStream.write(messageStr.getBytes("UTF-8"));
+            deflaterStream.write(messageBytes);
             deflaterStream.finish();
 
             return Base64Support.encode(bytesOut.toByteArray(), Base64Support.UNCHUNKED);
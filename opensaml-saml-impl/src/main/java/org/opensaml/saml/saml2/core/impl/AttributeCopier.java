@@ -0,0 +1,46 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.saml.saml2.core.impl;
+
+import javax.annotation.Nonnull;
+
+import org.opensaml.core.xml.AbstractXMLObjectCopier;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.saml.saml2.core.Attribute;
+
+/**
+ * A thread safe copier for {@link org.opensaml.saml.saml2.core.Attribute} objects.
+ */
+public class AttributeCopier extends AbstractXMLObjectCopier<Attribute> {
+
+    /** Constructor. */
+    public AttributeCopier() {
+        super(new AttributeBuilder());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void copyContent(@Nonnull final Attribute original, @Nonnull final Attribute copy)
+            throws MarshallingException, UnmarshallingException {
+        copy.setName(original.getName());
+        copy.setNameFormat(original.getNameFormat());
+        copy.setFriendlyName(original.getFriendlyName());
+        copyAttributeMap(original.getUnknownAttributes(), copy.getUnknownAttributes());
+        copyChildren(original.getAttributeValues(), copy.getAttributeValues());
+    }
+}
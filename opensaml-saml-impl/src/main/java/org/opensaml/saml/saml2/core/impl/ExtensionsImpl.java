@@ -23,19 +23,25 @@ import java.util.List;
 
 import javax.xml.namespace.QName;
 
+import org.opensaml.core.xml.DeferredChildrenBearing;
 import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.util.DeferredXMLObjectChildren;
 import org.opensaml.core.xml.util.IndexedXMLObjectChildrenList;
 import org.opensaml.saml.common.AbstractSAMLObject;
 import org.opensaml.saml.saml2.core.Extensions;
+import org.w3c.dom.Element;
 
 /**
  * Implementation of {@link org.opensaml.saml.saml2.core.Extensions}.
  */
-public class ExtensionsImpl extends AbstractSAMLObject implements Extensions {
+public class ExtensionsImpl extends AbstractSAMLObject implements Extensions, DeferredChildrenBearing {
 
     /** "any" children. */
     private final IndexedXMLObjectChildrenList<XMLObject> unknownChildren;
 
+    /** Child elements whose unmarshalling has been deferred. */
+    private final DeferredXMLObjectChildren deferredChildren;
+
     /**
      * Constructor.
      * 
@@ -46,22 +52,37 @@ public class ExtensionsImpl extends AbstractSAMLObject implements Extensions {
     protected ExtensionsImpl(String namespaceURI, String elementLocalName, String namespacePrefix) {
         super(namespaceURI, elementLocalName, namespacePrefix);
         unknownChildren = new IndexedXMLObjectChildrenList<>(this);
+        deferredChildren = new DeferredXMLObjectChildren(this);
     }
 
     /**
      * {@inheritDoc}
      */
     public List<XMLObject> getUnknownXMLObjects() {
+        deferredChildren.resolve(unknownChildren);
         return unknownChildren;
     }
     
     /** {@inheritDoc} */
     public List<XMLObject> getUnknownXMLObjects(QName typeOrName) {
+        deferredChildren.resolve(unknownChildren);
         return (List<XMLObject>) unknownChildren.subList(typeOrName);
     }
 
     /** {@inheritDoc} */
     public List<XMLObject> getOrderedChildren() {
+        deferredChildren.resolve(unknownChildren);
         return Collections.unmodifiableList(unknownChildren);
     }
+
+    /** {@inheritDoc} */
+    public void deferChildElements(final Element domElement) {
+        deferredChildren.defer(domElement);
+    }
+
+    /** {@inheritDoc} */
+    public void releaseDOM() {
+        deferredChildren.resolve(unknownChildren);
+        super.releaseDOM();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,50 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.saml.saml2.core.impl;
+
+import javax.annotation.Nonnull;
+
+import org.opensaml.core.xml.AbstractXMLObjectCopier;
+import org.opensaml.core.xml.XMLObjectBuilder;
+import org.opensaml.saml.saml2.core.NameIDType;
+
+/**
+ * A thread safe copier for {@link org.opensaml.saml.saml2.core.NameIDType} objects whose implementation extends
+ * {@link AbstractNameIDType} without adding state of its own. An instance is needed for each such implementation,
+ * with the builder of that implementation.
+ */
+public class NameIDTypeCopier extends AbstractXMLObjectCopier<NameIDType> {
+
+    /**
+     * Constructor.
+     * 
+     * @param builder builder of objects of the implementation class copied by this instance
+     */
+    public NameIDTypeCopier(@Nonnull final XMLObjectBuilder<? extends NameIDType> builder) {
+        super(builder);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void copyContent(@Nonnull final NameIDType original, @Nonnull final NameIDType copy) {
+        copy.setValue(original.getValue());
+        copy.setNameQualifier(original.getNameQualifier());
+        copy.setSPNameQualifier(original.getSPNameQualifier());
+        copy.setFormat(original.getFormat());
+        copy.setSPProvidedID(original.getSPProvidedID());
+    }
+}
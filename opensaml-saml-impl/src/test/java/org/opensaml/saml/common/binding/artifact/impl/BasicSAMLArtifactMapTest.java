@@ -118,4 +118,60 @@ public class BasicSAMLArtifactMapTest extends XMLObjectBaseTestCase {
         Assert.assertNull(entry, "Entry should have expired");
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testBoundedCapacity() throws Exception {
+        artifactMap = new BasicSAMLArtifactMap();
+        artifactMap.setArtifactLifetime(lifetime);
+        artifactMap.setShardCount(1);
+        artifactMap.setMaxEntries(3);
+        artifactMap.initialize();
+
+        for (int i = 0; i < 5; i++) {
+            artifactMap.put(artifact + i, rpId, issuerId, samlObject);
+        }
+
+        Assert.assertEquals(artifactMap.size(), 3);
+        Assert.assertEquals(artifactMap.getEvictionCount(), 2);
+        Assert.assertNull(artifactMap.get(artifact + 0));
+        Assert.assertNull(artifactMap.get(artifact + 1));
+        Assert.assertNotNull(artifactMap.get(artifact + 4));
+        Assert.assertEquals(artifactMap.getHitCount(), 1);
+        Assert.assertEquals(artifactMap.getMissCount(), 2);
+    }
+
+    @Test
+    public void testSerializedMessages() throws Exception {
+        artifactMap = new BasicSAMLArtifactMap();
+        artifactMap.setArtifactLifetime(lifetime);
+        artifactMap.setSerializeMessages(true);
+        artifactMap.setParserPool(parserPool);
+        artifactMap.initialize();
+
+        artifactMap.put(artifact, rpId, issuerId, samlObject);
+
+        SAMLArtifactMapEntry entry = artifactMap.get(artifact);
+        Assert.assertTrue(entry instanceof SerializedSAMLArtifactMapEntry);
+        Assert.assertEquals(entry.getIssuerId(), issuerId);
+        Assert.assertEquals(entry.getRelyingPartyId(), rpId);
+        Assert.assertFalse(entry.getSamlMessage() == samlObject);
+
+        Document newDocument = entry.getSamlMessage().getDOM().getOwnerDocument();
+        XMLAssertTestNG.assertXMLIdentical(new Diff(origDocument, newDocument), true);
+    }
+
+    @Test
+    public void testExpiredCount() throws Exception {
+        artifactMap = new BasicSAMLArtifactMap();
+        artifactMap.setArtifactLifetime(500);
+        artifactMap.setCleanupInterval(0);
+        artifactMap.initialize();
+
+        artifactMap.put(artifact, rpId, issuerId, samlObject);
+        Thread.sleep(1000);
+        Assert.assertNull(artifactMap.get(artifact));
+        Assert.assertEquals(artifactMap.getExpiredCount(), 1);
+        Assert.assertEquals(artifactMap.getMissCount(), 1);
+        Assert.assertEquals(artifactMap.size(), 0);
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.saml.common.binding.artifact.impl;
+
+import java.io.IOException;
+
+import net.shibboleth.utilities.java.support.xml.XMLAssertTestNG;
+
+import org.custommonkey.xmlunit.Diff;
+import org.opensaml.core.xml.XMLObjectBaseTestCase;
+import org.opensaml.saml.common.SAMLObject;
+import org.opensaml.saml.common.binding.artifact.SAMLArtifactMap.SAMLArtifactMapEntry;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Test the compact SAML artifact map entry factory.
+ */
+public class CompactSAMLArtifactMapEntryFactoryTest extends XMLObjectBaseTestCase {
+
+    private String artifact = "the-artifact";
+    private String issuerId = "urn:test:issuer";
+    private String rpId = "urn:test:rp";
+    
+    private CompactSAMLArtifactMapEntryFactory factory;
+    private SAMLObject samlObject;
+    
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        factory = new CompactSAMLArtifactMapEntryFactory();
+        
+        samlObject = (SAMLObject) unmarshallElement("/org/opensaml/saml/saml1/core/SignedAssertion.xml");
+    }
+
+    @Test
+    public void testWithSerialization() throws IOException {
+        SAMLArtifactMapEntry entry = factory.newEntry(artifact, issuerId, rpId, samlObject);
+        
+        String s = factory.serialize(entry);
+        Assert.assertFalse(s.startsWith("<"));
+        SerializedSAMLArtifactMapEntry newEntry = (SerializedSAMLArtifactMapEntry) factory.deserialize(
+                1, StorageServiceSAMLArtifactMap.STORAGE_CONTEXT, artifact, s, null);
+        
+        Assert.assertEquals(newEntry.getArtifact(), artifact);
+        Assert.assertEquals(newEntry.getIssuerId(), issuerId);
+        Assert.assertEquals(newEntry.getRelyingPartyId(), rpId);
+        Assert.assertFalse(newEntry.isMessageUnmarshalled());
+        Assert.assertTrue(newEntry.getSerializedMessage().length > 0);
+
+        assertSameMessage(newEntry);
+        Assert.assertTrue(newEntry.isMessageUnmarshalled());
+        
+        // Re-serializing a lazy entry reuses its bytes.
+        Assert.assertEquals(factory.serialize(newEntry), s);
+    }
+
+    @Test
+    public void testUncompressed() throws IOException {
+        SAMLArtifactMapEntry entry = factory.newEntry(artifact, issuerId, rpId, samlObject);
+        String compressed = factory.serialize(entry);
+
+        factory = new CompactSAMLArtifactMapEntryFactory();
+        factory.setCompression(false);
+        String s = factory.serialize(entry);
+        Assert.assertTrue(s.length() > compressed.length());
+        
+        assertSameMessage((SerializedSAMLArtifactMapEntry) factory.deserialize(
+                1, StorageServiceSAMLArtifactMap.STORAGE_CONTEXT, artifact, s, null));
+        assertSameMessage((SerializedSAMLArtifactMapEntry) factory.deserialize(
+                1, StorageServiceSAMLArtifactMap.STORAGE_CONTEXT, artifact, compressed, null));
+    }
+
+    @Test
+    public void testLegacyFormat() throws IOException {
+        StorageServiceSAMLArtifactMapEntryFactory legacy = new StorageServiceSAMLArtifactMapEntryFactory();
+        String s = legacy.serialize(legacy.newEntry(artifact, issuerId, rpId, samlObject));
+
+        SAMLArtifactMapEntry newEntry =
+                factory.deserialize(1, StorageServiceSAMLArtifactMap.STORAGE_CONTEXT, artifact, s, null);
+        Assert.assertEquals(newEntry.getIssuerId(), issuerId);
+        Assert.assertEquals(newEntry.getRelyingPartyId(), rpId);
+        Assert.assertNotNull(newEntry.getSamlMessage());
+    }
+
+    @Test(expectedExceptions=IOException.class)
+    public void testCorrupt() throws IOException {
+        SAMLArtifactMapEntry entry = factory.newEntry(artifact, issuerId, rpId, samlObject);
+        String s = factory.serialize(entry);
+        
+        factory.deserialize(1, StorageServiceSAMLArtifactMap.STORAGE_CONTEXT, artifact,
+                s.substring(0, s.length() / 2), null);
+    }
+
+    private void assertSameMessage(SerializedSAMLArtifactMapEntry newEntry) {
+        Document origDocument = samlObject.getDOM().getOwnerDocument();
+        if (origDocument.getDocumentElement() == null) {
+            origDocument.appendChild(samlObject.getDOM());
+        }
+        Document newDocument = newEntry.getSamlMessage().getDOM().getOwnerDocument();
+        XMLAssertTestNG.assertXMLIdentical(new Diff(origDocument, newDocument), true);
+    }
+
+}
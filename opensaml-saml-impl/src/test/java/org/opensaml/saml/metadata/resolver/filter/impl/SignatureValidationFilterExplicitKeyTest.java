@@ -17,12 +17,19 @@
 
 package org.opensaml.saml.metadata.resolver.filter.impl;
 
+import java.io.StringReader;
+import java.security.KeyPair;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
 import net.shibboleth.utilities.java.support.xml.XMLParserException;
 
 import org.opensaml.core.xml.XMLObject;
@@ -30,16 +37,21 @@ import org.opensaml.core.xml.XMLObjectBaseTestCase;
 import org.opensaml.core.xml.io.UnmarshallingException;
 import org.opensaml.saml.metadata.resolver.filter.FilterException;
 import org.opensaml.saml.metadata.resolver.impl.DOMMetadataResolver;
+import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
 import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.security.credential.Credential;
 import org.opensaml.security.credential.CredentialSupport;
 import org.opensaml.security.credential.impl.StaticCredentialResolver;
+import org.opensaml.security.crypto.KeySupport;
 import org.opensaml.security.x509.X509Credential;
 import org.opensaml.security.x509.X509Support;
 import org.opensaml.xmlsec.SignatureValidationParameters;
 import org.opensaml.xmlsec.config.DefaultSecurityConfigurationBootstrap;
 import org.opensaml.xmlsec.keyinfo.KeyInfoCredentialResolver;
+import org.opensaml.xmlsec.signature.Signature;
 import org.opensaml.xmlsec.signature.support.SignatureConstants;
 import org.opensaml.xmlsec.signature.support.SignatureTrustEngine;
+import org.opensaml.xmlsec.signature.support.Signer;
 import org.opensaml.xmlsec.signature.support.SignatureValidationParametersCriterion;
 import org.opensaml.xmlsec.signature.support.impl.ExplicitKeySignatureTrustEngine;
 import org.testng.Assert;
@@ -47,6 +59,7 @@ import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
 /**
  * Unit tests for {@link SignatureValidationFilter}.
@@ -238,5 +251,97 @@ public class SignatureValidationFilterExplicitKeyTest extends XMLObjectBaseTestC
         
         Assert.assertFalse(mdProvider.iterator().hasNext());
     }
+    
+    @Test
+    public void testEntitiesDescriptorParallel() throws CertificateException, XMLParserException,
+            UnmarshallingException, FilterException {
+        X509Certificate cert = X509Support.decodeCertificate(openIDCertBase64);
+        X509Credential cred = CredentialSupport.getSimpleCredential(cert, null);
+        StaticCredentialResolver credResolver = new StaticCredentialResolver(cred);
+        SignatureTrustEngine trustEngine = new ExplicitKeySignatureTrustEngine(credResolver, kiResolver);
+        
+        EntitiesDescriptor group = buildXMLObject(EntitiesDescriptor.DEFAULT_ELEMENT_NAME);
+        EntityDescriptor[] members = new EntityDescriptor[8];
+        for (int i = 0; i < members.length; i++) {
+            String file = i % 3 == 1 ? openIDFileInvalid : openIDFileValid;
+            Document mdDoc = parserPool.parse(SignatureValidationFilterExplicitKeyTest.class.getResourceAsStream(file));
+            members[i] = (EntityDescriptor) unmarshallerFactory.getUnmarshaller(mdDoc.getDocumentElement())
+                    .unmarshall(mdDoc.getDocumentElement());
+            group.getEntityDescriptors().add(members[i]);
+        }
+        
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            SignatureValidationFilter filter = new SignatureValidationFilter(trustEngine);
+            filter.setRequireSignedRoot(false);
+            filter.setForkJoinPool(pool);
+            
+            Assert.assertSame(filter.filter(group), group);
+        } finally {
+            pool.shutdown();
+        }
+        
+        List<EntityDescriptor> remaining = group.getEntityDescriptors();
+        Assert.assertEquals(remaining.size(), 5);
+        int index = 0;
+        for (int i = 0; i < members.length; i++) {
+            if (i % 3 != 1) {
+                Assert.assertSame(remaining.get(index++), members[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testEntitiesDescriptorParallelSharedDocument() throws Exception {
+        KeyPair keyPair = KeySupport.generateKeyPair("RSA", 1024, null);
+        Credential signingCredential = CredentialSupport.getSimpleCredential(keyPair.getPublic(), keyPair.getPrivate());
+        StaticCredentialResolver credResolver =
+                new StaticCredentialResolver(CredentialSupport.getSimpleCredential(keyPair.getPublic(), null));
+        SignatureTrustEngine trustEngine = new ExplicitKeySignatureTrustEngine(credResolver, kiResolver);
+        
+        EntitiesDescriptor source = buildXMLObject(EntitiesDescriptor.DEFAULT_ELEMENT_NAME);
+        for (int i = 0; i < 8; i++) {
+            EntityDescriptor entity = buildXMLObject(EntityDescriptor.DEFAULT_ELEMENT_NAME);
+            entity.setEntityID("https://sp" + i + ".example.org");
+            entity.setID("_entity" + i);
+            Signature signature = buildXMLObject(Signature.DEFAULT_ELEMENT_NAME);
+            signature.setSigningCredential(signingCredential);
+            signature.setCanonicalizationAlgorithm(SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
+            signature.setSignatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256);
+            entity.setSignature(signature);
+            source.getEntityDescriptors().add(entity);
+        }
+        Element sourceElement = marshallerFactory.getMarshaller(source).marshall(source);
+        for (EntityDescriptor entity : source.getEntityDescriptors()) {
+            Signer.signObject(entity.getSignature());
+        }
+        for (int i = 1; i < 8; i += 3) {
+            source.getEntityDescriptors().get(i).getDOM().setAttributeNS(null, EntityDescriptor.ENTITY_ID_ATTRIB_NAME,
+                    "https://tampered" + i + ".example.org");
+        }
+        
+        // all members are unmarshalled from, and cache the DOM of, a single parsed document
+        Document mdDoc = parserPool.parse(new StringReader(SerializeSupport.nodeToString(sourceElement)));
+        EntitiesDescriptor group = (EntitiesDescriptor) unmarshallerFactory.getUnmarshaller(
+                mdDoc.getDocumentElement()).unmarshall(mdDoc.getDocumentElement());
+        
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            SignatureValidationFilter filter = new SignatureValidationFilter(trustEngine);
+            filter.setRequireSignedRoot(false);
+            filter.setForkJoinPool(pool);
+            
+            Assert.assertSame(filter.filter(group), group);
+        } finally {
+            pool.shutdown();
+        }
+        
+        List<String> remaining = new ArrayList<>();
+        for (EntityDescriptor entity : group.getEntityDescriptors()) {
+            remaining.add(entity.getEntityID());
+        }
+        Assert.assertEquals(remaining, Arrays.asList("https://sp0.example.org", "https://sp2.example.org",
+                "https://sp3.example.org", "https://sp5.example.org", "https://sp6.example.org"));
+    }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,312 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.metadata.resolver.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
+
+import org.opensaml.core.criterion.EntityIdCriterion;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.XMLObjectBaseTestCase;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link AbstractDynamicMetadataResolver}.
+ */
+public class AbstractDynamicMetadataResolverTest extends XMLObjectBaseTestCase {
+
+    private MockDynamicResolver resolver;
+
+    private String id1, id2;
+
+    private EntityDescriptor ed1;
+
+    private ExecutorService callers;
+
+    @BeforeMethod
+    public void setUp() {
+        id1 = "urn:test:entity:1";
+        id2 = "urn:test:entity:2";
+
+        ed1 = buildXMLObject(EntityDescriptor.DEFAULT_ELEMENT_NAME);
+        ed1.setEntityID(id1);
+
+        resolver = new MockDynamicResolver();
+        resolver.setId("dynamicTest");
+        resolver.getOriginMetadata().put(id1, ed1);
+
+        callers = Executors.newFixedThreadPool(8);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        callers.shutdownNow();
+        if (resolver != null) {
+            resolver.destroy();
+        }
+    }
+
+    @Test
+    public void testSynchronousResolve() throws Exception {
+        resolver.initialize();
+
+        Assert.assertSame(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id1))), ed1);
+        Assert.assertSame(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id1))), ed1);
+        Assert.assertEquals(resolver.getFetchCount().get(), 1);
+
+        Assert.assertNull(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id2))));
+    }
+
+    @Test
+    public void testAsyncResolveCoalescesConcurrentCallers() throws Exception {
+        resolver.setAsyncOriginFetch(true);
+        resolver.setMaxOriginFetchWait(30*1000L);
+        resolver.getFetchGate().set(new CountDownLatch(1));
+        resolver.getAsyncCallers().set(new CountDownLatch(8));
+        resolver.initialize();
+
+        List<Future<EntityDescriptor>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(callers.submit(new Callable<EntityDescriptor>() {
+                public EntityDescriptor call() throws Exception {
+                    return resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id1)));
+                }
+            }));
+        }
+
+        // Let the callers pile up on the single in-flight fetch before releasing it. A caller arriving after
+        // the fetch completes finds the stored metadata, so the fetch count is the same either way.
+        Assert.assertTrue(resolver.getAsyncCallers().get().await(10, TimeUnit.SECONDS));
+        resolver.getFetchGate().get().countDown();
+
+        for (Future<EntityDescriptor> result : results) {
+            Assert.assertSame(result.get(10, TimeUnit.SECONDS), ed1);
+        }
+        Assert.assertEquals(resolver.getFetchCount().get(), 1);
+    }
+
+    @Test
+    public void testAsyncResolveMaxWait() throws Exception {
+        resolver.setAsyncOriginFetch(true);
+        resolver.setMaxOriginFetchWait(100L);
+        resolver.getFetchGate().set(new CountDownLatch(1));
+        resolver.initialize();
+
+        Assert.assertNull(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id1))));
+
+        Future<List<EntityDescriptor>> fetch =
+                resolver.getBackingStore().getManagementData(id1).getInFlightOriginFetch().get();
+        Assert.assertNotNull(fetch);
+        resolver.getFetchGate().get().countDown();
+        fetch.get(10, TimeUnit.SECONDS);
+
+        Assert.assertSame(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id1))), ed1);
+        Assert.assertEquals(resolver.getFetchCount().get(), 1);
+    }
+
+    @Test
+    public void testAsyncResolveServesStaleWhileRefreshing() throws Exception {
+        resolver.setAsyncOriginFetch(true);
+        resolver.initialize();
+
+        Assert.assertSame(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id1))), ed1);
+        Assert.assertEquals(resolver.getFetchCount().get(), 1);
+
+        resolver.getFetchGate().set(new CountDownLatch(1));
+        resolver.setForceRefresh(true);
+
+        // Refresh is blocked, but the existing metadata is returned immediately.
+        Assert.assertSame(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id1))), ed1);
+
+        Future<List<EntityDescriptor>> fetch =
+                resolver.getBackingStore().getManagementData(id1).getInFlightOriginFetch().get();
+        Assert.assertNotNull(fetch);
+        resolver.getFetchGate().get().countDown();
+        Assert.assertEquals(fetch.get(10, TimeUnit.SECONDS).size(), 1);
+        Assert.assertEquals(resolver.getFetchCount().get(), 2);
+    }
+
+    @Test
+    public void testNegativeLookupCache() throws Exception {
+        resolver.setNegativeLookupCacheEnabled(true);
+        resolver.initialize();
+
+        Assert.assertNull(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id2))));
+        Assert.assertNull(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id2))));
+        Assert.assertEquals(resolver.getFetchCount().get(), 1);
+
+        // Successful lookups are unaffected.
+        Assert.assertSame(resolver.resolveSingle(new CriteriaSet(new EntityIdCriterion(id1))), ed1);
+        Assert.assertNull(resolver.getBackingStore().getNegativeLookup(id1));
+        Assert.assertEquals(resolver.getFetchCount().get(), 2);
+    }
+
+    @Test
+    public void testNegativeLookupCacheBackoffAndCapacity() throws Exception {
+        resolver.setNegativeLookupCacheEnabled(true);
+        resolver.setNegativeLookupCacheDuration(1000L);
+        resolver.setMaxNegativeLookupCacheDuration(3000L);
+        resolver.setMaxNegativeLookupEntries(2);
+        resolver.initialize();
+
+        AbstractDynamicMetadataResolver.DynamicEntityBackingStore store = resolver.getBackingStore();
+
+        long start = System.currentTimeMillis();
+        Assert.assertEquals(store.recordNegativeLookup(id2).getFailureCount(), 1);
+        Assert.assertTrue(store.getNegativeLookup(id2).getExpirationTime() - start < 2000);
+        Assert.assertEquals(store.recordNegativeLookup(id2).getFailureCount(), 2);
+        Assert.assertTrue(store.getNegativeLookup(id2).getExpirationTime() - start >= 2000);
+        Assert.assertEquals(store.recordNegativeLookup(id2).getFailureCount(), 3);
+        Assert.assertTrue(store.getNegativeLookup(id2).getExpirationTime() - start >= 3000);
+        Assert.assertTrue(store.getNegativeLookup(id2).getExpirationTime() - start < 4000);
+
+        store.recordNegativeLookup("urn:test:entity:3");
+        store.recordNegativeLookup("urn:test:entity:4");
+        Assert.assertNotNull(store.getNegativeLookup(id2));
+        Assert.assertNull(store.getNegativeLookup("urn:test:entity:3"));
+        Assert.assertNotNull(store.getNegativeLookup("urn:test:entity:4"));
+    }
+
+    /**
+     * Mock dynamic resolver which resolves from an in-memory map, optionally blocking each fetch on a latch.
+     */
+    public static class MockDynamicResolver extends AbstractDynamicMetadataResolver {
+
+        private Map<String, XMLObject> originMetadata = new HashMap<>();
+
+        private AtomicInteger fetchCount = new AtomicInteger();
+
+        private AtomicReference<CountDownLatch> fetchGate = new AtomicReference<>();
+
+        private AtomicReference<CountDownLatch> asyncCallers = new AtomicReference<>();
+
+        private volatile boolean forceRefresh;
+
+        public MockDynamicResolver() {
+            this(null);
+        }
+
+        public MockDynamicResolver(@Nullable final Timer backgroundTaskTimer) {
+            super(backgroundTaskTimer);
+        }
+
+        public Map<String, XMLObject> getOriginMetadata() {
+            return originMetadata;
+        }
+
+        public AtomicInteger getFetchCount() {
+            return fetchCount;
+        }
+
+        public AtomicReference<CountDownLatch> getFetchGate() {
+            return fetchGate;
+        }
+
+        public AtomicReference<CountDownLatch> getAsyncCallers() {
+            return asyncCallers;
+        }
+
+        public void setForceRefresh(final boolean flag) {
+            forceRefresh = flag;
+        }
+
+        /** {@inheritDoc} */
+        protected boolean shouldAttemptRefresh(@Nonnull final EntityManagementData mgmtData) {
+            return forceRefresh || super.shouldAttemptRefresh(mgmtData);
+        }
+
+        /** {@inheritDoc} */
+        @Nonnull protected Iterable<EntityDescriptor> resolveFromOriginSourceAsync(
+                @Nonnull final CriteriaSet criteria, @Nonnull final EntityManagementData mgmtData,
+                @Nullable final List<EntityDescriptor> staleDescriptors) throws ResolverException {
+            CountDownLatch latch = asyncCallers.get();
+            if (latch != null) {
+                latch.countDown();
+            }
+            return super.resolveFromOriginSourceAsync(criteria, mgmtData, staleDescriptors);
+        }
+
+        /** {@inheritDoc} */
+        @Nullable protected XMLObject fetchFromOriginSource(@Nonnull final CriteriaSet criteria)
+                throws IOException {
+            return doFetch(criteria);
+        }
+
+        /** {@inheritDoc} */
+        protected boolean isRawOriginFetchSupported() {
+            return true;
+        }
+
+        /** {@inheritDoc} */
+        @Nullable protected byte[] fetchRawFromOriginSource(@Nonnull final CriteriaSet criteria)
+                throws IOException {
+            XMLObject metadata = doFetch(criteria);
+            if (metadata == null) {
+                return null;
+            }
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                XMLObjectSupport.marshallToOutputStream(metadata, out);
+                return out.toByteArray();
+            } catch (final MarshallingException e) {
+                throw new IOException(e);
+            }
+        }
+
+        private XMLObject doFetch(@Nonnull final CriteriaSet criteria) throws IOException {
+            CountDownLatch gate = fetchGate.get();
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (final InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            fetchCount.incrementAndGet();
+            forceRefresh = false;
+            return originMetadata.get(criteria.get(EntityIdCriterion.class).getEntityId());
+        }
+
+    }
+
+}
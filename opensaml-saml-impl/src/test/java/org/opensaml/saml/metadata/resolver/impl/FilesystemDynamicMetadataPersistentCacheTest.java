@@ -0,0 +1,135 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.saml.metadata.resolver.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+
+import org.joda.time.DateTime;
+import org.joda.time.chrono.ISOChronology;
+import org.opensaml.core.criterion.EntityIdCriterion;
+import org.opensaml.core.xml.XMLObjectBaseTestCase;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link FilesystemDynamicMetadataPersistentCache}.
+ */
+public class FilesystemDynamicMetadataPersistentCacheTest extends XMLObjectBaseTestCase {
+
+    private File baseDir;
+
+    private FilesystemDynamicMetadataPersistentCache cache;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        baseDir = Files.createTempDirectory("dynamic-md-cache").toFile();
+        cache = new FilesystemDynamicMetadataPersistentCache(baseDir);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        Files.walkFileTree(baseDir.toPath(), new SimpleFileVisitor<Path>() {
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Test
+    public void testSaveLoadRemove() throws IOException {
+        DateTime now = new DateTime(ISOChronology.getInstanceUTC());
+        byte[] bytes = "<foo/>".getBytes("UTF-8");
+
+        Assert.assertNull(cache.load("urn:test:entity:1"));
+        Assert.assertTrue(cache.getEntityIDs().isEmpty());
+
+        cache.save(new DynamicMetadataPersistentCacheEntry("urn:test:entity:1", bytes, now.plusHours(2),
+                now.plusHours(1), now));
+        cache.save(new DynamicMetadataPersistentCacheEntry("urn:test:entity:2", bytes, now.plusHours(2),
+                now.plusHours(1), now));
+
+        DynamicMetadataPersistentCacheEntry entry = cache.load("urn:test:entity:1");
+        Assert.assertNotNull(entry);
+        Assert.assertEquals(entry.getEntityID(), "urn:test:entity:1");
+        Assert.assertEquals(entry.getMetadataBytes(), bytes);
+        Assert.assertEquals(entry.getExpirationTime(), now.plusHours(2));
+        Assert.assertEquals(entry.getRefreshTriggerTime(), now.plusHours(1));
+        Assert.assertEquals(entry.getLastAccessedTime(), now);
+
+        Assert.assertEquals(cache.getEntityIDs().size(), 2);
+        Assert.assertTrue(cache.getEntityIDs().contains("urn:test:entity:2"));
+
+        cache.remove("urn:test:entity:1");
+        Assert.assertNull(cache.load("urn:test:entity:1"));
+        Assert.assertEquals(cache.getEntityIDs().size(), 1);
+    }
+
+    @Test
+    public void testResolverWarmStartup() throws Exception {
+        String entityID = "urn:test:entity:1";
+        EntityDescriptor ed = buildXMLObject(EntityDescriptor.DEFAULT_ELEMENT_NAME);
+        ed.setEntityID(entityID);
+
+        AbstractDynamicMetadataResolverTest.MockDynamicResolver first =
+                new AbstractDynamicMetadataResolverTest.MockDynamicResolver();
+        first.setId("first");
+        first.setParserPool(parserPool);
+        first.setPersistentCache(cache);
+        first.getOriginMetadata().put(entityID, ed);
+        first.initialize();
+        try {
+            Assert.assertNotNull(first.resolveSingle(new CriteriaSet(new EntityIdCriterion(entityID))));
+            Assert.assertNotNull(cache.load(entityID));
+        } finally {
+            first.destroy();
+        }
+
+        AbstractDynamicMetadataResolverTest.MockDynamicResolver second =
+                new AbstractDynamicMetadataResolverTest.MockDynamicResolver();
+        second.setId("second");
+        second.setParserPool(parserPool);
+        second.setPersistentCache(cache);
+        second.initialize();
+        try {
+            EntityDescriptor resolved = second.resolveSingle(new CriteriaSet(new EntityIdCriterion(entityID)));
+            Assert.assertNotNull(resolved);
+            Assert.assertEquals(resolved.getEntityID(), entityID);
+            Assert.assertEquals(second.getFetchCount().get(), 0);
+        } finally {
+            second.destroy();
+        }
+    }
+
+}
@@ -21,17 +21,51 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
 import net.shibboleth.utilities.java.support.resolver.ResolverException;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
 
+import org.custommonkey.xmlunit.Diff;
+import org.joda.time.DateTime;
 import org.opensaml.core.criterion.EntityIdCriterion;
+import org.opensaml.core.xml.Namespace;
+import org.opensaml.core.xml.XMLObject;
 import org.opensaml.core.xml.XMLObjectBaseTestCase;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.criterion.ArtifactCriterion;
+import org.opensaml.saml.criterion.BindingLocationCriterion;
+import org.opensaml.saml.criterion.EntityRoleCriterion;
+import org.opensaml.saml.criterion.ProtocolCriterion;
+import org.opensaml.saml.metadata.resolver.filter.FilterException;
+import org.opensaml.saml.metadata.resolver.filter.MetadataFilter;
+import org.opensaml.saml.metadata.resolver.index.MetadataIndex;
+import org.opensaml.saml.metadata.resolver.index.impl.ArtifactSourceIDMetadataIndex;
+import org.opensaml.saml.metadata.resolver.index.impl.EndpointMetadataIndex;
+import org.opensaml.saml.metadata.resolver.index.impl.RoleMetadataIndex;
+import org.opensaml.saml.saml2.binding.artifact.SAML2ArtifactType0004;
+import org.opensaml.saml.saml2.metadata.IDPSSODescriptor;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
+import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
 import org.opensaml.saml.saml2.metadata.EntityDescriptor;
 import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 import com.google.common.io.Files;
 
@@ -61,6 +95,13 @@ public class FilesystemMetadataResolverTest extends XMLObjectBaseTestCase {
         criteriaSet = new CriteriaSet(new EntityIdCriterion(entityID));
     }
 
+    @AfterMethod
+    protected void tearDown() {
+        if (metadataProvider != null) {
+            metadataProvider.destroy();
+        }
+    }
+
     /**
      * Tests the {@link HTTPMetadataResolver#lookupEntityID(String)} method.
      * @throws ResolverException 
@@ -234,4 +275,359 @@ public class FilesystemMetadataResolverTest extends XMLObjectBaseTestCase {
         EntityDescriptor entity = metadataProvider.resolveSingle(new CriteriaSet(new EntityIdCriterion("https://idp.example.org")));
         Assert.assertNull(entity);
     }
-}
\ No newline at end of file
+    
+    @Test
+    public void testIncrementalReload() throws Exception {
+        File targetFile = File.createTempFile("filesystem-md-provider-test", ".xml");
+        try {
+            writeAggregate(targetFile, entityXML("https://sp1.example.org", "https://sp1.example.org/acs"),
+                    entityXML("https://sp2.example.org", "https://sp2.example.org/acs"),
+                    entityXML("https://sp3.example.org", "https://sp3.example.org/acs"));
+            
+            metadataProvider = new FilesystemMetadataResolver(targetFile);
+            metadataProvider.setParserPool(parserPool);
+            metadataProvider.setIncrementalReload(true);
+            metadataProvider.setId("test");
+            metadataProvider.initialize();
+            
+            EntityDescriptor sp1 = resolve("https://sp1.example.org");
+            EntityDescriptor sp2 = resolve("https://sp2.example.org");
+            Assert.assertNotNull(sp1);
+            Assert.assertNotNull(sp2);
+            Assert.assertNotNull(resolve("https://sp3.example.org"));
+            
+            writeAggregate(targetFile, entityXML("https://sp1.example.org", "https://sp1.example.org/acs"),
+                    entityXML("https://sp2.example.org", "https://sp2.example.org/newacs"),
+                    entityXML("https://sp4.example.org", "https://sp4.example.org/acs"));
+            Assert.assertTrue(targetFile.setLastModified(System.currentTimeMillis() + 10000));
+            metadataProvider.refresh();
+            
+            EntityDescriptor newSP1 = resolve("https://sp1.example.org");
+            EntityDescriptor newSP2 = resolve("https://sp2.example.org");
+            Assert.assertSame(newSP1, sp1);
+            Assert.assertNotSame(newSP2, sp2);
+            Assert.assertEquals(newSP2.getSPSSODescriptor(SAMLConstants.SAML20P_NS).getAssertionConsumerServices()
+                    .get(0).getLocation(), "https://sp2.example.org/newacs");
+            Assert.assertSame(newSP1.getParent(), metadataProvider.getCachedOriginalMetadata());
+            Assert.assertNull(resolve("https://sp3.example.org"));
+            Assert.assertNotNull(resolve("https://sp4.example.org"));
+            
+            int count = 0;
+            for (EntityDescriptor descriptor : metadataProvider) {
+                Assert.assertNotNull(descriptor);
+                count++;
+            }
+            Assert.assertEquals(count, 3);
+            
+            // A republication changing only the root's ID and validity reuses every entity.
+            EntityDescriptor sp4 = resolve("https://sp4.example.org");
+            for (String validUntil : new String[] {"2099-01-01T00:00:00Z", "2099-01-02T00:00:00Z"}) {
+                writeAggregateWithAttributes(targetFile,
+                        " ID=\"_" + validUntil.substring(0, 10) + "\" validUntil=\"" + validUntil + "\"",
+                        entityXML("https://sp1.example.org", "https://sp1.example.org/acs"),
+                        entityXML("https://sp2.example.org", "https://sp2.example.org/newacs"),
+                        entityXML("https://sp4.example.org", "https://sp4.example.org/acs"));
+                Assert.assertTrue(targetFile.setLastModified(targetFile.lastModified() + 10000));
+                metadataProvider.refresh();
+                
+                Assert.assertSame(resolve("https://sp1.example.org"), sp1);
+                Assert.assertSame(resolve("https://sp2.example.org"), newSP2);
+                Assert.assertSame(resolve("https://sp4.example.org"), sp4);
+                Assert.assertEquals(((EntitiesDescriptor) metadataProvider.getCachedOriginalMetadata())
+                        .getValidUntil(), new DateTime(validUntil));
+            }
+        } finally {
+            metadataProvider.destroy();
+            targetFile.delete();
+        }
+    }
+    
+    @Test
+    public void testIncrementalReloadFiltersCompleteDocument() throws Exception {
+        File targetFile = File.createTempFile("filesystem-md-provider-test", ".xml");
+        final List<Integer> entityElementCounts = new ArrayList<>();
+        final List<XMLObject> previousRoots = new ArrayList<>();
+        try {
+            writeAggregate(targetFile, entityXML("https://sp1.example.org", "https://sp1.example.org/acs"),
+                    entityXML("https://sp2.example.org", "https://sp2.example.org/acs"));
+            
+            metadataProvider = new FilesystemMetadataResolver(targetFile);
+            metadataProvider.setParserPool(parserPool);
+            metadataProvider.setIncrementalReload(true);
+            metadataProvider.setMetadataFilter(new MetadataFilter() {
+                public XMLObject filter(XMLObject metadata) throws FilterException {
+                    int count = 0;
+                    for (Node child = metadata.getDOM().getFirstChild(); child != null;
+                            child = child.getNextSibling()) {
+                        if (EntityDescriptor.DEFAULT_ELEMENT_LOCAL_NAME.equals(child.getLocalName())) {
+                            count++;
+                        }
+                    }
+                    entityElementCounts.add(count);
+                    if (!previousRoots.isEmpty()) {
+                        previousRoots.add(resolveQuietly("https://sp1.example.org").getParent());
+                    }
+                    return metadata;
+                }
+            });
+            metadataProvider.setId("test");
+            metadataProvider.initialize();
+            
+            EntityDescriptor sp1 = resolve("https://sp1.example.org");
+            XMLObject root = metadataProvider.getCachedOriginalMetadata();
+            previousRoots.add(root);
+            
+            writeAggregate(targetFile, entityXML("https://sp1.example.org", "https://sp1.example.org/acs"),
+                    entityXML("https://sp2.example.org", "https://sp2.example.org/newacs"));
+            Assert.assertTrue(targetFile.setLastModified(System.currentTimeMillis() + 10000));
+            metadataProvider.refresh();
+            
+            // the unchanged entity is not unmarshalled, but is still present for filters such as signature checks
+            Assert.assertEquals(entityElementCounts, Arrays.asList(2, 2));
+            // and stays in the document in effect while the new one is processed
+            Assert.assertSame(previousRoots.get(1), root);
+            
+            Assert.assertSame(resolve("https://sp1.example.org"), sp1);
+            Assert.assertSame(sp1.getParent(), metadataProvider.getCachedOriginalMetadata());
+        } finally {
+            metadataProvider.destroy();
+            targetFile.delete();
+        }
+    }
+    
+    @Test
+    public void testSecondaryIndexes() throws Exception {
+        Set<MetadataIndex> indexes = new HashSet<>();
+        indexes.add(new ArtifactSourceIDMetadataIndex());
+        indexes.add(new RoleMetadataIndex());
+        indexes.add(new EndpointMetadataIndex());
+        
+        metadataProvider = new FilesystemMetadataResolver(mdFile);
+        metadataProvider.setParserPool(parserPool);
+        metadataProvider.setId("test");
+        metadataProvider.setIndexes(indexes);
+        metadataProvider.initialize();
+        
+        EntityDescriptor expected = metadataProvider.resolveSingle(criteriaSet);
+        Assert.assertNotNull(expected);
+        
+        byte[] sourceID = MessageDigest.getInstance("SHA-1").digest(entityID.getBytes("UTF-8"));
+        SAML2ArtifactType0004 artifact = new SAML2ArtifactType0004(new byte[] {0, 0}, sourceID, new byte[20]);
+        EntityDescriptor bySourceID = metadataProvider.resolveSingle(new CriteriaSet(new ArtifactCriterion(artifact)));
+        Assert.assertSame(bySourceID, expected);
+        
+        CriteriaSet byRole = new CriteriaSet(new EntityRoleCriterion(IDPSSODescriptor.DEFAULT_ELEMENT_NAME));
+        boolean roleFound = false;
+        for (EntityDescriptor descriptor : metadataProvider.resolve(byRole)) {
+            Assert.assertFalse(descriptor.getRoleDescriptors(IDPSSODescriptor.DEFAULT_ELEMENT_NAME).isEmpty());
+            roleFound |= descriptor == expected;
+        }
+        Assert.assertTrue(roleFound);
+        
+        byRole.add(new ProtocolCriterion(SAMLConstants.SAML20P_NS));
+        for (EntityDescriptor descriptor : metadataProvider.resolve(byRole)) {
+            Assert.assertNotSame(descriptor, expected);
+        }
+        
+        String location = expected.getRoleDescriptors().get(0).getEndpoints().get(0).getLocation();
+        CriteriaSet byLocation = new CriteriaSet(new BindingLocationCriterion(location));
+        boolean locationFound = false;
+        for (EntityDescriptor descriptor : metadataProvider.resolve(byLocation)) {
+            locationFound |= descriptor == expected;
+        }
+        Assert.assertTrue(locationFound);
+        
+        byLocation.add(new EntityRoleCriterion(SPSSODescriptor.DEFAULT_ELEMENT_NAME));
+        for (EntityDescriptor descriptor : metadataProvider.resolve(byLocation)) {
+            Assert.assertFalse(descriptor.getRoleDescriptors(SPSSODescriptor.DEFAULT_ELEMENT_NAME).isEmpty());
+        }
+        
+        try {
+            metadataProvider.resolve(new CriteriaSet());
+            Assert.fail("Resolution without an entity ID or indexable criteria should have failed");
+        } catch (ResolverException e) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testCompactMetadata() throws Exception {
+        File targetFile = File.createTempFile("filesystem-md-provider-test", ".xml");
+        try {
+            writeAggregate(targetFile, entityXML("https://sp1.example.org", "https://sp1.example.org/acs"),
+                    entityXML("https://sp2.example.org", "https://sp2.example.org/acs"));
+            
+            metadataProvider = new FilesystemMetadataResolver(targetFile);
+            metadataProvider.setParserPool(parserPool);
+            metadataProvider.setCompactMetadata(true);
+            metadataProvider.setId("test");
+            metadataProvider.initialize();
+            
+            SPSSODescriptor sp1 = resolve("https://sp1.example.org").getSPSSODescriptor(SAMLConstants.SAML20P_NS);
+            SPSSODescriptor sp2 = resolve("https://sp2.example.org").getSPSSODescriptor(SAMLConstants.SAML20P_NS);
+            Assert.assertNull(sp1.getDOM());
+            Assert.assertNull(sp1.getParent().getDOM());
+            Assert.assertSame(sp1.getSupportedProtocols().get(0), sp2.getSupportedProtocols().get(0));
+            Assert.assertSame(sp1.getAssertionConsumerServices().get(0).getBinding(),
+                    sp2.getAssertionConsumerServices().get(0).getBinding());
+            Assert.assertEquals(sp1.getAssertionConsumerServices().get(0).getLocation(),
+                    "https://sp1.example.org/acs");
+            Assert.assertSame(mdNamespace(sp1), mdNamespace(sp2));
+        } finally {
+            targetFile.delete();
+        }
+    }
+    
+    @Test
+    public void testStreamingAggregates() throws Exception {
+        File targetFile = File.createTempFile("filesystem-md-provider-test", ".xml");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            writeAggregate(targetFile, entityXML("https://sp1.example.org", "https://sp1.example.org/acs"),
+                    entityXML("https://sp2.example.org", "https://sp2.example.org/acs"),
+                    entityXML("https://sp3.example.org", "https://sp3.example.org/acs"));
+            
+            metadataProvider = new FilesystemMetadataResolver(targetFile);
+            metadataProvider.setParserPool(parserPool);
+            metadataProvider.setStreamingAggregates(true);
+            metadataProvider.setStreamingExecutor(executor);
+            metadataProvider.setMetadataFilter(new MetadataFilter() {
+                public XMLObject filter(XMLObject metadata) throws FilterException {
+                    // the filters see the reassembled aggregate
+                    Assert.assertTrue(metadata instanceof EntitiesDescriptor);
+                    List<EntityDescriptor> entities = ((EntitiesDescriptor) metadata).getEntityDescriptors();
+                    Assert.assertEquals(entities.size(), 3);
+                    entities.remove(1);
+                    return metadata;
+                }
+            });
+            metadataProvider.setId("test");
+            metadataProvider.initialize();
+            
+            EntityDescriptor sp1 = resolve("https://sp1.example.org");
+            Assert.assertNotNull(sp1);
+            Assert.assertNull(sp1.getDOM());
+            Assert.assertEquals(sp1.getSPSSODescriptor(SAMLConstants.SAML20P_NS).getAssertionConsumerServices().get(0)
+                    .getLocation(), "https://sp1.example.org/acs");
+            Assert.assertNull(resolve("https://sp2.example.org"));
+            Assert.assertNotNull(resolve("https://sp3.example.org"));
+            Assert.assertSame(sp1.getParent(), resolve("https://sp3.example.org").getParent());
+        } finally {
+            executor.shutdownNow();
+            targetFile.delete();
+        }
+    }
+    
+    @Test
+    public void testStreamingAggregatesMatchCompleteDocument() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // The first aggregate is streamed, the second is signed and so falls back to the complete document.
+            for (String location : new String[] {"/org/opensaml/saml/saml2/metadata/InCommon-metadata.xml",
+                    "/org/opensaml/saml/saml2/metadata/metadata.switchaai_signed.xml"}) {
+                File file = new File(FilesystemMetadataResolverTest.class.getResource(location).toURI());
+                Map<String, String> expected = loadSerializedEntities(file, false, null);
+                Map<String, String> actual = loadSerializedEntities(file, true, executor);
+                Assert.assertFalse(expected.isEmpty());
+                Assert.assertEquals(actual.keySet(), expected.keySet(), location);
+                for (Map.Entry<String, String> entry : expected.entrySet()) {
+                    Diff diff = new Diff(entry.getValue(), actual.get(entry.getKey()));
+                    Assert.assertTrue(diff.similar(), entry.getKey() + ": " + diff);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testStreamingAggregatesFilterFailure() throws Exception {
+        File targetFile = File.createTempFile("filesystem-md-provider-test", ".xml");
+        try {
+            writeAggregate(targetFile, entityXML("https://sp1.example.org", "https://sp1.example.org/acs"),
+                    entityXML("https://sp2.example.org", "https://sp2.example.org/acs"));
+            
+            metadataProvider = new FilesystemMetadataResolver(targetFile);
+            metadataProvider.setParserPool(parserPool);
+            metadataProvider.setStreamingAggregates(true);
+            metadataProvider.setMetadataFilter(new MetadataFilter() {
+                public XMLObject filter(XMLObject metadata) throws FilterException {
+                    throw new FilterException("Rejected");
+                }
+            });
+            metadataProvider.setId("test");
+            try {
+                metadataProvider.initialize();
+                Assert.fail("A filter error should have failed the load");
+            } catch (ComponentInitializationException e) {
+                // expected
+            }
+        } finally {
+            targetFile.delete();
+        }
+    }
+    
+    private Map<String, String> loadSerializedEntities(File file, boolean streaming, ExecutorService executor)
+            throws Exception {
+        FilesystemMetadataResolver resolver = new FilesystemMetadataResolver(file);
+        resolver.setParserPool(parserPool);
+        resolver.setRequireValidMetadata(false);
+        resolver.setStreamingAggregates(streaming);
+        resolver.setStreamingExecutor(executor);
+        resolver.setId("test");
+        resolver.initialize();
+        try {
+            Map<String, String> entities = new HashMap<>();
+            for (EntityDescriptor descriptor : resolver) {
+                Element element = marshallerFactory.getMarshaller(descriptor).marshall(descriptor);
+                entities.put(descriptor.getEntityID(), SerializeSupport.nodeToString(element));
+            }
+            return entities;
+        } finally {
+            resolver.destroy();
+        }
+    }
+    
+    private EntityDescriptor resolve(String id) throws ResolverException {
+        return metadataProvider.resolveSingle(new CriteriaSet(new EntityIdCriterion(id)));
+    }
+    
+    private Namespace mdNamespace(XMLObject xmlObject) {
+        for (Namespace namespace : xmlObject.getNamespaceManager().getNamespaces()) {
+            if (SAMLConstants.SAML20MD_NS.equals(namespace.getNamespaceURI())) {
+                return namespace;
+            }
+        }
+        return null;
+    }
+    
+    private EntityDescriptor resolveQuietly(String id) {
+        try {
+            return resolve(id);
+        } catch (ResolverException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private String entityXML(String id, String acsLocation) {
+        return "<EntityDescriptor entityID=\"" + id + "\"><SPSSODescriptor protocolSupportEnumeration=\""
+                + SAMLConstants.SAML20P_NS + "\"><AssertionConsumerService index=\"1\" Binding=\""
+                + SAMLConstants.SAML2_POST_BINDING_URI + "\" Location=\"" + acsLocation
+                + "\"/></SPSSODescriptor></EntityDescriptor>";
+    }
+    
+    private void writeAggregate(File file, String... entities) throws IOException {
+        writeAggregateWithAttributes(file, "", entities);
+    }
+    
+    private void writeAggregateWithAttributes(File file, String rootAttributes, String... entities)
+            throws IOException {
+        StringBuilder builder = new StringBuilder("<EntitiesDescriptor xmlns=\"" + SAMLConstants.SAML20MD_NS 
+                + "\" Name=\"urn:test:aggregate\"" + rootAttributes + ">");
+        for (String entity : entities) {
+            builder.append(entity);
+        }
+        builder.append("</EntitiesDescriptor>");
+        Files.write(builder.toString().getBytes(StandardCharsets.UTF_8), file);
+    }
+}
@@ -20,7 +20,10 @@ package org.opensaml.saml.saml2.core;
 import org.testng.annotations.Test;
 import org.testng.annotations.BeforeMethod;
 import org.testng.Assert;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
+import java.util.Collections;
 
 import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
 import net.shibboleth.utilities.java.support.security.RandomIdentifierGenerationStrategy;
@@ -30,10 +33,12 @@ import org.joda.time.DateTime;
 import org.opensaml.core.criterion.EntityIdCriterion;
 import org.opensaml.core.xml.io.Marshaller;
 import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.io.StAXUnmarshaller;
 import org.opensaml.core.xml.io.UnmarshallingException;
 import org.opensaml.core.xml.XMLObjectBaseTestCase;
 import org.opensaml.saml.common.SAMLTestSupport;
 import org.opensaml.saml.common.SAMLVersion;
+import org.opensaml.saml.common.xml.SAMLConstants;
 import org.opensaml.saml.saml2.core.Assertion;
 import org.opensaml.saml.saml2.core.AuthnStatement;
 import org.opensaml.saml.saml2.core.Issuer;
@@ -147,4 +152,61 @@ public class SignedAssertionTest extends XMLObjectBaseTestCase {
         Assert.assertTrue(trustEngine.validate(signedAssertion.getSignature(), criteriaSet),
                 "Assertion signature was not valid");
     }
+
+    /**
+     * Signs an Assertion, nests it in a Response declaring the Assertion's namespace, and verifies the signature
+     * after unmarshalling the Response from a stream.
+     * 
+     * @throws MarshallingException thrown if the Assertion can not be marshalled into a DOM
+     * @throws SignatureException 
+     * @throws UnmarshallingException 
+     * @throws SecurityException 
+     */
+    @Test
+    public void testNestedAssertionSignatureStAX()
+        throws MarshallingException, SignatureException, UnmarshallingException, SecurityException{
+        DateTime now = new DateTime();
+        
+        Assertion assertion = assertionBuilder.buildObject();
+        assertion.setVersion(SAMLVersion.VERSION_20);
+        assertion.setID(idGenerator.generateIdentifier());
+        assertion.setIssueInstant(now);
+        
+        Issuer issuer = issuerBuilder.buildObject();
+        issuer.setValue("urn:example.org:issuer");
+        assertion.setIssuer(issuer);
+        
+        Signature signature = signatureBuilder.buildObject();
+        signature.setSigningCredential(goodCredential);
+        signature.setCanonicalizationAlgorithm(SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
+        signature.setSignatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA);
+        assertion.setSignature(signature);
+        
+        marshallerFactory.getMarshaller(assertion).marshall(assertion);
+        Signer.signObject(signature);
+        
+        // Leave the Assertion's namespace to be inherited from the enclosing Response.
+        String assertionNamespace = " xmlns:" + SAMLConstants.SAML20_PREFIX + "=\"" + SAMLConstants.SAML20_NS + "\"";
+        String signedAssertion = SerializeSupport.nodeToString(assertion.getDOM())
+                .replaceFirst("^<\\?xml[^>]*\\?>", "").replace(assertionNamespace, "");
+        Assert.assertFalse(signedAssertion.contains(SAMLConstants.SAML20_NS));
+        String xml = "<" + SAMLConstants.SAML20P_PREFIX + ":Response xmlns:" + SAMLConstants.SAML20P_PREFIX + "=\""
+                + SAMLConstants.SAML20P_NS + "\"" + assertionNamespace + " ID=\"response\" Version=\"2.0\""
+                + " IssueInstant=\"" + now + "\">" + signedAssertion + "</" + SAMLConstants.SAML20P_PREFIX
+                + ":Response>";
+        
+        Response response = (Response) new StAXUnmarshaller(Collections.singleton(Assertion.DEFAULT_ELEMENT_NAME))
+                .unmarshall(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals(response.getAssertions().size(), 1);
+        Assertion nestedAssertion = response.getAssertions().get(0);
+        Assert.assertNotNull(nestedAssertion.getDOM());
+        
+        StaticCredentialResolver credResolver = new StaticCredentialResolver(goodCredential);
+        KeyInfoCredentialResolver kiResolver = SAMLTestSupport.buildBasicInlineKeyInfoResolver();
+        ExplicitKeySignatureTrustEngine trustEngine = new ExplicitKeySignatureTrustEngine(credResolver, kiResolver);
+        
+        CriteriaSet criteriaSet = new CriteriaSet( new EntityIdCriterion("urn:example.org:issuer") );
+        Assert.assertTrue(trustEngine.validate(nestedAssertion.getSignature(), criteriaSet),
+                "Nested assertion signature was not valid");
+    }
 }
\ No newline at end of file
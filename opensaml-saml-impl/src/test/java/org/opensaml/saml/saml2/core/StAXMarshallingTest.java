@@ -0,0 +1,179 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.saml.saml2.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+
+import javax.xml.namespace.QName;
+
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
+
+import org.joda.time.DateTime;
+import org.joda.time.chrono.ISOChronology;
+import org.opensaml.core.criterion.EntityIdCriterion;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.XMLObjectBaseTestCase;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.io.StAXMarshaller;
+import org.opensaml.core.xml.schema.XSQName;
+import org.opensaml.core.xml.schema.XSString;
+import org.opensaml.core.xml.schema.impl.XSQNameBuilder;
+import org.opensaml.core.xml.schema.impl.XSStringBuilder;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.common.SAMLTestSupport;
+import org.opensaml.saml.common.SAMLVersion;
+import org.opensaml.security.credential.BasicCredential;
+import org.opensaml.security.credential.CredentialSupport;
+import org.opensaml.security.credential.impl.StaticCredentialResolver;
+import org.opensaml.security.crypto.KeySupport;
+import org.opensaml.xmlsec.signature.Signature;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.opensaml.xmlsec.signature.support.Signer;
+import org.opensaml.xmlsec.signature.support.impl.ExplicitKeySignatureTrustEngine;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Tests that {@link StAXMarshaller} writes SAML messages exactly as the DOM marshalling path serializes them.
+ */
+public class StAXMarshallingTest extends XMLObjectBaseTestCase {
+
+    /**
+     * Tests streaming a signed Response, which is written from its cached DOM, and that its signature still
+     * validates.
+     *
+     * @throws Exception if the Response can not be signed, marshalled or validated
+     */
+    @Test
+    public void testSignedResponse() throws Exception {
+        KeyPair keyPair = KeySupport.generateKeyPair("RSA", 1024, null);
+        BasicCredential credential = CredentialSupport.getSimpleCredential(keyPair.getPublic(), keyPair.getPrivate());
+
+        Response response = buildXMLObject(Response.DEFAULT_ELEMENT_NAME);
+        response.setID("response");
+        response.setVersion(SAMLVersion.VERSION_20);
+        response.setIssueInstant(new DateTime(2005, 1, 31, 12, 0, 0, 0, ISOChronology.getInstanceUTC()));
+        response.setIssuer(buildIssuer());
+        StatusCode statusCode = buildXMLObject(StatusCode.DEFAULT_ELEMENT_NAME);
+        statusCode.setValue(StatusCode.SUCCESS);
+        Status status = buildXMLObject(Status.DEFAULT_ELEMENT_NAME);
+        status.setStatusCode(statusCode);
+        response.setStatus(status);
+        Assertion assertion = buildXMLObject(Assertion.DEFAULT_ELEMENT_NAME);
+        assertion.setID("assertion");
+        assertion.setVersion(SAMLVersion.VERSION_20);
+        assertion.setIssueInstant(response.getIssueInstant());
+        assertion.setIssuer(buildIssuer());
+        response.getAssertions().add(assertion);
+
+        Signature signature = buildXMLObject(Signature.DEFAULT_ELEMENT_NAME);
+        signature.setSigningCredential(credential);
+        signature.setCanonicalizationAlgorithm(SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
+        signature.setSignatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA);
+        response.setSignature(signature);
+        getMarshaller(response).marshall(response);
+        Signer.signObject(signature);
+
+        byte[] streamed = assertStreamIdentical(response);
+
+        Document document = parserPool.parse(new ByteArrayInputStream(streamed));
+        Response streamedResponse = (Response) unmarshallerFactory.getUnmarshaller(document.getDocumentElement())
+                .unmarshall(document.getDocumentElement());
+        ExplicitKeySignatureTrustEngine trustEngine = new ExplicitKeySignatureTrustEngine(
+                new StaticCredentialResolver(credential), SAMLTestSupport.buildBasicInlineKeyInfoResolver());
+        Assert.assertTrue(trustEngine.validate(streamedResponse.getSignature(),
+                new CriteriaSet(new EntityIdCriterion("urn:example.org:issuer"))), "Response signature was not valid");
+    }
+
+    /**
+     * Tests streaming an AuthnRequest with no cached DOM.
+     *
+     * @throws MarshallingException if the AuthnRequest can not be marshalled
+     */
+    @Test
+    public void testAuthnRequest() throws MarshallingException {
+        AuthnRequest request = unmarshallElement("/org/opensaml/saml/saml2/core/AuthnRequest.xml");
+        request.releaseChildrenDOM(true);
+        request.releaseDOM();
+
+        assertStreamIdentical(request);
+    }
+
+    /**
+     * Tests streaming an Attribute whose values carry <code>xsi:type</code> and QName content, and which has a
+     * QName-valued unknown attribute, so that namespaces are declared only for attribute and element content.
+     *
+     * @throws MarshallingException if the Attribute can not be marshalled
+     */
+    @Test
+    public void testTypedAttribute() throws MarshallingException {
+        Attribute attribute = buildXMLObject(Attribute.DEFAULT_ELEMENT_NAME);
+        attribute.setName("urn:example:attribute");
+        attribute.getUnknownAttributes().put(new QName("urn:example:attributes", "kind", "ea"),
+                new QName("urn:example:kinds", "person", "ek"));
+
+        XSString stringValue = ((XSStringBuilder) builderFactory.getBuilder(XSString.TYPE_NAME))
+                .buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSString.TYPE_NAME);
+        stringValue.setValue("value");
+        attribute.getAttributeValues().add(stringValue);
+
+        XSQName qnameValue = ((XSQNameBuilder) builderFactory.getBuilder(XSQName.TYPE_NAME))
+                .buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSQName.TYPE_NAME);
+        qnameValue.setValue(new QName("urn:example:values", "value", "ev"));
+        attribute.getAttributeValues().add(qnameValue);
+
+        assertStreamIdentical(attribute);
+    }
+
+    /**
+     * Build the Issuer of the test messages.
+     *
+     * @return the Issuer
+     */
+    private Issuer buildIssuer() {
+        Issuer issuer = buildXMLObject(Issuer.DEFAULT_ELEMENT_NAME);
+        issuer.setValue("urn:example.org:issuer");
+        return issuer;
+    }
+
+    /**
+     * Tests that streamed output is byte-for-byte identical to the serialization of the DOM marshalling path. The
+     * XML declaration, which that serialization includes in a form depending on the DOM implementation, is not
+     * compared.
+     *
+     * @param xmlObject the object to marshall, streamed first so that any cached DOM is that of the caller
+     * @return the streamed output
+     * @throws MarshallingException if the object can not be marshalled
+     */
+    private byte[] assertStreamIdentical(XMLObject xmlObject) throws MarshallingException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new StAXMarshaller().marshall(xmlObject, output, false);
+        String streamed = new String(output.toByteArray(), StandardCharsets.UTF_8);
+
+        String serialized = SerializeSupport.nodeToString(XMLObjectSupport.marshall(xmlObject))
+                .replaceFirst("^<\\?xml[^>]*\\?>", "");
+
+        Assert.assertEquals(streamed, serialized);
+        return output.toByteArray();
+    }
+
+}
@@ -103,12 +103,17 @@ public class HTTPSOAP11Encoder<MessageType extends XMLObject>
     /** {@inheritDoc} */
     protected void doEncode() throws MessageEncodingException {
         Envelope envelope = getSOAPEnvelope();
-        Element envelopeElem = marshallMessage(envelope);
+        // Unless streaming, marshall before the response is committed, so that a failure can still be reported.
+        Element envelopeElem = isStreamingMarshalling() ? null : marshallMessage(envelope);
         
         prepareHttpServletResponse();
 
         try {
-            SerializeSupport.writeNode(envelopeElem, getHttpServletResponse().getOutputStream());
+            if (envelopeElem != null) {
+                SerializeSupport.writeNode(envelopeElem, getHttpServletResponse().getOutputStream());
+            } else {
+                writeMessage(envelope, getHttpServletResponse().getOutputStream());
+            }
         } catch (IOException e) {
             throw new MessageEncodingException("Problem writing SOAP envelope to servlet output stream", e);
         }
@@ -59,6 +59,12 @@ public abstract class AbstractMapBackedStorageService extends AbstractStorageSer
         setValueSize(Integer.MAX_VALUE);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public boolean isAtomicCreate() {
+        return true;
+    }
+
     /** {@inheritDoc} */
     @Override
     public boolean create(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
@@ -18,6 +18,9 @@
 package org.opensaml.storage;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -26,6 +29,7 @@ import javax.annotation.Nullable;
 
 import net.shibboleth.utilities.java.support.annotation.Duration;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
 import net.shibboleth.utilities.java.support.component.AbstractIdentifiableInitializableComponent;
@@ -40,10 +44,12 @@ import org.opensaml.storage.annotation.AnnotationSupport;
  * 
  * <p>
  * The base class handles support for a background cleanup task, and handles calling of custom object serializers.
+ * Batch operations are performed by default as a sequence of single-record operations, and should be overridden by
+ * subclasses able to perform them natively.
  * </p>
  */
 public abstract class AbstractStorageService extends AbstractIdentifiableInitializableComponent implements
-        StorageService, StorageCapabilities {
+        BatchStorageService, StorageCapabilitiesEx {
 
     /**
      * Number of seconds between cleanup checks. Default value: (0)
@@ -211,6 +217,16 @@ public abstract class AbstractStorageService extends AbstractIdentifiableInitial
         return valueSize;
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The default implementation returns false, and should be overridden by subclasses whose create
+     * operation is atomic.</p>
+     */
+    @Override public boolean isAtomicCreate() {
+        return false;
+    }
+
     /** {@inheritDoc} */
     @Override public boolean create(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
             @Nonnull final Object value, @Nonnull final StorageSerializer serializer,
@@ -283,4 +299,24 @@ public abstract class AbstractStorageService extends AbstractIdentifiableInitial
         return deleteWithVersion(version, AnnotationSupport.getContext(value), AnnotationSupport.getKey(value));
     }
 
-}
\ No newline at end of file
+    /** {@inheritDoc} */
+    @Override @Nonnull @NonnullElements public Map<String, StorageRecord> readAll(
+            @Nonnull @NotEmpty final String context, @Nonnull @NonnullElements final Collection<String> keys)
+                    throws IOException {
+        return BatchStorageSupport.readEach(this, context, keys);
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nonnull @NonnullElements public Set<String> createAll(@Nonnull @NotEmpty final String context,
+            @Nonnull @NonnullElements final Map<String, String> values, @Nullable @Positive final Long expiration)
+                    throws IOException {
+        return BatchStorageSupport.createEach(this, context, values, expiration);
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nonnull @NonnullElements public Set<String> deleteAll(@Nonnull @NotEmpty final String context,
+            @Nonnull @NonnullElements final Collection<String> keys) throws IOException {
+        return BatchStorageSupport.deleteEach(this, context, keys);
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.storage;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Performs the operations of a {@link StorageService} asynchronously, by submitting them to an executor, so that
+ * a caller may overlap storage I/O with other work.
+ * 
+ * <p>Each method returns a {@link Future} whose result is that of the corresponding operation, and whose
+ * {@link Future#get()} method throws an {@link java.util.concurrent.ExecutionException} wrapping the
+ * {@link java.io.IOException} or other exception thrown by the operation. Batch operations are performed as by
+ * {@link BatchStorageSupport}.</p>
+ */
+@ThreadSafe
+public class AsyncStorageAdapter {
+
+    /** The storage service. */
+    @Nonnull private final StorageService storage;
+
+    /** The executor performing the operations. */
+    @Nonnull private final ExecutorService executor;
+
+    /**
+     * Constructor.
+     * 
+     * @param storageService the storage service
+     * @param executorService the executor performing the operations
+     */
+    public AsyncStorageAdapter(@Nonnull final StorageService storageService,
+            @Nonnull final ExecutorService executorService) {
+        storage = Constraint.isNotNull(storageService, "StorageService cannot be null");
+        executor = Constraint.isNotNull(executorService, "ExecutorService cannot be null");
+    }
+
+    /**
+     * Get the storage service.
+     * 
+     * @return the storage service
+     */
+    @Nonnull public StorageService getStorage() {
+        return storage;
+    }
+
+    /**
+     * Creates a new record in the store with an expiration.
+     * 
+     * @param context       a storage context label
+     * @param key           a key unique to context
+     * @param value         value to store
+     * @param expiration    expiration for record, or null
+     * 
+     * @return  true iff record was inserted, false iff a duplicate was found
+     */
+    @Nonnull public Future<Boolean> create(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nonnull @NotEmpty final String value,
+            @Nullable @Positive final Long expiration) {
+        return executor.submit(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                return storage.create(context, key, value, expiration);
+            }
+        });
+    }
+
+    /**
+     * Returns an existing record from the store, if one exists.
+     * 
+     * @param context       a storage context label
+     * @param key           a key unique to context
+     * 
+     * @return  the record read back, if present, or null
+     */
+    @Nonnull public Future<StorageRecord> read(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) {
+        return executor.submit(new Callable<StorageRecord>() {
+            public StorageRecord call() throws Exception {
+                return storage.read(context, key);
+            }
+        });
+    }
+
+    /**
+     * Updates an existing record in the store.
+     * 
+     * @param context       a storage context label
+     * @param key           a key unique to context
+     * @param value         updated value
+     * @param expiration    expiration for record, or null
+     * 
+     * @return  true if the update succeeded, false if the record does not exist
+     */
+    @Nonnull public Future<Boolean> update(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nonnull @NotEmpty final String value,
+            @Nullable @Positive final Long expiration) {
+        return executor.submit(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                return storage.update(context, key, value, expiration);
+            }
+        });
+    }
+
+    /**
+     * Deletes an existing record from the store.
+     * 
+     * @param context       a storage context label
+     * @param key           a key unique to context
+     * 
+     * @return  true iff the record existed and was deleted
+     */
+    @Nonnull public Future<Boolean> delete(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) {
+        return executor.submit(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                return storage.delete(context, key);
+            }
+        });
+    }
+
+    /**
+     * Returns the existing records for a number of keys in a context.
+     * 
+     * @param context       a storage context label
+     * @param keys          keys unique to context
+     * 
+     * @return  the records read back, by key, omitting those not present
+     */
+    @Nonnull public Future<Map<String, StorageRecord>> readAll(@Nonnull @NotEmpty final String context,
+            @Nonnull @NonnullElements final Collection<String> keys) {
+        return executor.submit(new Callable<Map<String, StorageRecord>>() {
+            public Map<String, StorageRecord> call() throws Exception {
+                return BatchStorageSupport.readAll(storage, context, keys);
+            }
+        });
+    }
+
+    /**
+     * Creates new records in a context with a common expiration.
+     * 
+     * @param context       a storage context label
+     * @param values        values to store, by key
+     * @param expiration    expiration for the records, or null
+     * 
+     * @return  the keys of the records inserted, omitting those for which a duplicate was found
+     */
+    @Nonnull public Future<Set<String>> createAll(@Nonnull @NotEmpty final String context,
+            @Nonnull @NonnullElements final Map<String, String> values, @Nullable @Positive final Long expiration) {
+        return executor.submit(new Callable<Set<String>>() {
+            public Set<String> call() throws Exception {
+                return BatchStorageSupport.createAll(storage, context, values, expiration);
+            }
+        });
+    }
+
+    /**
+     * Deletes existing records for a number of keys in a context.
+     * 
+     * @param context       a storage context label
+     * @param keys          keys unique to context
+     * 
+     * @return  the keys of the records which existed and were deleted
+     */
+    @Nonnull public Future<Set<String>> deleteAll(@Nonnull @NotEmpty final String context,
+            @Nonnull @NonnullElements final Collection<String> keys) {
+        return executor.submit(new Callable<Set<String>>() {
+            public Set<String> call() throws Exception {
+                return BatchStorageSupport.deleteAll(storage, context, keys);
+            }
+        });
+    }
+
+}
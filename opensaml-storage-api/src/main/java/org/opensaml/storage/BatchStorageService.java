@@ -0,0 +1,84 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.storage;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.annotation.constraint.ThreadSafeAfterInit;
+
+/**
+ * Extension of {@link StorageService} with operations on a number of records in a context at once, which an
+ * implementation may perform in fewer round trips to the underlying store than the equivalent single-record
+ * operations.
+ * 
+ * <p>A batch operation is not required to be atomic: if it fails, some of the records may have been processed.</p>
+ * 
+ * <p>{@link BatchStorageSupport} performs batch operations on any {@link StorageService}, using the native
+ * operations where available.</p>
+ */
+@ThreadSafeAfterInit
+public interface BatchStorageService extends StorageService {
+
+    /**
+     * Returns the existing records for a number of keys in a context.
+     * 
+     * @param context       a storage context label
+     * @param keys          keys unique to context
+     * 
+     * @return  the records read back, by key, omitting those not present
+     * @throws IOException  if errors occur in the read process
+     */
+    @Nonnull @NonnullElements Map<String, StorageRecord> readAll(@Nonnull @NotEmpty final String context,
+            @Nonnull @NonnullElements final Collection<String> keys) throws IOException;
+
+    /**
+     * Creates new records in a context with a common expiration.
+     * 
+     * @param context       a storage context label
+     * @param values        values to store, by key
+     * @param expiration    expiration for the records, or null
+     * 
+     * @return  the keys of the records inserted, omitting those for which a duplicate was found
+     * @throws IOException  if fatal errors occur in the insertion process
+     */
+    @Nonnull @NonnullElements Set<String> createAll(@Nonnull @NotEmpty final String context,
+            @Nonnull @NonnullElements final Map<String, String> values, @Nullable @Positive final Long expiration)
+                    throws IOException;
+
+    /**
+     * Deletes existing records for a number of keys in a context.
+     * 
+     * @param context       a storage context label
+     * @param keys          keys unique to context
+     * 
+     * @return  the keys of the records which existed and were deleted
+     * @throws IOException  if errors occur in the deletion process
+     */
+    @Nonnull @NonnullElements Set<String> deleteAll(@Nonnull @NotEmpty final String context,
+            @Nonnull @NonnullElements final Collection<String> keys) throws IOException;
+
+}
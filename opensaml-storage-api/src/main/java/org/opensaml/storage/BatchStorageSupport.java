@@ -0,0 +1,172 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.storage;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+
+/**
+ * Support methods performing the operations of {@link BatchStorageService} on any {@link StorageService}, by
+ * delegating to the native operations if the service implements them, and otherwise by performing the
+ * single-record operations in turn.
+ */
+public final class BatchStorageSupport {
+
+    /** Constructor. */
+    private BatchStorageSupport() {
+
+    }
+
+    /**
+     * Returns the existing records for a number of keys in a context.
+     * 
+     * @param storage       the storage service
+     * @param context       a storage context label
+     * @param keys          keys unique to context
+     * 
+     * @return  the records read back, by key, omitting those not present
+     * @throws IOException  if errors occur in the read process
+     */
+    @Nonnull @NonnullElements public static Map<String, StorageRecord> readAll(@Nonnull final StorageService storage,
+            @Nonnull @NotEmpty final String context, @Nonnull @NonnullElements final Collection<String> keys)
+                    throws IOException {
+        if (storage instanceof BatchStorageService) {
+            return ((BatchStorageService) storage).readAll(context, keys);
+        }
+        return readEach(storage, context, keys);
+    }
+
+    /**
+     * Creates new records in a context with a common expiration.
+     * 
+     * @param storage       the storage service
+     * @param context       a storage context label
+     * @param values        values to store, by key
+     * @param expiration    expiration for the records, or null
+     * 
+     * @return  the keys of the records inserted, omitting those for which a duplicate was found
+     * @throws IOException  if fatal errors occur in the insertion process
+     */
+    @Nonnull @NonnullElements public static Set<String> createAll(@Nonnull final StorageService storage,
+            @Nonnull @NotEmpty final String context, @Nonnull @NonnullElements final Map<String, String> values,
+            @Nullable @Positive final Long expiration) throws IOException {
+        if (storage instanceof BatchStorageService) {
+            return ((BatchStorageService) storage).createAll(context, values, expiration);
+        }
+        return createEach(storage, context, values, expiration);
+    }
+
+    /**
+     * Deletes existing records for a number of keys in a context.
+     * 
+     * @param storage       the storage service
+     * @param context       a storage context label
+     * @param keys          keys unique to context
+     * 
+     * @return  the keys of the records which existed and were deleted
+     * @throws IOException  if errors occur in the deletion process
+     */
+    @Nonnull @NonnullElements public static Set<String> deleteAll(@Nonnull final StorageService storage,
+            @Nonnull @NotEmpty final String context, @Nonnull @NonnullElements final Collection<String> keys)
+                    throws IOException {
+        if (storage instanceof BatchStorageService) {
+            return ((BatchStorageService) storage).deleteAll(context, keys);
+        }
+        return deleteEach(storage, context, keys);
+    }
+
+    /**
+     * Returns the existing records for a number of keys in a context, reading each in turn.
+     * 
+     * @param storage       the storage service
+     * @param context       a storage context label
+     * @param keys          keys unique to context
+     * 
+     * @return  the records read back, by key, omitting those not present
+     * @throws IOException  if errors occur in the read process
+     */
+    @Nonnull @NonnullElements public static Map<String, StorageRecord> readEach(@Nonnull final StorageService storage,
+            @Nonnull @NotEmpty final String context, @Nonnull @NonnullElements final Collection<String> keys)
+                    throws IOException {
+        final Map<String, StorageRecord> records = new HashMap<>(keys.size());
+        for (final String key : keys) {
+            final StorageRecord record = storage.read(context, key);
+            if (record != null) {
+                records.put(key, record);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Creates new records in a context with a common expiration, creating each in turn.
+     * 
+     * @param storage       the storage service
+     * @param context       a storage context label
+     * @param values        values to store, by key
+     * @param expiration    expiration for the records, or null
+     * 
+     * @return  the keys of the records inserted, omitting those for which a duplicate was found
+     * @throws IOException  if fatal errors occur in the insertion process
+     */
+    @Nonnull @NonnullElements public static Set<String> createEach(@Nonnull final StorageService storage,
+            @Nonnull @NotEmpty final String context, @Nonnull @NonnullElements final Map<String, String> values,
+            @Nullable @Positive final Long expiration) throws IOException {
+        final Set<String> created = new HashSet<>(values.size());
+        for (final Map.Entry<String, String> entry : values.entrySet()) {
+            if (storage.create(context, entry.getKey(), entry.getValue(), expiration)) {
+                created.add(entry.getKey());
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Deletes existing records for a number of keys in a context, deleting each in turn.
+     * 
+     * @param storage       the storage service
+     * @param context       a storage context label
+     * @param keys          keys unique to context
+     * 
+     * @return  the keys of the records which existed and were deleted
+     * @throws IOException  if errors occur in the deletion process
+     */
+    @Nonnull @NonnullElements public static Set<String> deleteEach(@Nonnull final StorageService storage,
+            @Nonnull @NotEmpty final String context, @Nonnull @NonnullElements final Collection<String> keys)
+                    throws IOException {
+        final Set<String> deleted = new HashSet<>(keys.size());
+        for (final String key : keys) {
+            if (storage.delete(context, key)) {
+                deleted.add(key);
+            }
+        }
+        return deleted;
+    }
+
+}
@@ -20,6 +20,7 @@ package org.opensaml.storage;
 import java.io.IOException;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
@@ -34,12 +35,17 @@ import org.slf4j.LoggerFactory;
 /**
  * Tracks non-replayable values in order to detect replays of the values, commonly used to track message identifiers.
  * 
- * <p>This class is thread-safe and uses a synchronized method to prevent race conditions within the underlying
- * store (lacking an atomic "check and insert" operation).</p>
+ * <p>This class is thread-safe. If the underlying store's create operation is atomic, as reported by
+ * {@link StorageCapabilitiesEx#isAtomicCreate()}, a value is checked and stored by a single create, with no locking.
+ * Otherwise, checks of the same value are serialized within the JVM on one of a fixed set of locks, to prevent race
+ * conditions between the read and the create.</p>
  */
 @ThreadSafeAfterInit
 public class ReplayCache extends AbstractIdentifiableInitializableComponent {
 
+    /** Number of locks over which checks are striped if the store lacks an atomic create. */
+    private static final int LOCK_STRIPES = 64;
+
     /** Logger. */
     private final Logger log = LoggerFactory.getLogger(ReplayCache.class);
 
@@ -48,6 +54,17 @@ public class ReplayCache extends AbstractIdentifiableInitializableComponent {
 
     /** Flag controlling behavior on storage failure. */
     private boolean strict;
+
+    /** Locks serializing checks of the same value if the store lacks an atomic create. */
+    @Nonnull private final Object[] locks;
+
+    /** Constructor. */
+    public ReplayCache() {
+        locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
     
     /**
      * Get the backing store for the cache.
@@ -105,22 +122,70 @@ public class ReplayCache extends AbstractIdentifiableInitializableComponent {
      * 
      * @return true iff the check value is not found in the cache
      */
-    public synchronized boolean check(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String s,
+    public boolean check(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String s,
             final long expires) {
 
-        String key;
+        final String key = getStorageKey(context, s);
+        if (key == null) {
+            return false;
+        }
+
+        try {
+            return checkAndStore(context, key, s, expires);
+        } catch (IOException e) {
+            log.error("Exception reading/writing to storage service, returning {}", e, strict ? "failure" : "success");
+            return !strict;
+        }
+    }
+
+    /**
+     * Get the key under which a value is stored, digesting the value if it exceeds the store's key size.
+     * 
+     * @param context   a context label to subdivide the cache
+     * @param s         value to check
+     * 
+     * @return the key, or null if the context exceeds the store's context size
+     */
+    @Nullable protected String getStorageKey(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String s) {
         
-        StorageCapabilities caps = storage.getCapabilities();
+        final StorageCapabilities caps = storage.getCapabilities();
         if (context.length() > caps.getContextSize()) {
             log.error("context {} too long for StorageService (limit {})", context, caps.getContextSize());
-            return false;
+            return null;
         } else if (s.length() > caps.getKeySize()) {
-            key = DigestUtils.sha1Hex(s);
+            return DigestUtils.sha1Hex(s);
         } else {
-            key = s;
+            return s;
         }
+    }
 
-        try {
+    /**
+     * Returns true iff the key is not found in the backing store, and stores it.
+     * 
+     * @param context   a context label to subdivide the cache
+     * @param key       the key under which the value is stored
+     * @param s         value to check
+     * @param expires   time (in milliseconds since beginning of epoch) for disposal of value from cache
+     * 
+     * @return true iff the key is not found in the backing store
+     * @throws IOException if the backing store fails
+     */
+    protected boolean checkAndStore(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String s, final long expires) throws IOException {
+        
+        final StorageCapabilities caps = storage.getCapabilities();
+        if (caps instanceof StorageCapabilitiesEx && ((StorageCapabilitiesEx) caps).isAtomicCreate()) {
+            if (storage.create(context, key, "x", expires)) {
+                log.debug("Value '{}' was not a replay, added to cache with expiration time {}", s, expires);
+                return true;
+            } else {
+                log.debug("Replay of value '{}' detected in cache", s);
+                return false;
+            }
+        }
+
+        synchronized (locks[(31 * context.hashCode() + key.hashCode()) & (LOCK_STRIPES - 1)]) {
             StorageRecord entry = storage.read(context, key);
             if (entry == null) {
                 log.debug("Value '{}' was not a replay, adding to cache with expiration time {}", s, expires);
@@ -130,9 +195,6 @@ public class ReplayCache extends AbstractIdentifiableInitializableComponent {
                 log.debug("Replay of value '{}' detected in cache, expires at {}", s, entry.getExpiration());
                 return false;
             }
-        } catch (IOException e) {
-            log.error("Exception reading/writing to storage service, returning {}", e, strict ? "failure" : "success");
-            return !strict;
         }
     }
 
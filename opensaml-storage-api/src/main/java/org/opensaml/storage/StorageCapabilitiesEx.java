@@ -0,0 +1,36 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.storage;
+
+/**
+ * Exposes additional capabilities of a {@link StorageService} implementation.
+ */
+public interface StorageCapabilitiesEx extends StorageCapabilities {
+
+    /**
+     * Gets whether {@link StorageService#create(String, String, String, Long)} atomically creates a record
+     * only if no unexpired record exists for the key, with respect to every client of the underlying store.
+     * 
+     * <p>When true, callers may rely on the result of a create alone to detect an existing record, with no
+     * preceding read and no locking of their own.</p>
+     * 
+     * @return  true iff create is atomic
+     */
+    boolean isAtomicCreate();
+
+}
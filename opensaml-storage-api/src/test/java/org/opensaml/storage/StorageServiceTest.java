@@ -19,6 +19,14 @@ package org.opensaml.storage;
 
 import java.io.IOException;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.annotation.Nonnull;
 
@@ -115,6 +123,42 @@ public abstract class StorageServiceTest {
         }
     }
 
+    @Test
+    public void batch() throws Exception {
+        threadInit();
+        
+        String context = Long.toString(random.nextLong());
+        
+        Assert.assertTrue(shared.create(context, "existing", "value", null));
+        Map<String, String> values = new HashMap<>();
+        for (int i = 1; i <= 10; i++) {
+            values.put(Integer.toString(i), Integer.toString(i + 1));
+        }
+        values.put("existing", "other");
+        
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AsyncStorageAdapter async = new AsyncStorageAdapter(shared, executor);
+            Set<String> created = async.createAll(context, values, null).get();
+            Assert.assertEquals(created.size(), 10);
+            Assert.assertFalse(created.contains("existing"));
+            
+            Map<String, StorageRecord> records =
+                    async.readAll(context, Arrays.asList("1", "10", "existing", "missing")).get();
+            Assert.assertEquals(records.size(), 3);
+            Assert.assertEquals(records.get("10").getValue(), "11");
+            Assert.assertEquals(records.get("existing").getValue(), "value");
+        } finally {
+            executor.shutdown();
+        }
+        
+        Assert.assertEquals(BatchStorageSupport.deleteAll(shared, context, Arrays.asList("1", "2", "missing")),
+                new HashSet<>(Arrays.asList("1", "2")));
+        Assert.assertNull(shared.read(context, "1"));
+        Assert.assertNotNull(shared.read(context, "3"));
+        Assert.assertTrue(BatchStorageSupport.readAll(shared, context, Collections.<String>emptySet()).isEmpty());
+    }
+
     @Test
     public void expiration() throws IOException, InterruptedException {
         threadInit();
@@ -0,0 +1,1345 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.storage.impl;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.annotation.constraint.Unmodifiable;
+import net.shibboleth.utilities.java.support.collection.Pair;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+import org.opensaml.storage.AbstractMapBackedStorageService;
+import org.opensaml.storage.AbstractStorageService;
+import org.opensaml.storage.MutableStorageRecord;
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.VersionMismatchException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of {@link org.opensaml.storage.StorageService} that stores data in-memory in a shared data structure
+ * with no persistence, and which does not serialize operations on a global lock.
+ *
+ * <p>This implementation has the semantics of {@link AbstractMapBackedStorageService} and of
+ * {@link MemoryStorageService}, but stores each context in a concurrent map, creates records with an atomic
+ * insert-if-absent, and serializes only those operations on the same record. Records are returned from reads as
+ * point-in-time copies rather than live objects.</p>
+ *
+ * <p>Rather than sweeping every context, the cleanup task removes only those records which have expired, which it
+ * finds by way of a queue ordered by expiration. Each record has at most one entry in the queue at a time, unless
+ * its expiration is brought forward, so records whose expiration is extended on each access do not accumulate
+ * entries. An entry whose record has since been deleted is discarded when it is reached, so a deleted record's
+ * memory is not reclaimed until its original expiration.</p>
+ *
+ * <p>The service may be bounded, by a maximum number of records and a maximum estimated size, both per context and
+ * overall. Once a bound is exceeded, records are evicted in order of expiration, the earliest first and records
+ * without an expiration last, and then in order of last access. Records in the contexts configured by
+ * {@link #setNonEvictingContexts(Collection)}, such as those of a {@link org.opensaml.storage.ReplayCache}, are
+ * never evicted before they expire; instead, an attempt to create a record in such a context when the bounds do
+ * not allow it fails with an {@link IOException}, which a replay cache treats as a replay if, and only if, it is
+ * strict. Bounds are enforced on a best-effort basis, so concurrent creates may exceed them briefly.</p>
+ */
+public class ConcurrentMemoryStorageService extends AbstractStorageService {
+
+    /** Estimated size, in bytes, of a record excluding its key and value. */
+    public static final int RECORD_OVERHEAD = 160;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(ConcurrentMemoryStorageService.class);
+
+    /** Map of contexts. */
+    @NonnullAfterInit @NonnullElements private ConcurrentMap<String, StorageContext> contextMap;
+
+    /** Queue of pending record expirations, earliest first. */
+    @NonnullAfterInit private PriorityBlockingQueue<ExpiryEntry> expiryQueue;
+
+    /** Maximum number of records overall, or 0 for no limit. */
+    @NonNegative private int maxRecords;
+
+    /** Maximum number of records per context, or 0 for no limit. */
+    @NonNegative private int maxRecordsPerContext;
+
+    /** Maximum estimated size in bytes overall, or 0 for no limit. */
+    @NonNegative private long maxSize;
+
+    /** Maximum estimated size in bytes per context, or 0 for no limit. */
+    @NonNegative private long maxSizePerContext;
+
+    /** Contexts whose records are never evicted before they expire. */
+    @Nonnull @NonnullElements private Set<String> nonEvictingContexts;
+
+    /** Whether any bound is configured. */
+    private boolean bounded;
+
+    /** Logical clock ordering record accesses. */
+    @Nonnull private final AtomicLong accessClock;
+
+    /** Number of records held overall. */
+    @Nonnull private final AtomicInteger recordCount;
+
+    /** Estimated size in bytes of the records held overall. */
+    @Nonnull private final AtomicLong estimatedSize;
+
+    /** Number of unexpired records evicted. */
+    @Nonnull private final AtomicLong evictionCount;
+
+    /** Number of creates rejected because a non-evicting context was full. */
+    @Nonnull private final AtomicLong rejectionCount;
+
+    /** Constructor. */
+    public ConcurrentMemoryStorageService() {
+        setContextSize(Integer.MAX_VALUE);
+        setKeySize(Integer.MAX_VALUE);
+        setValueSize(Integer.MAX_VALUE);
+        nonEvictingContexts = Collections.emptySet();
+        accessClock = new AtomicLong();
+        recordCount = new AtomicInteger();
+        estimatedSize = new AtomicLong();
+        evictionCount = new AtomicLong();
+        rejectionCount = new AtomicLong();
+    }
+
+    /**
+     * Get the maximum number of records overall.
+     *
+     * @return the maximum number of records, or 0 for no limit
+     */
+    @NonNegative public int getMaxRecords() {
+        return maxRecords;
+    }
+
+    /**
+     * Set the maximum number of records overall.
+     *
+     * @param max the maximum number of records, or 0 for no limit
+     */
+    public void setMaxRecords(@NonNegative final int max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        maxRecords = (int) Constraint.isGreaterThanOrEqual(0, max, "Maximum must be greater than or equal to zero");
+    }
+
+    /**
+     * Get the maximum number of records per context.
+     *
+     * @return the maximum number of records per context, or 0 for no limit
+     */
+    @NonNegative public int getMaxRecordsPerContext() {
+        return maxRecordsPerContext;
+    }
+
+    /**
+     * Set the maximum number of records per context.
+     *
+     * @param max the maximum number of records per context, or 0 for no limit
+     */
+    public void setMaxRecordsPerContext(@NonNegative final int max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        maxRecordsPerContext =
+                (int) Constraint.isGreaterThanOrEqual(0, max, "Maximum must be greater than or equal to zero");
+    }
+
+    /**
+     * Get the maximum estimated size in bytes overall.
+     *
+     * @return the maximum size, or 0 for no limit
+     */
+    @NonNegative public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Set the maximum estimated size in bytes overall. The size of a record is estimated from the lengths of its
+     * key and value, plus {@link #RECORD_OVERHEAD}.
+     *
+     * @param max the maximum size, or 0 for no limit
+     */
+    public void setMaxSize(@NonNegative final long max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        maxSize = Constraint.isGreaterThanOrEqual(0, max, "Maximum must be greater than or equal to zero");
+    }
+
+    /**
+     * Get the maximum estimated size in bytes per context.
+     *
+     * @return the maximum size per context, or 0 for no limit
+     */
+    @NonNegative public long getMaxSizePerContext() {
+        return maxSizePerContext;
+    }
+
+    /**
+     * Set the maximum estimated size in bytes per context.
+     *
+     * @param max the maximum size per context, or 0 for no limit
+     */
+    public void setMaxSizePerContext(@NonNegative final long max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        maxSizePerContext = Constraint.isGreaterThanOrEqual(0, max, "Maximum must be greater than or equal to zero");
+    }
+
+    /**
+     * Get the contexts whose records are never evicted before they expire.
+     *
+     * @return the non-evicting contexts
+     */
+    @Nonnull @NonnullElements @Unmodifiable public Set<String> getNonEvictingContexts() {
+        return Collections.unmodifiableSet(nonEvictingContexts);
+    }
+
+    /**
+     * Set the contexts whose records are never evicted before they expire, such as those used by a
+     * {@link org.opensaml.storage.ReplayCache}, for which eviction would allow a replay to go undetected.
+     *
+     * @param contexts the non-evicting contexts
+     */
+    public void setNonEvictingContexts(@Nullable @NonnullElements final Collection<String> contexts) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        if (contexts == null) {
+            nonEvictingContexts = Collections.emptySet();
+        } else {
+            nonEvictingContexts = new HashSet<>(StringSupport.normalizeStringCollection(contexts));
+        }
+    }
+
+    /**
+     * Get the number of unexpired records evicted to enforce the configured bounds.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Get the number of creates rejected because a non-evicting context was full.
+     *
+     * @return the number of rejections
+     */
+    public long getRejectionCount() {
+        return rejectionCount.get();
+    }
+
+    /**
+     * Get the number of records held, including any which have expired but have not yet been removed.
+     *
+     * @return the number of records
+     */
+    @NonNegative public int getRecordCount() {
+        return recordCount.get();
+    }
+
+    /**
+     * Get the number of records held in a context, including any which have expired but have not yet been removed.
+     *
+     * @param context a storage context label
+     *
+     * @return the number of records
+     */
+    @NonNegative public int getRecordCount(@Nonnull @NotEmpty final String context) {
+        final StorageContext ctx = contextMap.get(context);
+        return ctx != null ? ctx.getCount() : 0;
+    }
+
+    /**
+     * Get the estimated size in bytes of the records held.
+     *
+     * @return the estimated size
+     */
+    @NonNegative public long getEstimatedSize() {
+        return estimatedSize.get();
+    }
+
+    /**
+     * Get the estimated size in bytes of the records held in a context.
+     *
+     * @param context a storage context label
+     *
+     * @return the estimated size
+     */
+    @NonNegative public long getEstimatedSize(@Nonnull @NotEmpty final String context) {
+        final StorageContext ctx = contextMap.get(context);
+        return ctx != null ? ctx.getSize() : 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isAtomicCreate() {
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        contextMap = new ConcurrentHashMap<>();
+        recordCount.set(0);
+        estimatedSize.set(0);
+        expiryQueue = new PriorityBlockingQueue<>();
+        bounded = maxRecords > 0 || maxRecordsPerContext > 0 || maxSize > 0 || maxSizePerContext > 0;
+        super.doInitialize();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        super.doDestroy();
+        contextMap = null;
+        expiryQueue = null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean create(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String value, @Nullable final Long expiration) throws IOException {
+        final Record record = new Record(value, expiration, estimateSize(key, value));
+
+        while (true) {
+            final StorageContext ctx = getOrCreateContext(context);
+            if (bounded && !ctx.isEvictable()) {
+                makeRoom(context, ctx, record.getEstimatedSize());
+            }
+
+            final boolean created;
+            synchronized (record) {
+                created = insert(ctx, key, record);
+                if (created) {
+                    added(ctx, key, record);
+                    schedule(context, key, record);
+                }
+            }
+
+            // A context is only discarded once empty, or once its records have been deleted, so if this one was
+            // discarded while the record was being inserted, take the record back out of it, so that it is no
+            // longer accounted for, and go round again to insert it in the context's replacement.
+            if (contextMap.get(context) == ctx) {
+                if (created) {
+                    log.trace("Inserted record '{}' in context '{}' with expiration '{}'",
+                            new Object[] { key, context, expiration });
+                    if (bounded) {
+                        enforceBounds(context, ctx);
+                    }
+                }
+                return created;
+            } else if (created) {
+                synchronized (record) {
+                    if (ctx.getRecords().remove(key, record)) {
+                        removed(ctx, record);
+                    }
+                }
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable public StorageRecord read(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) throws IOException {
+        return readImpl(context, key, null).getSecond();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull public Pair<Long, StorageRecord> read(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, final long version) throws IOException {
+        return readImpl(context, key, version);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean update(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String value, @Nullable final Long expiration) throws IOException {
+        try {
+            return updateImpl(null, context, key, value, expiration) != null;
+        } catch (final VersionMismatchException e) {
+            throw new IOException("Unexpected exception thrown by update.", e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable public Long updateWithVersion(final long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nonnull @NotEmpty final String value, @Nullable final Long expiration)
+                    throws IOException, VersionMismatchException {
+        return updateImpl(version, context, key, value, expiration);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean updateExpiration(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nullable final Long expiration) throws IOException {
+        try {
+            return updateImpl(null, context, key, null, expiration) != null;
+        } catch (final VersionMismatchException e) {
+            throw new IOException("Unexpected exception thrown by update.", e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean deleteWithVersion(final long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) throws IOException, VersionMismatchException {
+        return deleteImpl(version, context, key);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean delete(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key)
+            throws IOException {
+        try {
+            return deleteImpl(null, context, key);
+        } catch (final VersionMismatchException e) {
+            throw new IOException("Unexpected exception thrown by delete.", e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void updateContextExpiration(@Nonnull @NotEmpty final String context, @Nullable final Long expiration)
+            throws IOException {
+        final StorageContext ctx = contextMap.get(context);
+        if (ctx != null) {
+            final long now = System.currentTimeMillis();
+            for (final Map.Entry<String, Record> entry : ctx.getRecords().entrySet()) {
+                final Record record = entry.getValue();
+                synchronized (record) {
+                    if (!record.isExpired(now)) {
+                        record.setExpiration(expiration);
+                        touched(ctx, entry.getKey(), record);
+                        schedule(context, entry.getKey(), record);
+                    }
+                }
+            }
+            log.debug("Updated expiration of valid records in context '{}' to '{}'", context, expiration);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void deleteContext(@Nonnull @NotEmpty final String context) throws IOException {
+        final StorageContext ctx = contextMap.remove(context);
+        if (ctx != null) {
+            // Removed one by one, so that they are no longer accounted for in the overall totals.
+            for (final Map.Entry<String, Record> entry : ctx.getRecords().entrySet()) {
+                final Record record = entry.getValue();
+                synchronized (record) {
+                    if (ctx.getRecords().remove(entry.getKey(), record)) {
+                        removed(ctx, record);
+                    }
+                }
+            }
+        }
+        log.debug("Deleted context '{}'", context);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void reap(@Nonnull @NotEmpty final String context) throws IOException {
+        final StorageContext ctx = contextMap.get(context);
+        if (ctx != null) {
+            final long now = System.currentTimeMillis();
+            for (final Map.Entry<String, Record> entry : ctx.getRecords().entrySet()) {
+                final Record record = entry.getValue();
+                synchronized (record) {
+                    if (record.isExpired(now) && ctx.getRecords().remove(entry.getKey(), record)) {
+                        removed(ctx, record);
+                    }
+                }
+            }
+            removeIfEmpty(context, ctx);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable protected TimerTask getCleanupTask() {
+        return new TimerTask() {
+
+            /** {@inheritDoc} */
+            @Override
+            public void run() {
+                log.debug("Running cleanup task");
+
+                final long now = System.currentTimeMillis();
+                int purged = 0;
+
+                // Only this task takes entries from the queue, so the head polled is at or before the head peeked.
+                ExpiryEntry entry = expiryQueue.peek();
+                while (entry != null && entry.getExpiration() <= now) {
+                    if (expire(expiryQueue.poll(), now)) {
+                        purged++;
+                    }
+                    entry = expiryQueue.peek();
+                }
+
+                if (purged > 0) {
+                    log.debug("Purged {} expired record(s) from storage", purged);
+                } else {
+                    log.debug("No expired records found in storage");
+                }
+            }
+        };
+    }
+
+    /**
+     * Internal method to implement read functions.
+     *
+     * @param context       a storage context label
+     * @param key           a key unique to context
+     * @param version       only return record if newer than optionally supplied version
+     *
+     * @return  a pair consisting of the version of the record read back, if any, and the record itself
+     * @throws IOException  if errors occur in the read process
+     */
+    @Nonnull protected Pair<Long, StorageRecord> readImpl(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nullable final Long version) throws IOException {
+
+        final StorageContext ctx = contextMap.get(context);
+        if (ctx == null) {
+            log.debug("Read failed, context '{}' not found", context);
+            return new Pair<>();
+        }
+
+        final Record record = ctx.getRecords().get(key);
+        if (record == null) {
+            log.debug("Read failed, key '{}' not found in context '{}'", key, context);
+            return new Pair<>();
+        }
+
+        synchronized (record) {
+            if (record.isExpired(System.currentTimeMillis())) {
+                log.debug("Read failed, key '{}' expired in context '{}'", key, context);
+                return new Pair<>();
+            }
+
+            touched(ctx, key, record);
+
+            if (version != null && record.getVersion() == version) {
+                // Nothing's changed, so just echo back the version.
+                return new Pair<>(version, null);
+            }
+
+            return new Pair<Long, StorageRecord>(record.getVersion(), record.copy());
+        }
+    }
+
+    /**
+     * Internal method to implement update functions.
+     *
+     * @param version       only update if the current version matches this value
+     * @param context       a storage context label
+     * @param key           a key unique to context
+     * @param value         updated value
+     * @param expiration    expiration for record. or null
+     *
+     * @return the version of the record after update, null if no record exists
+     * @throws IOException  if errors occur in the update process
+     * @throws VersionMismatchException if the record has already been updated to a newer version
+     */
+    @Nullable protected Long updateImpl(@Nullable final Long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nullable final String value, @Nullable final Long expiration)
+                    throws IOException, VersionMismatchException {
+
+        final StorageContext ctx = contextMap.get(context);
+        if (ctx == null) {
+            log.debug("Update failed, context '{}' not found", context);
+            return null;
+        }
+
+        final Record record = ctx.getRecords().get(key);
+        if (record == null) {
+            log.debug("Update failed, key '{}' not found in context '{}'", key, context);
+            return null;
+        }
+
+        final long newVersion;
+        synchronized (record) {
+            if (record.isExpired(System.currentTimeMillis())) {
+                log.debug("Update failed, key '{}' expired in context '{}'", key, context);
+                return null;
+            }
+
+            if (version != null && version != record.getVersion()) {
+                // Caller is out of sync.
+                throw new VersionMismatchException();
+            }
+
+            if (value != null) {
+                record.setValue(value);
+                record.incrementVersion();
+                resized(ctx, record, estimateSize(key, value));
+            }
+
+            record.setExpiration(expiration);
+            touched(ctx, key, record);
+            schedule(context, key, record);
+            newVersion = record.getVersion();
+        }
+
+        log.trace("Updated record '{}' in context '{}' with expiration '{}'",
+                new Object[] { key, context, expiration });
+
+        if (bounded && value != null) {
+            enforceBounds(context, ctx);
+        }
+
+        return newVersion;
+    }
+
+    /**
+     * Internal method to implement delete functions.
+     *
+     * @param version       only update if the current version matches this value
+     * @param context       a storage context label
+     * @param key           a key unique to context
+     *
+     * @return true iff the record existed and was deleted
+     * @throws IOException  if errors occur in the update process
+     * @throws VersionMismatchException if the record has already been updated to a newer version
+     */
+    protected boolean deleteImpl(@Nullable @Positive final Long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) throws IOException, VersionMismatchException {
+
+        final StorageContext ctx = contextMap.get(context);
+        if (ctx == null) {
+            log.debug("Deleting record '{}' in context '{}'....context not found", key, context);
+            return false;
+        }
+
+        while (true) {
+            final Record record = ctx.getRecords().get(key);
+            if (record == null) {
+                log.debug("Deleting record '{}' in context '{}'....key not found", key, context);
+                return false;
+            }
+
+            synchronized (record) {
+                if (version != null && record.getVersion() != version) {
+                    throw new VersionMismatchException();
+                }
+
+                // Fails only if the record has just been replaced, in which case delete its replacement.
+                if (ctx.getRecords().remove(key, record)) {
+                    removed(ctx, record);
+                    log.trace("Deleted record '{}' in context '{}'", key, context);
+                    removeIfEmpty(context, ctx);
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get a context, creating it if necessary.
+     *
+     * @param context a storage context label
+     *
+     * @return the context
+     */
+    @Nonnull private StorageContext getOrCreateContext(@Nonnull @NotEmpty final String context) {
+        StorageContext ctx = contextMap.get(context);
+        if (ctx == null) {
+            final StorageContext newContext = new StorageContext(bounded, !nonEvictingContexts.contains(context));
+            ctx = contextMap.putIfAbsent(context, newContext);
+            if (ctx == null) {
+                ctx = newContext;
+            }
+        }
+        return ctx;
+    }
+
+    /**
+     * Insert a record in a context, unless an unexpired record exists for its key.
+     *
+     * <p>This method <strong>MUST</strong> be called while holding the record's monitor.</p>
+     *
+     * @param ctx the context
+     * @param key a key unique to context
+     * @param record the record to insert
+     *
+     * @return true iff the record was inserted
+     */
+    private boolean insert(@Nonnull final StorageContext ctx, @Nonnull @NotEmpty final String key,
+            @Nonnull final Record record) {
+        final long now = System.currentTimeMillis();
+        Record existing = ctx.getRecords().putIfAbsent(key, record);
+        while (existing != null) {
+            synchronized (existing) {
+                if (!existing.isExpired(now)) {
+                    return false;
+                }
+
+                // It's dead, so we can just replace it with the new record.
+                if (ctx.getRecords().replace(key, existing, record)) {
+                    removed(ctx, existing);
+                    return true;
+                }
+            }
+            existing = ctx.getRecords().putIfAbsent(key, record);
+        }
+        return true;
+    }
+
+    /**
+     * Discard a context if it is empty.
+     *
+     * @param context a storage context label
+     * @param ctx the context
+     */
+    private void removeIfEmpty(@Nonnull @NotEmpty final String context, @Nonnull final StorageContext ctx) {
+        if (ctx.getRecords().isEmpty()) {
+            contextMap.remove(context, ctx);
+        }
+    }
+
+    /**
+     * Queue the expiration of a record, unless an entry at or before its expiration is already queued.
+     *
+     * <p>This method <strong>MUST</strong> be called while holding the record's monitor.</p>
+     *
+     * @param context a storage context label
+     * @param key a key unique to context
+     * @param record the record
+     */
+    private void schedule(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull final Record record) {
+        final Long exp = record.getExpiration();
+        if (exp != null && (record.getScheduledExpiration() == null || exp < record.getScheduledExpiration())) {
+            record.setScheduledExpiration(exp);
+            expiryQueue.offer(new ExpiryEntry(exp, context, key, record));
+        }
+    }
+
+    /**
+     * Process a queued expiration, removing its record if it has expired and queueing it again otherwise.
+     *
+     * @param entry the queued expiration
+     * @param now the current time
+     *
+     * @return true iff the record was removed
+     */
+    private boolean expire(@Nonnull final ExpiryEntry entry, final long now) {
+        final Record record = entry.getRecord();
+        synchronized (record) {
+            final Long scheduled = record.getScheduledExpiration();
+            if (scheduled != null && scheduled == entry.getExpiration()) {
+                record.setScheduledExpiration(null);
+            }
+
+            if (!record.isExpired(now)) {
+                schedule(entry.getContext(), entry.getKey(), record);
+                return false;
+            }
+
+            final StorageContext ctx = contextMap.get(entry.getContext());
+            if (ctx != null && ctx.getRecords().remove(entry.getKey(), record)) {
+                removed(ctx, record);
+                removeIfEmpty(entry.getContext(), ctx);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Account for a record added to a context.
+     *
+     * <p>This method <strong>MUST</strong> be called while holding the record's monitor.</p>
+     *
+     * @param ctx the context
+     * @param key a key unique to context
+     * @param record the record
+     */
+    private void added(@Nonnull final StorageContext ctx, @Nonnull @NotEmpty final String key,
+            @Nonnull final Record record) {
+        adjust(ctx, 1, record.getEstimatedSize());
+        if (ctx.getEvictionIndex() != null) {
+            final EvictionKey evictionKey = new EvictionKey(record.getExpiration(), accessClock.incrementAndGet());
+            record.setEvictionKey(evictionKey);
+            ctx.getEvictionIndex().put(evictionKey, key);
+        }
+    }
+
+    /**
+     * Account for a record removed from a context.
+     *
+     * <p>This method <strong>MUST</strong> be called while holding the record's monitor.</p>
+     *
+     * @param ctx the context
+     * @param record the record
+     */
+    private void removed(@Nonnull final StorageContext ctx, @Nonnull final Record record) {
+        adjust(ctx, -1, -record.getEstimatedSize());
+        if (ctx.getEvictionIndex() != null && record.getEvictionKey() != null) {
+            ctx.getEvictionIndex().remove(record.getEvictionKey());
+            record.setEvictionKey(null);
+        }
+    }
+
+    /**
+     * Account for an access to, or a change of expiration of, a record in a context.
+     *
+     * <p>This method <strong>MUST</strong> be called while holding the record's monitor.</p>
+     *
+     * @param ctx the context
+     * @param key a key unique to context
+     * @param record the record
+     */
+    private void touched(@Nonnull final StorageContext ctx, @Nonnull @NotEmpty final String key,
+            @Nonnull final Record record) {
+        if (ctx.getEvictionIndex() != null && record.getEvictionKey() != null) {
+            ctx.getEvictionIndex().remove(record.getEvictionKey());
+            final EvictionKey evictionKey = new EvictionKey(record.getExpiration(), accessClock.incrementAndGet());
+            record.setEvictionKey(evictionKey);
+            ctx.getEvictionIndex().put(evictionKey, key);
+        }
+    }
+
+    /**
+     * Account for a change in the estimated size of a record in a context.
+     *
+     * <p>This method <strong>MUST</strong> be called while holding the record's monitor.</p>
+     *
+     * @param ctx the context
+     * @param record the record
+     * @param size the record's new estimated size
+     */
+    private void resized(@Nonnull final StorageContext ctx, @Nonnull final Record record, final int size) {
+        if (record.getEvictionKey() != null || ctx.getEvictionIndex() == null) {
+            adjust(ctx, 0, size - record.getEstimatedSize());
+        }
+        record.setEstimatedSize(size);
+    }
+
+    /**
+     * Adjust the number and estimated size of the records held in a context, and overall.
+     *
+     * @param ctx the context
+     * @param countDelta the change in the number of records
+     * @param sizeDelta the change in the estimated size
+     */
+    private void adjust(@Nonnull final StorageContext ctx, final int countDelta, final long sizeDelta) {
+        ctx.adjust(countDelta, sizeDelta);
+        if (countDelta != 0) {
+            recordCount.addAndGet(countDelta);
+        }
+        if (sizeDelta != 0) {
+            estimatedSize.addAndGet(sizeDelta);
+        }
+    }
+
+    /**
+     * Make room for a record in a non-evicting context, by removing the context's expired records and, if the
+     * overall bounds require it, evicting records from other contexts.
+     *
+     * @param context a storage context label
+     * @param ctx the context
+     * @param size the record's estimated size
+     *
+     * @throws IOException if there is no room for the record
+     */
+    private void makeRoom(@Nonnull @NotEmpty final String context, @Nonnull final StorageContext ctx,
+            final int size) throws IOException {
+        final long now = System.currentTimeMillis();
+        while (isContextFull(ctx, 1, size)) {
+            if (!evictHead(context, ctx, now, true)) {
+                rejectionCount.incrementAndGet();
+                log.warn("Context '{}' is full, unable to store record", context);
+                throw new IOException("Context '" + context + "' is full");
+            }
+        }
+
+        while (isFull(1, size)) {
+            if (!evictFromAnyContext(now)) {
+                rejectionCount.incrementAndGet();
+                log.warn("Storage is full, unable to store record in context '{}'", context);
+                throw new IOException("Storage is full");
+            }
+        }
+    }
+
+    /**
+     * Evict records until the configured bounds are met, or no more records may be evicted.
+     *
+     * @param context a storage context label
+     * @param ctx the context to which a record has been added
+     */
+    private void enforceBounds(@Nonnull @NotEmpty final String context, @Nonnull final StorageContext ctx) {
+        final long now = System.currentTimeMillis();
+        if (ctx.isEvictable()) {
+            while (isContextFull(ctx, 0, 0) && evictHead(context, ctx, now, false)) {
+                // evicting
+            }
+        }
+
+        while (isFull(0, 0) && evictFromAnyContext(now)) {
+            // evicting
+        }
+    }
+
+    /**
+     * Get whether adding to a context would exceed the per-context bounds.
+     *
+     * @param ctx the context
+     * @param count the number of records to add
+     * @param size the estimated size of the records to add
+     *
+     * @return true iff the bounds would be exceeded
+     */
+    private boolean isContextFull(@Nonnull final StorageContext ctx, final int count, final long size) {
+        return (maxRecordsPerContext > 0 && ctx.getCount() + count > maxRecordsPerContext)
+                || (maxSizePerContext > 0 && ctx.getSize() + size > maxSizePerContext);
+    }
+
+    /**
+     * Get whether adding to the service would exceed the overall bounds.
+     *
+     * @param count the number of records to add
+     * @param size the estimated size of the records to add
+     *
+     * @return true iff the bounds would be exceeded
+     */
+    private boolean isFull(final int count, final long size) {
+        return (maxRecords > 0 && getRecordCount() + count > maxRecords)
+                || (maxSize > 0 && getEstimatedSize() + size > maxSize);
+    }
+
+    /**
+     * Evict the first record in eviction order from whichever evictable context holds the record which is first
+     * overall.
+     *
+     * @param now the current time
+     *
+     * @return true iff a record was evicted, or one which was about to be was changed concurrently
+     */
+    private boolean evictFromAnyContext(final long now) {
+        String victimContext = null;
+        StorageContext victim = null;
+        EvictionKey first = null;
+        for (final Map.Entry<String, StorageContext> entry : contextMap.entrySet()) {
+            final StorageContext ctx = entry.getValue();
+            if (ctx.isEvictable() && ctx.getEvictionIndex() != null) {
+                final Map.Entry<EvictionKey, String> head = ctx.getEvictionIndex().firstEntry();
+                if (head != null && (first == null || head.getKey().compareTo(first) < 0)) {
+                    victimContext = entry.getKey();
+                    victim = ctx;
+                    first = head.getKey();
+                }
+            }
+        }
+        return victim != null && evictHead(victimContext, victim, now, false);
+    }
+
+    /**
+     * Evict the first record in eviction order from a context.
+     *
+     * @param context a storage context label
+     * @param ctx the context
+     * @param now the current time
+     * @param expiredOnly whether to evict the record only if it has expired
+     *
+     * @return true iff a record was evicted, or one which was about to be was changed concurrently
+     */
+    private boolean evictHead(@Nonnull @NotEmpty final String context, @Nonnull final StorageContext ctx,
+            final long now, final boolean expiredOnly) {
+        final ConcurrentSkipListMap<EvictionKey, String> index = ctx.getEvictionIndex();
+        final Map.Entry<EvictionKey, String> head = index != null ? index.firstEntry() : null;
+        if (head == null) {
+            return false;
+        }
+
+        final Record record = ctx.getRecords().get(head.getValue());
+        if (record == null) {
+            // already removed, and its index entry about to be
+            index.remove(head.getKey(), head.getValue());
+            return true;
+        }
+
+        synchronized (record) {
+            if (record.getEvictionKey() != head.getKey()) {
+                // accessed or replaced since the head was read
+                return true;
+            }
+
+            final boolean expired = record.isExpired(now);
+            if (expiredOnly && !expired) {
+                return false;
+            }
+
+            if (ctx.getRecords().remove(head.getValue(), record)) {
+                removed(ctx, record);
+                if (!expired) {
+                    evictionCount.incrementAndGet();
+                    log.debug("Evicted record '{}' from context '{}'", head.getValue(), context);
+                }
+                removeIfEmpty(context, ctx);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Estimate the size in bytes of a record.
+     *
+     * @param key the record's key
+     * @param value the record's value
+     *
+     * @return the estimated size
+     */
+    private static int estimateSize(@Nonnull final String key, @Nonnull final String value) {
+        return RECORD_OVERHEAD + 2 * (key.length() + value.length());
+    }
+
+    /** The records of a context, and the data used to bound them. */
+    private static class StorageContext {
+
+        /** The records. */
+        @Nonnull private final ConcurrentMap<String, Record> records;
+
+        /** Index of the records' keys in eviction order, if the service is bounded. */
+        @Nullable private final ConcurrentSkipListMap<EvictionKey, String> evictionIndex;
+
+        /** Whether records may be evicted before they expire. */
+        private final boolean evictable;
+
+        /** The number of records. */
+        @Nonnull private final AtomicInteger count;
+
+        /** The estimated size of the records. */
+        @Nonnull private final AtomicLong size;
+
+        /**
+         * Constructor.
+         *
+         * @param indexed whether to maintain an eviction index
+         * @param canEvict whether records may be evicted before they expire
+         */
+        public StorageContext(final boolean indexed, final boolean canEvict) {
+            records = new ConcurrentHashMap<>();
+            evictionIndex = indexed ? new ConcurrentSkipListMap<EvictionKey, String>() : null;
+            evictable = canEvict;
+            count = new AtomicInteger();
+            size = new AtomicLong();
+        }
+
+        /**
+         * Get the records.
+         *
+         * @return the records
+         */
+        @Nonnull public ConcurrentMap<String, Record> getRecords() {
+            return records;
+        }
+
+        /**
+         * Get the index of the records' keys in eviction order.
+         *
+         * @return the index, or null if the service is not bounded
+         */
+        @Nullable public ConcurrentSkipListMap<EvictionKey, String> getEvictionIndex() {
+            return evictionIndex;
+        }
+
+        /**
+         * Get whether records may be evicted before they expire.
+         *
+         * @return whether records may be evicted
+         */
+        public boolean isEvictable() {
+            return evictable;
+        }
+
+        /**
+         * Get the number of records.
+         *
+         * @return the number of records
+         */
+        public int getCount() {
+            return count.get();
+        }
+
+        /**
+         * Get the estimated size of the records.
+         *
+         * @return the estimated size
+         */
+        public long getSize() {
+            return size.get();
+        }
+
+        /**
+         * Adjust the number and estimated size of the records.
+         *
+         * @param countDelta the change in the number of records
+         * @param sizeDelta the change in the estimated size
+         */
+        public void adjust(final int countDelta, final long sizeDelta) {
+            if (countDelta != 0) {
+                count.addAndGet(countDelta);
+            }
+            if (sizeDelta != 0) {
+                size.addAndGet(sizeDelta);
+            }
+        }
+    }
+
+    /** A stored record, which tracks the data used to expire and evict it. */
+    private static class Record extends MutableStorageRecord {
+
+        /** The earliest expiration at which the record is queued for removal, or null if it is not queued. */
+        @Nullable private Long scheduledExpiration;
+
+        /** The record's key in its context's eviction index, or null if it is not indexed. */
+        @Nullable private EvictionKey evictionKey;
+
+        /** The record's estimated size. */
+        private int estimatedSize;
+
+        /**
+         * Constructor.
+         *
+         * @param val   value
+         * @param exp   expiration, or null if none
+         * @param size  estimated size
+         */
+        public Record(@Nonnull @NotEmpty final String val, @Nullable final Long exp, final int size) {
+            super(val, exp);
+            estimatedSize = size;
+        }
+
+        /**
+         * Get whether the record has expired.
+         *
+         * @param now the current time
+         *
+         * @return true iff the record has expired
+         */
+        public boolean isExpired(final long now) {
+            final Long exp = getExpiration();
+            return exp != null && now >= exp;
+        }
+
+        /**
+         * Get the earliest expiration at which the record is queued for removal.
+         *
+         * @return the expiration, or null if the record is not queued
+         */
+        @Nullable public Long getScheduledExpiration() {
+            return scheduledExpiration;
+        }
+
+        /**
+         * Set the earliest expiration at which the record is queued for removal.
+         *
+         * @param exp the expiration, or null if the record is not queued
+         */
+        public void setScheduledExpiration(@Nullable final Long exp) {
+            scheduledExpiration = exp;
+        }
+
+        /**
+         * Get the record's key in its context's eviction index.
+         *
+         * @return the key, or null if the record is not indexed
+         */
+        @Nullable public EvictionKey getEvictionKey() {
+            return evictionKey;
+        }
+
+        /**
+         * Set the record's key in its context's eviction index.
+         *
+         * @param key the key, or null if the record is not indexed
+         */
+        public void setEvictionKey(@Nullable final EvictionKey key) {
+            evictionKey = key;
+        }
+
+        /**
+         * Get the record's estimated size.
+         *
+         * @return the estimated size
+         */
+        public int getEstimatedSize() {
+            return estimatedSize;
+        }
+
+        /**
+         * Set the record's estimated size.
+         *
+         * @param size the estimated size
+         */
+        public void setEstimatedSize(final int size) {
+            estimatedSize = size;
+        }
+
+        /**
+         * Get a copy of the record's current state.
+         *
+         * @return the copy
+         */
+        @Nonnull public StorageRecord copy() {
+            final Record copy = new Record(getValue(), getExpiration(), estimatedSize);
+            copy.setVersion(getVersion());
+            return copy;
+        }
+    }
+
+    /** The position of a record in eviction order: by expiration, with none last, and then by last access. */
+    private static class EvictionKey implements Comparable<EvictionKey> {
+
+        /** The record's expiration, or {@link Long#MAX_VALUE} if none. */
+        private final long expiration;
+
+        /** The logical time of the record's last access, unique to this key. */
+        private final long access;
+
+        /**
+         * Constructor.
+         *
+         * @param exp the record's expiration, or null if none
+         * @param accessTime the logical time of the record's last access
+         */
+        public EvictionKey(@Nullable final Long exp, final long accessTime) {
+            expiration = exp != null ? exp : Long.MAX_VALUE;
+            access = accessTime;
+        }
+
+        /** {@inheritDoc} */
+        public int compareTo(final EvictionKey other) {
+            final int result = Long.compare(expiration, other.expiration);
+            return result != 0 ? result : Long.compare(access, other.access);
+        }
+
+        /** {@inheritDoc} */
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj instanceof EvictionKey) {
+                return compareTo((EvictionKey) obj) == 0;
+            }
+            return false;
+        }
+
+        /** {@inheritDoc} */
+        public int hashCode() {
+            return (int) (access ^ (access >>> 32));
+        }
+    }
+
+    /** A queued record expiration. */
+    private static class ExpiryEntry implements Comparable<ExpiryEntry> {
+
+        /** The expiration. */
+        private final long expiration;
+
+        /** The record's context. */
+        @Nonnull private final String context;
+
+        /** The record's key. */
+        @Nonnull private final String key;
+
+        /** The record. */
+        @Nonnull private final Record record;
+
+        /**
+         * Constructor.
+         *
+         * @param exp the expiration
+         * @param ctx the record's context
+         * @param k the record's key
+         * @param rec the record
+         */
+        public ExpiryEntry(final long exp, @Nonnull final String ctx, @Nonnull final String k,
+                @Nonnull final Record rec) {
+            expiration = exp;
+            context = ctx;
+            key = k;
+            record = rec;
+        }
+
+        /**
+         * Get the expiration.
+         *
+         * @return the expiration
+         */
+        public long getExpiration() {
+            return expiration;
+        }
+
+        /**
+         * Get the record's context.
+         *
+         * @return the context
+         */
+        @Nonnull public String getContext() {
+            return context;
+        }
+
+        /**
+         * Get the record's key.
+         *
+         * @return the key
+         */
+        @Nonnull public String getKey() {
+            return key;
+        }
+
+        /**
+         * Get the record.
+         *
+         * @return the record
+         */
+        @Nonnull public Record getRecord() {
+            return record;
+        }
+
+        /** {@inheritDoc} */
+        public int compareTo(final ExpiryEntry other) {
+            return Long.compare(expiration, other.expiration);
+        }
+    }
+
+}
@@ -0,0 +1,570 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.storage.impl;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.opensaml.storage.ReplayCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link ReplayCache} which answers most checks from a local probabilistic filter, writing the values it accepts
+ * to the backing store asynchronously, in batches.
+ * 
+ * <p>Each value accepted is added to a Bloom filter, partitioned by expiration into windows which are discarded
+ * once every value in them has expired. A value which the filter has definitely not seen, and which is not
+ * awaiting a write, is accepted at once and queued to be written to the backing store. Any other value is checked
+ * exactly against the backing store, as by the superclass.</p>
+ * 
+ * <p>The result is at-least-once semantics: a replay of a value accepted by another node is detected only once
+ * that node has written the value and this node's filter reports it may have been seen, so a replay across nodes
+ * within the write interval, or of a value this node has not seen, may be accepted. A replay found when a queued
+ * value is written is logged. Replays of values accepted by this node are always detected.</p>
+ * 
+ * <p>If the cache is strict, the filter is not used and every check is exact. If the backing store falls behind,
+ * so that the number of values awaiting a write reaches {@link #getMaxPendingWrites()}, checks are exact until
+ * it catches up.</p>
+ */
+public class FilteringReplayCache extends ReplayCache {
+
+    /** Logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(FilteringReplayCache.class);
+
+    /** Width of each filter window, in milliseconds. */
+    @Duration @Positive private long filterWindow;
+
+    /** Expected number of values whose expiration falls in a filter window. */
+    @Positive private int expectedInsertions;
+
+    /** Target false positive probability of each filter window. */
+    private double falsePositiveProbability;
+
+    /** Interval between writes of queued values, in milliseconds. */
+    @Duration @Positive private long writeInterval;
+
+    /** Maximum number of values awaiting a write before checks become exact. */
+    @Positive private int maxPendingWrites;
+
+    /** Timer used to schedule writes, or null to use an internal timer. */
+    @Nullable private Timer writeTaskTimer;
+
+    /** Timer used to schedule writes, once initialized. */
+    @Nullable private Timer internalTaskTimer;
+
+    /** Task writing queued values. */
+    @Nullable private TimerTask writeTask;
+
+    /** Bloom filters by window, numbered by expiration divided by window width. */
+    @Nonnull private final ConcurrentNavigableMap<Long, BloomFilter> filters;
+
+    /** Values awaiting a write, by context and key. */
+    @Nonnull private final ConcurrentMap<PendingWrite, PendingWrite> pendingWrites;
+
+    /** Constructor. */
+    public FilteringReplayCache() {
+        filterWindow = 60 * 1000;
+        expectedInsertions = 100000;
+        falsePositiveProbability = 0.001;
+        writeInterval = 1000;
+        maxPendingWrites = 100000;
+        filters = new ConcurrentSkipListMap<>();
+        pendingWrites = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Get the width of each filter window.
+     * 
+     * @return the window width, in milliseconds
+     */
+    @Positive public long getFilterWindow() {
+        return filterWindow;
+    }
+
+    /**
+     * Set the width of each filter window. Values whose expirations fall within the same window share a filter,
+     * which is discarded once the window ends, so a window is typically a fraction of the message lifetime
+     * enforced by the caller.
+     * 
+     * @param window the window width, in milliseconds
+     */
+    @Duration public void setFilterWindow(@Duration @Positive final long window) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        filterWindow = Constraint.isGreaterThan(0, window, "Filter window must be greater than 0");
+    }
+
+    /**
+     * Get the expected number of values whose expiration falls in a filter window.
+     * 
+     * @return the expected number of values
+     */
+    @Positive public int getExpectedInsertions() {
+        return expectedInsertions;
+    }
+
+    /**
+     * Set the expected number of values whose expiration falls in a filter window, used to size each filter.
+     * 
+     * @param insertions the expected number of values
+     */
+    public void setExpectedInsertions(@Positive final int insertions) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        expectedInsertions =
+                (int) Constraint.isGreaterThan(0, insertions, "Expected insertions must be greater than 0");
+    }
+
+    /**
+     * Get the target false positive probability of each filter window.
+     * 
+     * @return the false positive probability
+     */
+    public double getFalsePositiveProbability() {
+        return falsePositiveProbability;
+    }
+
+    /**
+     * Set the target false positive probability of each filter window, used to size each filter. A false
+     * positive costs an exact check against the backing store.
+     * 
+     * @param probability the false positive probability, between 0 and 1 exclusive
+     */
+    public void setFalsePositiveProbability(final double probability) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        if (probability <= 0 || probability >= 1) {
+            throw new IllegalArgumentException("False positive probability must be between 0 and 1");
+        }
+        falsePositiveProbability = probability;
+    }
+
+    /**
+     * Get the interval between writes of queued values.
+     * 
+     * @return the interval, in milliseconds
+     */
+    @Positive public long getWriteInterval() {
+        return writeInterval;
+    }
+
+    /**
+     * Set the interval between writes of queued values.
+     * 
+     * @param interval the interval, in milliseconds
+     */
+    @Duration public void setWriteInterval(@Duration @Positive final long interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        writeInterval = Constraint.isGreaterThan(0, interval, "Write interval must be greater than 0");
+    }
+
+    /**
+     * Get the maximum number of values awaiting a write before checks become exact.
+     * 
+     * @return the maximum number of values
+     */
+    @Positive public int getMaxPendingWrites() {
+        return maxPendingWrites;
+    }
+
+    /**
+     * Set the maximum number of values awaiting a write before checks become exact.
+     * 
+     * @param max the maximum number of values
+     */
+    public void setMaxPendingWrites(@Positive final int max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        maxPendingWrites = (int) Constraint.isGreaterThan(0, max, "Maximum pending writes must be greater than 0");
+    }
+
+    /**
+     * Get the timer used to schedule writes.
+     * 
+     * @return the timer, or null if an internal timer is used
+     */
+    @Nullable public Timer getWriteTaskTimer() {
+        return writeTaskTimer;
+    }
+
+    /**
+     * Set the timer used to schedule writes.
+     * 
+     * @param timer the timer, or null to use an internal timer
+     */
+    public void setWriteTaskTimer(@Nullable final Timer timer) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        writeTaskTimer = timer;
+    }
+
+    /**
+     * Get the number of values awaiting a write.
+     * 
+     * @return the number of values
+     */
+    public int getPendingWriteCount() {
+        return pendingWrites.size();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+
+        if (!isStrict()) {
+            writeTask = new TimerTask() {
+                @Override
+                public void run() {
+                    writePending();
+                }
+            };
+            internalTaskTimer = writeTaskTimer != null ? writeTaskTimer : new Timer(true);
+            internalTaskTimer.schedule(writeTask, writeInterval, writeInterval);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (writeTask != null) {
+            writeTask.cancel();
+            writeTask = null;
+            if (writeTaskTimer == null) {
+                internalTaskTimer.cancel();
+            }
+            internalTaskTimer = null;
+            writePending();
+        }
+        super.doDestroy();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean check(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String s,
+            final long expires) {
+
+        if (writeTask == null) {
+            return super.check(context, s, expires);
+        }
+
+        final String key = getStorageKey(context, s);
+        if (key == null) {
+            return false;
+        }
+
+        final PendingWrite write = new PendingWrite(context, key, s, expires);
+        final long now = System.currentTimeMillis();
+
+        if (!mightContain(write, now) && pendingWrites.size() < maxPendingWrites) {
+            if (pendingWrites.putIfAbsent(write, write) != null) {
+                log.debug("Replay of value '{}' detected awaiting write to cache", s);
+                return false;
+            }
+            // Only added to the filter once queued, so that a concurrent check finding the value in the filter
+            // also finds it queued, rather than falling through to the backing store ahead of the queued write.
+            put(write);
+            log.debug("Value '{}' was not seen locally, queued for cache with expiration time {}", s, expires);
+            return true;
+        }
+
+        if (pendingWrites.containsKey(write)) {
+            log.debug("Replay of value '{}' detected awaiting write to cache", s);
+            return false;
+        }
+
+        // Added to the filter first, so that a concurrent check of the value can not be queued.
+        put(write);
+        return super.check(context, s, expires);
+    }
+
+    /** Write the queued values to the backing store. */
+    protected void writePending() {
+        int written = 0;
+        final Iterator<PendingWrite> writes = pendingWrites.keySet().iterator();
+        while (writes.hasNext()) {
+            final PendingWrite write = writes.next();
+            try {
+                if (!checkAndStore(write.getContext(), write.getKey(), write.getValue(), write.getExpiration())) {
+                    log.warn("Replay of value '{}' detected in cache after the value was accepted",
+                            write.getValue());
+                }
+            } catch (final IOException e) {
+                if (write.getExpiration() > System.currentTimeMillis()) {
+                    log.error("Exception writing to storage service, will retry", e);
+                    break;
+                }
+                log.error("Exception writing to storage service, discarding expired value '{}'",
+                        write.getValue(), e);
+            }
+            // Only removed once written, so that a concurrent check of the value finds it queued or stored.
+            writes.remove();
+            written++;
+        }
+
+        // Discard the filters for windows which have ended.
+        filters.headMap(System.currentTimeMillis() / filterWindow).clear();
+
+        if (written > 0) {
+            log.debug("Wrote {} queued value(s) to cache", written);
+        }
+    }
+
+    /**
+     * Get whether a value may have been added to the filter for any window which has not ended.
+     * 
+     * @param write the value
+     * @param now the current time
+     * 
+     * @return false if the value has definitely not been added
+     */
+    private boolean mightContain(@Nonnull final PendingWrite write, final long now) {
+        for (final BloomFilter filter : filters.tailMap(now / filterWindow).values()) {
+            if (filter.mightContain(write.getFilterKey())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add a value to the filter for the window of its expiration.
+     * 
+     * @param write the value
+     */
+    private void put(@Nonnull final PendingWrite write) {
+        final Long window = write.getExpiration() / filterWindow;
+        BloomFilter filter = filters.get(window);
+        if (filter == null) {
+            final BloomFilter newFilter = new BloomFilter(expectedInsertions, falsePositiveProbability);
+            filter = filters.putIfAbsent(window, newFilter);
+            if (filter == null) {
+                filter = newFilter;
+            }
+        }
+        filter.put(write.getFilterKey());
+    }
+
+    /** A thread-safe Bloom filter over strings. */
+    private static class BloomFilter {
+
+        /** The filter's bits. */
+        @Nonnull private final AtomicLongArray bits;
+
+        /** The number of bits. */
+        private final int bitCount;
+
+        /** The number of bits set per string. */
+        private final int hashCount;
+
+        /**
+         * Constructor.
+         * 
+         * @param insertions the expected number of strings
+         * @param probability the target false positive probability
+         */
+        public BloomFilter(final int insertions, final double probability) {
+            final double ln2 = Math.log(2);
+            final long size = (long) Math.ceil(-insertions * Math.log(probability) / (ln2 * ln2));
+            bitCount = (int) Math.max(64, Math.min(size, Integer.MAX_VALUE - 63));
+            hashCount = Math.max(1, (int) Math.round((double) bitCount / insertions * ln2));
+            bits = new AtomicLongArray((bitCount + 63) / 64);
+        }
+
+        /**
+         * Add a string to the filter.
+         * 
+         * @param s the string
+         */
+        public void put(@Nonnull final String s) {
+            final int hash1 = s.hashCode();
+            final int hash2 = secondHash(s);
+            for (int i = 0; i < hashCount; i++) {
+                final int bit = index(hash1, hash2, i);
+                final int word = bit >>> 6;
+                final long mask = 1L << bit;
+                long current = bits.get(word);
+                while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+                    current = bits.get(word);
+                }
+            }
+        }
+
+        /**
+         * Get whether a string may have been added to the filter.
+         * 
+         * @param s the string
+         * 
+         * @return false if the string has definitely not been added
+         */
+        public boolean mightContain(@Nonnull final String s) {
+            final int hash1 = s.hashCode();
+            final int hash2 = secondHash(s);
+            for (int i = 0; i < hashCount; i++) {
+                final int bit = index(hash1, hash2, i);
+                if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Get the bit for one of a string's hashes, by double hashing.
+         * 
+         * @param hash1 the string's first hash
+         * @param hash2 the string's second hash
+         * @param i the number of the hash
+         * 
+         * @return the bit
+         */
+        private int index(final int hash1, final int hash2, final int i) {
+            return (int) (((hash1 + (long) i * hash2) & Long.MAX_VALUE) % bitCount);
+        }
+
+        /**
+         * Compute a hash of a string independent of {@link String#hashCode()}, using FNV-1a.
+         * 
+         * @param s the string
+         * 
+         * @return the hash
+         */
+        private static int secondHash(@Nonnull final String s) {
+            int hash = 0x811c9dc5;
+            for (int i = 0; i < s.length(); i++) {
+                hash ^= s.charAt(i);
+                hash *= 0x01000193;
+            }
+            // Odd, so that successive hashes differ.
+            return hash | 1;
+        }
+    }
+
+    /** A value accepted and awaiting a write, identified by its context and key. */
+    private static class PendingWrite {
+
+        /** The context. */
+        @Nonnull private final String context;
+
+        /** The key. */
+        @Nonnull private final String key;
+
+        /** The value. */
+        @Nonnull private final String value;
+
+        /** The expiration. */
+        private final long expiration;
+
+        /**
+         * Constructor.
+         * 
+         * @param ctx the context
+         * @param k the key
+         * @param s the value
+         * @param exp the expiration
+         */
+        public PendingWrite(@Nonnull final String ctx, @Nonnull final String k, @Nonnull final String s,
+                final long exp) {
+            context = ctx;
+            key = k;
+            value = s;
+            expiration = exp;
+        }
+
+        /**
+         * Get the context.
+         * 
+         * @return the context
+         */
+        @Nonnull public String getContext() {
+            return context;
+        }
+
+        /**
+         * Get the key.
+         * 
+         * @return the key
+         */
+        @Nonnull public String getKey() {
+            return key;
+        }
+
+        /**
+         * Get the value.
+         * 
+         * @return the value
+         */
+        @Nonnull public String getValue() {
+            return value;
+        }
+
+        /**
+         * Get the expiration.
+         * 
+         * @return the expiration
+         */
+        public long getExpiration() {
+            return expiration;
+        }
+
+        /**
+         * Get the string identifying the value in a filter.
+         * 
+         * @return the string
+         */
+        @Nonnull public String getFilterKey() {
+            return context + '!' + key;
+        }
+
+        /** {@inheritDoc} */
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj instanceof PendingWrite) {
+                return context.equals(((PendingWrite) obj).context) && key.equals(((PendingWrite) obj).key);
+            }
+            return false;
+        }
+
+        /** {@inheritDoc} */
+        public int hashCode() {
+            return 31 * context.hashCode() + key.hashCode();
+        }
+    }
+
+}
@@ -26,6 +26,7 @@ import javax.persistence.Embeddable;
 import javax.persistence.Entity;
 import javax.persistence.Id;
 import javax.persistence.IdClass;
+import javax.persistence.Index;
 import javax.persistence.Lob;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
@@ -37,9 +38,12 @@ import org.opensaml.storage.MutableStorageRecord;
 
 /**
  * Implementation of {@link MutableStorageRecord} annotated for JPA.
+ * 
+ * <p>The expiration column is indexed so that expired records can be found without a table scan. Schemas that
+ * were not generated from this mapping should add an equivalent index.</p>
  */
 @Entity
-@Table(name = "StorageRecords")
+@Table(name = "StorageRecords", indexes = {@Index(name = "StorageRecords_expires", columnList = "expires")})
 @NamedQueries({
     @NamedQuery(name = "JPAStorageRecord.findAll",
             query = "SELECT r FROM JPAStorageRecord r"),
@@ -47,11 +51,44 @@ import org.opensaml.storage.MutableStorageRecord;
             query = "SELECT distinct r.context FROM JPAStorageRecord r"),
     @NamedQuery(name = "JPAStorageRecord.findByContext",
             query = "SELECT r FROM JPAStorageRecord r WHERE r.context = :context"),
+    @NamedQuery(name = "JPAStorageRecord.findByContextAndKeys",
+            query = "SELECT r FROM JPAStorageRecord r WHERE r.context = :context AND r.key IN :keys"),
+    @NamedQuery(name = "JPAStorageRecord.findIdsByExpiration",
+            query = "SELECT r.context, r.key FROM JPAStorageRecord r WHERE r.expiration <= :exp"),
+    @NamedQuery(name = "JPAStorageRecord.replaceExpiredByContextAndKey",
+            query = "UPDATE JPAStorageRecord r SET r.value = :value, r.expiration = :exp, r.version = 1"
+                    + " WHERE r.context = :context AND r.key = :key AND r.expiration <= :now"),
+    @NamedQuery(name = "JPAStorageRecord.updateByContextAndKey",
+            query = "UPDATE JPAStorageRecord r SET r.value = :value, r.expiration = :exp, r.version = r.version + 1"
+                    + " WHERE r.context = :context AND r.key = :key"
+                    + " AND (r.expiration IS NULL OR r.expiration > :now)"),
+    @NamedQuery(name = "JPAStorageRecord.updateByContextKeyAndVersion",
+            query = "UPDATE JPAStorageRecord r SET r.value = :value, r.expiration = :exp, r.version = r.version + 1"
+                    + " WHERE r.context = :context AND r.key = :key AND r.version = :version"
+                    + " AND (r.expiration IS NULL OR r.expiration > :now)"),
+    @NamedQuery(name = "JPAStorageRecord.updateExpirationByContextAndKey",
+            query = "UPDATE JPAStorageRecord r SET r.expiration = :exp"
+                    + " WHERE r.context = :context AND r.key = :key"
+                    + " AND (r.expiration IS NULL OR r.expiration > :now)"),
+    @NamedQuery(name = "JPAStorageRecord.updateExpirationByContextKeyAndVersion",
+            query = "UPDATE JPAStorageRecord r SET r.expiration = :exp"
+                    + " WHERE r.context = :context AND r.key = :key AND r.version = :version"
+                    + " AND (r.expiration IS NULL OR r.expiration > :now)"),
     @NamedQuery(name = "JPAStorageRecord.updateExpirationByContext",
             query =
               "UPDATE JPAStorageRecord r SET r.expiration = :exp WHERE r.context = :context AND r.expiration >= :now"),
     @NamedQuery(name = "JPAStorageRecord.deleteByContext",
             query = "DELETE FROM JPAStorageRecord r WHERE r.context = :context"),
+    @NamedQuery(name = "JPAStorageRecord.deleteByContextAndKey",
+            query = "DELETE FROM JPAStorageRecord r WHERE r.context = :context AND r.key = :key"),
+    @NamedQuery(name = "JPAStorageRecord.deleteByContextKeyAndVersion",
+            query = "DELETE FROM JPAStorageRecord r WHERE r.context = :context AND r.key = :key"
+                    + " AND r.version = :version"),
+    @NamedQuery(name = "JPAStorageRecord.deleteByContextAndKeys",
+            query = "DELETE FROM JPAStorageRecord r WHERE r.context = :context AND r.key IN :keys"),
+    @NamedQuery(name = "JPAStorageRecord.deleteByContextKeysAndExpiration",
+            query = "DELETE FROM JPAStorageRecord r WHERE r.context = :context AND r.key IN :keys"
+                    + " AND r.expiration <= :exp"),
     @NamedQuery(name = "JPAStorageRecord.deleteByContextAndExpiration",
             query = "DELETE FROM JPAStorageRecord r WHERE r.context = :context AND r.expiration <= :exp"),
     @NamedQuery(name = "JPAStorageRecord.deleteByExpiration",
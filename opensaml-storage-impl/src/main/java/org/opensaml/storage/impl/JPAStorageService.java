@@ -19,9 +19,12 @@ package org.opensaml.storage.impl;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimerTask;
 
 import javax.annotation.Nonnull;
@@ -31,8 +34,10 @@ import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
 import javax.persistence.LockModeType;
+import javax.persistence.PersistenceException;
 import javax.persistence.Query;
 import javax.persistence.RollbackException;
+import javax.persistence.TypedQuery;
 
 import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
@@ -50,6 +55,9 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Implementation of {@link org.opensaml.storage.StorageService} that uses JPA to persist to a database.
+ * 
+ * <p>Single-record writes are expressed as conditional statements, such as an insert that fails on a duplicate key
+ * or an update qualified by version and expiration, rather than as a locking read followed by a write.</p>
  */
 public class JPAStorageService extends AbstractStorageService {
 
@@ -62,6 +70,9 @@ public class JPAStorageService extends AbstractStorageService {
     /** Number of times to retry a transaction if it rolls back. Default value is {@value} . */
     @NonNegative private int transactionRetry = 3;
 
+    /** Maximum number of expired records to delete per transaction during cleanup, or 0 for no limit. */
+    @NonNegative private int cleanupBatchSize = 1000;
+
     /**
      * Creates a new JPA storage service.
      * 
@@ -96,6 +107,38 @@ public class JPAStorageService extends AbstractStorageService {
                         "Transaction retry must be greater than or equal to zero");
     }
 
+    /**
+     * Returns the maximum number of expired records deleted in a single transaction by the cleanup task.
+     * 
+     * @return cleanup batch size, or 0 for no limit
+     */
+    @NonNegative public int getCleanupBatchSize() {
+        return cleanupBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of expired records deleted in a single transaction by the cleanup task. Deleting
+     * expired records in bounded batches keeps a large backlog from holding locks on much of the table at once.
+     * 
+     * @param size cleanup batch size, or 0 to delete all expired records with one statement
+     */
+    public void setCleanupBatchSize(@NonNegative final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        cleanupBatchSize =
+                (int) Constraint.isGreaterThanOrEqual(0, size,
+                        "Cleanup batch size must be greater than or equal to zero");
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>A create inserts the record, and a concurrent insert of the same key violates the primary key, so fails.
+     * An expired record is only replaced by an update conditional on its expiration.</p>
+     */
+    @Override public boolean isAtomicCreate() {
+        return true;
+    }
+
     /** {@inheritDoc} */
     @Override protected void doDestroy() {
         if (entityManagerFactory.isOpen()) {
@@ -106,89 +149,85 @@ public class JPAStorageService extends AbstractStorageService {
 
     // Checkstyle: MethodLength OFF
     // Checkstyle: CyclomaticComplexity OFF
-    /** {@inheritDoc} */
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The record is inserted without first being looked up. If the insert fails because the key is taken, an
+     * expired record is replaced by a conditional update, and otherwise the create fails.</p>
+     */
     @Override public boolean create(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
             @Nonnull @NotEmpty final String value, @Nullable @Positive final Long expiration) throws IOException {
-        EntityManager manager = null;
-        try {
-            int retry = -1;
-            RollbackException lastThrown = null;
-            do {
-                EntityTransaction transaction = null;
-                try {
-                    manager = entityManagerFactory.createEntityManager();
-                    transaction = manager.getTransaction();
-                    transaction.begin();
-                    JPAStorageRecord entity =
-                            manager.find(JPAStorageRecord.class, new JPAStorageRecord.RecordId(context, key),
-                                    LockModeType.PESSIMISTIC_WRITE);
-                    if (entity != null) {
-                        // Not yet expired?
-                        final Long exp = entity.getExpiration();
-                        if (exp == null || System.currentTimeMillis() < exp) {
-                            log.debug("Duplicate record '{}' in context '{}'", key, context);
-                            return false;
-                        }
-
-                        // It's dead, reset the version for merge.
-                        entity.resetVersion();
-                    } else {
-                        entity = new JPAStorageRecord();
-                        entity.setContext(context);
-                        entity.setKey(key);
-                    }
-
-                    entity.setValue(value);
-                    entity.setExpiration(expiration);
-                    manager.merge(entity);
-                    transaction.commit();
-                    log.debug("Create record '{}' in context '{}' with expiration '{}'", new Object[] {key, context,
-                            expiration,});
-                    return true;
-                } catch (final EntityExistsException e) {
-                    if (transaction != null && transaction.isActive()) {
-                        try {
-                            transaction.rollback();
-                        } catch (Exception ex) {
-                            log.error("Error rolling back transaction", e);
-                        }
-                    }
-                    log.debug("Duplicate record '{}' in context '{}' with expiration '{}'", key, context, expiration);
-                    return false;
-                } catch (final RollbackException e) {
-                    lastThrown = e;
-                    retry++;
-                } catch (final Exception e) {
-                    if (transaction != null && transaction.isActive()) {
-                        try {
-                            transaction.rollback();
-                        } catch (Exception ex) {
-                            log.error("Error rolling back transaction", e);
-                        }
+        int retry = -1;
+        PersistenceException lastThrown = null;
+        do {
+            EntityManager manager = null;
+            EntityTransaction transaction = null;
+            try {
+                manager = entityManagerFactory.createEntityManager();
+                transaction = manager.getTransaction();
+                transaction.begin();
+                final JPAStorageRecord entity = new JPAStorageRecord();
+                entity.setContext(context);
+                entity.setKey(key);
+                entity.setValue(value);
+                entity.setExpiration(expiration);
+                manager.persist(entity);
+                manager.flush();
+                transaction.commit();
+                log.debug("Create record '{}' in context '{}' with expiration '{}'", new Object[] {key, context,
+                        expiration,});
+                return true;
+            } catch (final PersistenceException e) {
+                if (transaction != null && transaction.isActive()) {
+                    try {
+                        transaction.rollback();
+                    } catch (Exception ex) {
+                        log.error("Error rolling back transaction", e);
                     }
-                    log.error("Error creating record '{}' in context '{}' with expiration '{}'", key, context,
-                            expiration, e);
-                    throw new IOException(e);
-                } finally {
-                    if (transaction != null && transaction.isActive() && !transaction.getRollbackOnly()) {
-                        try {
-                            transaction.commit();
-                        } catch (Exception e) {
-                            log.error("Error committing transaction", e);
-                        }
+                }
+                lastThrown = e;
+            } catch (final Exception e) {
+                if (transaction != null && transaction.isActive()) {
+                    try {
+                        transaction.rollback();
+                    } catch (Exception ex) {
+                        log.error("Error rolling back transaction", e);
                     }
                 }
-            } while (retry < transactionRetry);
-            throw lastThrown;
-        } finally {
-            if (manager != null && manager.isOpen()) {
-                try {
-                    manager.close();
-                } catch (Exception e) {
-                    log.error("Error closing entity manager", e);
+                log.error("Error creating record '{}' in context '{}' with expiration '{}'", key, context,
+                        expiration, e);
+                throw new IOException(e);
+            } finally {
+                if (manager != null && manager.isOpen()) {
+                    try {
+                        manager.close();
+                    } catch (Exception e) {
+                        log.error("Error closing entity manager", e);
+                    }
                 }
             }
-        }
+
+            // The insert most likely failed because the key exists, so replace the record if it's dead.
+            final Map<String, Object> params = new HashMap<>();
+            params.put("context", context);
+            params.put("key", key);
+            params.put("value", value);
+            params.put("exp", expiration);
+            params.put("now", System.currentTimeMillis());
+            if (executeNamedUpdate("JPAStorageRecord.replaceExpiredByContextAndKey", params) > 0) {
+                log.debug("Replaced expired record '{}' in context '{}' with expiration '{}'", new Object[] {key,
+                        context, expiration,});
+                return true;
+            } else if (read(context, key) != null) {
+                log.debug("Duplicate record '{}' in context '{}' with expiration '{}'", key, context, expiration);
+                return false;
+            }
+
+            // Neither live nor dead, so the insert failed for some other reason.
+            log.debug("Retrying create of record '{}' in context '{}'", key, context, lastThrown);
+            retry++;
+        } while (retry < transactionRetry);
+        throw lastThrown;
     }
 
     // Checkstyle: CyclomaticComplexity ON
@@ -269,6 +308,234 @@ public class JPAStorageService extends AbstractStorageService {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The records are read by a single query.</p>
+     */
+    @Override @Nonnull @NonnullElements public Map<String, StorageRecord> readAll(
+            @Nonnull @NotEmpty final String context, @Nonnull @NonnullElements final Collection<String> keys)
+                    throws IOException {
+        final Map<String, StorageRecord> records = new HashMap<>(keys.size());
+        if (keys.isEmpty()) {
+            return records;
+        }
+        EntityManager manager = null;
+        try {
+            manager = entityManagerFactory.createEntityManager();
+            final Map<String, Object> params = new HashMap<>();
+            params.put("context", context);
+            params.put("keys", keys);
+            final long now = System.currentTimeMillis();
+            for (final JPAStorageRecord entity : executeNamedQuery(manager, "JPAStorageRecord.findByContextAndKeys",
+                    params, JPAStorageRecord.class, LockModeType.PESSIMISTIC_READ)) {
+                final Long exp = entity.getExpiration();
+                if (exp == null || now < exp) {
+                    records.put(entity.getKey(), entity);
+                }
+            }
+            log.debug("Read {} of {} record(s) in context '{}'", records.size(), keys.size(), context);
+            return records;
+        } finally {
+            if (manager != null && manager.isOpen()) {
+                try {
+                    manager.close();
+                } catch (Exception e) {
+                    log.error("Error closing entity manager", e);
+                }
+            }
+        }
+    }
+
+    // Checkstyle: MethodLength OFF
+    // Checkstyle: CyclomaticComplexity OFF
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The records are created in a single transaction, which is retried as a whole if it rolls back. Existing
+     * records are locked by a single query, and the resulting inserts and updates are flushed together, so they can
+     * be sent as a JDBC batch if the persistence provider is configured to do so.</p>
+     */
+    @Override @Nonnull @NonnullElements public Set<String> createAll(@Nonnull @NotEmpty final String context,
+            @Nonnull @NonnullElements final Map<String, String> values, @Nullable @Positive final Long expiration)
+                    throws IOException {
+        EntityManager manager = null;
+        try {
+            int retry = -1;
+            RollbackException lastThrown = null;
+            do {
+                EntityTransaction transaction = null;
+                try {
+                    manager = entityManagerFactory.createEntityManager();
+                    transaction = manager.getTransaction();
+                    transaction.begin();
+                    final Set<String> created = new HashSet<>(values.size());
+                    if (values.isEmpty()) {
+                        return created;
+                    }
+                    final TypedQuery<JPAStorageRecord> query =
+                            manager.createNamedQuery("JPAStorageRecord.findByContextAndKeys", JPAStorageRecord.class);
+                    query.setLockMode(LockModeType.PESSIMISTIC_WRITE);
+                    query.setParameter("context", context);
+                    query.setParameter("keys", values.keySet());
+                    final Map<String, JPAStorageRecord> existing = new HashMap<>();
+                    for (final JPAStorageRecord entity : query.getResultList()) {
+                        existing.put(entity.getKey(), entity);
+                    }
+                    final long now = System.currentTimeMillis();
+                    for (final Map.Entry<String, String> entry : values.entrySet()) {
+                        JPAStorageRecord entity = existing.get(entry.getKey());
+                        if (entity != null) {
+                            // Not yet expired?
+                            final Long exp = entity.getExpiration();
+                            if (exp == null || now < exp) {
+                                log.debug("Duplicate record '{}' in context '{}'", entry.getKey(), context);
+                                continue;
+                            }
+
+                            // It's dead and managed, so resetting it is enough to update it.
+                            entity.resetVersion();
+                        } else {
+                            entity = new JPAStorageRecord();
+                            entity.setContext(context);
+                            entity.setKey(entry.getKey());
+                            manager.persist(entity);
+                        }
+
+                        entity.setValue(entry.getValue());
+                        entity.setExpiration(expiration);
+                        created.add(entry.getKey());
+                    }
+                    manager.flush();
+                    transaction.commit();
+                    log.debug("Created {} of {} record(s) in context '{}' with expiration '{}'",
+                            new Object[] {created.size(), values.size(), context, expiration,});
+                    return created;
+                } catch (final EntityExistsException e) {
+                    // A record was created concurrently, so retry in order to find it.
+                    if (transaction != null && transaction.isActive()) {
+                        try {
+                            transaction.rollback();
+                        } catch (Exception ex) {
+                            log.error("Error rolling back transaction", e);
+                        }
+                    }
+                    lastThrown = new RollbackException(e);
+                    retry++;
+                } catch (final RollbackException e) {
+                    lastThrown = e;
+                    retry++;
+                } catch (final Exception e) {
+                    if (transaction != null && transaction.isActive()) {
+                        try {
+                            transaction.rollback();
+                        } catch (Exception ex) {
+                            log.error("Error rolling back transaction", e);
+                        }
+                    }
+                    log.error("Error creating records in context '{}' with expiration '{}'", context, expiration,
+                            e);
+                    throw new IOException(e);
+                } finally {
+                    if (transaction != null && transaction.isActive() && !transaction.getRollbackOnly()) {
+                        try {
+                            transaction.commit();
+                        } catch (Exception e) {
+                            log.error("Error committing transaction", e);
+                        }
+                    }
+                }
+            } while (retry < transactionRetry);
+            throw lastThrown;
+        } finally {
+            if (manager != null && manager.isOpen()) {
+                try {
+                    manager.close();
+                } catch (Exception e) {
+                    log.error("Error closing entity manager", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The records are found by a single query and deleted by a single statement in the same transaction, which
+     * is retried as a whole if it rolls back.</p>
+     */
+    @Override @Nonnull @NonnullElements public Set<String> deleteAll(@Nonnull @NotEmpty final String context,
+            @Nonnull @NonnullElements final Collection<String> keys) throws IOException {
+        if (keys.isEmpty()) {
+            return new HashSet<>();
+        }
+        EntityManager manager = null;
+        try {
+            int retry = -1;
+            RollbackException lastThrown = null;
+            do {
+                EntityTransaction transaction = null;
+                try {
+                    manager = entityManagerFactory.createEntityManager();
+                    transaction = manager.getTransaction();
+                    transaction.begin();
+                    final TypedQuery<JPAStorageRecord> query =
+                            manager.createNamedQuery("JPAStorageRecord.findByContextAndKeys", JPAStorageRecord.class);
+                    query.setLockMode(LockModeType.PESSIMISTIC_WRITE);
+                    query.setParameter("context", context);
+                    query.setParameter("keys", keys);
+                    final Set<String> deleted = new HashSet<>(keys.size());
+                    for (final JPAStorageRecord entity : query.getResultList()) {
+                        deleted.add(entity.getKey());
+                    }
+                    if (!deleted.isEmpty()) {
+                        // cannot set lock mode on a non-select query
+                        final Query delete = manager.createNamedQuery("JPAStorageRecord.deleteByContextAndKeys");
+                        delete.setParameter("context", context);
+                        delete.setParameter("keys", deleted);
+                        delete.executeUpdate();
+                    }
+                    transaction.commit();
+                    log.debug("Deleted {} of {} record(s) in context '{}'", deleted.size(), keys.size(), context);
+                    return deleted;
+                } catch (final RollbackException e) {
+                    lastThrown = e;
+                    retry++;
+                } catch (final Exception e) {
+                    log.error("Error deleting records in context '{}'", context, e);
+                    if (transaction != null && transaction.isActive()) {
+                        try {
+                            transaction.rollback();
+                        } catch (Exception ex) {
+                            log.error("Error rolling back transaction", e);
+                        }
+                    }
+                    throw new IOException(e);
+                } finally {
+                    if (transaction != null && transaction.isActive() && !transaction.getRollbackOnly()) {
+                        try {
+                            transaction.commit();
+                        } catch (Exception e) {
+                            log.error("Error committing transaction", e);
+                        }
+                    }
+                }
+            } while (retry < transactionRetry);
+            throw lastThrown;
+        } finally {
+            if (manager != null && manager.isOpen()) {
+                try {
+                    manager.close();
+                } catch (Exception e) {
+                    log.error("Error closing entity manager", e);
+                }
+            }
+        }
+    }
+
+    // Checkstyle: CyclomaticComplexity ON
+    // Checkstyle: MethodLength ON
+
     /** {@inheritDoc} */
     @Override @Nullable public StorageRecord read(@Nonnull @NotEmpty final String context,
             @Nonnull @NotEmpty final String key) throws IOException {
@@ -352,11 +619,12 @@ public class JPAStorageService extends AbstractStorageService {
     /** {@inheritDoc} */
     @Override public boolean update(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
             @Nonnull @NotEmpty final String value, @Nullable @Positive final Long expiration) throws IOException {
-        try {
-            return updateImpl(null, context, key, value, expiration) != null;
-        } catch (final VersionMismatchException e) {
-            throw new IllegalStateException("Unexpected exception thrown by update.", e);
-        }
+        final Map<String, Object> params = createRecordParameters(context, key, expiration);
+        params.put("value", value);
+        final boolean updated = executeNamedUpdate("JPAStorageRecord.updateByContextAndKey", params) > 0;
+        log.debug("Update of record '{}' in context '{}' with expiration '{}': {}", new Object[] {key, context,
+                expiration, updated,});
+        return updated;
     }
 
     /** {@inheritDoc} */
@@ -370,109 +638,66 @@ public class JPAStorageService extends AbstractStorageService {
     /** {@inheritDoc} */
     @Override public boolean updateExpiration(@Nonnull @NotEmpty final String context,
             @Nonnull @NotEmpty final String key, @Nullable @Positive final Long expiration) throws IOException {
-        try {
-            return updateImpl(null, context, key, null, expiration) != null;
-        } catch (final VersionMismatchException e) {
-            throw new IllegalStateException("Unexpected exception thrown by update.", e);
-        }
+        final boolean updated = executeNamedUpdate("JPAStorageRecord.updateExpirationByContextAndKey",
+                createRecordParameters(context, key, expiration)) > 0;
+        log.debug("Update of expiration of record '{}' in context '{}' to '{}': {}", new Object[] {key, context,
+                expiration, updated,});
+        return updated;
     }
 
-    // Checkstyle: MethodLength OFF
     // Checkstyle: CyclomaticComplexity OFF
     /**
      * Updates the record matching the supplied parameters. Returns null if the record cannot be found or is expired.
      * 
+     * <p>The record is updated by a single statement conditional on its version, so is not read unless the update
+     * fails, in order to tell a version mismatch apart from a missing record.</p>
+     * 
      * @param version to check
      * @param context to search for
      * @param key to search for
      * @param value to update
      * @param expiration to update
      * 
-     * @return whether the record was updated
+     * @return the new version of the record, or null if it was not updated
      * @throws IOException if errors occur in the update process
      * @throws VersionMismatchException if the record found contains a version that does not match the parameter
      */
     @Nullable protected Long updateImpl(@Nullable final Long version, @Nonnull @NotEmpty final String context,
-            @Nonnull @NotEmpty final String key, @Nonnull @NotEmpty final String value,
+            @Nonnull @NotEmpty final String key, @Nullable final String value,
             @Nullable @Positive final Long expiration) throws IOException, VersionMismatchException {
-        EntityManager manager = null;
-        try {
-            int retry = -1;
-            RollbackException lastThrown = null;
-            do {
-                EntityTransaction transaction = null;
-                try {
-                    manager = entityManagerFactory.createEntityManager();
-                    transaction = manager.getTransaction();
-                    transaction.begin();
-                    final JPAStorageRecord entity =
-                            manager.find(JPAStorageRecord.class, new JPAStorageRecord.RecordId(context, key),
-                                    LockModeType.PESSIMISTIC_WRITE);
-                    if (entity == null) {
-                        log.debug("Update failed, key '{}' not found in context '{}'", key, context);
-                        return null;
-                    } else {
-                        final Long exp = entity.getExpiration();
-                        if (exp != null && System.currentTimeMillis() >= exp) {
-                            log.debug("Update failed, key '{}' expired in context '{}'", key, context);
-                            return null;
-                        }
-                    }
+        if (version == null) {
+            final boolean updated = value != null ? update(context, key, value, expiration)
+                    : updateExpiration(context, key, expiration);
+            if (!updated) {
+                return null;
+            }
+            final StorageRecord record = read(context, key);
+            return record != null ? record.getVersion() : null;
+        }
 
-                    if (version != null && entity.getVersion() != version) {
-                        // Caller is out of sync.
-                        throw new VersionMismatchException();
-                    }
+        final Map<String, Object> params = createRecordParameters(context, key, expiration);
+        params.put("version", version);
+        if (value != null) {
+            params.put("value", value);
+        }
+        if (executeNamedUpdate(value != null ? "JPAStorageRecord.updateByContextKeyAndVersion"
+                : "JPAStorageRecord.updateExpirationByContextKeyAndVersion", params) > 0) {
+            log.debug("Update record '{}' in context '{}' with expiration '{}'", new Object[] {key, context,
+                    expiration,});
+            // Only a value update changes the version.
+            return value != null ? version + 1 : version;
+        }
 
-                    if (value != null) {
-                        entity.setValue(value);
-                        entity.incrementVersion();
-                    }
-                    entity.setExpiration(expiration);
-                    manager.merge(entity);
-                    transaction.commit();
-                    log.debug("Update record '{}' in context '{}' with expiration '{}'", new Object[] {key, context,
-                            expiration,});
-                    return entity.getVersion();
-                } catch (final VersionMismatchException e) {
-                    throw e;
-                } catch (final RollbackException e) {
-                    lastThrown = e;
-                    retry++;
-                } catch (final Exception e) {
-                    log.error("Error updating record '{}' in context '{}'", key, context, e);
-                    if (transaction != null && transaction.isActive()) {
-                        try {
-                            transaction.rollback();
-                        } catch (Exception ex) {
-                            log.error("Error rolling back transaction", e);
-                        }
-                    }
-                    throw new IOException(e);
-                } finally {
-                    if (transaction != null && transaction.isActive() && !transaction.getRollbackOnly()) {
-                        try {
-                            transaction.commit();
-                        } catch (Exception e) {
-                            log.error("Error committing transaction", e);
-                        }
-                    }
-                }
-            } while (retry < transactionRetry);
-            throw lastThrown;
-        } finally {
-            if (manager != null && manager.isOpen()) {
-                try {
-                    manager.close();
-                } catch (Exception e) {
-                    log.error("Error closing entity manager", e);
-                }
-            }
+        final StorageRecord record = read(context, key);
+        if (record == null || record.getVersion() == version) {
+            log.debug("Update failed, key '{}' not found or expired in context '{}'", key, context);
+            return null;
         }
+        // Caller is out of sync.
+        throw new VersionMismatchException();
     }
 
     // Checkstyle: CyclomaticComplexity ON
-    // Checkstyle: MethodLength ON
 
     /** {@inheritDoc} */
     @Override public boolean deleteWithVersion(@Positive final long version, @Nonnull @NotEmpty final String context,
@@ -490,10 +715,12 @@ public class JPAStorageService extends AbstractStorageService {
         }
     }
 
-    // Checkstyle: CyclomaticComplexity OFF
     /**
      * Deletes the record matching the supplied parameters.
      * 
+     * <p>The record is deleted by a single statement, conditional on its version if one is supplied. The record is
+     * read only if a versioned delete fails, in order to tell a version mismatch apart from a missing record.</p>
+     * 
      * @param version to check
      * @param context to search for
      * @param key to search for
@@ -504,69 +731,23 @@ public class JPAStorageService extends AbstractStorageService {
      */
     protected boolean deleteImpl(@Nullable @Positive final Long version, @Nonnull @NotEmpty final String context,
             @Nonnull @NotEmpty final String key) throws IOException, VersionMismatchException {
-        EntityManager manager = null;
-        try {
-            int retry = -1;
-            RollbackException lastThrown = null;
-            do {
-                EntityTransaction transaction = null;
-                try {
-                    manager = entityManagerFactory.createEntityManager();
-                    transaction = manager.getTransaction();
-                    transaction.begin();
-                    final JPAStorageRecord entity =
-                            manager.find(JPAStorageRecord.class, new JPAStorageRecord.RecordId(context, key),
-                                    LockModeType.PESSIMISTIC_WRITE);
-                    if (entity == null) {
-                        log.debug("Deleting record '{}' in context '{}'....key not found", key, context);
-                        return false;
-                    } else if (version != null && entity.getVersion() != version) {
-                        throw new VersionMismatchException();
-                    } else {
-                        manager.remove(entity);
-                        transaction.commit();
-                        log.debug("Deleted record '{}' in context '{}'", key, context);
-                        return true;
-                    }
-                } catch (final VersionMismatchException e) {
-                    throw e;
-                } catch (final RollbackException e) {
-                    lastThrown = e;
-                    retry++;
-                } catch (final Exception e) {
-                    log.error("Error deleting record '{}' in context '{}'", key, context, e);
-                    if (transaction != null && transaction.isActive()) {
-                        try {
-                            transaction.rollback();
-                        } catch (Exception ex) {
-                            log.error("Error rolling back transaction", e);
-                        }
-                    }
-                    throw new IOException(e);
-                } finally {
-                    if (transaction != null && transaction.isActive() && !transaction.getRollbackOnly()) {
-                        try {
-                            transaction.commit();
-                        } catch (Exception e) {
-                            log.error("Error committing transaction", e);
-                        }
-                    }
-                }
-            } while (retry < transactionRetry);
-            throw lastThrown;
-        } finally {
-            if (manager != null && manager.isOpen()) {
-                try {
-                    manager.close();
-                } catch (Exception e) {
-                    log.error("Error closing entity manager", e);
-                }
-            }
+        final Map<String, Object> params = new HashMap<>();
+        params.put("context", context);
+        params.put("key", key);
+        if (version != null) {
+            params.put("version", version);
+        }
+        if (executeNamedUpdate(version != null ? "JPAStorageRecord.deleteByContextKeyAndVersion"
+                : "JPAStorageRecord.deleteByContextAndKey", params) > 0) {
+            log.debug("Deleted record '{}' in context '{}'", key, context);
+            return true;
+        } else if (version != null && findRecord(context, key) != null) {
+            throw new VersionMismatchException();
         }
+        log.debug("Deleting record '{}' in context '{}'....key not found", key, context);
+        return false;
     }
 
-    // Checkstyle: CyclomaticComplexity ON
-
     // Checkstyle: CyclomaticComplexity OFF
     /** {@inheritDoc} */
     @Override public void updateContextExpiration(@Nonnull @NotEmpty final String context,
@@ -711,56 +892,104 @@ public class JPAStorageService extends AbstractStorageService {
 
     // Checkstyle: CyclomaticComplexity ON
 
-    // Checkstyle: CyclomaticComplexity OFF
     /**
      * Deletes every record with an expiration before the supplied expiration.
      * 
+     * <p>Unless the cleanup batch size is zero, expired records are found and deleted in batches of at most that
+     * many records, each in its own transaction, so that no single statement locks a large part of the table.</p>
+     * 
      * @param expiration of records to delete
      * 
      * @throws IOException if errors occur in the cleanup process
      */
     protected void deleteImpl(@Nonnull final Long expiration) throws IOException {
+        if (cleanupBatchSize == 0) {
+            final Map<String, Object> params = new HashMap<>();
+            params.put("exp", expiration);
+            final int count = executeNamedUpdate("JPAStorageRecord.deleteByExpiration", params);
+            log.debug("Deleted {} record(s) with expiration '{}'", count, expiration);
+            return;
+        }
+
+        int total = 0;
+        int found;
+        int deleted;
+        do {
+            final Map<String, List<String>> keysByContext = findExpired(expiration);
+            found = 0;
+            deleted = 0;
+            for (final Map.Entry<String, List<String>> entry : keysByContext.entrySet()) {
+                found += entry.getValue().size();
+                final Map<String, Object> params = new HashMap<>();
+                params.put("context", entry.getKey());
+                params.put("keys", entry.getValue());
+                params.put("exp", expiration);
+                deleted += executeNamedUpdate("JPAStorageRecord.deleteByContextKeysAndExpiration", params);
+            }
+            total += deleted;
+        } while (found >= cleanupBatchSize && deleted > 0);
+        log.debug("Deleted {} record(s) with expiration '{}'", total, expiration);
+    }
+
+    /**
+     * Finds up to the cleanup batch size of records with an expiration before the supplied expiration.
+     * 
+     * @param expiration of records to find
+     * 
+     * @return the keys of the records found, by context
+     * @throws IOException if an error occurs executing the query
+     */
+    @Nonnull @NonnullElements private Map<String, List<String>> findExpired(@Nonnull final Long expiration)
+            throws IOException {
         EntityManager manager = null;
         try {
-            int retry = -1;
-            RollbackException lastThrown = null;
-            do {
-                EntityTransaction transaction = null;
+            manager = entityManagerFactory.createEntityManager();
+            final TypedQuery<Object[]> query =
+                    manager.createNamedQuery("JPAStorageRecord.findIdsByExpiration", Object[].class);
+            query.setParameter("exp", expiration);
+            query.setMaxResults(cleanupBatchSize);
+            final Map<String, List<String>> keysByContext = new HashMap<>();
+            for (final Object[] id : query.getResultList()) {
+                List<String> keys = keysByContext.get(id[0]);
+                if (keys == null) {
+                    keys = new ArrayList<>();
+                    keysByContext.put((String) id[0], keys);
+                }
+                keys.add((String) id[1]);
+            }
+            return keysByContext;
+        } catch (final Exception e) {
+            log.error("Error finding records with expiration '{}'", expiration, e);
+            throw new IOException(e);
+        } finally {
+            if (manager != null && manager.isOpen()) {
                 try {
-                    manager = entityManagerFactory.createEntityManager();
-                    transaction = manager.getTransaction();
-                    transaction.begin();
-                    // cannot set lock mode on a non-select query
-                    final Query queryResults = manager.createNamedQuery("JPAStorageRecord.deleteByExpiration");
-                    queryResults.setParameter("exp", expiration);
-                    final int count = queryResults.executeUpdate();
-                    transaction.commit();
-                    log.debug("Deleted {} record(s) with expiration '{}'", count, expiration);
-                    return;
-                } catch (final RollbackException e) {
-                    lastThrown = e;
-                    retry++;
-                } catch (final Exception e) {
-                    log.error("Error deleting with expiration '{}'", expiration, e);
-                    if (transaction != null && transaction.isActive()) {
-                        try {
-                            transaction.rollback();
-                        } catch (Exception ex) {
-                            log.error("Error rolling back transaction", e);
-                        }
-                    }
-                    throw new IOException(e);
-                } finally {
-                    if (transaction != null && transaction.isActive() && !transaction.getRollbackOnly()) {
-                        try {
-                            transaction.commit();
-                        } catch (Exception e) {
-                            log.error("Error committing transaction", e);
-                        }
-                    }
+                    manager.close();
+                } catch (Exception e) {
+                    log.error("Error closing entity manager", e);
                 }
-            } while (retry < transactionRetry);
-            throw lastThrown;
+            }
+        }
+    }
+
+    /**
+     * Reads a record regardless of its expiration, without locking it.
+     * 
+     * @param context to search for
+     * @param key to search for
+     * 
+     * @return the record, or null if it does not exist
+     * @throws IOException if errors occur in the read process
+     */
+    @Nullable private JPAStorageRecord findRecord(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) throws IOException {
+        EntityManager manager = null;
+        try {
+            manager = entityManagerFactory.createEntityManager();
+            return manager.find(JPAStorageRecord.class, new JPAStorageRecord.RecordId(context, key));
+        } catch (final Exception e) {
+            log.error("Error reading record '{}' in context '{}'", key, context, e);
+            throw new IOException(e);
         } finally {
             if (manager != null && manager.isOpen()) {
                 try {
@@ -772,6 +1001,88 @@ public class JPAStorageService extends AbstractStorageService {
         }
     }
 
+    /**
+     * Creates the parameters of a statement which updates a single unexpired record.
+     * 
+     * @param context of the record
+     * @param key of the record
+     * @param expiration to set
+     * 
+     * @return the statement parameters
+     */
+    @Nonnull private Map<String, Object> createRecordParameters(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nullable final Long expiration) {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("context", context);
+        params.put("key", key);
+        params.put("exp", expiration);
+        params.put("now", System.currentTimeMillis());
+        return params;
+    }
+
+    // Checkstyle: CyclomaticComplexity OFF
+    /**
+     * Executes the supplied named update or delete statement in its own transaction, which is retried if it rolls
+     * back.
+     * 
+     * @param query to execute
+     * @param params parameters for the statement
+     * 
+     * @return the number of records updated or deleted
+     * @throws IOException if an error occurs executing the statement
+     */
+    private int executeNamedUpdate(@Nonnull @NotEmpty final String query, @Nonnull final Map<String, Object> params)
+            throws IOException {
+        int retry = -1;
+        RollbackException lastThrown = null;
+        do {
+            EntityManager manager = null;
+            EntityTransaction transaction = null;
+            try {
+                manager = entityManagerFactory.createEntityManager();
+                transaction = manager.getTransaction();
+                transaction.begin();
+                // cannot set lock mode on a non-select query
+                final Query queryResults = manager.createNamedQuery(query);
+                for (final Map.Entry<String, Object> entry : params.entrySet()) {
+                    queryResults.setParameter(entry.getKey(), entry.getValue());
+                }
+                final int count = queryResults.executeUpdate();
+                transaction.commit();
+                return count;
+            } catch (final RollbackException e) {
+                lastThrown = e;
+                retry++;
+            } catch (final Exception e) {
+                log.error("Error executing named update '{}'", query, e);
+                if (transaction != null && transaction.isActive()) {
+                    try {
+                        transaction.rollback();
+                    } catch (Exception ex) {
+                        log.error("Error rolling back transaction", e);
+                    }
+                }
+                throw new IOException(e);
+            } finally {
+                if (transaction != null && transaction.isActive() && !transaction.getRollbackOnly()) {
+                    try {
+                        transaction.commit();
+                    } catch (Exception e) {
+                        log.error("Error committing transaction", e);
+                    }
+                }
+                if (manager != null && manager.isOpen()) {
+                    try {
+                        manager.close();
+                    } catch (Exception e) {
+                        log.error("Error closing entity manager", e);
+                    }
+                }
+            }
+        } while (retry < transactionRetry);
+        throw lastThrown;
+    }
+
     // Checkstyle: CyclomaticComplexity ON
 
     // Checkstyle: CyclomaticComplexity OFF
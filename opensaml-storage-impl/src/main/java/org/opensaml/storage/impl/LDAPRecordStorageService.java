@@ -0,0 +1,748 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.storage.impl;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimerTask;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.codec.StringDigester;
+import net.shibboleth.utilities.java.support.codec.StringDigester.OutputFormat;
+import net.shibboleth.utilities.java.support.collection.Pair;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.ldaptive.AddOperation;
+import org.ldaptive.AddRequest;
+import org.ldaptive.AttributeModification;
+import org.ldaptive.AttributeModificationType;
+import org.ldaptive.Connection;
+import org.ldaptive.DeleteOperation;
+import org.ldaptive.DeleteRequest;
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.LdapException;
+import org.ldaptive.ModifyOperation;
+import org.ldaptive.ModifyRequest;
+import org.ldaptive.Response;
+import org.ldaptive.ResultCode;
+import org.ldaptive.SearchFilter;
+import org.ldaptive.SearchOperation;
+import org.ldaptive.SearchRequest;
+import org.ldaptive.SearchResult;
+import org.ldaptive.SearchScope;
+import org.ldaptive.control.PagedResultsControl;
+import org.ldaptive.pool.PooledConnectionFactory;
+import org.opensaml.storage.AbstractStorageService;
+import org.opensaml.storage.MutableStorageRecord;
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.VersionMismatchException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of {@link org.opensaml.storage.StorageService} that stores each record as its own LDAP entry, and
+ * supports expiration and versioning.
+ * 
+ * <p>Record entries are created immediately beneath a base DN, named by a digest of their context and key, and hold
+ * the context, key, value, expiration and version of the record as attributes. The directory schema must allow
+ * these attributes, and should index {@value #CONTEXT_ATTRIBUTE} for equality and {@value #EXPIRATION_ATTRIBUTE}
+ * for ordering, so that the records of a context and expired records can be found without scanning every entry.
+ * Expirations are stored as decimal milliseconds since the epoch.</p>
+ * 
+ * <p>A record is changed by a modify which removes the version (or expiration) that was read and adds the next one.
+ * A modify is applied atomically, so it fails if the record has changed in the meantime, making it a
+ * compare-and-swap which needs no server support beyond the core protocol. A record is deleted with a version
+ * check by such a modify, which clears the record, followed by a delete of its entry. Until its entry is deleted, a
+ * cleared record is treated as dead, and replaced by a create just as an expired record is.</p>
+ */
+public class LDAPRecordStorageService extends AbstractStorageService {
+
+    /** Naming attribute of record entries. */
+    @Nonnull @NotEmpty public static final String ID_ATTRIBUTE = "cn";
+
+    /** Attribute holding the context of a record. */
+    @Nonnull @NotEmpty public static final String CONTEXT_ATTRIBUTE = "storageContext";
+
+    /** Attribute holding the key of a record. */
+    @Nonnull @NotEmpty public static final String KEY_ATTRIBUTE = "storageKey";
+
+    /** Attribute holding the value of a record. */
+    @Nonnull @NotEmpty public static final String VALUE_ATTRIBUTE = "storageValue";
+
+    /** Attribute holding the expiration of a record. */
+    @Nonnull @NotEmpty public static final String EXPIRATION_ATTRIBUTE = "storageExpiration";
+
+    /** Attribute holding the version of a record. */
+    @Nonnull @NotEmpty public static final String VERSION_ATTRIBUTE = "storageVersion";
+
+    /** Expiration set on a record cleared by a versioned delete, ahead of the delete of its entry. */
+    private static final long CLEARED_EXPIRATION = 0L;
+
+    /** Number of times a change is attempted before giving up on a record which keeps changing. */
+    private static final int MAX_ATTEMPTS = 5;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(LDAPRecordStorageService.class);
+
+    /** LDAP connection factory. */
+    private PooledConnectionFactory connectionFactory;
+
+    /** DN beneath which record entries are created. */
+    @Nonnull @NotEmpty private final String baseDn;
+
+    /** Attributes to include in all record entries. */
+    @Nonnull private final LdapAttribute[] defaultAttributes;
+
+    /** Digester used to derive record entry names. */
+    @Nonnull private final StringDigester digester;
+
+    /** Number of entries to request per page when searching for records. Default value is {@value} . */
+    @Positive private int pageSize = 500;
+
+    /**
+     * Creates a new LDAP record storage service.
+     * 
+     * @param factory to retrieve LDAP connections from
+     * @param dn beneath which record entries are created
+     * @param attrs to include in all record entries, such as their object classes
+     */
+    public LDAPRecordStorageService(@Nonnull final PooledConnectionFactory factory,
+            @Nonnull @NotEmpty final String dn, final LdapAttribute... attrs) {
+        connectionFactory = Constraint.isNotNull(factory, "ConnectionFactory cannot be null");
+        baseDn = Constraint.isNotNull(dn, "Base DN cannot be null");
+        defaultAttributes = attrs != null ? attrs : new LdapAttribute[0];
+        try {
+            digester = new StringDigester("SHA-256", OutputFormat.HEX_LOWER);
+        } catch (final NoSuchAlgorithmException e) {
+            // this can't really happen b/c SHA-256 is required to be supported on all JREs.
+            throw new IllegalStateException("SHA-256 digest algorithm is not supported", e);
+        }
+
+        setContextSize(Integer.MAX_VALUE);
+        setKeySize(Integer.MAX_VALUE);
+        setValueSize(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the number of entries requested per page when searching for the records of a context or for expired
+     * records.
+     * 
+     * @return page size
+     */
+    @Positive public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Sets the number of entries requested per page when searching for the records of a context or for expired
+     * records. This should not exceed the size limit the directory imposes on searches.
+     * 
+     * @param size page size
+     */
+    public void setPageSize(@Positive final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        pageSize = (int) Constraint.isGreaterThan(0, size, "Page size must be greater than zero");
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>A create adds the record entry, which fails if the entry exists.</p>
+     */
+    @Override public boolean isAtomicCreate() {
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        connectionFactory.getConnectionPool().initialize();
+    }
+
+    /** {@inheritDoc} */
+    @Override protected void doDestroy() {
+        super.doDestroy();
+        if (isInitialized()) {
+            connectionFactory.getConnectionPool().close();
+            connectionFactory = null;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override public boolean create(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String value, @Nullable @Positive final Long expiration) throws IOException {
+        final String dn = getRecordDn(context, key);
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            try {
+                add(context, key, value, expiration);
+                log.debug("Create record '{}' in context '{}' with expiration '{}'", new Object[] {key, context,
+                        expiration,});
+                return true;
+            } catch (final LdapException e) {
+                if (e.getResultCode() != ResultCode.ENTRY_ALREADY_EXISTS) {
+                    log.error("LDAP add operation failed", e);
+                    throw new IOException(e);
+                }
+            }
+
+            final LDAPStorageRecord record = readRecord(dn);
+            if (record == null) {
+                // Either deleted in the meantime, or cleared by a versioned delete which has yet to delete the
+                // entry, in which case it's dead, so replace it unless someone else already has.
+                if (replaceDeadRecord(dn, CLEARED_EXPIRATION, value, expiration)) {
+                    log.debug("Replaced deleted record '{}' in context '{}' with expiration '{}'", new Object[] {
+                            key, context, expiration,});
+                    return true;
+                }
+                continue;
+            } else if (!record.isExpired()) {
+                log.debug("Duplicate record '{}' in context '{}'", key, context);
+                return false;
+            }
+
+            // It's dead, so replace it unless someone else already has.
+            if (replaceDeadRecord(dn, record.getExpiration(), value, expiration)) {
+                log.debug("Replaced expired record '{}' in context '{}' with expiration '{}'", new Object[] {key,
+                        context, expiration,});
+                return true;
+            }
+        }
+        throw new IOException("Record '" + key + "' in context '" + context + "' changed too often to create");
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nullable public StorageRecord read(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) throws IOException {
+        final LDAPStorageRecord record = readRecord(getRecordDn(context, key));
+        return record != null && !record.isExpired() ? record : null;
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nonnull public Pair<Long, StorageRecord> read(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Positive final long version) throws IOException {
+        final LDAPStorageRecord record = readRecord(getRecordDn(context, key));
+        if (record == null || record.isExpired()) {
+            return new Pair<>();
+        } else if (record.getVersion() == version) {
+            // Nothing's changed, so just echo back the version.
+            return new Pair<>(version, null);
+        }
+        return new Pair<Long, StorageRecord>(record.getVersion(), record);
+    }
+
+    /** {@inheritDoc} */
+    @Override public boolean update(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String value, @Nullable @Positive final Long expiration) throws IOException {
+        try {
+            return updateImpl(null, context, key, value, expiration) != null;
+        } catch (final VersionMismatchException e) {
+            throw new IllegalStateException("Unexpected exception thrown by update.", e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nullable public Long updateWithVersion(@Positive final long version,
+            @Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String value, @Nullable @Positive final Long expiration) throws IOException,
+            VersionMismatchException {
+        return updateImpl(version, context, key, value, expiration);
+    }
+
+    /** {@inheritDoc} */
+    @Override public boolean updateExpiration(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nullable @Positive final Long expiration) throws IOException {
+        try {
+            return updateImpl(null, context, key, null, expiration) != null;
+        } catch (final VersionMismatchException e) {
+            throw new IllegalStateException("Unexpected exception thrown by update.", e);
+        }
+    }
+
+    /**
+     * Updates the record matching the supplied parameters. Returns null if the record cannot be found or is expired.
+     * 
+     * @param version to check
+     * @param context to search for
+     * @param key to search for
+     * @param value to update
+     * @param expiration to update
+     * 
+     * @return the new version of the record, or null if it was not updated
+     * @throws IOException if errors occur in the update process
+     * @throws VersionMismatchException if the record found contains a version that does not match the parameter
+     */
+    @Nullable protected Long updateImpl(@Nullable final Long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nullable final String value,
+            @Nullable @Positive final Long expiration) throws IOException, VersionMismatchException {
+        final String dn = getRecordDn(context, key);
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            final LDAPStorageRecord record = readRecord(dn);
+            if (record == null || record.isExpired()) {
+                log.debug("Update failed, key '{}' not found or expired in context '{}'", key, context);
+                return null;
+            } else if (version != null && record.getVersion() != version) {
+                // Caller is out of sync.
+                throw new VersionMismatchException();
+            }
+
+            // Only a value update changes the version, but the version is swapped regardless to detect changes.
+            final long newVersion = value != null ? record.getVersion() + 1 : record.getVersion();
+            final List<AttributeModification> mods = new ArrayList<>();
+            mods.add(new AttributeModification(AttributeModificationType.REMOVE,
+                    new LdapAttribute(VERSION_ATTRIBUTE, Long.toString(record.getVersion()))));
+            mods.add(new AttributeModification(AttributeModificationType.ADD,
+                    new LdapAttribute(VERSION_ATTRIBUTE, Long.toString(newVersion))));
+            if (value != null) {
+                mods.add(new AttributeModification(AttributeModificationType.REPLACE,
+                        new LdapAttribute(VALUE_ATTRIBUTE, value)));
+            }
+            mods.add(createExpirationModification(expiration));
+            if (modify(dn, mods)) {
+                log.debug("Update record '{}' in context '{}' with expiration '{}'", new Object[] {key, context,
+                        expiration,});
+                return newVersion;
+            }
+        }
+        throw new IOException("Record '" + key + "' in context '" + context + "' changed too often to update");
+    }
+
+    /** {@inheritDoc} */
+    @Override public boolean delete(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key)
+            throws IOException {
+        return deleteRecord(getRecordDn(context, key));
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>A delete can not be made conditional without server support, so the record is first cleared by a modify
+     * which removes the expected version along with the value, and so only succeeds if the record still has that
+     * version. The entry, which no longer holds a record, is then deleted. An entry left behind by a failure between
+     * the two operations is expired, so that it is removed by {@link #reap(String)}.</p>
+     */
+    @Override public boolean deleteWithVersion(@Positive final long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) throws IOException, VersionMismatchException {
+        final String dn = getRecordDn(context, key);
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            final LDAPStorageRecord record = readRecord(dn);
+            if (record == null) {
+                return false;
+            } else if (record.getVersion() != version) {
+                throw new VersionMismatchException();
+            }
+            
+            final List<AttributeModification> mods = new ArrayList<>(3);
+            mods.add(new AttributeModification(AttributeModificationType.REMOVE,
+                    new LdapAttribute(VERSION_ATTRIBUTE, Long.toString(version))));
+            mods.add(new AttributeModification(AttributeModificationType.REMOVE, new LdapAttribute(VALUE_ATTRIBUTE)));
+            mods.add(createExpirationModification(CLEARED_EXPIRATION));
+            if (modify(dn, mods)) {
+                deleteRecord(dn);
+                return true;
+            }
+        }
+        throw new IOException("Record '" + key + "' in context '" + context + "' changed too often to delete");
+    }
+
+    /** {@inheritDoc} */
+    @Override public void reap(@Nonnull @NotEmpty final String context) throws IOException {
+        final SearchFilter filter =
+                new SearchFilter("(&(" + CONTEXT_ATTRIBUTE + "={context})(" + EXPIRATION_ATTRIBUTE + "<={now}))");
+        filter.setParameter("context", context);
+        filter.setParameter("now", System.currentTimeMillis());
+        final int count = deleteRecords(filter);
+        log.debug("Reaped {} record(s) in context '{}'", count, context);
+    }
+
+    /** {@inheritDoc} */
+    @Override public void updateContextExpiration(@Nonnull @NotEmpty final String context,
+            @Nullable @Positive final Long expiration) throws IOException {
+        final SearchFilter filter = new SearchFilter("(&(" + CONTEXT_ATTRIBUTE + "={context})(|(!("
+                + EXPIRATION_ATTRIBUTE + "=*))(" + EXPIRATION_ATTRIBUTE + ">={now})))");
+        filter.setParameter("context", context);
+        filter.setParameter("now", System.currentTimeMillis());
+        final List<String> dns = searchRecords(filter);
+        final List<AttributeModification> mods = new ArrayList<>(1);
+        mods.add(createExpirationModification(expiration));
+        int count = 0;
+        for (final String dn : dns) {
+            if (modify(dn, mods)) {
+                count++;
+            }
+        }
+        log.debug("Updated expiration of {} record(s) in context '{}' to '{}'", count, context, expiration);
+    }
+
+    /** {@inheritDoc} */
+    @Override public void deleteContext(@Nonnull @NotEmpty final String context) throws IOException {
+        final SearchFilter filter = new SearchFilter("(" + CONTEXT_ATTRIBUTE + "={context})");
+        filter.setParameter("context", context);
+        final int count = deleteRecords(filter);
+        log.debug("Deleted {} record(s) in context '{}'", count, context);
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nullable protected TimerTask getCleanupTask() {
+        return new TimerTask() {
+
+            /** {@inheritDoc} */
+            @Override public void run() {
+                final Long now = System.currentTimeMillis();
+                log.debug("Running cleanup task at {}", now);
+                final SearchFilter filter = new SearchFilter("(" + EXPIRATION_ATTRIBUTE + "<={now})");
+                filter.setParameter("now", now);
+                try {
+                    final int count = deleteRecords(filter);
+                    log.debug("Finished cleanup task for {}, deleted {} record(s)", now, count);
+                } catch (final IOException e) {
+                    log.error("Error running cleanup task for {}", now, e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the DN of the entry holding the record with the supplied context and key.
+     * 
+     * @param context of the record
+     * @param key of the record
+     * 
+     * @return record entry DN
+     */
+    @Nonnull @NotEmpty protected String getRecordDn(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) {
+        return ID_ATTRIBUTE + "=" + getRecordId(context, key) + "," + baseDn;
+    }
+
+    /**
+     * Returns the naming attribute value of the entry holding the record with the supplied context and key.
+     * 
+     * @param context of the record
+     * @param key of the record
+     * 
+     * @return record entry naming attribute value
+     */
+    @Nonnull @NotEmpty private String getRecordId(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) {
+        // Length prefix the context so that context and key can't run into one another.
+        return digester.apply(context.length() + ":" + context + key);
+    }
+
+    /**
+     * Returns a modification which sets the expiration of a record.
+     * 
+     * @param expiration to set, or null to remove it
+     * 
+     * @return the modification
+     */
+    @Nonnull private AttributeModification createExpirationModification(@Nullable final Long expiration) {
+        // A replace with no values removes the attribute, or does nothing if there is none.
+        return new AttributeModification(AttributeModificationType.REPLACE, expiration != null
+                ? new LdapAttribute(EXPIRATION_ATTRIBUTE, expiration.toString())
+                : new LdapAttribute(EXPIRATION_ATTRIBUTE));
+    }
+
+    /**
+     * Replaces a dead record with a new one, provided it still has the expiration that was read.
+     * 
+     * @param dn of the record entry
+     * @param deadExpiration expiration of the dead record
+     * @param value of the new record
+     * @param expiration of the new record
+     * 
+     * @return true if the record was replaced, false if it has changed or no longer exists
+     * @throws IOException if the operation fails
+     */
+    private boolean replaceDeadRecord(@Nonnull final String dn, final long deadExpiration,
+            @Nonnull final String value, @Nullable final Long expiration) throws IOException {
+        final List<AttributeModification> mods = new ArrayList<>(4);
+        mods.add(new AttributeModification(AttributeModificationType.REMOVE,
+                new LdapAttribute(EXPIRATION_ATTRIBUTE, Long.toString(deadExpiration))));
+        if (expiration != null) {
+            mods.add(new AttributeModification(AttributeModificationType.ADD,
+                    new LdapAttribute(EXPIRATION_ATTRIBUTE, expiration.toString())));
+        }
+        mods.add(new AttributeModification(AttributeModificationType.REPLACE,
+                new LdapAttribute(VERSION_ATTRIBUTE, "1")));
+        mods.add(new AttributeModification(AttributeModificationType.REPLACE,
+                new LdapAttribute(VALUE_ATTRIBUTE, value)));
+        return modify(dn, mods);
+    }
+
+    /**
+     * Reads the record held by the supplied entry, regardless of its expiration.
+     * 
+     * @param dn of the record entry
+     * 
+     * @return the record, or null if the entry does not exist
+     * @throws IOException if the search fails
+     */
+    @Nullable private LDAPStorageRecord readRecord(@Nonnull final String dn) throws IOException {
+        Connection conn = null;
+        try {
+            conn = connectionFactory.getConnection();
+            final SearchOperation search = new SearchOperation(conn);
+            final SearchResult result = search.execute(SearchRequest.newObjectScopeSearchRequest(dn,
+                    VALUE_ATTRIBUTE, EXPIRATION_ATTRIBUTE, VERSION_ATTRIBUTE)).getResult();
+            final LdapEntry entry = result != null ? result.getEntry() : null;
+            if (entry == null || entry.getAttribute(VALUE_ATTRIBUTE) == null) {
+                return null;
+            }
+            final LdapAttribute exp = entry.getAttribute(EXPIRATION_ATTRIBUTE);
+            final LdapAttribute ver = entry.getAttribute(VERSION_ATTRIBUTE);
+            return new LDAPStorageRecord(entry.getAttribute(VALUE_ATTRIBUTE).getStringValue(),
+                    exp != null ? Long.valueOf(exp.getStringValue()) : null,
+                    ver != null ? Long.parseLong(ver.getStringValue()) : 1);
+        } catch (final LdapException e) {
+            if (e.getResultCode() == ResultCode.NO_SUCH_OBJECT) {
+                return null;
+            }
+            log.error("LDAP search operation failed", e);
+            throw new IOException(e);
+        } finally {
+            if (conn != null) {
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * Executes an {@link AddOperation} creating a record entry.
+     * 
+     * @param context of the record
+     * @param key of the record
+     * @param value of the record
+     * @param expiration of the record
+     * 
+     * @throws LdapException if the operation fails
+     */
+    private void add(@Nonnull final String context, @Nonnull final String key, @Nonnull final String value,
+            @Nullable final Long expiration) throws LdapException {
+        final String id = getRecordId(context, key);
+        final String dn = ID_ATTRIBUTE + "=" + id + "," + baseDn;
+        final LdapEntry entry = new LdapEntry(dn, defaultAttributes);
+        entry.addAttribute(new LdapAttribute(ID_ATTRIBUTE, id), new LdapAttribute(CONTEXT_ATTRIBUTE, context),
+                new LdapAttribute(KEY_ATTRIBUTE, key), new LdapAttribute(VALUE_ATTRIBUTE, value),
+                new LdapAttribute(VERSION_ATTRIBUTE, "1"));
+        if (expiration != null) {
+            entry.addAttribute(new LdapAttribute(EXPIRATION_ATTRIBUTE, expiration.toString()));
+        }
+        Connection conn = null;
+        try {
+            conn = connectionFactory.getConnection();
+            final AddOperation add = new AddOperation(conn);
+            add.execute(new AddRequest(dn, entry.getAttributes()));
+        } finally {
+            if (conn != null) {
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * Executes a {@link ModifyOperation} on the supplied record entry.
+     * 
+     * @param dn of the record entry
+     * @param mods modifications to apply
+     * 
+     * @return true if the modifications were applied, false if the entry does not exist or does not hold a value
+     *          which was to be removed
+     * @throws IOException if the operation fails
+     */
+    private boolean modify(@Nonnull final String dn, @Nonnull @NonnullElements final List<AttributeModification> mods)
+            throws IOException {
+        Connection conn = null;
+        try {
+            conn = connectionFactory.getConnection();
+            final ModifyOperation modify = new ModifyOperation(conn);
+            modify.execute(new ModifyRequest(dn, mods.toArray(new AttributeModification[mods.size()])));
+            return true;
+        } catch (final LdapException e) {
+            if (e.getResultCode() == ResultCode.NO_SUCH_ATTRIBUTE || e.getResultCode() == ResultCode.NO_SUCH_OBJECT) {
+                log.debug("Record entry '{}' changed before it could be modified", dn);
+                return false;
+            }
+            log.error("LDAP modify operation failed", e);
+            throw new IOException(e);
+        } finally {
+            if (conn != null) {
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * Executes a {@link DeleteOperation} on the supplied record entry.
+     * 
+     * @param dn of the record entry
+     * 
+     * @return true if the entry was deleted, false if it does not exist
+     * @throws IOException if the operation fails
+     */
+    private boolean deleteRecord(@Nonnull final String dn) throws IOException {
+        Connection conn = null;
+        try {
+            conn = connectionFactory.getConnection();
+            final DeleteOperation delete = new DeleteOperation(conn);
+            delete.execute(new DeleteRequest(dn));
+            return true;
+        } catch (final LdapException e) {
+            if (e.getResultCode() == ResultCode.NO_SUCH_OBJECT) {
+                return false;
+            }
+            log.error("LDAP delete operation failed", e);
+            throw new IOException(e);
+        } finally {
+            if (conn != null) {
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the DNs of all record entries matching the supplied filter, using a paged search.
+     * 
+     * @param filter to match
+     * 
+     * @return record entry DNs
+     * @throws IOException if the search fails
+     */
+    @Nonnull @NonnullElements private List<String> searchRecords(@Nonnull final SearchFilter filter)
+            throws IOException {
+        final List<String> dns = new ArrayList<>();
+        Connection conn = null;
+        try {
+            conn = connectionFactory.getConnection();
+            final SearchOperation search = new SearchOperation(conn);
+            final SearchRequest request = new SearchRequest(baseDn, filter, "1.1");
+            request.setSearchScope(SearchScope.ONELEVEL);
+            byte[] cookie = null;
+            do {
+                request.setControls(new PagedResultsControl(pageSize, cookie, true));
+                final Response<SearchResult> response = search.execute(request);
+                for (final LdapEntry entry : response.getResult().getEntries()) {
+                    dns.add(entry.getDn());
+                }
+                final PagedResultsControl control =
+                        (PagedResultsControl) response.getControl(PagedResultsControl.OID);
+                cookie = control != null ? control.getCookie() : null;
+            } while (cookie != null && cookie.length > 0);
+            return dns;
+        } catch (final LdapException e) {
+            log.error("LDAP search operation failed", e);
+            throw new IOException(e);
+        } finally {
+            if (conn != null) {
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * Deletes all record entries matching the supplied filter.
+     * 
+     * <p>Entries are found a page at a time, and each page is deleted before the search is repeated from the start,
+     * so the number of entries held in memory is bounded however many match, and the result does not depend on
+     * how the directory resumes a paged search after entries are deleted.</p>
+     * 
+     * @param filter to match
+     * 
+     * @return the number of entries deleted
+     * @throws IOException if a search or delete fails
+     */
+    private int deleteRecords(@Nonnull final SearchFilter filter) throws IOException {
+        int total = 0;
+        int found;
+        int deleted;
+        do {
+            final List<String> dns = new ArrayList<>(pageSize);
+            Connection conn = null;
+            try {
+                conn = connectionFactory.getConnection();
+                final SearchOperation search = new SearchOperation(conn);
+                final SearchRequest request = new SearchRequest(baseDn, filter, "1.1");
+                request.setSearchScope(SearchScope.ONELEVEL);
+                request.setControls(new PagedResultsControl(pageSize, true));
+                final Response<SearchResult> response = search.execute(request);
+                for (final LdapEntry entry : response.getResult().getEntries()) {
+                    dns.add(entry.getDn());
+                }
+
+                // Abandon the rest of the search.
+                final PagedResultsControl control =
+                        (PagedResultsControl) response.getControl(PagedResultsControl.OID);
+                if (control != null && control.getCookie() != null && control.getCookie().length > 0) {
+                    request.setControls(new PagedResultsControl(0, control.getCookie(), true));
+                    search.execute(request);
+                }
+            } catch (final LdapException e) {
+                log.error("LDAP search operation failed", e);
+                throw new IOException(e);
+            } finally {
+                if (conn != null) {
+                    conn.close();
+                }
+            }
+
+            found = dns.size();
+            deleted = 0;
+            for (final String dn : dns) {
+                if (deleteRecord(dn)) {
+                    deleted++;
+                }
+            }
+            total += deleted;
+        } while (found >= pageSize && deleted > 0);
+        return total;
+    }
+
+    /** Storage record read from an LDAP entry. */
+    private static class LDAPStorageRecord extends MutableStorageRecord {
+
+        /**
+         * Constructor.
+         * 
+         * @param val value
+         * @param exp expiration, or null if none
+         * @param ver version
+         */
+        public LDAPStorageRecord(@Nonnull @NotEmpty final String val, @Nullable final Long exp, final long ver) {
+            super(val, exp);
+            setVersion(ver);
+        }
+
+        /**
+         * Returns whether the record has expired.
+         * 
+         * @return true if the record has expired
+         */
+        public boolean isExpired() {
+            final Long exp = getExpiration();
+            return exp != null && System.currentTimeMillis() >= exp;
+        }
+    }
+}
@@ -18,10 +18,18 @@
 package org.opensaml.storage.impl;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
 import net.shibboleth.utilities.java.support.collection.Pair;
@@ -55,6 +63,10 @@ import org.slf4j.LoggerFactory;
 /**
  * Implementation of {@link org.opensaml.storage.StorageService} that stores data in an LDAP. Does not support
  * expiration or versioning at this time.
+ * 
+ * <p>Each context is an existing entry and each key one of its attributes, so there is nowhere to keep the
+ * expiration or version of a record. {@link LDAPRecordStorageService} stores each record as its own entry and
+ * supports both.</p>
  */
 public class LDAPStorageService extends AbstractStorageService {
 
@@ -194,6 +206,87 @@ public class LDAPStorageService extends AbstractStorageService {
         throw new UnsupportedOperationException("Versioning not supported");
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The records are read by a single search.</p>
+     */
+    @Override @Nonnull @NonnullElements public Map<String, StorageRecord> readAll(
+            @Nonnull @NotEmpty final String context, @Nonnull @NonnullElements final Collection<String> keys)
+                    throws IOException {
+        final Map<String, StorageRecord> records = new HashMap<>(keys.size());
+        if (keys.isEmpty()) {
+            return records;
+        }
+        final LdapEntry entry = searchEntry(context, keys);
+        if (entry != null) {
+            for (final String key : keys) {
+                final LdapAttribute attr = entry.getAttribute(key);
+                if (attr != null) {
+                    records.put(key, new StorageRecord(attr.getStringValue(), null));
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The records are created by a single merge.</p>
+     */
+    @Override @Nonnull @NonnullElements public Set<String> createAll(@Nonnull @NotEmpty final String context,
+            @Nonnull @NonnullElements final Map<String, String> values, @Nullable @Positive final Long expiration)
+                    throws IOException {
+        if (expiration != null) {
+            throw new UnsupportedOperationException("Expiration not supported");
+        }
+        if (values.isEmpty()) {
+            return new HashSet<>();
+        }
+        final LdapEntry entry = new LdapEntry(context, defaultAttributes);
+        for (final Map.Entry<String, String> value : values.entrySet()) {
+            entry.addAttribute(new LdapAttribute(value.getKey(), value.getValue()));
+        }
+        try {
+            merge(entry);
+            return new HashSet<>(values.keySet());
+        } catch (LdapException e) {
+            log.error("LDAP merge operation failed", e);
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The records present are found by a single search, and removed by a single modify.</p>
+     */
+    @Override @Nonnull @NonnullElements public Set<String> deleteAll(@Nonnull @NotEmpty final String context,
+            @Nonnull @NonnullElements final Collection<String> keys) throws IOException {
+        final Set<String> deleted = new HashSet<>(keys.size());
+        if (keys.isEmpty()) {
+            return deleted;
+        }
+        final LdapEntry entry = searchEntry(context, keys);
+        if (entry != null) {
+            for (final String key : keys) {
+                if (entry.getAttribute(key) != null) {
+                    deleted.add(key);
+                }
+            }
+        }
+        if (!deleted.isEmpty()) {
+            try {
+                deleteAttributes(context, deleted);
+            } catch (LdapException e) {
+                log.error("LDAP modify operation failed", e);
+                throw new IOException(e);
+            }
+        }
+        return deleted;
+    }
+
     /** {@inheritDoc} */
     @Override public void reap(@Nonnull @NotEmpty final String context) throws IOException {
         // no-op, expiration not supported
@@ -259,6 +352,56 @@ public class LDAPStorageService extends AbstractStorageService {
         }
     }
 
+    /**
+     * Searches for the entry with the supplied DN, returning the supplied attributes.
+     * 
+     * @param dn to search on
+     * @param attrNames to return
+     * 
+     * @return the entry, or null if it does not exist
+     * 
+     * @throws IOException if the search fails
+     */
+    @Nullable private LdapEntry searchEntry(@Nonnull final String dn, @Nonnull final Collection<String> attrNames)
+            throws IOException {
+        try {
+            final SearchResult result = search(dn, attrNames.toArray(new String[attrNames.size()])).getResult();
+            return result != null && result.size() > 0 ? result.getEntry() : null;
+        } catch (LdapException e) {
+            if (e.getResultCode() != ResultCode.NO_SUCH_OBJECT) {
+                log.error("LDAP search operation failed", e);
+                throw new IOException(e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Executes a {@link ModifyOperation} on the supplied DN, removing the supplied attributes.
+     * 
+     * @param dn to modify
+     * @param attrNames to remove
+     * 
+     * @return response for the modify operation
+     * 
+     * @throws LdapException if the operation fails
+     */
+    @Nonnull private Response<Void> deleteAttributes(@Nonnull final String dn,
+            @Nonnull final Collection<String> attrNames) throws LdapException {
+        final List<AttributeModification> mods = new ArrayList<>(attrNames.size());
+        for (final String attrName : attrNames) {
+            mods.add(new AttributeModification(AttributeModificationType.REMOVE, new LdapAttribute(attrName)));
+        }
+        Connection conn = null;
+        try {
+            conn = connectionFactory.getConnection();
+            final ModifyOperation modify = new ModifyOperation(conn);
+            return modify.execute(new ModifyRequest(dn, mods.toArray(new AttributeModification[mods.size()])));
+        } finally {
+            conn.close();
+        }
+    }
+
     /**
      * Executes a {@link ModifyOperation} on the supplied DN, removing the supplied attribute.
      * 
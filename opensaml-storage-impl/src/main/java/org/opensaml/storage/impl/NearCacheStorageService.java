@@ -0,0 +1,1197 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.storage.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.collection.Pair;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.opensaml.storage.AbstractStorageService;
+import org.opensaml.storage.BatchStorageSupport;
+import org.opensaml.storage.StorageCapabilities;
+import org.opensaml.storage.StorageCapabilitiesEx;
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.StorageService;
+import org.opensaml.storage.VersionMismatchException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of {@link StorageService} which layers a bounded, in-memory cache of records over another
+ * "remote" {@link StorageService}, such as a {@link JPAStorageService} or a memcached-based service.
+ * 
+ * <p>Each context is cached according to a {@link ContextPolicy}, looked up by context name with a default
+ * for unlisted contexts. A cached record is served without consulting the remote service for the policy's
+ * time-to-live, after which it is revalidated with a versioned read, which only transfers the record if it
+ * has changed. Records created, updated and deleted through this service are reflected in, or invalidated
+ * from, the cache immediately. Changes made by other nodes are seen at the latest when the time-to-live of
+ * the cached record lapses, so the time-to-live bounds the staleness tolerated for a context.</p>
+ * 
+ * <p>Under {@link CacheMode#WRITE_BEHIND}, unversioned updates of cached records are applied to the cache
+ * and returned immediately, and written to the remote service in the background. All remote writes for such
+ * a context pass through one of a number of single-threaded executors, chosen by context, so that they are
+ * performed in order. Until its background writes have been applied, a record is served from the cache regardless
+ * of its time-to-live, or if it has been evicted, read from the remote service through the executor once they have
+ * been applied. A background write which fails is logged and the record is invalidated, but the failure is not
+ * reported to the caller.</p>
+ * 
+ * <p>The capabilities of this service are those of the remote service. Only the create operation of the
+ * remote service is used to create records, so its atomicity is preserved.</p>
+ */
+public class NearCacheStorageService extends AbstractStorageService {
+
+    /** Caching behavior for a context. */
+    public enum CacheMode {
+        /** Records are not cached. */
+        NONE,
+        
+        /** Records are cached, and writes are performed on the remote service before returning. */
+        WRITE_THROUGH,
+        
+        /** Records are cached, and unversioned updates of cached records are written in the background. */
+        WRITE_BEHIND,
+    }
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(NearCacheStorageService.class);
+
+    /** The remote storage service. */
+    @NonnullAfterInit private StorageService remoteStorage;
+
+    /** Policies by context. */
+    @Nonnull @NonnullElements private Map<String, ContextPolicy> contextPolicies;
+
+    /** Policy for contexts without their own. */
+    @Nonnull private ContextPolicy defaultPolicy;
+
+    /** Maximum number of cached records. */
+    @Positive private int maxCacheEntries;
+
+    /** Number of executors created to perform background writes. */
+    @Positive private int writeBehindThreads;
+
+    /** Executor performing background writes, if supplied. */
+    @Nullable private ExecutorService writeBehindExecutor;
+
+    /** Executors performing background writes, each for the contexts hashing to its index. */
+    @Nonnull @NonnullElements private List<ExecutorService> writeBehindExecutors;
+
+    /** Whether the write-behind executors were created by this service. */
+    private boolean internalExecutor;
+
+    /** The cache, in least recently used order. */
+    @NonnullAfterInit private Map<String, CachedRecord> cache;
+
+    /** Number of background writes not yet applied, by cache key. Guarded by the cache. */
+    @Nonnull private final Map<String, Integer> pendingWrites;
+
+    /** Source of generations, advanced whenever a context is invalidated or dropped. */
+    @Nonnull private final AtomicLong generations;
+
+    /**
+     * Generation at which each context was last invalidated, until the context is dropped. Guarded by the cache.
+     */
+    @Nonnull private final Map<String, Long> contextGenerations;
+
+    /** Generation at which a context was last dropped. Guarded by the cache. */
+    private long droppedGeneration;
+
+    /** Number of reads served from the cache. */
+    @Nonnull private final AtomicLong hits;
+
+    /** Number of reads passed to the remote service. */
+    @Nonnull private final AtomicLong misses;
+
+    /** Number of revalidations which found the cached record unchanged. */
+    @Nonnull private final AtomicLong revalidations;
+
+    /** Constructor. */
+    public NearCacheStorageService() {
+        contextPolicies = Collections.emptyMap();
+        defaultPolicy = new ContextPolicy(CacheMode.WRITE_THROUGH, 1000);
+        maxCacheEntries = 10000;
+        writeBehindThreads = 4;
+        writeBehindExecutors = Collections.emptyList();
+        generations = new AtomicLong();
+        contextGenerations = new HashMap<>();
+        pendingWrites = new HashMap<>();
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        revalidations = new AtomicLong();
+    }
+
+    /**
+     * Get the remote storage service.
+     * 
+     * @return the remote storage service
+     */
+    @NonnullAfterInit public StorageService getRemoteStorage() {
+        return remoteStorage;
+    }
+
+    /**
+     * Set the remote storage service.
+     * 
+     * <p>The remote service is not initialized or destroyed by this service.</p>
+     * 
+     * @param storage the remote storage service
+     */
+    public void setRemoteStorage(@Nonnull final StorageService storage) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        remoteStorage = Constraint.isNotNull(storage, "Remote StorageService cannot be null");
+    }
+
+    /**
+     * Set the policies of individual contexts.
+     * 
+     * @param policies policies keyed by context
+     */
+    public void setContextPolicies(@Nullable @NonnullElements final Map<String, ContextPolicy> policies) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        if (policies != null) {
+            contextPolicies = new HashMap<>(policies);
+        } else {
+            contextPolicies = Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Get the policy of contexts without their own.
+     * 
+     * @return the default policy
+     */
+    @Nonnull public ContextPolicy getDefaultPolicy() {
+        return defaultPolicy;
+    }
+
+    /**
+     * Set the policy of contexts without their own.
+     * 
+     * <p>Defaults to write-through caching with a time-to-live of one second.</p>
+     * 
+     * @param policy the default policy
+     */
+    public void setDefaultPolicy(@Nonnull final ContextPolicy policy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        defaultPolicy = Constraint.isNotNull(policy, "Default policy cannot be null");
+    }
+
+    /**
+     * Get the maximum number of cached records.
+     * 
+     * @return the maximum number of cached records
+     */
+    @Positive public int getMaxCacheEntries() {
+        return maxCacheEntries;
+    }
+
+    /**
+     * Set the maximum number of cached records, beyond which the least recently used are evicted.
+     * 
+     * @param max the maximum number of cached records
+     */
+    public void setMaxCacheEntries(@Positive final int max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        maxCacheEntries = (int) Constraint.isGreaterThan(0, max, "Maximum cache entries must be greater than zero");
+    }
+
+    /**
+     * Get the number of single-threaded executors created to perform background writes.
+     * 
+     * @return the number of write-behind threads
+     */
+    @Positive public int getWriteBehindThreads() {
+        return writeBehindThreads;
+    }
+
+    /**
+     * Set the number of single-threaded executors created to perform background writes, if no executor is set.
+     * 
+     * <p>Each context is assigned to one of the executors by its hash, so that the writes of a context remain in
+     * order while those of different contexts may proceed in parallel. Defaults to 4.</p>
+     * 
+     * @param threads the number of write-behind threads
+     */
+    public void setWriteBehindThreads(@Positive final int threads) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        writeBehindThreads =
+                (int) Constraint.isGreaterThan(0, threads, "Number of write-behind threads must be greater than zero");
+    }
+
+    /**
+     * Set the executor performing background writes for write-behind contexts.
+     * 
+     * <p>The executor must perform tasks one at a time, in order of submission, and is shared by every context.
+     * If not set, and any policy uses {@link CacheMode#WRITE_BEHIND}, {@link #getWriteBehindThreads()}
+     * single-threaded executors are created.</p>
+     * 
+     * @param executor the executor
+     */
+    public void setWriteBehindExecutor(@Nullable final ExecutorService executor) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        writeBehindExecutor = executor;
+    }
+
+    /**
+     * Get the number of reads served from the cache.
+     * 
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of reads passed to the remote service, other than revalidations.
+     * 
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of revalidations which found the cached record unchanged.
+     * 
+     * @return the number of successful revalidations
+     */
+    public long getRevalidationCount() {
+        return revalidations.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+
+        if (remoteStorage == null) {
+            throw new ComponentInitializationException("Remote StorageService cannot be null");
+        }
+
+        final int capacity = maxCacheEntries;
+        cache = new LinkedHashMap<String, CachedRecord>(16, 0.75f, true) {
+            /** Serial version UID. */
+            private static final long serialVersionUID = -1859447208498472618L;
+
+            /** {@inheritDoc} */
+            @Override protected boolean removeEldestEntry(final Map.Entry<String, CachedRecord> eldest) {
+                return size() > capacity;
+            }
+        };
+
+        boolean writeBehind = defaultPolicy.getMode() == CacheMode.WRITE_BEHIND;
+        for (final ContextPolicy policy : contextPolicies.values()) {
+            writeBehind |= policy.getMode() == CacheMode.WRITE_BEHIND;
+        }
+        if (writeBehindExecutor != null) {
+            writeBehindExecutors = Collections.singletonList(writeBehindExecutor);
+        } else if (writeBehind) {
+            writeBehindExecutors = new ArrayList<>(writeBehindThreads);
+            for (int i = 0; i < writeBehindThreads; i++) {
+                final String name = "NearCacheStorageService write-behind " + i;
+                writeBehindExecutors.add(Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(r, name);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }));
+            }
+            internalExecutor = true;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override protected void doDestroy() {
+        if (internalExecutor) {
+            for (final ExecutorService executor : writeBehindExecutors) {
+                executor.shutdown();
+            }
+            try {
+                for (final ExecutorService executor : writeBehindExecutors) {
+                    if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                        log.warn("Background writes did not complete during shutdown");
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            internalExecutor = false;
+        }
+        writeBehindExecutors = Collections.emptyList();
+        cache = null;
+        contextGenerations.clear();
+
+        super.doDestroy();
+    }
+
+    /** {@inheritDoc} */
+    @Override @Positive public int getContextSize() {
+        return remoteStorage.getCapabilities().getContextSize();
+    }
+
+    /** {@inheritDoc} */
+    @Override @Positive public int getKeySize() {
+        return remoteStorage.getCapabilities().getKeySize();
+    }
+
+    /** {@inheritDoc} */
+    @Override @Positive public long getValueSize() {
+        return remoteStorage.getCapabilities().getValueSize();
+    }
+
+    /** {@inheritDoc} */
+    @Override public boolean isAtomicCreate() {
+        final StorageCapabilities caps = remoteStorage.getCapabilities();
+        return caps instanceof StorageCapabilitiesEx && ((StorageCapabilitiesEx) caps).isAtomicCreate();
+    }
+
+    /** {@inheritDoc} */
+    @Override public boolean create(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String value, @Nullable @Positive final Long expiration) throws IOException {
+        final long generation = getGeneration();
+        final boolean created = remoteWrite(context, new Callable<Boolean>() {
+            public Boolean call() throws IOException {
+                return remoteStorage.create(context, key, value, expiration);
+            }
+        });
+        if (created) {
+            cacheRecord(context, key, value, expiration, 1, generation);
+        } else {
+            invalidate(context, key);
+        }
+        return created;
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nullable public StorageRecord read(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) throws IOException {
+        final ContextPolicy policy = getPolicy(context);
+        if (policy.getMode() == CacheMode.NONE) {
+            return remoteStorage.read(context, key);
+        }
+
+        final long now = System.currentTimeMillis();
+        final long generation = getGeneration();
+        final CachedRecord cached = getCached(context, key);
+        if (cached != null && !cached.isExpired(now)) {
+            if (now - cached.validated < policy.getTimeToLive() || hasPendingWrites(context, key)) {
+                hits.incrementAndGet();
+                return cached.copy();
+            }
+
+            final Pair<Long, StorageRecord> result = remoteStorage.read(context, key, cached.getVersion());
+            if (result.getFirst() == null) {
+                invalidate(context, key);
+                return null;
+            } else if (result.getSecond() == null) {
+                revalidations.incrementAndGet();
+                cached.validated = now;
+                return cached.copy();
+            }
+            return cacheRecord(context, key, result.getSecond(), generation, cached).copy();
+        }
+
+        misses.incrementAndGet();
+        final StorageRecord record = remoteRead(context, Collections.singleton(key), new Callable<StorageRecord>() {
+            public StorageRecord call() throws IOException {
+                return remoteStorage.read(context, key);
+            }
+        });
+        if (record == null) {
+            invalidate(context, key);
+            return null;
+        }
+        return cacheRecord(context, key, record, generation, cached).copy();
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nonnull public Pair<Long, StorageRecord> read(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Positive final long version) throws IOException {
+        final ContextPolicy policy = getPolicy(context);
+        final long generation = getGeneration();
+        CachedRecord cached = null;
+        if (policy.getMode() != CacheMode.NONE) {
+            final long now = System.currentTimeMillis();
+            cached = getCached(context, key);
+            if (cached != null && !cached.isExpired(now)
+                    && (now - cached.validated < policy.getTimeToLive() || hasPendingWrites(context, key))) {
+                hits.incrementAndGet();
+                if (cached.getVersion() == version) {
+                    return new Pair<Long, StorageRecord>(version, null);
+                }
+                return new Pair<Long, StorageRecord>(cached.getVersion(), cached.copy());
+            }
+        }
+
+        misses.incrementAndGet();
+        final Pair<Long, StorageRecord> result = remoteRead(context, Collections.singleton(key),
+                new Callable<Pair<Long, StorageRecord>>() {
+                    public Pair<Long, StorageRecord> call() throws IOException {
+                        return remoteStorage.read(context, key, version);
+                    }
+                });
+        if (result.getFirst() == null) {
+            invalidate(context, key);
+        } else if (result.getSecond() != null) {
+            cacheRecord(context, key, result.getSecond(), generation, cached);
+        }
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override public boolean update(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String value, @Nullable @Positive final Long expiration) throws IOException {
+        if (getPolicy(context).getMode() == CacheMode.WRITE_BEHIND
+                && updateCached(context, key, value, expiration)) {
+            writeBehind(context, key, new Callable<Boolean>() {
+                public Boolean call() throws IOException {
+                    return remoteStorage.update(context, key, value, expiration);
+                }
+            });
+            return true;
+        }
+
+        try {
+            return remoteWrite(context, new Callable<Boolean>() {
+                public Boolean call() throws IOException {
+                    return remoteStorage.update(context, key, value, expiration);
+                }
+            });
+        } finally {
+            invalidate(context, key);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nullable public Long updateWithVersion(@Positive final long version,
+            @Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String value, @Nullable @Positive final Long expiration)
+                    throws IOException, VersionMismatchException {
+        final long generation = getGeneration();
+        Long newVersion = null;
+        try {
+            newVersion = remoteVersionedWrite(context, new Callable<Long>() {
+                public Long call() throws IOException, VersionMismatchException {
+                    return remoteStorage.updateWithVersion(version, context, key, value, expiration);
+                }
+            });
+            return newVersion;
+        } finally {
+            if (newVersion != null) {
+                cacheRecord(context, key, value, expiration, newVersion, generation);
+            } else {
+                invalidate(context, key);
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override public boolean updateExpiration(@Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nullable @Positive final Long expiration) throws IOException {
+        if (getPolicy(context).getMode() == CacheMode.WRITE_BEHIND && updateCached(context, key, null, expiration)) {
+            writeBehind(context, key, new Callable<Boolean>() {
+                public Boolean call() throws IOException {
+                    return remoteStorage.updateExpiration(context, key, expiration);
+                }
+            });
+            return true;
+        }
+
+        try {
+            return remoteWrite(context, new Callable<Boolean>() {
+                public Boolean call() throws IOException {
+                    return remoteStorage.updateExpiration(context, key, expiration);
+                }
+            });
+        } finally {
+            invalidate(context, key);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override public boolean delete(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key)
+            throws IOException {
+        invalidate(context, key);
+        try {
+            return remoteWrite(context, new Callable<Boolean>() {
+                public Boolean call() throws IOException {
+                    return remoteStorage.delete(context, key);
+                }
+            });
+        } finally {
+            invalidate(context, key);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override public boolean deleteWithVersion(@Positive final long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key) throws IOException, VersionMismatchException {
+        try {
+            return remoteVersionedWrite(context, new Callable<Boolean>() {
+                public Boolean call() throws IOException, VersionMismatchException {
+                    return remoteStorage.deleteWithVersion(version, context, key);
+                }
+            });
+        } finally {
+            invalidate(context, key);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override public void reap(@Nonnull @NotEmpty final String context) throws IOException {
+        remoteWrite(context, new Callable<Void>() {
+            public Void call() throws IOException {
+                remoteStorage.reap(context);
+                return null;
+            }
+        });
+    }
+
+    /** {@inheritDoc} */
+    @Override public void updateContextExpiration(@Nonnull @NotEmpty final String context,
+            @Nullable final Long expiration) throws IOException {
+        try {
+            remoteWrite(context, new Callable<Void>() {
+                public Void call() throws IOException {
+                    remoteStorage.updateContextExpiration(context, expiration);
+                    return null;
+                }
+            });
+        } finally {
+            invalidateContext(context);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void deleteContext(@Nonnull @NotEmpty final String context) throws IOException {
+        invalidateContext(context);
+        try {
+            remoteWrite(context, new Callable<Void>() {
+                public Void call() throws IOException {
+                    remoteStorage.deleteContext(context);
+                    return null;
+                }
+            });
+        } finally {
+            dropContext(context);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nonnull @NonnullElements public Map<String, StorageRecord> readAll(
+            @Nonnull @NotEmpty final String context, @Nonnull @NonnullElements final Collection<String> keys)
+                    throws IOException {
+        final ContextPolicy policy = getPolicy(context);
+        if (policy.getMode() == CacheMode.NONE) {
+            return BatchStorageSupport.readAll(remoteStorage, context, keys);
+        }
+
+        final long now = System.currentTimeMillis();
+        final long generation = getGeneration();
+        final Map<String, StorageRecord> records = new HashMap<>(keys.size());
+        final Map<String, CachedRecord> remaining = new LinkedHashMap<>();
+        for (final String key : keys) {
+            final CachedRecord cached = getCached(context, key);
+            if (cached != null && !cached.isExpired(now)
+                    && (now - cached.validated < policy.getTimeToLive() || hasPendingWrites(context, key))) {
+                hits.incrementAndGet();
+                records.put(key, cached.copy());
+            } else {
+                remaining.put(key, cached);
+            }
+        }
+
+        if (!remaining.isEmpty()) {
+            misses.addAndGet(remaining.size());
+            final Map<String, StorageRecord> fetched = remoteRead(context, remaining.keySet(),
+                    new Callable<Map<String, StorageRecord>>() {
+                        public Map<String, StorageRecord> call() throws IOException {
+                            return BatchStorageSupport.readAll(remoteStorage, context, remaining.keySet());
+                        }
+                    });
+            for (final String key : remaining.keySet()) {
+                final StorageRecord record = fetched.get(key);
+                if (record != null) {
+                    records.put(key, cacheRecord(context, key, record, generation, remaining.get(key)).copy());
+                } else {
+                    invalidate(context, key);
+                }
+            }
+        }
+        return records;
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nonnull @NonnullElements public Set<String> createAll(@Nonnull @NotEmpty final String context,
+            @Nonnull @NonnullElements final Map<String, String> values, @Nullable @Positive final Long expiration)
+                    throws IOException {
+        final long generation = getGeneration();
+        final Set<String> created = remoteWrite(context, new Callable<Set<String>>() {
+            public Set<String> call() throws IOException {
+                return BatchStorageSupport.createAll(remoteStorage, context, values, expiration);
+            }
+        });
+        for (final Map.Entry<String, String> entry : values.entrySet()) {
+            if (created.contains(entry.getKey())) {
+                cacheRecord(context, entry.getKey(), entry.getValue(), expiration, 1, generation);
+            } else {
+                invalidate(context, entry.getKey());
+            }
+        }
+        return created;
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nonnull @NonnullElements public Set<String> deleteAll(@Nonnull @NotEmpty final String context,
+            @Nonnull @NonnullElements final Collection<String> keys) throws IOException {
+        try {
+            return remoteWrite(context, new Callable<Set<String>>() {
+                public Set<String> call() throws IOException {
+                    return BatchStorageSupport.deleteAll(remoteStorage, context, keys);
+                }
+            });
+        } finally {
+            for (final String key : keys) {
+                invalidate(context, key);
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nullable protected TimerTask getCleanupTask() {
+        return null;
+    }
+
+    /**
+     * Get the policy of a context.
+     * 
+     * @param context the context
+     * @return the policy
+     */
+    @Nonnull private ContextPolicy getPolicy(@Nonnull final String context) {
+        final ContextPolicy policy = contextPolicies.get(context);
+        return policy != null ? policy : defaultPolicy;
+    }
+
+    /**
+     * Get the current generation, to be compared with that of a context when an operation ends.
+     * 
+     * @return the generation
+     */
+    private long getGeneration() {
+        return generations.get();
+    }
+
+    /**
+     * Get whether a cached record was cached since its context was last invalidated.
+     * 
+     * <p>This method <strong>MUST</strong> be called while holding the cache's monitor.</p>
+     * 
+     * @param context the context
+     * @param cached the cached record
+     * @return true iff the record is still valid
+     */
+    private boolean isValid(@Nonnull final String context, @Nonnull final CachedRecord cached) {
+        final Long invalidated = contextGenerations.get(context);
+        return invalidated == null || cached.generation >= invalidated;
+    }
+
+    /**
+     * Get whether an operation began since its context was last invalidated, and so may cache its result. If the
+     * context has no generation of its own, the operation must have begun since any context was last dropped, as
+     * it may have been this one.
+     * 
+     * <p>This method <strong>MUST</strong> be called while holding the cache's monitor.</p>
+     * 
+     * @param context the context
+     * @param generation the generation when the operation began
+     * @return true iff the result of the operation may be cached
+     */
+    private boolean isCurrent(@Nonnull final String context, final long generation) {
+        final Long invalidated = contextGenerations.get(context);
+        return generation >= (invalidated != null ? invalidated : droppedGeneration);
+    }
+
+    /**
+     * Build the cache key of a record.
+     * 
+     * @param context the context
+     * @param key the key
+     * @return the cache key
+     */
+    @Nonnull private static String cacheKey(@Nonnull final String context, @Nonnull final String key) {
+        return context.length() + ":" + context + key;
+    }
+
+    /**
+     * Get a cached record, unless it was cached before its context was last invalidated.
+     * 
+     * @param context the context
+     * @param key the key
+     * @return the cached record, or null
+     */
+    @Nullable private CachedRecord getCached(@Nonnull final String context, @Nonnull final String key) {
+        final String cacheKey = cacheKey(context, key);
+        synchronized (cache) {
+            final CachedRecord cached = cache.get(cacheKey);
+            if (cached != null && !isValid(context, cached)) {
+                cache.remove(cacheKey);
+                return null;
+            }
+            return cached;
+        }
+    }
+
+    /**
+     * Cache a copy of a record read from the remote service, unless the cached record has been replaced since the
+     * read began, or has background writes pending, in which case the cached record is newer than the one read.
+     * 
+     * @param context the context
+     * @param key the key
+     * @param record the record
+     * @param generation the generation when the read began
+     * @param previous the cached record when the read began, or null
+     * @return the cached record, or a copy of the record read if it was not cached
+     */
+    @Nonnull private CachedRecord cacheRecord(@Nonnull final String context, @Nonnull final String key,
+            @Nonnull final StorageRecord record, final long generation, @Nullable final CachedRecord previous) {
+        final CachedRecord cached = new CachedRecord(record.getValue(), record.getExpiration(), record.getVersion(),
+                generation);
+        if (getPolicy(context).getMode() != CacheMode.NONE) {
+            final String cacheKey = cacheKey(context, key);
+            synchronized (cache) {
+                if (isCurrent(context, generation) && cache.get(cacheKey) == previous
+                        && !pendingWrites.containsKey(cacheKey)) {
+                    cache.put(cacheKey, cached);
+                }
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Cache a record, if its context is cached and has not been invalidated since the operation producing the
+     * record began.
+     * 
+     * @param context the context
+     * @param key the key
+     * @param value the value
+     * @param expiration the expiration
+     * @param version the version
+     * @param generation the generation when the operation began
+     * @return the cached record
+     */
+    @Nonnull private CachedRecord cacheRecord(@Nonnull final String context, @Nonnull final String key,
+            @Nonnull final String value, @Nullable final Long expiration, final long version, final long generation) {
+        final CachedRecord cached = new CachedRecord(value, expiration, version, generation);
+        if (getPolicy(context).getMode() != CacheMode.NONE) {
+            synchronized (cache) {
+                if (isCurrent(context, generation)) {
+                    cache.put(cacheKey(context, key), cached);
+                }
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Apply an unversioned update to a cached record, as the remote service would, and record that a background
+     * write of the record is pending.
+     * 
+     * @param context the context
+     * @param key the key
+     * @param value the new value, or null to update only the expiration
+     * @param expiration the new expiration
+     * @return true iff an unexpired record was cached and has been updated
+     */
+    private boolean updateCached(@Nonnull final String context, @Nonnull final String key,
+            @Nullable final String value, @Nullable final Long expiration) {
+        final String cacheKey = cacheKey(context, key);
+        synchronized (cache) {
+            final CachedRecord cached = cache.get(cacheKey);
+            if (cached == null || !isValid(context, cached) || cached.isExpired(System.currentTimeMillis())) {
+                return false;
+            }
+            final CachedRecord updated = new CachedRecord(value != null ? value : cached.getValue(), expiration,
+                    value != null ? cached.getVersion() + 1 : cached.getVersion(), cached.generation);
+            updated.validated = cached.validated;
+            cache.put(cacheKey, updated);
+            final Integer pending = pendingWrites.get(cacheKey);
+            pendingWrites.put(cacheKey, pending != null ? pending + 1 : 1);
+            return true;
+        }
+    }
+
+    /**
+     * Get whether a record has background writes which have not yet been applied.
+     * 
+     * @param context the context
+     * @param key the key
+     * @return true iff background writes of the record are pending
+     */
+    private boolean hasPendingWrites(@Nonnull final String context, @Nonnull final String key) {
+        synchronized (cache) {
+            return pendingWrites.containsKey(cacheKey(context, key));
+        }
+    }
+
+    /**
+     * Record that a background write of a record has been applied, or has failed.
+     * 
+     * @param cacheKey the cache key of the record
+     */
+    private void writeCompleted(@Nonnull final String cacheKey) {
+        synchronized (cache) {
+            final Integer pending = pendingWrites.get(cacheKey);
+            if (pending == null || pending <= 1) {
+                pendingWrites.remove(cacheKey);
+            } else {
+                pendingWrites.put(cacheKey, pending - 1);
+            }
+        }
+    }
+
+    /**
+     * Remove a record from the cache.
+     * 
+     * @param context the context
+     * @param key the key
+     */
+    private void invalidate(@Nonnull final String context, @Nonnull final String key) {
+        synchronized (cache) {
+            cache.remove(cacheKey(context, key));
+        }
+    }
+
+    /**
+     * Invalidate every cached record of a context.
+     * 
+     * @param context the context
+     */
+    private void invalidateContext(@Nonnull final String context) {
+        synchronized (cache) {
+            contextGenerations.put(context, generations.incrementAndGet());
+        }
+    }
+
+    /**
+     * Remove every cached record of a deleted context, and forget its generation.
+     * 
+     * <p>Operations begun before the context was dropped are prevented from caching their results by advancing
+     * the generation at which a context was last dropped.</p>
+     * 
+     * @param context the context
+     */
+    private void dropContext(@Nonnull final String context) {
+        final String prefix = cacheKey(context, "");
+        synchronized (cache) {
+            final Iterator<String> cacheKeys = cache.keySet().iterator();
+            while (cacheKeys.hasNext()) {
+                if (cacheKeys.next().startsWith(prefix)) {
+                    cacheKeys.remove();
+                }
+            }
+            contextGenerations.remove(context);
+            droppedGeneration = generations.incrementAndGet();
+        }
+    }
+
+    /**
+     * Perform a read on the remote service, through the write-behind executor if any of the records read has
+     * background writes pending, so that the read sees them.
+     * 
+     * @param <T> the result type
+     * @param context the context
+     * @param keys the keys of the records read
+     * @param read the read
+     * @return the result of the read
+     * @throws IOException if the read fails
+     */
+    private <T> T remoteRead(@Nonnull final String context, @Nonnull @NonnullElements final Collection<String> keys,
+            @Nonnull final Callable<T> read) throws IOException {
+        boolean pending = false;
+        for (final String key : keys) {
+            if (hasPendingWrites(context, key)) {
+                pending = true;
+                break;
+            }
+        }
+        
+        try {
+            return pending ? performInBackground(context, read) : read.call();
+        } catch (final IOException | RuntimeException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new IOException("Remote read failed", e);
+        }
+    }
+
+    /**
+     * Perform an unversioned write on the remote service, in order with any background writes if the
+     * context is write-behind.
+     * 
+     * @param <T> the result type
+     * @param context the context
+     * @param write the write
+     * @return the result of the write
+     * @throws IOException if the write fails
+     */
+    private <T> T remoteWrite(@Nonnull final String context, @Nonnull final Callable<T> write)
+            throws IOException {
+        try {
+            return performWrite(context, write);
+        } catch (final IOException | RuntimeException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new IOException("Remote write failed", e);
+        }
+    }
+
+    /**
+     * Perform a versioned write on the remote service, in order with any background writes if the
+     * context is write-behind.
+     * 
+     * @param <T> the result type
+     * @param context the context
+     * @param write the write
+     * @return the result of the write
+     * @throws IOException if the write fails
+     * @throws VersionMismatchException if the version does not match that of the record
+     */
+    private <T> T remoteVersionedWrite(@Nonnull final String context, @Nonnull final Callable<T> write)
+            throws IOException, VersionMismatchException {
+        try {
+            return performWrite(context, write);
+        } catch (final IOException | VersionMismatchException | RuntimeException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new IOException("Remote write failed", e);
+        }
+    }
+
+    /**
+     * Perform a write on the remote service, through the write-behind executor if the context is write-behind.
+     * 
+     * @param <T> the result type
+     * @param context the context
+     * @param write the write
+     * @return the result of the write
+     * @throws Exception if the write fails
+     */
+    private <T> T performWrite(@Nonnull final String context, @Nonnull final Callable<T> write) throws Exception {
+        if (getPolicy(context).getMode() != CacheMode.WRITE_BEHIND) {
+            return write.call();
+        }
+        return performInBackground(context, write);
+    }
+
+    /**
+     * Get the write-behind executor of a context.
+     * 
+     * @param context the context
+     * @return the executor
+     */
+    @Nonnull private ExecutorService getWriteBehindExecutor(@Nonnull final String context) {
+        return writeBehindExecutors.get((context.hashCode() & Integer.MAX_VALUE) % writeBehindExecutors.size());
+    }
+
+    /**
+     * Perform an operation on the remote service through the write-behind executor of its context, after any
+     * pending background writes, and wait for its result.
+     * 
+     * @param <T> the result type
+     * @param context the context
+     * @param operation the operation
+     * @return the result of the operation
+     * @throws Exception if the operation fails
+     */
+    private <T> T performInBackground(@Nonnull final String context, @Nonnull final Callable<T> operation)
+            throws Exception {
+        try {
+            return getWriteBehindExecutor(context).submit(operation).get();
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for remote operation", e);
+        }
+    }
+
+    /**
+     * Submit a write to the remote service in the background, invalidating the record if it fails. The write must
+     * have been recorded as pending by {@link #updateCached(String, String, String, Long)}.
+     * 
+     * @param context the context
+     * @param key the key
+     * @param write the write
+     */
+    private void writeBehind(@Nonnull final String context, @Nonnull final String key,
+            @Nonnull final Callable<Boolean> write) {
+        final String cacheKey = cacheKey(context, key);
+        try {
+            getWriteBehindExecutor(context).submit(new Runnable() {
+                public void run() {
+                    try {
+                        if (!write.call()) {
+                            log.warn("Background write of record '{}' in context '{}' found no record", key,
+                                    context);
+                            invalidate(context, key);
+                        }
+                    } catch (final Exception e) {
+                        log.error("Background write of record '{}' in context '{}' failed", key, context, e);
+                        invalidate(context, key);
+                    } finally {
+                        writeCompleted(cacheKey);
+                    }
+                }
+            });
+        } catch (final RuntimeException e) {
+            invalidate(context, key);
+            writeCompleted(cacheKey);
+            throw e;
+        }
+    }
+
+    /**
+     * The caching policy of a context.
+     */
+    public static class ContextPolicy {
+
+        /** Caching behavior. */
+        @Nonnull private final CacheMode mode;
+
+        /** Time in milliseconds a cached record is served without revalidation. */
+        @Duration @NonNegative private final long timeToLive;
+
+        /**
+         * Constructor.
+         * 
+         * @param cacheMode caching behavior
+         * @param ttl time in milliseconds a cached record is served without revalidation
+         */
+        public ContextPolicy(@Nonnull final CacheMode cacheMode, @Duration @NonNegative final long ttl) {
+            mode = Constraint.isNotNull(cacheMode, "Cache mode cannot be null");
+            timeToLive = Constraint.isGreaterThanOrEqual(0, ttl, "Time to live must be non-negative");
+        }
+
+        /**
+         * Get the caching behavior.
+         * 
+         * @return the caching behavior
+         */
+        @Nonnull public CacheMode getMode() {
+            return mode;
+        }
+
+        /**
+         * Get the time in milliseconds a cached record is served without revalidation.
+         * 
+         * @return the time to live
+         */
+        @Duration @NonNegative public long getTimeToLive() {
+            return timeToLive;
+        }
+    }
+
+    /**
+     * A cached copy of a record.
+     */
+    private static final class CachedRecord extends StorageRecord {
+
+        /** Generation when the operation caching the record began. */
+        private final long generation;
+
+        /** Time the record was last known to match the remote service. */
+        private volatile long validated;
+
+        /**
+         * Constructor.
+         * 
+         * @param val the value
+         * @param exp the expiration
+         * @param ver the version
+         * @param gen the generation when the operation caching the record began
+         */
+        private CachedRecord(@Nonnull @NotEmpty final String val, @Nullable final Long exp, final long ver,
+                final long gen) {
+            super(val, exp);
+            setVersion(ver);
+            generation = gen;
+            validated = System.currentTimeMillis();
+        }
+
+        /**
+         * Get whether the record has expired.
+         * 
+         * @param now the current time
+         * @return true iff the record has expired
+         */
+        private boolean isExpired(final long now) {
+            return getExpiration() != null && getExpiration() <= now;
+        }
+
+        /**
+         * Get a copy of the record to return to a caller.
+         * 
+         * @return a copy of the record
+         */
+        @Nonnull private StorageRecord copy() {
+            return new CachedRecord(getValue(), getExpiration(), getVersion(), generation);
+        }
+    }
+
+}
@@ -0,0 +1,279 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.storage.impl.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.codec.Base64Support;
+
+import org.opensaml.storage.MutableStorageRecord;
+
+/**
+ * Compact binary serialization of the data managed by a {@link ClientStorageService}.
+ * 
+ * <p>The serialized form is the base64 encoding of a format version byte and a flags byte, followed by the body,
+ * which may be deflated. The body holds a base time, then each context with its records, with lengths and counts
+ * as variable-length integers, strings as UTF-8, and expirations as offsets from the base time. Since a serialized
+ * JSON object always begins with a brace, which base64 never produces, the two forms can be told apart.</p>
+ */
+final class ClientStorageBinaryFormat {
+
+    /** Current format version. */
+    static final int FORMAT_VERSION = 1;
+
+    /** Flag indicating a deflated body. */
+    static final int FLAG_DEFLATED = 0x01;
+
+    /** Body size below which compression is not attempted. */
+    static final int COMPRESSION_THRESHOLD = 256;
+
+    /** Constructor. */
+    private ClientStorageBinaryFormat() {
+
+    }
+
+    /**
+     * Determine whether serialized data is in this format rather than legacy JSON.
+     * 
+     * @param raw serialized data
+     * 
+     * @return true iff the data is not a JSON object
+     */
+    static boolean isBinary(@Nonnull @NotEmpty final String raw) {
+        return raw.charAt(0) != '{';
+    }
+
+    /**
+     * Serialize the unexpired records in a context map.
+     * 
+     * @param contextMap the contexts to serialize
+     * @param now the current time, used to omit expired records and as the base time for expirations
+     * @param compress whether to deflate the body if that makes it smaller
+     * 
+     * @return the serialized data, or null if there are no unexpired records
+     * @throws IOException if an error occurs
+     */
+    @Nullable static String encode(
+            @Nonnull @NonnullElements final Map<String, Map<String, MutableStorageRecord>> contextMap,
+            final long now, final boolean compress) throws IOException {
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream(128);
+        final DataOutputStream out = new DataOutputStream(body);
+        out.writeLong(now);
+        boolean empty = true;
+        for (final Map.Entry<String, Map<String, MutableStorageRecord>> context : contextMap.entrySet()) {
+            int live = 0;
+            for (final MutableStorageRecord record : context.getValue().values()) {
+                if (record.getExpiration() == null || record.getExpiration() > now) {
+                    live++;
+                }
+            }
+            if (live == 0) {
+                continue;
+            }
+            empty = false;
+            writeString(out, context.getKey());
+            writeVarLong(out, live);
+            for (final Map.Entry<String, MutableStorageRecord> entry : context.getValue().entrySet()) {
+                final Long exp = entry.getValue().getExpiration();
+                if (exp == null || exp > now) {
+                    writeString(out, entry.getKey());
+                    writeString(out, entry.getValue().getValue());
+                    // Zero means no expiration, anything else is a (positive) offset from the base time.
+                    writeVarLong(out, exp != null ? exp - now : 0);
+                }
+            }
+        }
+        if (empty) {
+            return null;
+        }
+        out.flush();
+
+        byte[] payload = body.toByteArray();
+        int flags = 0;
+        if (compress && payload.length >= COMPRESSION_THRESHOLD) {
+            final ByteArrayOutputStream deflated = new ByteArrayOutputStream(payload.length / 2);
+            final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+            try (final DeflaterOutputStream deflaterStream = new DeflaterOutputStream(deflated, deflater)) {
+                deflaterStream.write(payload);
+            } finally {
+                // A caller-supplied Deflater is not ended by the stream.
+                deflater.end();
+            }
+            if (deflated.size() < payload.length) {
+                payload = deflated.toByteArray();
+                flags |= FLAG_DEFLATED;
+            }
+        }
+
+        final byte[] data = new byte[payload.length + 2];
+        data[0] = FORMAT_VERSION;
+        data[1] = (byte) flags;
+        System.arraycopy(payload, 0, data, 2, payload.length);
+        return Base64Support.encode(data, Base64Support.UNCHUNKED);
+    }
+
+    /**
+     * Deserialize data into a context map.
+     * 
+     * @param raw serialized data
+     * @param contextMap map to populate
+     * 
+     * @throws IOException if the data is not in a supported format
+     */
+    static void decode(@Nonnull @NotEmpty final String raw,
+            @Nonnull @NonnullElements final Map<String, Map<String, MutableStorageRecord>> contextMap)
+                    throws IOException {
+
+        final byte[] data = Base64Support.decode(raw);
+        if (data == null || data.length < 2) {
+            throw new IOException("Serialized data is truncated");
+        } else if (data[0] != FORMAT_VERSION) {
+            throw new IOException("Unsupported serialization format version " + data[0]);
+        }
+
+        InputStream body = new ByteArrayInputStream(data, 2, data.length - 2);
+        Inflater inflater = null;
+        if ((data[1] & FLAG_DEFLATED) != 0) {
+            inflater = new Inflater(true);
+            body = new InflaterInputStream(body, inflater);
+        }
+        try (final DataInputStream in = new DataInputStream(body)) {
+            final long base = in.readLong();
+            int next;
+            while ((next = in.read()) != -1) {
+                final String context = readString(in, next);
+                Map<String, MutableStorageRecord> dataMap = contextMap.get(context);
+                if (dataMap == null) {
+                    dataMap = new HashMap<>();
+                    contextMap.put(context, dataMap);
+                }
+                final long count = readVarLong(in, in.readUnsignedByte());
+                for (long i = 0; i < count; i++) {
+                    final String key = readString(in, in.readUnsignedByte());
+                    final String value = readString(in, in.readUnsignedByte());
+                    final long offset = readVarLong(in, in.readUnsignedByte());
+                    dataMap.put(key, new MutableStorageRecord(value, offset != 0 ? base + offset : null));
+                }
+            }
+        } finally {
+            // A caller-supplied Inflater is not ended by the stream.
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Write a non-negative integer in a variable number of bytes, seven bits at a time.
+     * 
+     * @param out output stream
+     * @param value value to write
+     * 
+     * @throws IOException if an error occurs
+     */
+    private static void writeVarLong(@Nonnull final OutputStream out, final long value) throws IOException {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) (remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    /**
+     * Read a non-negative integer written by {@link #writeVarLong(OutputStream, long)}.
+     * 
+     * @param in input stream
+     * @param first the first byte, already read
+     * 
+     * @return the value
+     * @throws IOException if an error occurs or the value is malformed
+     */
+    private static long readVarLong(@Nonnull final InputStream in, final int first) throws IOException {
+        long value = first & 0x7F;
+        int b = first;
+        int shift = 7;
+        while ((b & 0x80) != 0) {
+            if (shift > 63) {
+                throw new IOException("Malformed variable-length integer");
+            }
+            b = in.read();
+            if (b == -1) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        }
+        return value;
+    }
+
+    /**
+     * Write a length-prefixed UTF-8 string.
+     * 
+     * @param out output stream
+     * @param value string to write
+     * 
+     * @throws IOException if an error occurs
+     */
+    private static void writeString(@Nonnull final OutputStream out, @Nonnull final String value)
+            throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by {@link #writeString(OutputStream, String)}.
+     * 
+     * @param in input stream
+     * @param first the first byte of the length, already read
+     * 
+     * @return the string
+     * @throws IOException if an error occurs or the string is malformed
+     */
+    @Nonnull private static String readString(@Nonnull final DataInputStream in, final int first)
+            throws IOException {
+        final long length = readVarLong(in, first);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Malformed string length");
+        }
+        final byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -71,7 +71,10 @@ import org.slf4j.LoggerFactory;
  * <p>The data for this service is managed in a {@link ClientStorageServiceStore} object, which must
  * be created by some operation within the container for this implementation to function. Actual
  * load/store of the data to/from that object is driven via companion classes. The serialization
- * of data via JSON is inside the storage object class, but the encryption/decryption is here.</p>
+ * of data is inside the storage object class, but the encryption/decryption is here.</p>
+ * 
+ * <p>Data is serialized in a compact binary form, optionally compressed, unless JSON is configured.
+ * Data in either form can be loaded, so that data saved by older versions remains readable.</p>
  */
 public class ClientStorageService extends AbstractMapBackedStorageService implements Filter {
 
@@ -116,9 +119,17 @@ public class ClientStorageService extends AbstractMapBackedStorageService implem
     /** KeyStrategy enabling us to detect whether data has been sealed with an older key. */
     @Nullable private DataSealerKeyStrategy keyStrategy;
 
+    /** Whether to serialize data in compact binary form rather than JSON. */
+    private boolean compactSerialization;
+
+    /** Whether to compress data serialized in compact binary form. */
+    private boolean compression;
+
     /** Constructor. */
     public ClientStorageService() {
         storageName = DEFAULT_STORAGE_NAME;
+        compactSerialization = true;
+        compression = true;
         capabilityMap = new HashMap<>(2);
         capabilityMap.put(ClientStorageSource.COOKIE, 4096);
         capabilityMap.put(ClientStorageSource.HTML_LOCAL_STORAGE, 1024 * 1024);
@@ -223,6 +234,51 @@ public class ClientStorageService extends AbstractMapBackedStorageService implem
         keyStrategy = strategy;
     }
 
+    /**
+     * Get whether data is serialized in compact binary form rather than JSON.
+     * 
+     * @return whether data is serialized in compact binary form
+     */
+    public boolean isCompactSerialization() {
+        return compactSerialization;
+    }
+
+    /**
+     * Set whether data is serialized in compact binary form rather than JSON.
+     * 
+     * <p>Defaults to true. Data is loaded in either form regardless, so this only needs to be turned off
+     * while servers which can only read JSON may still receive the data.</p>
+     * 
+     * @param flag whether to serialize data in compact binary form
+     */
+    public void setCompactSerialization(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        compactSerialization = flag;
+    }
+
+    /**
+     * Get whether data serialized in compact binary form is compressed.
+     * 
+     * @return whether data is compressed
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Set whether data serialized in compact binary form is compressed.
+     * 
+     * <p>Defaults to true. Small data, or data which compression would not shrink, is never compressed.</p>
+     * 
+     * @param flag whether to compress data
+     */
+    public void setCompression(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        compression = flag;
+    }
+
     /** {@inheritDoc} */
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
@@ -256,6 +312,16 @@ public class ClientStorageService extends AbstractMapBackedStorageService implem
         return capabilityMap.get(getSource());
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>Records are held by the client, so a create is atomic only with respect to the current request.</p>
+     */
+    @Override
+    public boolean isAtomicCreate() {
+        return false;
+    }
+
     /** {@inheritDoc} */
     @Override
     protected void doInitialize() throws ComponentInitializationException {
@@ -376,6 +442,11 @@ public class ClientStorageService extends AbstractMapBackedStorageService implem
 
         ClientStorageServiceStore storageObject;
         
+        if (raw != null && isUnchanged(raw, source)) {
+            log.trace("{} Storage state in session is current, skipping load", getLogPrefix());
+            return;
+        }
+        
         if (raw != null) {
             log.trace("{} Loading storage state into session", getLogPrefix());
             try {
@@ -385,6 +456,7 @@ public class ClientStorageService extends AbstractMapBackedStorageService implem
                 log.trace("{} Data after decryption: {}", getLogPrefix(), decrypted);
                 
                 storageObject = new ClientStorageServiceStore(decrypted, source);
+                storageObject.setSealed(raw);
                 
                 if (keyStrategy != null) {
                     try {
@@ -427,6 +499,33 @@ public class ClientStorageService extends AbstractMapBackedStorageService implem
         }
     }
     
+    /**
+     * Check whether the session already holds unmodified data loaded from, or saved as, the specified
+     * encrypted data, in which case there is no need to decrypt and parse it again.
+     * 
+     * @param raw encrypted data to load
+     * @param source source of the data
+     * 
+     * @return true iff the session holds an unmodified copy of the data
+     */
+    private boolean isUnchanged(@Nonnull @NotEmpty final String raw, @Nonnull final ClientStorageSource source) {
+        final Lock lock = getLock().readLock();
+        try {
+            lock.lock();
+            
+            final HttpSession session = Constraint.isNotNull(httpServletRequest.getSession(),
+                    "HttpSession cannot be null");
+            final Object object = session.getAttribute(STORAGE_ATTRIBUTE + '.' + storageName);
+            if (object instanceof ClientStorageServiceStore) {
+                final ClientStorageServiceStore store = (ClientStorageServiceStore) object;
+                return !store.isDirty() && store.getSource() == source && raw.equals(store.getSealed());
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
     /**
      * Serialize the stored data if it's in a "modified/dirty" state.
      * 
@@ -486,6 +585,9 @@ public class ClientStorageService extends AbstractMapBackedStorageService implem
         /** Dirty bit. */
         private boolean dirty;
         
+        /** Encrypted form of the data as last loaded or saved, if known. */
+        @Nullable private String sealed;
+        
         /**
          * Reconstitute stored data.
          * 
@@ -503,6 +605,19 @@ public class ClientStorageService extends AbstractMapBackedStorageService implem
                 return;
             }
             
+            if (ClientStorageBinaryFormat.isBinary(raw)) {
+                try {
+                    ClientStorageBinaryFormat.decode(raw, contextMap);
+                    setDirty(false);
+                } catch (final IOException | IllegalArgumentException e) {
+                    contextMap.clear();
+                    // Setting this should force corrupt data in the client to be overwritten.
+                    setDirty(true);
+                    log.error("{} Found invalid data while parsing context map", getLogPrefix(), e);
+                }
+                return;
+            }
+            
             try {
                 final JsonReader reader = Json.createReader(new StringReader(raw));
                 final JsonStructure st = reader.read();
@@ -579,6 +694,24 @@ public class ClientStorageService extends AbstractMapBackedStorageService implem
         void setDirty(final boolean flag) {
             dirty = flag;
         }
+        
+        /**
+         * Get the encrypted form of the data as last loaded or saved.
+         * 
+         * @return encrypted data, or null if not known
+         */
+        @Nullable String getSealed() {
+            return sealed;
+        }
+        
+        /**
+         * Set the encrypted form of the data as last loaded or saved.
+         * 
+         * @param data encrypted data
+         */
+        void setSealed(@Nullable final String data) {
+            sealed = data;
+        }
 
 // Checkstyle: CyclomaticComplexity OFF        
         /**
@@ -600,6 +733,10 @@ public class ClientStorageService extends AbstractMapBackedStorageService implem
                 return new ClientStorageServiceOperation(getId(), getStorageName(), null, source);
             }
 
+            if (compactSerialization) {
+                return saveCompact();
+            }
+
             long exp = 0L;
             final long now = System.currentTimeMillis();
             boolean empty = true;
@@ -645,6 +782,7 @@ public class ClientStorageService extends AbstractMapBackedStorageService implem
                             exp > 0 ? exp : System.currentTimeMillis() + 24 * 60 * 60 * 1000);
                     log.trace("{} Size of data after encryption is {}", getLogPrefix(), wrapped.length());
                     setDirty(false);
+                    setSealed(wrapped);
                     return new ClientStorageServiceOperation(getId(), getStorageName(), wrapped, source);
                 } catch (final DataSealerException e) {
                     throw new IOException(e);
@@ -653,6 +791,44 @@ public class ClientStorageService extends AbstractMapBackedStorageService implem
                 throw new IOException(e);
             }
         }
+
+        /**
+         * Serialize current state of stored data in compact binary form into a storage operation.
+         * 
+         * @return the operation
+         * 
+         * @throws IOException if an error occurs
+         */
+        @Nonnull private ClientStorageServiceOperation saveCompact() throws IOException {
+            final long now = System.currentTimeMillis();
+            final String raw = ClientStorageBinaryFormat.encode(contextMap, now, compression);
+            if (raw == null) {
+                log.trace("{} Data is empty", getLogPrefix());
+                return new ClientStorageServiceOperation(getId(), getStorageName(), null, source);
+            }
+
+            long exp = 0L;
+            for (final Map<String, MutableStorageRecord> records : contextMap.values()) {
+                for (final MutableStorageRecord record : records.values()) {
+                    final Long recexp = record.getExpiration();
+                    if (recexp != null && recexp > now) {
+                        exp = Math.max(exp, recexp);
+                    }
+                }
+            }
+
+            log.trace("{} Size of data before encryption is {}", getLogPrefix(), raw.length());
+            try {
+                final String wrapped = dataSealer.wrap(raw,
+                        exp > 0 ? exp : System.currentTimeMillis() + 24 * 60 * 60 * 1000);
+                log.trace("{} Size of data after encryption is {}", getLogPrefix(), wrapped.length());
+                setDirty(false);
+                setSealed(wrapped);
+                return new ClientStorageServiceOperation(getId(), getStorageName(), wrapped, source);
+            } catch (final DataSealerException e) {
+                throw new IOException(e);
+            }
+        }
     }
 // Checkstyle: CyclomaticComplexity ON
     
@@ -6,7 +6,7 @@ package org.opensaml.storage.impl.memcached;
 
 import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
 import net.shibboleth.utilities.java.support.logic.Constraint;
-import org.opensaml.storage.StorageCapabilities;
+import org.opensaml.storage.StorageCapabilitiesEx;
 
 /**
  * Provides a description of memcached capabilities. Note that only value size is configurable since memcached supports
@@ -15,7 +15,7 @@ import org.opensaml.storage.StorageCapabilities;
  *
  * @author Marvin S. Addison
  */
-public class MemcachedStorageCapabilities implements StorageCapabilities {
+public class MemcachedStorageCapabilities implements StorageCapabilitiesEx {
 
     /** Memcached supports 1M slabs (i.e. values) by default and issues warning on increase. */
     private static long DEFAULT_MAX_VALUE = 1024 * 1024;
@@ -48,4 +48,10 @@ public class MemcachedStorageCapabilities implements StorageCapabilities {
     public long getValueSize() {
         return valueSize;
     }
+
+    /** Memcached add operations are atomic. */
+    @Override
+    public boolean isAtomicCreate() {
+        return true;
+    }
 }
@@ -4,6 +4,7 @@
 
 package org.opensaml.storage.impl.memcached;
 
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
 import net.shibboleth.utilities.java.support.collection.Pair;
@@ -27,6 +28,8 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -55,6 +58,14 @@ import java.util.concurrent.TimeoutException;
  * slab size, which decreases overall cache memory consumption efficiency. When key tracking is disabled, there is no
  * limit on the number of keys per context other than overall cache capacity.
  * <p>
+ * The namespace of each context may optionally be cached locally for a short time, set by
+ * {@link #setNamespaceCacheTTL(long)}, which saves a round trip on every operation. A context deleted by another
+ * node remains visible through this node's cached namespace until it expires, so the time should be kept short.
+ * <p>
+ * Bulk operations, {@link #readAll(String, Collection)}, {@link #createAll(String, Map, Long)} and
+ * {@link #deleteAll(String, Collection)}, pipeline the operations on a number of keys in a context, and then wait
+ * for all of them, so take little longer than an operation on a single key.
+ * <p>
  * <strong>Limitations and requirements</strong>
  * <ol>
  *     <li>The memcached binary protocol is strong recommended for efficiency and full versioning support.
@@ -67,7 +78,8 @@ import java.util.concurrent.TimeoutException;
  *
  * @author Marvin S. Addison
  */
-public class MemcachedStorageService extends AbstractIdentifiableInitializableComponent implements StorageService {
+public class MemcachedStorageService extends AbstractIdentifiableInitializableComponent
+        implements BatchStorageService {
 
     /** Key suffix for entry that contains a list of context keys. */
     protected static final String CTX_KEY_LIST_SUFFIX = ":contextKeyList";
@@ -81,6 +93,9 @@ public class MemcachedStorageService extends AbstractIdentifiableInitializableCo
     /** Maximum length in bytes of memcached keys. */
     private static final int MAX_KEY_LENGTH = 250;
 
+    /** Number of cached namespaces above which expired namespaces are purged from the cache. */
+    private static final int NAMESPACE_CACHE_PURGE_SIZE = 10000;
+
     /** Logger instance. */
     private final Logger logger = LoggerFactory.getLogger(MemcachedStorageService.class);
 
@@ -105,6 +120,13 @@ public class MemcachedStorageService extends AbstractIdentifiableInitializableCo
     /** Flag that controls context key tracking. */
     private boolean trackContextKeys;
 
+    /** Time in milliseconds for which context namespaces are cached locally, or 0 to disable caching. */
+    @NonNegative
+    private long namespaceCacheTTL;
+
+    /** Locally cached namespaces, keyed by context name. */
+    private final ConcurrentMap<String, CachedNamespace> namespaceCache = new ConcurrentHashMap<>();
+
     /**
      * Creates a new instance.
      *
@@ -162,6 +184,30 @@ public class MemcachedStorageService extends AbstractIdentifiableInitializableCo
         this.capabilities = capabilities;
     }
 
+    /**
+     * Gets the time for which context namespaces are cached locally.
+     *
+     * @return Time in milliseconds, or 0 if namespaces are not cached.
+     */
+    @NonNegative
+    public long getNamespaceCacheTTL() {
+        return namespaceCacheTTL;
+    }
+
+    /**
+     * Sets the time for which context namespaces are cached locally. A context deleted by another node remains
+     * visible to this node for up to this time, so it should be short, a few seconds at most.
+     *
+     * @param ttl Time in milliseconds, or 0 to disable caching. Disabled by default.
+     */
+    public void setNamespaceCacheTTL(@NonNegative final long ttl) {
+        Constraint.isGreaterThanOrEqual(0, ttl, "Namespace cache TTL must be non-negative");
+        this.namespaceCacheTTL = ttl;
+        if (ttl == 0) {
+            namespaceCache.clear();
+        }
+    }
+
     @Override
     public boolean create(@Nonnull @NotEmpty final String context,
                           @Nonnull @NotEmpty final String key,
@@ -460,6 +506,159 @@ public class MemcachedStorageService extends AbstractIdentifiableInitializableCo
                 AnnotationSupport.getKey(value));
     }
 
+    /**
+     * Reads a number of records from a context, pipelining the reads.
+     *
+     * @param context Context name.
+     * @param keys Keys of the records to read.
+     *
+     * @return Map of keys to the records found; keys for which no record exists are absent.
+     *
+     * @throws IOException On memcached operation errors.
+     */
+    @Override
+    @Nonnull
+    public Map<String, StorageRecord> readAll(@Nonnull @NotEmpty final String context,
+                                              @Nonnull final Collection<String> keys) throws IOException {
+        Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
+        Constraint.isNotNull(keys, "Keys cannot be null");
+        final Map<String, StorageRecord> records = new HashMap<>(keys.size());
+        final String namespace = lookupNamespace(context);
+        if (namespace == null) {
+            this.logger.debug("Namespace for context {} does not exist", context);
+            return records;
+        }
+        // Multi-get would lose the CAS values used as record versions, so pipeline individual gets instead
+        final Map<String, OperationFuture<CASValue<MemcachedStorageRecord>>> results = new HashMap<>(keys.size());
+        try {
+            for (String key : keys) {
+                Constraint.isNotNull(StringSupport.trimOrNull(key), "Key cannot be null or empty");
+                results.put(key, this.client.asyncGets(memcachedKey(namespace, key), storageRecordTranscoder));
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Memcached operation failed", e);
+        }
+        this.logger.debug("Reading {} entries for context={}", results.size(), context);
+        for (Map.Entry<String, OperationFuture<CASValue<MemcachedStorageRecord>>> result : results.entrySet()) {
+            final CASValue<MemcachedStorageRecord> record = handleAsyncResult(result.getValue());
+            if (record != null) {
+                record.getValue().setVersion(record.getCas());
+                records.put(result.getKey(), record.getValue());
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Creates a number of records in a context, pipelining the creates.
+     *
+     * @param context Context name.
+     * @param values Map of keys to the values of the records to create.
+     * @param expiration Expiration of the records, in milliseconds since the epoch, or null for none.
+     *
+     * @return Keys of the records created; records for the other keys already exist.
+     *
+     * @throws IOException On memcached operation errors.
+     */
+    @Override
+    @Nonnull
+    public Set<String> createAll(@Nonnull @NotEmpty final String context,
+                                 @Nonnull final Map<String, String> values,
+                                 @Nullable @Positive final Long expiration) throws IOException {
+        Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
+        Constraint.isNotNull(values, "Values cannot be null");
+        final int expiry = MemcachedStorageRecord.expiry(expiration);
+        Constraint.isGreaterThan(-1, expiry, "Expiration must be null or positive");
+        String namespace = lookupNamespace(context);
+        if (namespace == null) {
+            namespace = createNamespace(context);
+        }
+        final Map<String, OperationFuture<Boolean>> results = new HashMap<>(values.size());
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            Constraint.isNotNull(StringSupport.trimOrNull(entry.getKey()), "Key cannot be null or empty");
+            Constraint.isNotNull(StringSupport.trimOrNull(entry.getValue()), "Value cannot be null or empty");
+            final MemcachedStorageRecord record = new MemcachedStorageRecord(entry.getValue(), expiration);
+            results.put(entry.getKey(), this.client.add(
+                    memcachedKey(namespace, entry.getKey()), expiry, record, storageRecordTranscoder));
+        }
+        this.logger.debug("Creating {} entries for context={}, exp={}", results.size(), context, expiry);
+        final Set<String> created = new HashSet<>(results.size());
+        for (Map.Entry<String, OperationFuture<Boolean>> result : results.entrySet()) {
+            if (handleAsyncResult(result.getValue())) {
+                created.add(result.getKey());
+            }
+        }
+        if (!created.isEmpty() && trackContextKeys) {
+            final List<String> cacheKeys = new ArrayList<>(created.size());
+            for (String key : created) {
+                cacheKeys.add(memcachedKey(namespace, key));
+            }
+            logger.debug("Tracking {} keys for context {}", cacheKeys.size(), context);
+            if (!updateContextKeyList(CTX_KEY_LIST_SUFFIX, namespace, cacheKeys)) {
+                logger.debug("Failed appending {} keys to list of keys for context {}", cacheKeys.size(), context);
+                // Try to clean up records we just created
+                // Cache entry expiration will clean them up regardless
+                final List<OperationFuture<Boolean>> deletes = new ArrayList<>(cacheKeys.size());
+                for (String cacheKey : cacheKeys) {
+                    deletes.add(this.client.delete(cacheKey));
+                }
+                for (OperationFuture<Boolean> delete : deletes) {
+                    handleAsyncResult(delete);
+                }
+                created.clear();
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Deletes a number of records from a context, pipelining the deletes.
+     *
+     * @param context Context name.
+     * @param keys Keys of the records to delete.
+     *
+     * @return Keys of the records deleted; no records exist for the other keys.
+     *
+     * @throws IOException On memcached operation errors.
+     */
+    @Override
+    @Nonnull
+    public Set<String> deleteAll(@Nonnull @NotEmpty final String context, @Nonnull final Collection<String> keys)
+            throws IOException {
+        Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
+        Constraint.isNotNull(keys, "Keys cannot be null");
+        final Set<String> deleted = new HashSet<>(keys.size());
+        final String namespace = lookupNamespace(context);
+        if (namespace == null) {
+            this.logger.debug("Namespace for context {} does not exist", context);
+            return deleted;
+        }
+        final Map<String, String> cacheKeys = new HashMap<>(keys.size());
+        final Map<String, OperationFuture<Boolean>> results = new HashMap<>(keys.size());
+        for (String key : keys) {
+            Constraint.isNotNull(StringSupport.trimOrNull(key), "Key cannot be null or empty");
+            final String cacheKey = memcachedKey(namespace, key);
+            cacheKeys.put(key, cacheKey);
+            results.put(key, this.client.delete(cacheKey));
+        }
+        this.logger.debug("Deleting {} entries for context={}", results.size(), context);
+        final List<String> blacklist = new ArrayList<>(results.size());
+        for (Map.Entry<String, OperationFuture<Boolean>> result : results.entrySet()) {
+            if (handleAsyncResult(result.getValue())) {
+                deleted.add(result.getKey());
+                blacklist.add(cacheKeys.get(result.getKey()));
+            }
+        }
+        if (!blacklist.isEmpty() && trackContextKeys) {
+            logger.debug("Blacklisting {} keys for context {}", blacklist.size(), context);
+            if (!updateContextKeyList(CTX_KEY_BLACKLIST_SUFFIX, namespace, blacklist)) {
+                logger.debug("Failed appending {} keys to list of blacklisted keys for context {}",
+                        blacklist.size(), context);
+            }
+        }
+        return deleted;
+    }
+
     @Override
     public void reap(@Nonnull @NotEmpty final String context) throws IOException {
         return;
@@ -479,15 +678,18 @@ public class MemcachedStorageService extends AbstractIdentifiableInitializableCo
             logger.debug("Cannot update context expiration since context namespace does not exist");
             return;
         }
-        final CASValue<String> keys = handleAsyncResult(
-                this.client.asyncGets(namespace + CTX_KEY_LIST_SUFFIX, stringTranscoder));
+        // Fetch the key list and blacklist together
+        final OperationFuture<CASValue<String>> keysResult =
+                this.client.asyncGets(namespace + CTX_KEY_LIST_SUFFIX, stringTranscoder);
+        final OperationFuture<CASValue<String>> blacklistResult =
+                this.client.asyncGets(namespace + CTX_KEY_BLACKLIST_SUFFIX, stringTranscoder);
+        final CASValue<String> keys = handleAsyncResult(keysResult);
+        final CASValue<String> blacklistKeys = handleAsyncResult(blacklistResult);
         if (keys == null) {
             logger.debug("No context keys found to update expiration");
             return;
         }
         final Set<String> keySet = new HashSet<>(Arrays.asList(keys.getValue().split(CTX_KEY_LIST_DELIMITER)));
-        final CASValue<String> blacklistKeys = handleAsyncResult(
-                this.client.asyncGets(namespace + CTX_KEY_BLACKLIST_SUFFIX, stringTranscoder));
         if (blacklistKeys != null) {
             keySet.removeAll(Arrays.asList(blacklistKeys.getValue().split(CTX_KEY_LIST_DELIMITER)));
         }
@@ -504,7 +706,10 @@ public class MemcachedStorageService extends AbstractIdentifiableInitializableCo
     @Override
     public void deleteContext(@Nonnull @NotEmpty final String context) throws IOException {
         Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
+        // Bypass the cached namespace, which may be stale, and drop the one cached by the lookup
+        namespaceCache.remove(context);
         final String namespace = lookupNamespace(context);
+        namespaceCache.remove(context);
         if (namespace == null) {
             this.logger.debug("Namespace for context {} does not exist. Context values effectively deleted.", context);
             return;
@@ -537,10 +742,20 @@ public class MemcachedStorageService extends AbstractIdentifiableInitializableCo
      * @throws java.io.IOException On memcached operation errors.
      */
     protected String lookupNamespace(final String context) throws IOException {
+        if (namespaceCacheTTL > 0) {
+            final CachedNamespace cached = namespaceCache.get(context);
+            if (cached != null && cached.getExpiration() > System.currentTimeMillis()) {
+                return cached.getNamespace();
+            }
+        }
         try {
             final CASValue<String> result = handleAsyncResult(
                     this.client.asyncGets(memcachedKey(context), stringTranscoder));
-            return result == null ? null : result.getValue();
+            if (result == null) {
+                return null;
+            }
+            cacheNamespace(context, result.getValue());
+            return result.getValue();
         } catch (RuntimeException e) {
             throw new IOException("Memcached operation failed", e);
         }
@@ -569,9 +784,31 @@ public class MemcachedStorageService extends AbstractIdentifiableInitializableCo
         if (!handleAsyncResult(this.client.add(memcachedKey(context), 0, namespace, stringTranscoder))) {
             throw new IllegalStateException(context + " already exists");
         }
+        cacheNamespace(context, namespace);
         return namespace;
     }
 
+    /**
+     * Caches the namespace of a context locally, if namespace caching is enabled.
+     *
+     * @param context Context name.
+     * @param namespace Namespace of the context.
+     */
+    private void cacheNamespace(final String context, final String namespace) {
+        if (namespaceCacheTTL > 0) {
+            final long now = System.currentTimeMillis();
+            if (namespaceCache.size() >= NAMESPACE_CACHE_PURGE_SIZE) {
+                final Iterator<CachedNamespace> cached = namespaceCache.values().iterator();
+                while (cached.hasNext()) {
+                    if (cached.next().getExpiration() <= now) {
+                        cached.remove();
+                    }
+                }
+            }
+            namespaceCache.put(context, new CachedNamespace(namespace, now + namespaceCacheTTL));
+        }
+    }
+
     /**
      * Creates a memcached key from one or more parts.
      *
@@ -614,8 +851,17 @@ public class MemcachedStorageService extends AbstractIdentifiableInitializableCo
 
     private boolean updateContextKeyList(final String suffix, final String namespace, final String key)
             throws IOException {
+        return updateContextKeyList(suffix, namespace, Collections.singletonList(key));
+    }
+
+    private boolean updateContextKeyList(final String suffix, final String namespace, final Collection<String> keys)
+            throws IOException {
         final String listKey = namespace + suffix;
-        final String newItem = key + CTX_KEY_LIST_DELIMITER;
+        final StringBuilder items = new StringBuilder();
+        for (String key : keys) {
+            items.append(key).append(CTX_KEY_LIST_DELIMITER);
+        }
+        final String newItem = items.toString();
         final boolean success = handleAsyncResult(this.client.append(listKey, newItem, stringTranscoder));
         if (!success) {
             // Assume list does not exist and create it
@@ -623,4 +869,43 @@ public class MemcachedStorageService extends AbstractIdentifiableInitializableCo
         }
         return success;
     }
+
+    /** A namespace cached locally, with the time at which it expires from the cache. */
+    private static final class CachedNamespace {
+
+        /** Namespace. */
+        private final String namespace;
+
+        /** Time at which the namespace expires from the cache, in milliseconds since the epoch. */
+        private final long expiration;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param ns Namespace.
+         * @param exp Time at which the namespace expires from the cache.
+         */
+        CachedNamespace(final String ns, final long exp) {
+            namespace = ns;
+            expiration = exp;
+        }
+
+        /**
+         * Gets the namespace.
+         *
+         * @return Namespace.
+         */
+        public String getNamespace() {
+            return namespace;
+        }
+
+        /**
+         * Gets the time at which the namespace expires from the cache.
+         *
+         * @return Time in milliseconds since the epoch.
+         */
+        public long getExpiration() {
+            return expiration;
+        }
+    }
 }
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.storage.impl;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.StorageService;
+import org.opensaml.storage.StorageServiceTest;
+import org.opensaml.storage.VersionMismatchException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test of {@link ConcurrentMemoryStorageService} implementation.
+ */
+public class ConcurrentMemoryStorageServiceTest extends StorageServiceTest {
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull protected StorageService getStorageService() {
+        ConcurrentMemoryStorageService ss = new ConcurrentMemoryStorageService();
+        ss.setId("test");
+        ss.setCleanupInterval(1000);
+        return ss;
+    }
+        
+    @Test
+    public void validConfig() throws ComponentInitializationException {
+        ConcurrentMemoryStorageService ss = new ConcurrentMemoryStorageService();
+        ss.setId("test");
+        ss.initialize();
+        ss.destroy();
+    }
+    
+    @Test
+    public void replaceExpired() throws IOException, InterruptedException {
+        String context = Long.toString(random.nextLong());
+        
+        Assert.assertTrue(shared.create(context, "key", "value1", System.currentTimeMillis() + 100));
+        Assert.assertFalse(shared.create(context, "key", "value2", null));
+        Thread.sleep(150);
+        Assert.assertTrue(shared.create(context, "key", "value2", null));
+        
+        StorageRecord record = shared.read(context, "key");
+        Assert.assertNotNull(record);
+        Assert.assertEquals(record.getValue(), "value2");
+    }
+    
+    @Test
+    public void readCopies() throws IOException, VersionMismatchException {
+        String context = Long.toString(random.nextLong());
+        
+        Assert.assertTrue(shared.create(context, "key", "value1", null));
+        StorageRecord record = shared.read(context, "key");
+        Assert.assertEquals(shared.updateWithVersion(record.getVersion(), context, "key", "value2", null),
+                Long.valueOf(2));
+        Assert.assertEquals(record.getValue(), "value1");
+        Assert.assertEquals(record.getVersion(), 1);
+        Assert.assertEquals(shared.read(context, "key").getValue(), "value2");
+    }
+    
+    @Test
+    public void evictionOrder() throws ComponentInitializationException, IOException {
+        ConcurrentMemoryStorageService ss = new ConcurrentMemoryStorageService();
+        ss.setId("test");
+        ss.setMaxRecordsPerContext(3);
+        ss.initialize();
+        try {
+            long now = System.currentTimeMillis();
+            Assert.assertTrue(ss.create("context", "later", "value", now + 20000));
+            Assert.assertTrue(ss.create("context", "never", "value", null));
+            Assert.assertTrue(ss.create("context", "sooner", "value", now + 10000));
+            Assert.assertTrue(ss.create("context", "latest", "value", now + 30000));
+            Assert.assertNull(ss.read("context", "sooner"));
+            Assert.assertEquals(ss.getEvictionCount(), 1);
+            Assert.assertEquals(ss.getRecordCount("context"), 3);
+
+            // Records without an expiration go last, least recently used first.
+            Assert.assertTrue(ss.create("context", "never2", "value", null));
+            Assert.assertTrue(ss.create("context", "never3", "value", null));
+            Assert.assertNull(ss.read("context", "later"));
+            Assert.assertNull(ss.read("context", "latest"));
+            Assert.assertNotNull(ss.read("context", "never"));
+            Assert.assertTrue(ss.create("context", "never4", "value", null));
+            Assert.assertNull(ss.read("context", "never2"));
+            Assert.assertNotNull(ss.read("context", "never"));
+            Assert.assertEquals(ss.getEvictionCount(), 4);
+            Assert.assertEquals(ss.getRecordCount(), 3);
+        } finally {
+            ss.destroy();
+        }
+    }
+    
+    @Test
+    public void sizeAccounting() throws ComponentInitializationException, IOException {
+        ConcurrentMemoryStorageService ss = new ConcurrentMemoryStorageService();
+        ss.setId("test");
+        ss.setMaxSize(2 * (ConcurrentMemoryStorageService.RECORD_OVERHEAD + 16));
+        ss.initialize();
+        try {
+            Assert.assertTrue(ss.create("context1", "key1", "value1", null));
+            Assert.assertEquals(ss.getEstimatedSize(), ConcurrentMemoryStorageService.RECORD_OVERHEAD + 20);
+            Assert.assertTrue(ss.create("context2", "key2", "v", null));
+            Assert.assertEquals(ss.getRecordCount(), 2);
+            Assert.assertEquals(ss.getEvictionCount(), 0);
+            
+            Assert.assertTrue(ss.update("context2", "key2", "value2", null));
+            Assert.assertNull(ss.read("context1", "key1"));
+            Assert.assertEquals(ss.getEvictionCount(), 1);
+            Assert.assertEquals(ss.getEstimatedSize(), ConcurrentMemoryStorageService.RECORD_OVERHEAD + 20);
+            Assert.assertEquals(ss.getEstimatedSize("context1"), 0);
+            
+            Assert.assertTrue(ss.delete("context2", "key2"));
+            Assert.assertEquals(ss.getRecordCount(), 0);
+            Assert.assertEquals(ss.getEstimatedSize(), 0);
+            
+            Assert.assertTrue(ss.create("context3", "key3", "value3", null));
+            ss.deleteContext("context3");
+            Assert.assertEquals(ss.getRecordCount(), 0);
+            Assert.assertEquals(ss.getEstimatedSize(), 0);
+        } finally {
+            ss.destroy();
+        }
+    }
+    
+    @Test
+    public void nonEvictingContext() throws ComponentInitializationException, IOException, InterruptedException {
+        ConcurrentMemoryStorageService ss = new ConcurrentMemoryStorageService();
+        ss.setId("test");
+        ss.setMaxRecordsPerContext(2);
+        ss.setNonEvictingContexts(Collections.singletonList("replay"));
+        ss.initialize();
+        try {
+            long now = System.currentTimeMillis();
+            Assert.assertTrue(ss.create("replay", "id1", "x", now + 100));
+            Assert.assertTrue(ss.create("replay", "id2", "x", now + 60000));
+            try {
+                ss.create("replay", "id3", "x", now + 60000);
+                Assert.fail("Create in a full non-evicting context should have failed");
+            } catch (final IOException e) {
+                // expected
+            }
+            Assert.assertEquals(ss.getRejectionCount(), 1);
+            Assert.assertNotNull(ss.read("replay", "id2"));
+            
+            // Expired records make room without counting as evictions.
+            Thread.sleep(150);
+            Assert.assertTrue(ss.create("replay", "id3", "x", now + 60000));
+            Assert.assertEquals(ss.getEvictionCount(), 0);
+            Assert.assertEquals(ss.getRecordCount("replay"), 2);
+        } finally {
+            ss.destroy();
+        }
+    }
+    
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.storage.impl;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for {@link FilteringReplayCache}
+ */
+public class FilteringReplayCacheTest {
+
+    private String context;
+    
+    private long expiration;
+
+    private AtomicInteger creates;
+
+    private MemoryStorageService storageService;
+    
+    private FilteringReplayCache replayCache;
+
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        context = getClass().getName();
+        expiration = System.currentTimeMillis() + 180000;
+        creates = new AtomicInteger();
+
+        storageService = new MemoryStorageService() {
+            public boolean create(String ctx, String key, String value, Long exp) throws IOException {
+                creates.incrementAndGet();
+                return super.create(ctx, key, value, exp);
+            }
+        };
+        storageService.setId("test");
+        storageService.initialize();
+        
+        replayCache = new FilteringReplayCache();
+        replayCache.setStorage(storageService);
+        replayCache.setWriteInterval(600000);
+    }
+    
+    @AfterMethod
+    protected void tearDown() {
+        replayCache.destroy();
+        replayCache = null;
+        
+        storageService.destroy();
+        storageService = null;
+    }
+
+    @Test
+    public void testDeferredWrites() throws Exception {
+        replayCache.initialize();
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(replayCache.check(context, "id" + i, expiration));
+        }
+        Assert.assertFalse(replayCache.check(context, "id3", expiration), "Message was replay");
+        Assert.assertEquals(creates.get(), 0);
+        Assert.assertEquals(replayCache.getPendingWriteCount(), 10);
+        
+        replayCache.writePending();
+        Assert.assertEquals(creates.get(), 10);
+        Assert.assertEquals(replayCache.getPendingWriteCount(), 0);
+        Assert.assertNotNull(storageService.read(context, "id3"));
+        
+        Assert.assertFalse(replayCache.check(context, "id3", expiration), "Message was replay");
+    }
+
+    @Test
+    public void testUnseenLocally() throws Exception {
+        replayCache.initialize();
+        storageService.create(context, "remote", "x", expiration);
+
+        // At-least-once: a value stored by another node but not seen locally is accepted.
+        Assert.assertTrue(replayCache.check(context, "remote", expiration));
+        replayCache.writePending();
+        Assert.assertFalse(replayCache.check(context, "remote", expiration), "Message was replay");
+    }
+
+    @Test
+    public void testStrict() throws Exception {
+        replayCache.setStrict(true);
+        replayCache.initialize();
+
+        Assert.assertTrue(replayCache.check(context, "id", expiration));
+        Assert.assertEquals(creates.get(), 1);
+        Assert.assertEquals(replayCache.getPendingWriteCount(), 0);
+        Assert.assertFalse(replayCache.check(context, "id", expiration), "Message was replay");
+    }
+
+    @Test
+    public void testMaxPendingWrites() throws Exception {
+        replayCache.setMaxPendingWrites(2);
+        replayCache.initialize();
+
+        Assert.assertTrue(replayCache.check(context, "id1", expiration));
+        Assert.assertTrue(replayCache.check(context, "id2", expiration));
+        Assert.assertTrue(replayCache.check(context, "id3", expiration));
+        Assert.assertEquals(replayCache.getPendingWriteCount(), 2);
+        Assert.assertEquals(creates.get(), 1);
+        Assert.assertFalse(replayCache.check(context, "id3", expiration), "Message was replay");
+    }
+
+}
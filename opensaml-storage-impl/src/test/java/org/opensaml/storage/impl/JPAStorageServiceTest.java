@@ -32,6 +32,7 @@ import net.shibboleth.utilities.java.support.component.ComponentInitializationEx
 import org.opensaml.storage.StorageRecord;
 import org.opensaml.storage.StorageService;
 import org.opensaml.storage.StorageServiceTest;
+import org.opensaml.storage.VersionMismatchException;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
 import org.springframework.beans.factory.config.BeanPostProcessor;
@@ -127,6 +128,60 @@ public class JPAStorageServiceTest extends StorageServiceTest {
         Assert.assertEquals(recs.size(), 0);
     }
 
+    @Test
+    public void batchedCleanup() throws ComponentInitializationException, IOException, InterruptedException {
+        final JPAStorageService batching = new JPAStorageService(createEntityManagerFactory());
+        batching.setId("batching");
+        batching.setCleanupBatchSize(7);
+        batching.initialize();
+        try {
+            final String context1 = Long.toString(random.nextLong());
+            final String context2 = Long.toString(random.nextLong());
+            for (int i = 1; i <= 25; i++) {
+                batching.create(i % 2 == 0 ? context1 : context2, Integer.toString(i), Integer.toString(i + 1),
+                        System.currentTimeMillis() + 100);
+            }
+            batching.create(context1, "live", "value", System.currentTimeMillis() + 300000);
+            Thread.sleep(200);
+            batching.deleteImpl(System.currentTimeMillis());
+            Assert.assertEquals(batching.readAll(context1).size(), 1);
+            Assert.assertTrue(batching.readAll(context2).isEmpty());
+            batching.deleteContext(context1);
+        } finally {
+            batching.destroy();
+        }
+    }
+
+    @Test
+    public void conditionalWrites() throws IOException, VersionMismatchException, InterruptedException {
+        final String context = Long.toString(random.nextLong());
+        Assert.assertTrue(storageService.create(context, "expiring", "one", System.currentTimeMillis() + 100));
+        Thread.sleep(200);
+        Assert.assertFalse(storageService.update(context, "expiring", "two", null));
+        Assert.assertTrue(storageService.create(context, "expiring", "two", null));
+        StorageRecord rec = storageService.read(context, "expiring");
+        Assert.assertEquals(rec.getValue(), "two");
+        Assert.assertEquals(rec.getVersion(), 1);
+        Assert.assertFalse(storageService.create(context, "expiring", "three", null));
+
+        Assert.assertEquals(storageService.updateWithVersion(1, context, "expiring", "three", null), Long.valueOf(2));
+        try {
+            storageService.updateWithVersion(1, context, "expiring", "four", null);
+            Assert.fail("Update with stale version should have failed");
+        } catch (final VersionMismatchException e) {
+            // expected
+        }
+        Assert.assertNull(storageService.updateWithVersion(1, context, "missing", "four", null));
+        try {
+            storageService.deleteWithVersion(1, context, "expiring");
+            Assert.fail("Delete with stale version should have failed");
+        } catch (final VersionMismatchException e) {
+            // expected
+        }
+        Assert.assertTrue(storageService.deleteWithVersion(2, context, "expiring"));
+        Assert.assertFalse(storageService.deleteWithVersion(2, context, "expiring"));
+    }
+
     @DataProvider(name = "contexts")
     public Object[][] contexts() throws Exception {
         return contexts;
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.storage.impl;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+import org.ldaptive.DefaultConnectionFactory;
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.pool.BlockingConnectionPool;
+import org.ldaptive.pool.PooledConnectionFactory;
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.StorageService;
+import org.opensaml.storage.StorageServiceTest;
+import org.opensaml.storage.VersionMismatchException;
+import org.testng.Assert;
+import org.testng.annotations.AfterTest;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
+
+/**
+ * Test of {@link LDAPRecordStorageService} implementation.
+ */
+public class LDAPRecordStorageServiceTest extends StorageServiceTest {
+
+    /** DN beneath which records are stored. */
+    private final String baseDn = "ou=storage,dc=shibboleth,dc=net";
+
+    /** In-memory directory server. */
+    private InMemoryDirectoryServer directoryServer;
+
+    /**
+     * Creates an UnboundID in-memory directory server without a schema, so that record attributes need no
+     * definitions.
+     * 
+     * @throws LDAPException if the in-memory directory server cannot be created
+     */
+    @BeforeTest public void setupDirectoryServer() throws LDAPException {
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig("dc=shibboleth,dc=net");
+        config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("default", 10390));
+        config.setSchema(null);
+        directoryServer = new InMemoryDirectoryServer(config);
+        directoryServer.add("dn: dc=shibboleth,dc=net", "objectClass: top", "objectClass: domain", "dc: shibboleth");
+        directoryServer.add("dn: " + baseDn, "objectClass: top", "objectClass: organizationalUnit", "ou: storage");
+        directoryServer.startListening();
+    }
+
+    /**
+     * Shutdown the in-memory directory server.
+     */
+    @AfterTest public void teardownDirectoryServer() {
+        directoryServer.shutDown(true);
+    }
+
+    @Nonnull protected StorageService getStorageService() {
+        LDAPRecordStorageService ss = new LDAPRecordStorageService(
+                new PooledConnectionFactory(new BlockingConnectionPool(new DefaultConnectionFactory(
+                        "ldap://localhost:10390"))),
+                baseDn,
+                new LdapAttribute("objectClass", "top", "storageRecord"));
+        ss.setId("test");
+        // small pages so that context operations span several of them
+        ss.setPageSize(7);
+        return ss;
+    }
+
+    @Test
+    public void replaceExpired() throws IOException, InterruptedException {
+        String context = Long.toString(random.nextLong());
+
+        Assert.assertTrue(shared.create(context, "key", "one", System.currentTimeMillis() + 100));
+        Thread.sleep(200);
+        Assert.assertFalse(shared.update(context, "key", "two", null));
+        Assert.assertTrue(shared.create(context, "key", "two", null));
+        StorageRecord rec = shared.read(context, "key");
+        Assert.assertNotNull(rec);
+        Assert.assertEquals(rec.getValue(), "two");
+        Assert.assertNull(rec.getExpiration());
+        Assert.assertEquals(rec.getVersion(), 1);
+        Assert.assertFalse(shared.create(context, "key", "three", null));
+    }
+
+    @Test
+    public void deleteWithVersion() throws IOException, VersionMismatchException, LDAPException {
+        String context = Long.toString(random.nextLong());
+        String dn = ((LDAPRecordStorageService) shared).getRecordDn(context, "key");
+
+        Assert.assertTrue(shared.create(context, "key", "one", null));
+        Assert.assertTrue(shared.update(context, "key", "two", null));
+        try {
+            shared.deleteWithVersion(1, context, "key");
+            Assert.fail("Delete with a stale version should have failed");
+        } catch (VersionMismatchException e) {
+            // expected
+        }
+        Assert.assertEquals(shared.read(context, "key").getValue(), "two");
+
+        Assert.assertTrue(shared.deleteWithVersion(2, context, "key"));
+        Assert.assertNull(directoryServer.getEntry(dn));
+        Assert.assertNull(shared.read(context, "key"));
+        Assert.assertFalse(shared.deleteWithVersion(2, context, "key"));
+    }
+
+    @Test
+    public void createAfterDeleteWithVersion() throws IOException, VersionMismatchException, LDAPException {
+        String context = Long.toString(random.nextLong());
+        String dn = ((LDAPRecordStorageService) shared).getRecordDn(context, "key");
+
+        Assert.assertTrue(shared.create(context, "key", "one", null));
+        Assert.assertTrue(shared.deleteWithVersion(1, context, "key"));
+        Assert.assertTrue(shared.create(context, "key", "two", null));
+        Assert.assertEquals(shared.read(context, "key").getValue(), "two");
+
+        // A versioned delete which has cleared the record but not yet deleted its entry.
+        directoryServer.modify(dn,
+                new Modification(ModificationType.DELETE, LDAPRecordStorageService.VERSION_ATTRIBUTE),
+                new Modification(ModificationType.DELETE, LDAPRecordStorageService.VALUE_ATTRIBUTE),
+                new Modification(ModificationType.REPLACE, LDAPRecordStorageService.EXPIRATION_ATTRIBUTE, "0"));
+        Assert.assertNull(shared.read(context, "key"));
+        Assert.assertTrue(shared.create(context, "key", "three", System.currentTimeMillis() + 300000));
+        StorageRecord rec = shared.read(context, "key");
+        Assert.assertNotNull(rec);
+        Assert.assertEquals(rec.getValue(), "three");
+        Assert.assertEquals(rec.getVersion(), 1);
+        Assert.assertNotNull(rec.getExpiration());
+        Assert.assertFalse(shared.create(context, "key", "four", null));
+    }
+
+    @Test
+    public void contextOperations() throws IOException, InterruptedException, LDAPException {
+        String context = Long.toString(random.nextLong());
+
+        for (int i = 1; i <= 20; i++) {
+            shared.create(context, Integer.toString(i), Integer.toString(i + 1),
+                    i % 2 == 0 ? System.currentTimeMillis() + 100 : null);
+        }
+        Thread.sleep(200);
+        shared.reap(context);
+        Assert.assertNull(directoryServer.getEntry(
+                ((LDAPRecordStorageService) shared).getRecordDn(context, "2")));
+        Assert.assertNotNull(directoryServer.getEntry(
+                ((LDAPRecordStorageService) shared).getRecordDn(context, "1")));
+
+        long expiration = System.currentTimeMillis() + 300000;
+        shared.updateContextExpiration(context, expiration);
+        for (int i = 1; i <= 20; i += 2) {
+            StorageRecord rec = shared.read(context, Integer.toString(i));
+            Assert.assertNotNull(rec);
+            Assert.assertEquals(rec.getExpiration(), Long.valueOf(expiration));
+        }
+
+        shared.deleteContext(context);
+        for (int i = 1; i <= 20; i++) {
+            Assert.assertNull(shared.read(context, Integer.toString(i)));
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.storage.impl;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.StorageService;
+import org.opensaml.storage.StorageServiceTest;
+import org.opensaml.storage.VersionMismatchException;
+import org.opensaml.storage.impl.NearCacheStorageService.CacheMode;
+import org.opensaml.storage.impl.NearCacheStorageService.ContextPolicy;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test of {@link NearCacheStorageService} implementation.
+ */
+public class NearCacheStorageServiceTest extends StorageServiceTest {
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull protected StorageService getStorageService() {
+        NearCacheStorageService ss = new NearCacheStorageService();
+        ss.setId("test");
+        ss.setRemoteStorage(newRemote());
+        return ss;
+    }
+    
+    @Test
+    public void revalidation() throws ComponentInitializationException, IOException, InterruptedException {
+        MemoryStorageService remote = newRemote();
+        NearCacheStorageService ss = newNearCache(remote, new ContextPolicy(CacheMode.WRITE_THROUGH, 100));
+        try {
+            Assert.assertTrue(ss.create("context", "key", "value1", null));
+            Assert.assertEquals(ss.read("context", "key").getValue(), "value1");
+            Assert.assertEquals(ss.getHitCount(), 1);
+            
+            // A change made behind the cache is only seen once the cached copy is revalidated.
+            Assert.assertTrue(remote.update("context", "key", "value2", null));
+            Assert.assertEquals(ss.read("context", "key").getValue(), "value1");
+            Thread.sleep(150);
+            StorageRecord record = ss.read("context", "key");
+            Assert.assertEquals(record.getValue(), "value2");
+            Assert.assertEquals(record.getVersion(), 2);
+            
+            Thread.sleep(150);
+            Assert.assertEquals(ss.read("context", "key").getValue(), "value2");
+            Assert.assertEquals(ss.getRevalidationCount(), 1);
+            
+            Assert.assertTrue(remote.delete("context", "key"));
+            Thread.sleep(150);
+            Assert.assertNull(ss.read("context", "key"));
+        } finally {
+            ss.destroy();
+            remote.destroy();
+        }
+    }
+
+    @Test
+    public void invalidation() throws ComponentInitializationException, IOException, VersionMismatchException {
+        MemoryStorageService remote = newRemote();
+        NearCacheStorageService ss = newNearCache(remote, new ContextPolicy(CacheMode.WRITE_THROUGH, 60000));
+        try {
+            Assert.assertTrue(ss.create("context", "key", "value1", null));
+            Assert.assertEquals(ss.updateWithVersion(1, "context", "key", "value2", null), Long.valueOf(2));
+            Assert.assertEquals(ss.read("context", "key").getValue(), "value2");
+            Assert.assertEquals(ss.read("context", "key", 2).getSecond(), null);
+
+            try {
+                ss.updateWithVersion(1, "context", "key", "value3", null);
+                Assert.fail("Version mismatch not detected");
+            } catch (final VersionMismatchException e) {
+                
+            }
+
+            Assert.assertTrue(ss.update("context", "key", "value3", null));
+            Assert.assertEquals(ss.read("context", "key").getValue(), "value3");
+            
+            Assert.assertTrue(ss.create("context", "key2", "value", null));
+            ss.deleteContext("context");
+            Assert.assertNull(ss.read("context", "key"));
+            Assert.assertNull(ss.read("context", "key2"));
+
+            // A dropped context is cached afresh.
+            Assert.assertTrue(ss.create("context", "key", "value4", null));
+            final long hits = ss.getHitCount();
+            Assert.assertEquals(ss.read("context", "key").getValue(), "value4");
+            Assert.assertEquals(ss.getHitCount(), hits + 1);
+        } finally {
+            ss.destroy();
+            remote.destroy();
+        }
+    }
+
+    @Test
+    public void writeBehind() throws ComponentInitializationException, IOException {
+        MemoryStorageService remote = newRemote();
+        NearCacheStorageService ss = newNearCache(remote, new ContextPolicy(CacheMode.WRITE_BEHIND, 60000));
+        try {
+            Assert.assertTrue(ss.create("context", "key", "value1", null));
+            Assert.assertTrue(ss.update("context", "key", "value2", null));
+            Assert.assertFalse(ss.update("context", "missing", "value", null));
+            StorageRecord record = ss.read("context", "key");
+            Assert.assertEquals(record.getValue(), "value2");
+            Assert.assertEquals(record.getVersion(), 2);
+
+            // Synchronous operations are ordered after pending background writes.
+            Assert.assertTrue(ss.delete("context", "key"));
+            Assert.assertNull(remote.read("context", "key"));
+        } finally {
+            ss.destroy();
+            remote.destroy();
+        }
+    }
+
+    @Test
+    public void writeBehindReadYourWrites() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        MemoryStorageService remote = new MemoryStorageService() {
+            @Override public boolean update(String context, String key, String value, Long expiration)
+                    throws IOException {
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return super.update(context, key, value, expiration);
+            }
+        };
+        remote.setId("remote");
+        remote.initialize();
+        NearCacheStorageService ss = new NearCacheStorageService();
+        ss.setId("test");
+        ss.setRemoteStorage(remote);
+        ss.setDefaultPolicy(new ContextPolicy(CacheMode.WRITE_BEHIND, 0));
+        ss.setMaxCacheEntries(1);
+        ss.initialize();
+        try {
+            Assert.assertTrue(ss.create("context", "other", "value", null));
+            Assert.assertTrue(ss.create("context", "key", "value1", null));
+            Assert.assertTrue(ss.update("context", "key", "value2", null));
+
+            // A record with a pending write is served from the cache without revalidation.
+            Assert.assertEquals(ss.read("context", "key").getValue(), "value2");
+            Assert.assertEquals(remote.read("context", "key").getValue(), "value1");
+
+            // Once evicted, it is read after the pending write has been applied.
+            Assert.assertEquals(ss.read("context", "other").getValue(), "value");
+            ExecutorService reader = Executors.newSingleThreadExecutor();
+            try {
+                final NearCacheStorageService nearCache = ss;
+                Future<StorageRecord> future = reader.submit(new Callable<StorageRecord>() {
+                    public StorageRecord call() throws IOException {
+                        return nearCache.read("context", "key");
+                    }
+                });
+                Thread.sleep(100);
+                Assert.assertFalse(future.isDone());
+                release.countDown();
+                Assert.assertEquals(future.get(5, TimeUnit.SECONDS).getValue(), "value2");
+            } finally {
+                reader.shutdownNow();
+            }
+        } finally {
+            release.countDown();
+            ss.destroy();
+            remote.destroy();
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void writeBehindStripedByContext() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        MemoryStorageService remote = new MemoryStorageService() {
+            @Override public boolean update(String context, String key, String value, Long expiration)
+                    throws IOException {
+                if ("a".equals(context)) {
+                    try {
+                        release.await();
+                    } catch (final InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                return super.update(context, key, value, expiration);
+            }
+        };
+        remote.setId("remote");
+        remote.initialize();
+        NearCacheStorageService ss = new NearCacheStorageService();
+        ss.setId("test");
+        ss.setRemoteStorage(remote);
+        ss.setDefaultPolicy(new ContextPolicy(CacheMode.WRITE_BEHIND, 60000));
+        ss.setWriteBehindThreads(2);
+        ss.initialize();
+        try {
+            Assert.assertTrue(ss.create("a", "key", "value1", null));
+            Assert.assertTrue(ss.create("b", "key", "value1", null));
+            Assert.assertTrue(ss.update("a", "key", "value2", null));
+            Assert.assertTrue(ss.update("b", "key", "value2", null));
+
+            // Contexts "a" and "b" hash to different executors, so a stalled write in one does not hold up the other.
+            Assert.assertTrue(ss.delete("b", "key"));
+            Assert.assertNull(remote.read("b", "key"));
+            Assert.assertEquals(remote.read("a", "key").getValue(), "value1");
+        } finally {
+            release.countDown();
+            ss.destroy();
+            remote.destroy();
+        }
+    }
+
+    @Test
+    public void uncachedContext() throws ComponentInitializationException, IOException {
+        MemoryStorageService remote = newRemote();
+        NearCacheStorageService ss = new NearCacheStorageService();
+        ss.setId("test");
+        ss.setRemoteStorage(remote);
+        ss.setContextPolicies(Collections.singletonMap("uncached", new ContextPolicy(CacheMode.NONE, 0)));
+        ss.initialize();
+        try {
+            Assert.assertTrue(ss.create("uncached", "key", "value1", null));
+            Assert.assertTrue(remote.update("uncached", "key", "value2", null));
+            Assert.assertEquals(ss.read("uncached", "key").getValue(), "value2");
+            Assert.assertEquals(ss.getHitCount(), 0);
+        } finally {
+            ss.destroy();
+            remote.destroy();
+        }
+    }
+
+    private MemoryStorageService newRemote() {
+        MemoryStorageService remote = new MemoryStorageService();
+        remote.setId("remote");
+        try {
+            remote.initialize();
+        } catch (final ComponentInitializationException e) {
+            throw new IllegalStateException(e);
+        }
+        return remote;
+    }
+
+    private NearCacheStorageService newNearCache(StorageService remote, ContextPolicy policy)
+            throws ComponentInitializationException {
+        NearCacheStorageService ss = new NearCacheStorageService();
+        ss.setId("test");
+        ss.setRemoteStorage(remote);
+        ss.setDefaultPolicy(policy);
+        ss.initialize();
+        return ss;
+    }
+
+}
@@ -17,6 +17,13 @@
 
 package org.opensaml.storage.impl;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.opensaml.storage.ReplayCache;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.Test;
@@ -113,4 +120,79 @@ public class ReplayCacheTest {
         Assert.assertTrue(replayCache.check(context, messageID, System.currentTimeMillis() + 1000),
                 "Message was not replay, previous cache entry should have expired");
     }
-}
\ No newline at end of file
+
+    /**
+     * Test concurrent checks of the same message ID against storage with an atomic create.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrentChecks() throws Exception {
+        Assert.assertTrue(storageService.isAtomicCreate());
+        Assert.assertEquals(countAccepted(replayCache, 8, 200), 200);
+    }
+
+    /**
+     * Test concurrent checks of the same message ID against storage without an atomic create.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrentChecksNonAtomic() throws Exception {
+        final MemoryStorageService nonAtomic = new MemoryStorageService() {
+            public boolean isAtomicCreate() {
+                return false;
+            }
+        };
+        nonAtomic.setId("nonatomic");
+        nonAtomic.initialize();
+        
+        final ReplayCache cache = new ReplayCache();
+        cache.setStorage(nonAtomic);
+        cache.initialize();
+        try {
+            Assert.assertEquals(countAccepted(cache, 8, 200), 200);
+        } finally {
+            cache.destroy();
+            nonAtomic.destroy();
+        }
+    }
+
+    /**
+     * Check each of a number of message IDs from several threads at once.
+     * 
+     * @param cache the replay cache
+     * @param threads the number of threads
+     * @param ids the number of message IDs
+     * 
+     * @return the number of checks which passed
+     * @throws Exception
+     */
+    private int countAccepted(final ReplayCache cache, final int threads, final int ids) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() {
+                        int accepted = 0;
+                        for (int id = 0; id < ids; id++) {
+                            if (cache.check(context, messageID + id, expiration)) {
+                                accepted++;
+                            }
+                        }
+                        return accepted;
+                    }
+                }));
+            }
+            
+            int accepted = 0;
+            for (final Future<Integer> result : results) {
+                accepted += result.get();
+            }
+            return accepted;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development, 
+ * Inc. (UCAID) under one or more contributor license agreements.  See the 
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache 
+ * License, Version 2.0 (the "License"); you may not use this file except in 
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaml.storage.impl.client;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.opensaml.storage.MutableStorageRecord;
+import org.opensaml.storage.impl.client.ClientStorageService.ClientStorageServiceStore;
+import org.opensaml.storage.impl.client.ClientStorageService.ClientStorageSource;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Unit test for {@link ClientStorageBinaryFormat}. */
+public class ClientStorageBinaryFormatTest extends AbstractBaseClientStorageServiceTest {
+
+    private Map<String, Map<String, MutableStorageRecord>> contextMap;
+
+    private long now;
+
+    @BeforeMethod public void setUp() throws ComponentInitializationException {
+        init();
+
+        now = System.currentTimeMillis();
+        contextMap = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            final Map<String, MutableStorageRecord> records = new HashMap<>();
+            for (int j = 0; j < 10; j++) {
+                records.put("key" + j, new MutableStorageRecord("value of record " + j + " in context " + i,
+                        j % 2 == 0 ? now + 3600000 + j : null));
+            }
+            contextMap.put("context" + i, records);
+        }
+        contextMap.get("context0").put("expired", new MutableStorageRecord("gone", now - 1));
+        contextMap.put("empty", new HashMap<String, MutableStorageRecord>());
+    }
+
+    @Test public void testRoundTrip() throws IOException {
+        for (final boolean compress : new boolean[] {false, true}) {
+            final String raw = ClientStorageBinaryFormat.encode(contextMap, now, compress);
+            Assert.assertNotNull(raw);
+            Assert.assertTrue(ClientStorageBinaryFormat.isBinary(raw));
+
+            final Map<String, Map<String, MutableStorageRecord>> decoded = new HashMap<>();
+            ClientStorageBinaryFormat.decode(raw, decoded);
+            Assert.assertEquals(decoded.size(), 5);
+            Assert.assertFalse(decoded.get("context0").containsKey("expired"));
+            for (int i = 0; i < 5; i++) {
+                final Map<String, MutableStorageRecord> records = decoded.get("context" + i);
+                Assert.assertEquals(records.size(), 10);
+                for (int j = 0; j < 10; j++) {
+                    final MutableStorageRecord record = records.get("key" + j);
+                    Assert.assertEquals(record.getValue(), "value of record " + j + " in context " + i);
+                    Assert.assertEquals(record.getExpiration(), j % 2 == 0 ? Long.valueOf(now + 3600000 + j) : null);
+                }
+            }
+        }
+    }
+
+    @Test public void testCompression() throws IOException {
+        final String plain = ClientStorageBinaryFormat.encode(contextMap, now, false);
+        final String compressed = ClientStorageBinaryFormat.encode(contextMap, now, true);
+        Assert.assertTrue(compressed.length() < plain.length());
+    }
+
+    @Test public void testEmpty() throws IOException {
+        contextMap.clear();
+        contextMap.put("context", new HashMap<String, MutableStorageRecord>());
+        contextMap.get("context").put("expired", new MutableStorageRecord("gone", now - 1));
+        Assert.assertNull(ClientStorageBinaryFormat.encode(contextMap, now, true));
+    }
+
+    @Test public void testLegacyJSON() throws ComponentInitializationException {
+        final ClientStorageService ss = getStorageService();
+        final ClientStorageServiceStore store = ss.new ClientStorageServiceStore(
+                "{\"context\":{\"key\":{\"v\":\"value\",\"x\":" + (now + 60000) + "},\"other\":{\"v\":\"v2\"}}}",
+                ClientStorageSource.COOKIE);
+        Assert.assertFalse(store.isDirty());
+        final Map<String, MutableStorageRecord> records = store.getContextMap().get("context");
+        Assert.assertEquals(records.get("key").getValue(), "value");
+        Assert.assertEquals(records.get("key").getExpiration(), Long.valueOf(now + 60000));
+        Assert.assertNull(records.get("other").getExpiration());
+    }
+
+    @Test public void testCorrupt() throws ComponentInitializationException {
+        final ClientStorageService ss = getStorageService();
+        final ClientStorageServiceStore store = ss.new ClientStorageServiceStore("AQBub3QgdmFsaWQ=",
+                ClientStorageSource.COOKIE);
+        Assert.assertTrue(store.isDirty());
+        Assert.assertTrue(store.getContextMap().isEmpty());
+    }
+}
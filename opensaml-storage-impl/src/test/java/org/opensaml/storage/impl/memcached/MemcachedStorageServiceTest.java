@@ -19,7 +19,9 @@ import org.testng.annotations.Test;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -203,6 +205,47 @@ public class MemcachedStorageServiceTest {
         }
     }
 
+    @Test
+    public void testBulkOperations() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        final Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            values.put(generator.generate(), generator.generate());
+        }
+        final String existing = values.keySet().iterator().next();
+        assertTrue(keyTrackingService.create(context, existing, values.get(existing), null));
+        final Set<String> created = keyTrackingService.createAll(context, values, null);
+        assertEquals(created.size(), 9);
+        assertFalse(created.contains(existing));
+        final Map<String, StorageRecord> records = keyTrackingService.readAll(context, values.keySet());
+        assertEquals(records.size(), 10);
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            assertEquals(records.get(entry.getKey()).getValue(), entry.getValue());
+            assertTrue(records.get(entry.getKey()).getVersion() > 0);
+        }
+        assertEquals(keyTrackingService.deleteAll(context, created), created);
+        assertEquals(keyTrackingService.readAll(context, values.keySet()).keySet(),
+                Collections.singleton(existing));
+        keyTrackingService.updateContextExpiration(context, System.currentTimeMillis() - 5000);
+        assertNull(keyTrackingService.read(context, existing));
+    }
+
+    @Test
+    public void testNamespaceCache() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        service.setNamespaceCacheTTL(5000);
+        try {
+            assertTrue(service.create(context, "key", "value", null));
+            assertEquals(service.read(context, "key").getValue(), "value");
+            service.deleteContext(context);
+            assertNull(service.read(context, "key"));
+        } finally {
+            service.setNamespaceCacheTTL(0);
+        }
+    }
+
     @AfterClass
     public void tearDown() {
         service.destroy();